@@ -0,0 +1,164 @@
+package de.blau.android;
+
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import de.blau.android.osm.OsmElement;
+
+/**
+ * Result of a hit test, elements and their screen distance from the touched position
+ *
+ * Elements and distances are held in parallel arrays so that no boxing is necessary, sorting is done in place.
+ *
+ * @param <T> the element type
+ */
+class HitList<T extends OsmElement> {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private Object[] elements  = new Object[16];
+    private double[] distances = new double[16];
+    private int      size      = 0;
+
+    /**
+     * Add an element
+     *
+     * @param element the element
+     * @param distance the distance of the element in screen coordinates
+     */
+    void add(@NonNull T element, double distance) {
+        if (size == elements.length) {
+            Object[] newElements = new Object[size * 2];
+            System.arraycopy(elements, 0, newElements, 0, size);
+            elements = newElements;
+            double[] newDistances = new double[size * 2];
+            System.arraycopy(distances, 0, newDistances, 0, size);
+            distances = newDistances;
+        }
+        elements[size] = element;
+        distances[size] = distance;
+        size++;
+    }
+
+    /**
+     * Get the number of elements
+     *
+     * @return the element count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get an element
+     *
+     * @param i the position of the element
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    T get(int i) {
+        return (T) elements[i];
+    }
+
+    /**
+     * Get the distance for an element
+     *
+     * @param i the position of the element
+     * @return the distance
+     */
+    double getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Get the element with the smallest distance
+     *
+     * @return the nearest element or null if the list is empty
+     */
+    @Nullable
+    T getNearest() {
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (distances[i] < bestDistance) {
+                best = i;
+                bestDistance = distances[i];
+            }
+        }
+        return best >= 0 ? get(best) : null;
+    }
+
+    /**
+     * Sort the elements by ascending distance and add them to a List
+     *
+     * @param <O> the type of the elements in the List
+     * @param result the List to add the elements to
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    <O extends List<? super T>> O sortInto(@NonNull O result) {
+        sort(0, size - 1);
+        for (int i = 0; i < size; i++) {
+            result.add((T) elements[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Sort a range by distance, quicksort for larger ranges, insertion sort for small ones
+     *
+     * @param low the first position
+     * @param high the last position
+     */
+    private void sort(int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            double pivot = distances[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse on the smaller part to limit stack depth
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && distances[j - 1] > distances[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Swap two entries
+     *
+     * @param i the position of the first entry
+     * @param j the position of the second entry
+     */
+    private void swap(int i, int j) {
+        Object tempElement = elements[i];
+        elements[i] = elements[j];
+        elements[j] = tempElement;
+        double tempDistance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = tempDistance;
+    }
+}
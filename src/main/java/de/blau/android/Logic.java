@@ -14,12 +14,10 @@ import java.net.ProtocolException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -168,11 +166,6 @@ public class Logic {
      */
     private static final String EDITSTATE_FILENAME = "edit.state";
 
-    /** Sorter instance for sorting nodes by distance */
-    private static final DistanceSorter<OsmElement, Node> nodeSorter = new DistanceSorter<>();
-    /** Sorter instance for sorting ways by distance */
-    private static final DistanceSorter<Way, Way>         waySorter  = new DistanceSorter<>();
-
     /**
      * maximum number of nodes in a way for it still to be moveable, arbitrary number for now
      */
@@ -331,6 +324,7 @@ public class Logic {
     void setPrefs(final Preferences prefs) {
         this.prefs = prefs;
         DataStyle.switchTo(prefs.getMapProfile());
+        getDelegator().setUseJournal(prefs.isStateJournalEnabled());
     }
 
     /**
@@ -783,9 +777,10 @@ public class Logic {
      * 
      * @param x x display coordinate
      * @param y y display coordinate
-     * @return a hash map mapping Ways to distances
+     * @return a HitList containing the Ways and their distances
      */
-    private HashMap<Way, Double> getClickedWaysWithDistances(final float x, final float y) {
+    @NonNull
+    private HitList<Way> getClickedWaysWithDistances(final float x, final float y) {
         return getClickedWaysWithDistances(true, x, y);
     }
 
@@ -795,13 +790,14 @@ public class Logic {
      * @param includeClosed include closed ways in the result if true
      * @param x x display coordinate
      * @param y y display coordinate
-     * @return a hash map mapping Ways to distances
+     * @return a HitList containing the Ways and their distances
      */
-    private HashMap<Way, Double> getClickedWaysWithDistances(boolean includeClosed, final float x, final float y) {
-        HashMap<Way, Double> result = new HashMap<>();
+    @NonNull
+    private HitList<Way> getClickedWaysWithDistances(boolean includeClosed, final float x, final float y) {
+        HitList<Way> result = new HitList<>();
         boolean showWayIcons = prefs.getShowWayIcons();
 
-        List<Way> ways = filter != null ? filter.getVisibleWays() : getDelegator().getCurrentStorage().getWays(map.getViewBox());
+        List<Way> ways = filter != null ? filter.getVisibleWays() : getDelegator().getCurrentStorage().getWays(toleranceBox(x, y));
 
         for (Way way : ways) {
             if (way.isClosed() && !includeClosed) {
@@ -819,20 +815,21 @@ public class Logic {
             double X = 0;
             float node1X = Float.MAX_VALUE;
             float node1Y = Float.MAX_VALUE;
+            double[] mercatorLats = way.getMercatorLatitudes();
             // Iterate over all WayNodes, but not the last one.
             for (int k = 0, wayNodesSize = wayNodes.size(); k < wayNodesSize - 1; ++k) {
                 Node node1 = wayNodes.get(k);
                 Node node2 = wayNodes.get(k + 1);
                 if (node1X == Float.MAX_VALUE) {
                     node1X = lonE7ToX(node1.getLon());
-                    node1Y = latE7ToY(node1.getLat());
+                    node1Y = mercatorToY(mercatorLats[k]);
                 }
                 float node2X = lonE7ToX(node2.getLon());
-                float node2Y = latE7ToY(node2.getLat());
+                float node2Y = mercatorToY(mercatorLats[k + 1]);
 
                 double distance = isPositionOnLine(x, y, node1X, node1Y, node2X, node2Y);
                 if (distance >= 0) {
-                    result.put(way, distance);
+                    result.add(way, distance);
                     added = true;
                     break;
                 }
@@ -849,7 +846,7 @@ public class Logic {
                 X = X / (3 * A); // NOSONAR nonZero tests for zero
                 double distance = Math.hypot(x - X, y - Y);
                 if (distance < DataStyle.getCurrent().getNodeToleranceValue()) {
-                    result.put(way, distance);
+                    result.add(way, distance);
                 }
             }
         }
@@ -894,7 +891,8 @@ public class Logic {
         Handle result = null;
         double bestDistance = Double.MAX_VALUE;
 
-        for (Way way : getDelegator().getCurrentStorage().getWays()) {
+        // a handle is in the middle of a segment so the way has to intersect the box around the click
+        for (Way way : getDelegator().getCurrentStorage().getWays(toleranceBox(x, y))) {
             List<Node> wayNodes = way.getNodes();
 
             if (clickableElements != null && !clickableElements.contains(way)) {
@@ -944,18 +942,43 @@ public class Logic {
     }
 
     /**
-     * Calculates the on-screen distance between a node and the screen coordinate of a click. Returns null if the node
+     * Calculates the on-screen distance between a node and the screen coordinate of a click. Returns -1 if the node
      * was outside the click tolerance.
      * 
      * @param node the node
      * @param x the x coordinate of the clicked point
      * @param y the y coordinate of the clicked point
-     * @return The distance between the clicked point and the node in px if the node was within the tolerance value,
-     *         null otherwise
+     * @return The distance between the clicked point and the node in px if the node was within the tolerance value, -1
+     *         otherwise
      */
-    @Nullable
-    private Double clickDistance(@NonNull Node node, final float x, final float y) {
-        return clickDistance(node, x, y, node.isTagged() ? DataStyle.getCurrent().getNodeToleranceValue() : DataStyle.getCurrent().getWayToleranceValue() / 2);
+    private double clickDistance(@NonNull Node node, final float x, final float y) {
+        float tolerance = node.isTagged() ? DataStyle.getCurrent().getNodeToleranceValue() : DataStyle.getCurrent().getWayToleranceValue() / 2;
+        float differenceX = Math.abs(lonE7ToX(node.getLon()) - x);
+        if (differenceX > tolerance) {
+            return -1;
+        }
+        float differenceY = Math.abs(latE7ToY(node.getLat()) - y);
+        if (differenceY > tolerance) {
+            return -1;
+        }
+        double dist = Math.hypot(differenceX, differenceY);
+        return (dist > tolerance) ? -1 : dist;
+    }
+
+    /**
+     * Get a bounding box around a screen position that contains everything that is within the largest click
+     * tolerance
+     * 
+     * @param x the x coordinate of the clicked point
+     * @param y the y coordinate of the clicked point
+     * @return a BoundingBox
+     */
+    @NonNull
+    private BoundingBox toleranceBox(final float x, final float y) {
+        DataStyle style = DataStyle.getCurrent();
+        // the way tolerance is used in full for mid segment handles, add 1 pixel to avoid rounding issues
+        float tolerance = Math.max(style.getNodeToleranceValue(), style.getWayToleranceValue()) + 1f;
+        return new BoundingBox(xToLonE7(x - tolerance), yToLatE7(y + tolerance), xToLonE7(x + tolerance), yToLatE7(y - tolerance));
     }
 
     /**
@@ -987,14 +1010,18 @@ public class Logic {
      * @param x x display coordinate
      * @param y y display coordinate
      * @param inDownloadOnly if true the node has to be new or in one of the downloaded bounding boxes
-     * @return a hash map mapping Nodes to distances
+     * @return a HitList containing the Nodes and their distances
      */
     @NonNull
-    private HashMap<Node, Double> getClickedNodesWithDistances(final float x, final float y, boolean inDownloadOnly) {
-        HashMap<Node, Double> result = new HashMap<>();
-        List<Node> nodes = filter != null ? filter.getVisibleNodes() : getDelegator().getCurrentStorage().getNodes(map.getViewBox());
+    private HitList<Node> getClickedNodesWithDistances(final float x, final float y, boolean inDownloadOnly) {
+        HitList<Node> result = new HitList<>();
+        List<Node> nodes = filter != null ? filter.getVisibleNodes() : getDelegator().getCurrentStorage().getNodes(toleranceBox(x, y));
         if (filter != null && getSelectedNodes() != null) { // selected nodes are always visible if a filter is applied
-            nodes.addAll(getSelectedNodes());
+            for (Node n : getSelectedNodes()) {
+                if (!nodes.contains(n)) {
+                    nodes.add(n);
+                }
+            }
         }
         for (Node node : nodes) {
             if (clickableElements != null && !clickableElements.contains(node)) {
@@ -1005,9 +1032,9 @@ public class Logic {
             int lon = node.getLon();
 
             if (!inDownloadOnly || node.getState() != OsmElement.STATE_UNCHANGED || getDelegator().isInDownload(lon, lat)) {
-                Double dist = clickDistance(node, x, y);
-                if (dist != null) {
-                    result.put(node, dist);
+                double dist = clickDistance(node, x, y);
+                if (dist >= 0) {
+                    result.add(node, dist);
                 }
             }
         }
@@ -1022,7 +1049,7 @@ public class Logic {
      * @return all nodes within tolerance found in the currentStorage node-list, ordered ascending by distance.
      */
     public List<OsmElement> getClickedNodes(final float x, final float y) {
-        return nodeSorter.sort(getClickedNodesWithDistances(x, y, true));
+        return getClickedNodesWithDistances(x, y, true).sortInto(new ArrayList<OsmElement>());
     }
 
     /**
@@ -1052,17 +1079,9 @@ public class Logic {
      * @param y display-coordinate.
      * @return the nearest node found in the current-Storage node-list. null, when no node was found.
      */
+    @Nullable
     private Node getClickedNode(final float x, final float y) {
-        Node bestNode = null;
-        Double bestDistance = Double.MAX_VALUE;
-        HashMap<Node, Double> candidates = getClickedNodesWithDistances(x, y, false);
-        for (Entry<Node, Double> candidate : candidates.entrySet()) {
-            if (candidate.getValue() < bestDistance) {
-                bestNode = candidate.getKey();
-                bestDistance = candidate.getValue();
-            }
-        }
-        return bestNode;
+        return getClickedNodesWithDistances(x, y, false).getNearest();
     }
 
     /**
@@ -1085,7 +1104,7 @@ public class Logic {
      * @return the ways
      */
     public List<Way> getClickedWays(boolean includeClosed, final float x, final float y) {
-        return waySorter.sort(getClickedWaysWithDistances(includeClosed, x, y));
+        return getClickedWaysWithDistances(includeClosed, x, y).sortInto(new ArrayList<Way>());
     }
 
     /**
@@ -1097,16 +1116,7 @@ public class Logic {
      */
     @Nullable
     private Way getClickedWay(final float x, final float y) {
-        Way bestWay = null;
-        Double bestDistance = Double.MAX_VALUE;
-        HashMap<Way, Double> candidates = getClickedWaysWithDistances(x, y);
-        for (Entry<Way, Double> candidate : candidates.entrySet()) {
-            if (candidate.getValue() < bestDistance) {
-                bestWay = candidate.getKey();
-                bestDistance = candidate.getValue();
-            }
-        }
-        return bestWay;
+        return getClickedWaysWithDistances(x, y).getNearest();
     }
 
     /**
@@ -1987,11 +1997,12 @@ public class Logic {
         double closestDistance = Double.MAX_VALUE;
         float jx = lonE7ToX(nodeToJoin.getLon());
         float jy = latE7ToY(nodeToJoin.getLat());
+        BoundingBox box = toleranceBox(jx, jy);
         // start by looking for the closest nodes
-        for (Node node : getDelegator().getCurrentStorage().getNodes()) {
-            if (!nodeToJoin.equals(node)) {
-                Double distance = clickDistance(node, jx, jy);
-                if (distance != null && distance < closestDistance && (filter == null || filter.include(node, false))) {
+        for (Node node : getDelegator().getCurrentStorage().getNodes(box)) {
+            if (nodeToJoin != node) {
+                double distance = clickDistance(node, jx, jy);
+                if (distance >= 0 && distance < closestDistance && (filter == null || filter.include(node, false))) {
                     closestDistance = distance;
                     closestElement = node;
                 }
@@ -1999,7 +2010,7 @@ public class Logic {
         }
         if (closestElement == null) {
             // fall back to closest ways
-            for (Way way : getDelegator().getCurrentStorage().getWays()) {
+            for (Way way : getDelegator().getCurrentStorage().getWays(box)) {
                 if (!way.hasNode(nodeToJoin)) {
                     List<Node> wayNodes = way.getNodes();
                     Node firstNode = wayNodes.get(0);
@@ -2448,7 +2459,7 @@ public class Logic {
                     long startTime = System.currentTimeMillis();
                     if (server.hasMapSplitSource()) {
                         Log.d(DEBUG_TAG, "downloadBox reading from MapSplit tile sourse");
-                        input = MapSplitSource.readBox(activity, server.getMapSplitSource(), mapBox);
+                        input = MapSplitSource.readBox(activity, server.getMapSplitSource(), mapBox, prefs.getMapSplitThreads());
                     } else {
                         try (InputStream in = prefs.getServer().getStreamForBox(activity, mapBox)) {
                             final OsmParser osmParser = new OsmParser();
@@ -2464,11 +2475,10 @@ public class Logic {
                         } else {
                             if (mapBox != null) {
                                 // if we are simply expanding the area no need keep the old bounding boxes
-                                List<BoundingBox> origBbs = getDelegator().getBoundingBoxes();
-                                List<BoundingBox> bbs = new ArrayList<>(origBbs);
+                                List<BoundingBox> bbs = new ArrayList<>(getDelegator().getBoundingBoxes());
                                 for (BoundingBox bb : bbs) {
                                     if (mapBox.contains(bb)) {
-                                        origBbs.remove(bb);
+                                        getDelegator().deleteBoundingBox(bb);
                                     }
                                 }
                                 getDelegator().addBoundingBox(mapBox);
@@ -2620,7 +2630,7 @@ public class Logic {
                 try {
                     Storage input;
                     if (server.hasMapSplitSource()) {
-                        input = MapSplitSource.readBox(context, server.getMapSplitSource(), mapBox);
+                        input = MapSplitSource.readBox(context, server.getMapSplitSource(), mapBox, prefs.getMapSplitThreads());
                     } else {
                         try (InputStream in = server.getStreamForBox(context, mapBox);) {
                             final OsmParser osmParser = new OsmParser();
@@ -2633,16 +2643,12 @@ public class Logic {
                     } else {
                         if (mapBox != null) {
                             // if we are simply expanding the area no need keep the old bounding boxes
-                            List<BoundingBox> origBbs = getDelegator().getBoundingBoxes();
-                            if (origBbs.size() == 1) { // replace original BB if still present
-                                if (getDelegator().isEmpty()) {
-                                    origBbs.clear();
-                                }
-                            }
-                            List<BoundingBox> bbs = new ArrayList<>(origBbs);
+                            List<BoundingBox> bbs = new ArrayList<>(getDelegator().getBoundingBoxes());
+                            // replace original BB if still present
+                            boolean replaceOriginal = bbs.size() == 1 && getDelegator().isEmpty();
                             for (BoundingBox bb : bbs) {
-                                if (mapBox.contains(bb)) {
-                                    origBbs.remove(bb);
+                                if (replaceOriginal || mapBox.contains(bb)) {
+                                    getDelegator().deleteBoundingBox(bb);
                                 }
                             }
                             getDelegator().addBoundingBox(mapBox);
@@ -4369,42 +4375,6 @@ public class Logic {
         return latE7ToY(node.getLat());
     }
 
-    /** Helper class for ordering nodes/ways by distance from a click */
-    private static class DistanceSorter<OUTTYPE extends OsmElement, T extends OUTTYPE> {
-        private Comparator<Entry<T, Double>> comparator = new Comparator<Entry<T, Double>>() {
-            @Override
-            public int compare(Entry<T, Double> lhs, Entry<T, Double> rhs) {
-                if (lhs == rhs) {
-                    return 0;
-                }
-                if (lhs.getValue() > rhs.getValue()) {
-                    return 1;
-                }
-                if (lhs.getValue() < rhs.getValue()) {
-                    return -1;
-                }
-                return 0;
-            }
-        };
-
-        /**
-         * Takes an element-distance map and returns the elements ordered by distance
-         *
-         * @param input Map with the element and distance
-         * @return a sorted List of the input
-         */
-        public ArrayList<OUTTYPE> sort(HashMap<T, Double> input) {
-            ArrayList<Entry<T, Double>> entries = new ArrayList<>(input.entrySet());
-            Collections.sort(entries, comparator);
-
-            ArrayList<OUTTYPE> result = new ArrayList<>(entries.size());
-            for (Entry<T, Double> entry : entries) {
-                result.add(entry.getKey());
-            }
-            return result;
-        }
-    }
-
     /**
      * Creates a turn restriction relation using the given objects as the members in the relation.
      * 
@@ -4926,6 +4896,16 @@ public class Logic {
         return GeoMath.latE7ToY(map.getHeight(), map.getWidth(), viewBox, latE7);
     }
 
+    /**
+     * Convenience function calls GeoMath.mercatorToY
+     * 
+     * @param mercator the mercator projected latitude
+     * @return the screen Y coordinate
+     */
+    private float mercatorToY(double mercator) {
+        return GeoMath.mercatorToY(map.getHeight(), map.getWidth(), viewBox, mercator);
+    }
+
     /**
      * @return the delegator
      */
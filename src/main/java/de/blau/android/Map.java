@@ -690,6 +690,10 @@ public class Map extends View implements IMapView {
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
         text = "fps: " + fps;
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
+        if (dataLayer != null) {
+            text = "Suppressed tolerance halos: " + dataLayer.getSuppressedHalos();
+            canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
+        }
         text = "hardware acceleration: " + (myIsHardwareAccelerated(canvas) ? "on" : "off");
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
         text = "zoom level: " + zoomLevel;
@@ -774,6 +778,38 @@ public class Map extends View implements IMapView {
      *            GPS track)
      */
     public void pointListToLinePointsArray(@NonNull final FloatPrimitiveList points, @NonNull final List<? extends GeoPoint> nodes) {
+        pointListToLinePointsArray(points, nodes, null, false);
+    }
+
+    /**
+     * Converts a Way to a list of screen-coordinate points for drawing using the cached mercator projected latitudes of
+     * the Way.
+     * 
+     * Only segments that are inside the ViewBox are included.
+     * 
+     * @param points list to (re-)use for projected points in the format expected by
+     *            {@link Canvas#drawLines(float[], Paint)
+     * @param way the Way
+     */
+    public void pointListToLinePointsArray(@NonNull final FloatPrimitiveList points, @NonNull final Way way) {
+        pointListToLinePointsArray(points, way.getNodes(), way.getMercatorLatitudes(), false);
+    }
+
+    /**
+     * Converts a geographical way/path/track to a list of screen-coordinate points for drawing.
+     * 
+     * Only segments that are inside the ViewBox are included.
+     * 
+     * @param points list to (re-)use for projected points in the format expected by
+     *            {@link Canvas#drawLines(float[], Paint)
+     * @param nodes An iterable (e.g. List or array) with GeoPoints of the line that should be drawn (e.g. a Way or a
+     *            GPS track)
+     * @param mercatorLats optional mercator projected latitudes of the nodes, as returned by
+     *            {@link Way#getMercatorLatitudes()}
+     * @param reversed if true nodes is in the reverse order of mercatorLats
+     */
+    public void pointListToLinePointsArray(@NonNull final FloatPrimitiveList points, @NonNull final List<? extends GeoPoint> nodes,
+            @Nullable double[] mercatorLats, boolean reversed) {
         points.clear(); // reset
         boolean testInterrupted = false;
         // loop over all nodes
@@ -820,10 +856,18 @@ public class Map extends View implements IMapView {
                     if (thisIntersects || nextIntersects || (!(nextNode != null && lastDrawnNode != null)
                             || box.isIntersectionPossible(nextNodeLon, nextNodeLat, lastDrawnNodeLon, lastDrawnNodeLat))) {
                         X = GeoMath.lonE7ToX(w, box, nodeLon);
-                        Y = GeoMath.latE7ToY(h, w, box, nodeLat);
+                        if (mercatorLats != null) {
+                            Y = GeoMath.mercatorToY(h, w, box, mercatorLats[reversed ? nodesSize - 1 - i : i]);
+                        } else {
+                            Y = GeoMath.latE7ToY(h, w, box, nodeLat);
+                        }
                         if (prevX == -Float.MAX_VALUE) { // last segment didn't intersect
                             prevX = GeoMath.lonE7ToX(w, box, prevNode.getLon());
-                            prevY = GeoMath.latE7ToY(h, w, box, prevNode.getLat());
+                            if (mercatorLats != null) {
+                                prevY = GeoMath.mercatorToY(h, w, box, mercatorLats[reversed ? nodesSize - i : i - 1]);
+                            } else {
+                                prevY = GeoMath.latE7ToY(h, w, box, prevNode.getLat());
+                            }
                         }
                         // Line segment needs to be drawn
                         points.add(prevX);
@@ -1058,6 +1102,15 @@ public class Map extends View implements IMapView {
         isFollowingGPS = follow;
     }
 
+    /**
+     * Check if the map is following the GPS/Location position
+     * 
+     * @return true if following the position
+     */
+    public boolean isFollowingGPS() {
+        return isFollowingGPS;
+    }
+
     /**
      * Return a list of the names of the currently used layers
      * 
@@ -495,6 +495,18 @@ public class Layers extends SizedFixedImmersiveDialogFragment {
                         return true;
                     }
                 });
+                if (!((MapTilesLayer) layer).getTileLayerConfiguration().isReadOnly()) {
+                    item = popup.getMenu().add(R.string.layer_seed_tile_cache);
+                    item.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+                        @Override
+                        public boolean onMenuItemClick(MenuItem item) {
+                            if (layer != null) {
+                                ((MapTilesLayer) layer).seedTileCache(activity);
+                            }
+                            return true;
+                        }
+                    });
+                }
                 item = popup.getMenu().add(R.string.menu_tools_background_properties);
                 item.setOnMenuItemClickListener(new OnMenuItemClickListener() {
                     @Override
@@ -59,6 +59,7 @@ import de.blau.android.util.collections.FloatPrimitiveList;
 import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.validation.Validator;
 import de.blau.android.views.IMapView;
+import de.blau.android.views.util.ToleranceGrid;
 
 /**
  * OSM data layer
@@ -189,7 +190,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
 
     private Paint labelBackground;
 
-    private float[][] coord = null;
+    private final ToleranceGrid toleranceGrid = new ToleranceGrid();
 
     private FloatPrimitiveList points = new FloatPrimitiveList(); // allocate this just once
 
@@ -206,6 +207,18 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
     List<Node>                  areaNodes      = new ArrayList<>();   // temp for reversing winding and assembling MPs
     Set<Relation>               paintRelations = new HashSet<>();
 
+    /**
+     * Render list cache, the visible nodes and the visible ways sorted for drawing, only recalculated if the view box,
+     * the data, the filter or the style has changed
+     */
+    private List<Node>        renderNodes;
+    private List<Way>         renderWays;
+    private final BoundingBox renderBox            = new BoundingBox();
+    private long              renderGeneration     = -1;
+    private Filter            renderFilter         = null;
+    private DataStyle         renderStyle          = null;
+    private boolean           renderRelationsValid = false;
+
     @SuppressLint("NewApi")
     public MapOverlay(final Map map) {
         this.map = map;
@@ -284,25 +297,27 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         int screenHeight = map.getHeight();
         ViewBox viewBox = map.getViewBox();
 
-        paintRelations.clear();
+        boolean filterMode = tmpFilter != null; // we have an active filter
 
-        // first find all nodes that we need to display
+        // first find all nodes and ways that we need to display
+        boolean renderListChanged = updateRenderList(viewBox);
 
-        List<Node> paintNodes = delegator.getCurrentStorage().getNodes(viewBox);
+        List<Node> paintNodes = renderNodes;
 
         // the following should guarantee that if the selected node is off screen but the handle not, the handle gets
         // drawn
         // note this isn't perfect because touch areas of other nodes just outside the screen still won't get drawn
         if (tmpDrawingSelectedNodes != null) {
             for (Node n : tmpDrawingSelectedNodes) {
-                if (!paintNodes.contains(n)) {
+                if (!viewBox.isIn(n.getLon(), n.getLat())) {
+                    if (paintNodes == renderNodes) {
+                        paintNodes = new ArrayList<>(renderNodes);
+                    }
                     paintNodes.add(n);
                 }
             }
         }
 
-        boolean filterMode = tmpFilter != null; // we have an active filter
-
         //
         tmpDrawingInEditRange = App.getLogic().isInEditZoomRange();
 
@@ -310,15 +325,20 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
                                                       // necessary
                 && !tmpLocked && tmpDrawingEditMode.elementsSelectable();
 
-        // Paint all ways
-        List<Way> ways = delegator.getCurrentStorage().getWays(viewBox);
+        // Paint all ways, already sorted according to layer
+        List<Way> ways = renderWays;
 
-        // get relations for all nodes and ways
-        for (Node n : paintNodes) {
-            addRelations(filterMode, n.getParentRelations(), paintRelations);
-        }
-        for (Way w : ways) {
-            addRelations(filterMode, w.getParentRelations(), paintRelations);
+        // get relations for all nodes and ways, which relations are included can depend on the filter state and
+        // on selected nodes outside of the view box
+        if (renderListChanged || !renderRelationsValid || filterMode || paintNodes != renderNodes) {
+            paintRelations.clear();
+            for (Node n : paintNodes) {
+                addRelations(filterMode, n.getParentRelations(), paintRelations);
+            }
+            for (Way w : ways) {
+                addRelations(filterMode, w.getParentRelations(), paintRelations);
+            }
+            renderRelationsValid = !filterMode && paintNodes == renderNodes;
         }
 
         // draw MPs first
@@ -353,7 +373,6 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
 
         boolean displayHandles = tmpDrawingSelectedNodes == null && tmpDrawingSelectedRelationWays == null && tmpDrawingSelectedRelationNodes == null
                 && tmpDrawingEditMode.elementsGeomEditiable();
-        Collections.sort(waysToDraw, layerComparator);
 
         // ways now
         for (Way w : waysToDraw) {
@@ -363,14 +382,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         // Paint nodes
         Boolean hwAccelarationWorkaround = Map.myIsHardwareAccelerated(canvas) && Build.VERSION.SDK_INT < 19;
 
-        int coordSize = 0;
-        float r = wayTolerancePaint.getStrokeWidth() / 2;
-        float r2 = r * r;
-        if (drawTolerance) {
-            if (coord == null || coord.length < paintNodes.size()) {
-                coord = new float[paintNodes.size()][2];
-            }
-        }
+        toleranceGrid.reset(screenWidth, screenHeight, wayTolerancePaint.getStrokeWidth() / 2);
         for (Node n : paintNodes) {
             boolean noTolerance = false;
             int lat = n.getLat();
@@ -379,24 +391,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             float x = GeoMath.lonE7ToX(screenWidth, viewBox, lon);
             if (drawTolerance) {
                 // this reduces the number of tolerance fields drawn
-                // while it rather expensive traversing the array is
-                // still reasonably cheap
-                if (coordSize != 0) {
-                    for (int i = 0; i < coordSize; i++) {
-                        float x1 = coord[i][0];
-                        float y1 = coord[i][1];
-                        float d2 = (x1 - x) * (x1 - x) + (y1 - y) * (y1 - y);
-                        if (d2 < r2) {
-                            noTolerance = true;
-                            break;
-                        }
-                    }
-                }
-                if (!noTolerance) {
-                    coord[coordSize][0] = x;
-                    coord[coordSize][1] = y;
-                    coordSize++;
-                }
+                noTolerance = !toleranceGrid.add(x, y);
             }
             paintNode(canvas, n, x, y, hwAccelarationWorkaround,
                     drawTolerance && !noTolerance && (n.getState() != OsmElement.STATE_UNCHANGED || delegator.isInDownload(lon, lat)));
@@ -412,6 +407,41 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         paintHandles(canvas);
     }
 
+    /**
+     * Update the cached lists of nodes and ways to render if necessary
+     * 
+     * The lists are retrieved from storage and the ways sorted if the view box, the data generation of the
+     * StorageDelegator, the filter or the current style has changed
+     * 
+     * @param viewBox the current ViewBox
+     * @return true if the lists have been recalculated
+     */
+    private boolean updateRenderList(@NonNull ViewBox viewBox) {
+        long generation = delegator.getDataGeneration();
+        DataStyle style = DataStyle.getCurrent();
+        if (renderNodes != null && generation == renderGeneration && renderFilter == tmpFilter && renderStyle == style && renderBox.equals(viewBox)) {
+            return false;
+        }
+        renderNodes = delegator.getCurrentStorage().getNodes(viewBox);
+        renderWays = delegator.getCurrentStorage().getWays(viewBox);
+        Collections.sort(renderWays, layerComparator);
+        renderGeneration = generation;
+        renderFilter = tmpFilter;
+        renderStyle = style;
+        renderBox.set(viewBox);
+        return true;
+    }
+
+    /**
+     * Get the number of node tolerance halos that were not drawn in the last frame because they would overlap with an
+     * already drawn one
+     * 
+     * @return the count of suppressed halos
+     */
+    public int getSuppressedHalos() {
+        return toleranceGrid.getSuppressed();
+    }
+
     /**
      * Add relations to list of relations to paint
      * 
@@ -1066,9 +1096,9 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             areaNodes.clear();
             areaNodes.addAll(nodes);
             Collections.reverse(areaNodes);
-            map.pointListToLinePointsArray(points, areaNodes);
+            map.pointListToLinePointsArray(points, areaNodes, way.getMercatorLatitudes(), true);
         } else {
-            map.pointListToLinePointsArray(points, nodes);
+            map.pointListToLinePointsArray(points, way);
         }
 
         float[] linePoints = points.getArray();
@@ -1191,7 +1221,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             return;
         }
         
-        map.pointListToLinePointsArray(points, way.getNodes());
+        map.pointListToLinePointsArray(points, way);
         float[] linePoints = points.getArray();
         int pointsSize = points.size();
 
@@ -1333,6 +1363,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         wayTolerancePaint = DataStyle.getInternal(DataStyle.WAY_TOLERANCE).getPaint();
         wayTolerancePaint2 = DataStyle.getInternal(DataStyle.WAY_TOLERANCE_2).getPaint();
         labelBackground = DataStyle.getInternal(DataStyle.LABELTEXT_BACKGROUND).getPaint();
+        renderNodes = null; // force the render list to be rebuilt
     }
 
     /**
@@ -0,0 +1,211 @@
+package de.blau.android.names;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.support.annotation.NonNull;
+import de.blau.android.BuildConfig;
+import de.blau.android.names.Names.NameAndTags;
+import de.blau.android.names.Names.TagMap;
+import de.blau.android.util.collections.MultiHashMap;
+
+/**
+ * Binary format for the name suggestion index and categories
+ *
+ * Layout, all values written with DataOutputStream:
+ *
+ * <ul>
+ * <li>header: format, app version code, asset version</li>
+ * <li>string table: every name, normalized name, tag string, tag key and value, category and poi type once</li>
+ * <li>region table: the region codes in the order of their bit numbers</li>
+ * <li>region set table: the distinct region sets as lists of bit numbers</li>
+ * <li>entries: indices of the name, normalized name, tag string and tags in the string table, the count and the index
+ * of the region set or -1</li>
+ * <li>categories: index of the category and indices of the poi types in the string table</li>
+ * </ul>
+ */
+final class CompiledNames {
+
+    static final int FORMAT = 2;
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private CompiledNames() {
+        // private
+    }
+
+    /**
+     * Write entries and categories in compiled form
+     *
+     * @param os the OutputStream to write to
+     * @param assetVersion the version of the assets the data was read from
+     * @param entries the entries
+     * @param categories map from categories to the tags of their poi types
+     * @throws IOException if writing fails
+     */
+    static void write(@NonNull OutputStream os, long assetVersion, @NonNull Collection<NameAndTags> entries,
+            @NonNull MultiHashMap<String, String> categories) throws IOException {
+        // collect strings and region sets
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Map<BitSet, Integer> regionSetIndex = new HashMap<>();
+        List<BitSet> regionSets = new ArrayList<>();
+        for (NameAndTags entry : entries) {
+            addString(entry.getName(), stringIndex, strings);
+            addString(entry.getNormalizedName(), stringIndex, strings);
+            addString(entry.tags.toString(), stringIndex, strings);
+            for (Map.Entry<String, String> tag : entry.tags.entrySet()) {
+                addString(tag.getKey(), stringIndex, strings);
+                addString(tag.getValue(), stringIndex, strings);
+            }
+            if (entry.regions != null && !regionSetIndex.containsKey(entry.regions)) {
+                regionSetIndex.put(entry.regions, regionSets.size());
+                regionSets.add(entry.regions);
+            }
+        }
+        Set<String> categoryKeys = categories.getKeys();
+        for (String category : categoryKeys) {
+            addString(category, stringIndex, strings);
+            for (String poiType : categories.get(category)) {
+                addString(poiType, stringIndex, strings);
+            }
+        }
+        List<String> regions = Names.getRegions();
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FORMAT);
+        out.writeInt(BuildConfig.VERSION_CODE);
+        out.writeLong(assetVersion);
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        out.writeInt(regions.size());
+        for (String region : regions) {
+            out.writeUTF(region);
+        }
+        out.writeInt(regionSets.size());
+        for (BitSet regionSet : regionSets) {
+            out.writeInt(regionSet.cardinality());
+            for (int bit = regionSet.nextSetBit(0); bit >= 0; bit = regionSet.nextSetBit(bit + 1)) {
+                out.writeInt(bit);
+            }
+        }
+        out.writeInt(entries.size());
+        for (NameAndTags entry : entries) {
+            out.writeInt(stringIndex.get(entry.getName()));
+            out.writeInt(stringIndex.get(entry.getNormalizedName()));
+            out.writeInt(stringIndex.get(entry.tags.toString()));
+            out.writeInt(entry.tags.size());
+            for (Map.Entry<String, String> tag : entry.tags.entrySet()) {
+                out.writeInt(stringIndex.get(tag.getKey()));
+                out.writeInt(stringIndex.get(tag.getValue()));
+            }
+            out.writeInt(entry.getCount());
+            out.writeInt(entry.regions == null ? -1 : regionSetIndex.get(entry.regions));
+        }
+        out.writeInt(categoryKeys.size());
+        for (String category : categoryKeys) {
+            Set<String> poiTypes = categories.get(category);
+            out.writeInt(stringIndex.get(category));
+            out.writeInt(poiTypes.size());
+            for (String poiType : poiTypes) {
+                out.writeInt(stringIndex.get(poiType));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Add a string to the string table if it isn't already present
+     *
+     * @param string the String
+     * @param stringIndex map from String to its index in strings
+     * @param strings the string table
+     */
+    private static void addString(@NonNull String string, @NonNull Map<String, Integer> stringIndex, @NonNull List<String> strings) {
+        if (!stringIndex.containsKey(string)) {
+            stringIndex.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Read entries and categories in compiled form
+     *
+     * Nothing is added if the data is out of date, if reading fails part of the data may have been added.
+     *
+     * @param is the InputStream to read from
+     * @param assetVersion the version of the assets the data has to have been created from
+     * @param nameList map from names to entries to add the entries to
+     * @param tags2namesList map from tag strings to entries to add the entries to
+     * @param categories map from categories to the tags of their poi types to add the categories to
+     * @return true if the data was read, false if it is out of date
+     * @throws IOException if reading fails or the data is corrupt
+     */
+    static boolean read(@NonNull InputStream is, long assetVersion, @NonNull MultiHashMap<String, NameAndTags> nameList,
+            @NonNull MultiHashMap<String, NameAndTags> tags2namesList, @NonNull MultiHashMap<String, String> categories) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != FORMAT || in.readInt() != BuildConfig.VERSION_CODE || in.readLong() != assetVersion) {
+            return false;
+        }
+        try {
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            // the bit numbers in the file are not necessarily the ones we use
+            int[] bits = new int[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = Names.getRegionBit(in.readUTF());
+            }
+            BitSet[] regionSets = new BitSet[in.readInt()];
+            for (int i = 0; i < regionSets.length; i++) {
+                BitSet regionSet = new BitSet();
+                int bitCount = in.readInt();
+                for (int j = 0; j < bitCount; j++) {
+                    regionSet.set(bits[in.readInt()]);
+                }
+                regionSets[i] = Names.internRegions(regionSet);
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String name = strings[in.readInt()];
+                String normalizedName = strings[in.readInt()];
+                String tagsString = strings[in.readInt()];
+                int tagCount = in.readInt();
+                TagMap tags = new TagMap();
+                for (int j = 0; j < tagCount; j++) {
+                    tags.put(strings[in.readInt()], strings[in.readInt()]);
+                }
+                int count = in.readInt();
+                int regionSet = in.readInt();
+                NameAndTags entry = new NameAndTags(name, normalizedName, tags, count, regionSet < 0 ? null : regionSets[regionSet]);
+                nameList.add(name, entry);
+                tags2namesList.add(tagsString, entry);
+            }
+            int categoryCount = in.readInt();
+            for (int i = 0; i < categoryCount; i++) {
+                String category = strings[in.readInt()];
+                int poiTypeCount = in.readInt();
+                for (int j = 0; j < poiTypeCount; j++) {
+                    categories.add(category, strings[in.readInt()]);
+                }
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt compiled names " + e.getMessage());
+        }
+        return true;
+    }
+}
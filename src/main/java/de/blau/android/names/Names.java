@@ -1,20 +1,31 @@
 package de.blau.android.names;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.stream.JsonReader;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.AssetManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -35,8 +46,9 @@ public class Names {
 
     private static final String CATEGORIES_FILE = "categories.json";
     private static final String NSI_FILE        = "name-suggestions.min.json";
+    private static final String COMPILED_FILE   = "name-suggestions.bin";
 
-    public class TagMap extends TreeMap<String, String> {
+    public static class TagMap extends TreeMap<String, String> {
 
         private static final long serialVersionUID = 1L;
 
@@ -59,11 +71,12 @@ public class Names {
      * @author simon
      *
      */
-    public class NameAndTags implements Comparable<NameAndTags> {
-        private final String   name;
-        private final int      count;
-        private final String[] regions;
-        final TagMap           tags;
+    public static class NameAndTags implements Comparable<NameAndTags> {
+        private final String name;
+        private final int    count;
+        final BitSet         regions;
+        final TagMap         tags;
+        private String       normalizedName;
 
         /**
          * Construct a new instance
@@ -74,7 +87,21 @@ public class Names {
          * @param regions if this is region specific, add that here
          */
         public NameAndTags(@NonNull String name, @NonNull TagMap tags, @NonNull int count, @Nullable String[] regions) {
+            this(name, null, tags, count, regions == null ? null : getRegionBits(regions));
+        }
+
+        /**
+         * Construct a new instance
+         * 
+         * @param name the value for the name tag
+         * @param normalizedName the normalized name or null if it should be determined when needed
+         * @param tags associated tags
+         * @param count the times this establishment was found, works as a proxy for importance
+         * @param regions the bits of the regions this is in use in from getRegionBits or null for any region
+         */
+        NameAndTags(@NonNull String name, @Nullable String normalizedName, @NonNull TagMap tags, int count, @Nullable BitSet regions) {
             this.name = name;
+            this.normalizedName = normalizedName;
             this.tags = tags;
             this.count = count;
             this.regions = regions;
@@ -92,6 +119,19 @@ public class Names {
             return name;
         }
 
+        /**
+         * Get the name normalized for searching
+         * 
+         * @return the name normalized with SearchIndexUtils.normalize
+         */
+        @NonNull
+        String getNormalizedName() {
+            if (normalizedName == null) {
+                normalizedName = SearchIndexUtils.normalize(name);
+            }
+            return normalizedName;
+        }
+
         /**
          * @return the tags
          */
@@ -114,9 +154,9 @@ public class Names {
          */
         public boolean inUseIn(@Nullable List<String> currentRegions) {
             if (currentRegions != null && regions != null) {
-                List<String> regionsList = Arrays.asList(regions);
                 for (String current : currentRegions) {
-                    if (regionsList.contains(current)) {
+                    Integer bit = regionBits.get(current);
+                    if (bit != null && regions.get(bit)) {
                         return true;
                     }
                 }
@@ -167,12 +207,19 @@ public class Names {
                                                                                                  // entries
     private static MultiHashMap<String, String>      categories     = new MultiHashMap<>(false);
 
+    /** region code to bit number in the region BitSets of the entries */
+    private static final Map<String, Integer> regionBits  = new ConcurrentHashMap<>();
+    /** region codes indexed by bit number */
+    private static final List<String>         regionCodes = new ArrayList<>();
+    /** distinct region BitSets so that entries can share them */
+    private static final Map<BitSet, BitSet>  regionSets  = new HashMap<>();
+
     private static boolean ready = false;
 
     /**
      * Construct a new instance of the data structure holding names and tags
      * 
-     * The contents are currently read from a hardwired file
+     * The contents are currently read from a hardwired file, after the first run from a compiled version of it
      * 
      * @param ctx an Android Context
      */
@@ -180,119 +227,270 @@ public class Names {
         synchronized (nameList) {
 
             if (!ready) {
-                Log.d(DEBUG_TAG, "Parsing configuration files");
+                long start = System.currentTimeMillis();
+                File compiledFile = new File(ctx.getCacheDir(), COMPILED_FILE);
+                long assetVersion = getAssetVersion(ctx);
+                if (!readCompiled(compiledFile, assetVersion)) {
+                    nameList.clear();
+                    tags2namesList.clear();
+                    categories.clear();
+                    Log.d(DEBUG_TAG, "Parsing configuration files");
+                    parseAssets(ctx);
+                    writeCompiled(compiledFile, assetVersion);
+                }
+                Log.d(DEBUG_TAG, "Loading names took " + (System.currentTimeMillis() - start) + " ms");
+                ready = true;
+            }
+        }
+    }
 
-                AssetManager assetManager = ctx.getAssets();
-                try {
-                    InputStream is = assetManager.open(NSI_FILE);
-                    JsonReader reader = new JsonReader(new InputStreamReader(is));
+    /**
+     * Parse the name suggestion index and categories JSON files from the assets
+     * 
+     * @param ctx an Android Context
+     */
+    private void parseAssets(@NonNull Context ctx) {
+        AssetManager assetManager = ctx.getAssets();
+        try {
+            InputStream is = assetManager.open(NSI_FILE);
+            JsonReader reader = new JsonReader(new InputStreamReader(is));
 
-                    try {
-                        try {
-                            // key object
-                            String key = null;
+            try {
+                try {
+                    // key object
+                    String key = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        key = reader.nextName(); // amenity, shop
+                        // value object
+                        String value = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) { // restaurant, fast_food, ....
+                            value = reader.nextName();
+                            // name object
+                            String name = null;
                             reader.beginObject();
                             while (reader.hasNext()) {
-                                key = reader.nextName(); // amenity, shop
-                                // value object
-                                String value = null;
+                                name = reader.nextName(); // name of establishment
                                 reader.beginObject();
-                                while (reader.hasNext()) { // restaurant, fast_food, ....
-                                    value = reader.nextName();
-                                    // name object
-                                    String name = null;
-                                    reader.beginObject();
-                                    while (reader.hasNext()) {
-                                        name = reader.nextName(); // name of establishment
-                                        reader.beginObject();
-                                        int count = 0;
-                                        List<String> regions = null;
-                                        TagMap secondaryTags = null; // any extra tags store here
+                                int count = 0;
+                                List<String> regions = null;
+                                TagMap secondaryTags = null; // any extra tags store here
+                                while (reader.hasNext()) {
+                                    String jsonName = reader.nextName();
+                                    switch (jsonName) {
+                                    case "count":
+                                        count = reader.nextInt();
+                                        break;
+                                    case "countryCodes":
+                                        reader.beginArray();
+                                        regions = new ArrayList<>();
                                         while (reader.hasNext()) {
-                                            String jsonName = reader.nextName();
-                                            switch (jsonName) {
-                                            case "count":
-                                                count = reader.nextInt();
-                                                break;
-                                            case "countryCodes":
-                                                reader.beginArray();
-                                                regions = new ArrayList<>();
-                                                while (reader.hasNext()) {
-                                                    regions.add(reader.nextString().toUpperCase());
-                                                }
-                                                reader.endArray();
-                                                break;
-                                            case "tags":
-                                                reader.beginObject();
-                                                secondaryTags = new TagMap();
-                                                while (reader.hasNext()) {
-                                                    secondaryTags.put(reader.nextName(), reader.nextString());
-                                                }
-                                                reader.endObject(); // tags
-                                                break;
-                                            default:
-                                                reader.skipValue();
-                                                break;
-                                            }
+                                            regions.add(reader.nextString().toUpperCase());
                                         }
-                                        reader.endObject(); // name
-
-                                        // add to lists here
-                                        TagMap tags = new TagMap();
-                                        tags.put(key, value);
-                                        if (secondaryTags != null) {
-                                            tags.putAll(secondaryTags);
+                                        reader.endArray();
+                                        break;
+                                    case "tags":
+                                        reader.beginObject();
+                                        secondaryTags = new TagMap();
+                                        while (reader.hasNext()) {
+                                            secondaryTags.put(reader.nextName(), reader.nextString());
                                         }
-                                        NameAndTags entry = new NameAndTags(name, tags, count,
-                                                regions == null ? null : regions.toArray(new String[regions.size()]));
-                                        nameList.add(name, entry);
-                                        tags2namesList.add(tags.toString(), entry);
+                                        reader.endObject(); // tags
+                                        break;
+                                    default:
+                                        reader.skipValue();
+                                        break;
                                     }
-                                    reader.endObject(); // value
                                 }
-                                reader.endObject(); // key
+                                reader.endObject(); // name
+
+                                // add to lists here
+                                TagMap tags = new TagMap();
+                                tags.put(key, value);
+                                if (secondaryTags != null) {
+                                    tags.putAll(secondaryTags);
+                                }
+                                NameAndTags entry = new NameAndTags(name, tags, count,
+                                        regions == null ? null : regions.toArray(new String[regions.size()]));
+                                nameList.add(name, entry);
+                                tags2namesList.add(tags.toString(), entry);
                             }
-                            reader.endObject();
-                        } catch (IOException | IllegalStateException e) {
-                            Log.e(DEBUG_TAG, "Got exception reading " + NSI_FILE + " " + e.getMessage());
+                            reader.endObject(); // value
                         }
-                    } finally {
-                        SavingHelper.close(reader);
-                        SavingHelper.close(is);
+                        reader.endObject(); // key
                     }
-                    try {
-                        is = assetManager.open(CATEGORIES_FILE); // NOSONAR
-                        reader = new JsonReader(new InputStreamReader(is));
-                        try {
-                            String category = null;
-                            reader.beginObject();
+                    reader.endObject();
+                } catch (IOException | IllegalStateException e) {
+                    Log.e(DEBUG_TAG, "Got exception reading " + NSI_FILE + " " + e.getMessage());
+                }
+            } finally {
+                SavingHelper.close(reader);
+                SavingHelper.close(is);
+            }
+            try {
+                is = assetManager.open(CATEGORIES_FILE); // NOSONAR
+                reader = new JsonReader(new InputStreamReader(is));
+                try {
+                    String category = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        category = reader.nextName();
+                        String poiType = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            poiType = reader.nextName();
+                            reader.beginArray();
                             while (reader.hasNext()) {
-                                category = reader.nextName();
-                                String poiType = null;
-                                reader.beginObject();
-                                while (reader.hasNext()) {
-                                    poiType = reader.nextName();
-                                    reader.beginArray();
-                                    while (reader.hasNext()) {
-                                        categories.add(category, poiType + "=" + reader.nextString());
-                                    }
-                                    reader.endArray();
-                                }
-                                reader.endObject();
+                                categories.add(category, poiType + "=" + reader.nextString());
                             }
-                            reader.endObject();
-                        } catch (IOException e) {
-                            Log.d(DEBUG_TAG, "Got exception reading " + CATEGORIES_FILE + " " + e.getMessage());
+                            reader.endArray();
                         }
-                    } finally {
-                        SavingHelper.close(reader);
-                        SavingHelper.close(is);
+                        reader.endObject();
                     }
-                } catch (IOException | IllegalStateException e) {
-                    Log.d(DEBUG_TAG, "Got exception " + e.getMessage());
+                    reader.endObject();
+                } catch (IOException e) {
+                    Log.d(DEBUG_TAG, "Got exception reading " + CATEGORIES_FILE + " " + e.getMessage());
                 }
-                ready = true;
+            } finally {
+                SavingHelper.close(reader);
+                SavingHelper.close(is);
+            }
+        } catch (IOException | IllegalStateException e) {
+            Log.d(DEBUG_TAG, "Got exception " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get a value that changes whenever the assets may have changed
+     * 
+     * @param ctx an Android Context
+     * @return the time the app was last installed or updated
+     */
+    private static long getAssetVersion(@NonNull Context ctx) {
+        try {
+            PackageInfo packageInfo = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0);
+            return packageInfo.lastUpdateTime;
+        } catch (NameNotFoundException e) {
+            // can't really happen
+            return 0;
+        }
+    }
+
+    /**
+     * Read the names and categories from the compiled version
+     * 
+     * @param compiledFile the compiled file
+     * @param assetVersion the version of the assets the compiled file has to have been created from
+     * @return true if the compiled file could be used
+     */
+    private boolean readCompiled(@NonNull File compiledFile, long assetVersion) {
+        if (!compiledFile.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            // read in one go, this is faster than buffering
+            byte[] data = new byte[(int) compiledFile.length()];
+            in = new DataInputStream(new FileInputStream(compiledFile));
+            in.readFully(data);
+            if (!CompiledNames.read(new ByteArrayInputStream(data), assetVersion, nameList, tags2namesList, categories)) {
+                Log.i(DEBUG_TAG, "Compiled names out of date");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Reading compiled names failed " + e.getMessage());
+            return false;
+        } finally {
+            SavingHelper.close(in);
+        }
+    }
+
+    /**
+     * Write the names and categories in compiled form
+     * 
+     * @param compiledFile the file to write to
+     * @param assetVersion the version of the assets the data was read from
+     */
+    private void writeCompiled(@NonNull File compiledFile, long assetVersion) {
+        File tempFile = new File(compiledFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            CompiledNames.write(out, assetVersion, getNames(), categories);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(compiledFile)) {
+                throw new IOException("Renaming " + tempFile + " failed");
+            }
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Writing compiled names failed " + e.getMessage());
+            SavingHelper.close(out);
+            tempFile.delete(); // NOSONAR
+        }
+    }
+
+    /**
+     * Get the bit number for a region, allocating a new one if necessary
+     * 
+     * @param region the region code
+     * @return the bit number
+     */
+    static int getRegionBit(@NonNull String region) {
+        synchronized (regionCodes) {
+            Integer bit = regionBits.get(region);
+            if (bit == null) {
+                bit = regionCodes.size();
+                regionCodes.add(region);
+                regionBits.put(region, bit);
+            }
+            return bit;
+        }
+    }
+
+    /**
+     * Get all region codes known so far
+     * 
+     * @return a List of region codes indexed by bit number
+     */
+    @NonNull
+    static List<String> getRegions() {
+        synchronized (regionCodes) {
+            return new ArrayList<>(regionCodes);
+        }
+    }
+
+    /**
+     * Get a shared BitSet for a list of regions
+     * 
+     * @param regions the region codes
+     * @return a BitSet with the bits for the regions set, must not be modified
+     */
+    @NonNull
+    static BitSet getRegionBits(@NonNull String[] regions) {
+        BitSet bits = new BitSet();
+        for (String region : regions) {
+            bits.set(getRegionBit(region));
+        }
+        return internRegions(bits);
+    }
+
+    /**
+     * Get the shared instance of a region BitSet
+     * 
+     * @param bits the BitSet
+     * @return a BitSet with the same bits set, must not be modified
+     */
+    @NonNull
+    static BitSet internRegions(@NonNull BitSet bits) {
+        synchronized (regionSets) {
+            BitSet shared = regionSets.get(bits);
+            if (shared == null) {
+                regionSets.put(bits, bits);
+                shared = bits;
             }
+            return shared;
         }
     }
 
@@ -409,7 +607,7 @@ public class Names {
         MultiHashMap<String, NameAndTags> result = new MultiHashMap<>();
         List<NameAndTags> names = getNames();
         for (NameAndTags nat : names) {
-            result.add(SearchIndexUtils.normalize(nat.getName()), nat);
+            result.add(nat.getNormalizedName(), nat);
         }
         return result;
     }
@@ -0,0 +1,148 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import de.blau.android.util.collections.LongPrimitiveMap;
+
+/**
+ * Uniform grid index for the bounding boxes of downloaded data
+ *
+ * Each grid cell either is completely covered by at least one box, or holds the boxes that partially cover it. Boxes
+ * that would touch more than MAX_BOX_CELLS cells are held in a separate list that is always checked. Point queries
+ * don't allocate any objects.
+ *
+ * Boxes must not be changed after they have been added to the index.
+ */
+class CoverageIndex {
+
+    /**
+     * Cells are 2^18 WGS84*1E7 units on a side, roughly 2.9 km at the equator
+     */
+    private static final int CELL_SHIFT = 18;
+
+    /**
+     * Boxes that touch more cells than this are not stored in the grid
+     */
+    private static final int MAX_BOX_CELLS = 256;
+
+    /**
+     * Marker for cells that are completely covered
+     */
+    private static final BoundingBox[] FULL = new BoundingBox[0];
+
+    private final LongPrimitiveMap<BoundingBox[]> cells      = new LongPrimitiveMap<>();
+    private final List<BoundingBox>               largeBoxes = new ArrayList<>();
+
+    /**
+     * Construct a new index
+     *
+     * @param boxes the initial bounding boxes
+     */
+    CoverageIndex(@NonNull List<BoundingBox> boxes) {
+        for (BoundingBox box : boxes) {
+            add(box);
+        }
+    }
+
+    /**
+     * Get the cell coordinate for a WGS84*1E7 coordinate
+     *
+     * @param coordE7 the coordinate
+     * @return the cell coordinate
+     */
+    private static int cell(int coordE7) {
+        return coordE7 >> CELL_SHIFT;
+    }
+
+    /**
+     * Calculate the key for a cell
+     *
+     * @param x the horizontal cell coordinate
+     * @param y the vertical cell coordinate
+     * @return the key
+     */
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Check if a box completely covers a cell
+     *
+     * @param box the BoundingBox
+     * @param x the horizontal cell coordinate
+     * @param y the vertical cell coordinate
+     * @return true if all points in the cell are in box
+     */
+    private static boolean covers(@NonNull BoundingBox box, int x, int y) {
+        long cellLeft = (long) x << CELL_SHIFT;
+        long cellBottom = (long) y << CELL_SHIFT;
+        long cellSize = 1L << CELL_SHIFT;
+        return box.getLeft() <= cellLeft && box.getRight() >= cellLeft + cellSize - 1 && box.getBottom() <= cellBottom
+                && box.getTop() >= cellBottom + cellSize - 1;
+    }
+
+    /**
+     * Add a BoundingBox to the index
+     *
+     * @param box the BoundingBox
+     */
+    synchronized void add(@NonNull BoundingBox box) {
+        final int left = cell(box.getLeft());
+        final int bottom = cell(box.getBottom());
+        final int right = cell(box.getRight());
+        final int top = cell(box.getTop());
+        if (((long) right - left + 1) * ((long) top - bottom + 1) > MAX_BOX_CELLS) {
+            largeBoxes.add(box);
+            return;
+        }
+        for (int x = left; x <= right; x++) {
+            for (int y = bottom; y <= top; y++) {
+                long key = key(x, y);
+                BoundingBox[] boxes = cells.get(key);
+                if (boxes == FULL) {
+                    continue;
+                }
+                if (covers(box, x, y)) {
+                    cells.put(key, FULL);
+                } else if (boxes == null) {
+                    cells.put(key, new BoundingBox[] { box });
+                } else {
+                    BoundingBox[] newBoxes = new BoundingBox[boxes.length + 1];
+                    System.arraycopy(boxes, 0, newBoxes, 0, boxes.length);
+                    newBoxes[boxes.length] = box;
+                    cells.put(key, newBoxes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a point is covered by any of the boxes
+     *
+     * @param lonE7 WGS84 longitude*1E7
+     * @param latE7 WGS84 latitude*1E7
+     * @return true if the point is in at least one box
+     */
+    synchronized boolean isIn(int lonE7, int latE7) {
+        BoundingBox[] boxes = cells.get(key(cell(lonE7), cell(latE7)));
+        if (boxes == FULL) {
+            return true;
+        }
+        if (boxes != null) {
+            for (BoundingBox box : boxes) {
+                if (box.isIn(lonE7, latE7)) {
+                    return true;
+                }
+            }
+        }
+        int size = largeBoxes.size();
+        for (int i = 0; i < size; i++) {
+            if (largeBoxes.get(i).isIn(lonE7, latE7)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,403 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Uniform grid spatial index for the Nodes and Ways held in a Storage instance
+ *
+ * Nodes are stored in the cell that contains them, Ways in all cells that their bounding box covers. Ways that would
+ * cover more than MAX_WAY_CELLS cells are held in a separate list that is always checked.
+ *
+ * As the bounding box of a Way can only be determined after its geometry has changed, invalidated Ways are queued and
+ * re-indexed before the next query. Node positions are not recorded, if a Node is moved the index has to be told the
+ * previous position.
+ *
+ * The index is not serialized and is rebuilt from the contents of the Storage when needed.
+ */
+class GridIndex {
+
+    /**
+     * Cells are 2^17 WGS84*1E7 units on a side, roughly 1.4 km at the equator
+     */
+    private static final int CELL_SHIFT = 17;
+
+    /**
+     * Ways that cover more cells than this are not stored in the grid
+     */
+    private static final int MAX_WAY_CELLS = 64;
+
+    private final Map<Long, List<Node>>     nodeCells  = new HashMap<>();
+    private final Map<Long, List<WayEntry>> wayCells   = new HashMap<>();
+    private final Map<Way, WayEntry>        wayEntries = new IdentityHashMap<>();
+    private final List<WayEntry>            largeWays  = new ArrayList<>();
+    private final List<WayEntry>            pending    = new ArrayList<>();
+
+    private final BoundingBox tempBox = new BoundingBox(); // avoid creating new instances
+
+    /**
+     * Registration of a Way in the grid
+     */
+    private static class WayEntry {
+        final Way way;
+        int       left;
+        int       bottom;
+        int       right;
+        int       top;
+        boolean   large;
+        boolean   pending;
+
+        /**
+         * Construct a new entry
+         *
+         * @param way the Way this is for
+         */
+        WayEntry(@NonNull Way way) {
+            this.way = way;
+        }
+    }
+
+    /**
+     * Get the cell coordinate for a WGS84*1E7 coordinate
+     *
+     * @param coordE7 the coordinate
+     * @return the cell coordinate
+     */
+    private static int cell(int coordE7) {
+        return coordE7 >> CELL_SHIFT;
+    }
+
+    /**
+     * Calculate the key for a cell
+     *
+     * @param x the horizontal cell coordinate
+     * @param y the vertical cell coordinate
+     * @return the key
+     */
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the list for a cell, creating it if necessary
+     *
+     * @param <T> the type of the list elements
+     * @param cells the Map holding the cells
+     * @param key the key of the cell
+     * @return the List for the cell
+     */
+    @NonNull
+    private static <T> List<T> getOrCreateCell(@NonNull Map<Long, List<T>> cells, long key) {
+        List<T> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Remove an object from a cell comparing by identity
+     *
+     * @param <T> the type of the list elements
+     * @param cells the Map holding the cells
+     * @param key the key of the cell
+     * @param o the object to remove
+     * @return true if the object was found
+     */
+    private static <T> boolean removeFromCell(@NonNull Map<Long, List<T>> cells, long key, @NonNull T o) {
+        List<T> cell = cells.get(key);
+        if (cell != null) {
+            for (int i = cell.size() - 1; i >= 0; i--) {
+                if (cell.get(i) == o) {
+                    int last = cell.size() - 1;
+                    cell.set(i, cell.get(last)); // order is not significant
+                    cell.remove(last);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a Node to the index
+     *
+     * @param node the Node
+     */
+    synchronized void insert(@NonNull Node node) {
+        getOrCreateCell(nodeCells, key(cell(node.lon), cell(node.lat))).add(node);
+    }
+
+    /**
+     * Remove a Node from the index
+     *
+     * @param node the Node
+     */
+    synchronized void remove(@NonNull Node node) {
+        remove(node, node.lat, node.lon);
+    }
+
+    /**
+     * Update the index after a Node has been moved
+     *
+     * @param node the Node
+     * @param oldLatE7 the previous latitude WGS84*1E7
+     * @param oldLonE7 the previous longitude WGS84*1E7
+     */
+    synchronized void move(@NonNull Node node, int oldLatE7, int oldLonE7) {
+        if (remove(node, oldLatE7, oldLonE7)) {
+            insert(node);
+        }
+    }
+
+    /**
+     * Remove a Node that is expected to be stored at a specific position
+     *
+     * If the Node cannot be found in the expected cell all cells are searched
+     *
+     * @param node the Node
+     * @param latE7 the latitude WGS84*1E7 at which the node was indexed
+     * @param lonE7 the longitude WGS84*1E7 at which the node was indexed
+     * @return true if the Node was found
+     */
+    private boolean remove(@NonNull Node node, int latE7, int lonE7) {
+        if (removeFromCell(nodeCells, key(cell(lonE7), cell(latE7)), node)) {
+            return true;
+        }
+        for (Long key : new ArrayList<>(nodeCells.keySet())) {
+            if (removeFromCell(nodeCells, key, node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a Way to the index
+     *
+     * @param way the Way
+     */
+    synchronized void insert(@NonNull Way way) {
+        remove(way);
+        WayEntry entry = new WayEntry(way);
+        wayEntries.put(way, entry);
+        addCells(entry);
+    }
+
+    /**
+     * Remove a Way from the index
+     *
+     * @param way the Way
+     */
+    synchronized void remove(@NonNull Way way) {
+        WayEntry entry = wayEntries.remove(way);
+        if (entry != null) {
+            if (entry.pending) {
+                pending.remove(entry);
+            }
+            removeCells(entry);
+        }
+    }
+
+    /**
+     * Indicate that the geometry of the Way has changed or is going to change
+     *
+     * The Way will be re-indexed before the next query
+     *
+     * @param way the Way
+     */
+    synchronized void invalidate(@NonNull Way way) {
+        WayEntry entry = wayEntries.get(way);
+        if (entry != null && !entry.pending) {
+            entry.pending = true;
+            pending.add(entry);
+        }
+    }
+
+    /**
+     * Add a Way to the cells covered by its current bounding box
+     *
+     * @param entry the WayEntry for the Way
+     */
+    private void addCells(@NonNull WayEntry entry) {
+        if (entry.way.nodeCount() == 0) {
+            entry.large = true;
+            largeWays.add(entry);
+            return;
+        }
+        BoundingBox box = entry.way.getBounds(tempBox);
+        entry.left = cell(box.getLeft());
+        entry.bottom = cell(box.getBottom());
+        entry.right = cell(box.getRight());
+        entry.top = cell(box.getTop());
+        entry.large = ((long) entry.right - entry.left + 1) * ((long) entry.top - entry.bottom + 1) > MAX_WAY_CELLS;
+        if (entry.large) {
+            largeWays.add(entry);
+            return;
+        }
+        for (int x = entry.left; x <= entry.right; x++) {
+            for (int y = entry.bottom; y <= entry.top; y++) {
+                getOrCreateCell(wayCells, key(x, y)).add(entry);
+            }
+        }
+    }
+
+    /**
+     * Remove a Way from the cells it was registered in
+     *
+     * @param entry the WayEntry for the Way
+     */
+    private void removeCells(@NonNull WayEntry entry) {
+        if (entry.large) {
+            largeWays.remove(entry);
+            return;
+        }
+        for (int x = entry.left; x <= entry.right; x++) {
+            for (int y = entry.bottom; y <= entry.top; y++) {
+                removeFromCell(wayCells, key(x, y), entry);
+            }
+        }
+    }
+
+    /**
+     * Re-index all Ways that have been invalidated
+     */
+    private void flushPending() {
+        for (WayEntry entry : pending) {
+            entry.pending = false;
+            removeCells(entry);
+            addCells(entry);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Add all Nodes in box to result
+     *
+     * @param box the BoundingBox to query
+     * @param result a List that the Nodes will be added to
+     */
+    synchronized void queryNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
+        final int left = cell(box.getLeft());
+        final int bottom = cell(box.getBottom());
+        final int right = cell(box.getRight());
+        final int top = cell(box.getTop());
+        if (((long) right - left + 1) * ((long) top - bottom + 1) > nodeCells.size()) {
+            // cheaper to look at all the cells we have
+            for (Entry<Long, List<Node>> e : nodeCells.entrySet()) {
+                long key = e.getKey();
+                int x = (int) (key >> 32);
+                int y = (int) key;
+                if (x >= left && x <= right && y >= bottom && y <= top) {
+                    addNodes(e.getValue(), box, x > left && x < right && y > bottom && y < top, result);
+                }
+            }
+        } else {
+            for (int x = left; x <= right; x++) {
+                for (int y = bottom; y <= top; y++) {
+                    List<Node> cell = nodeCells.get(key(x, y));
+                    if (cell != null) {
+                        addNodes(cell, box, x > left && x < right && y > bottom && y < top, result);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the Nodes in a cell that are in box to result
+     *
+     * @param cell the List of Nodes in the cell
+     * @param box the BoundingBox to query
+     * @param inside if true the cell is completely inside box
+     * @param result a List that the Nodes will be added to
+     */
+    private static void addNodes(@NonNull List<Node> cell, @NonNull BoundingBox box, boolean inside, @NonNull List<Node> result) {
+        if (inside) {
+            result.addAll(cell);
+            return;
+        }
+        int size = cell.size();
+        for (int i = 0; i < size; i++) {
+            Node n = cell.get(i);
+            if (box.isIn(n.lon, n.lat)) {
+                result.add(n);
+            }
+        }
+    }
+
+    /**
+     * Add all Ways that intersect box to result
+     *
+     * Each Way is only reported once, from the cell at the lower left corner of the overlap between the cells it is
+     * registered in and the cells covered by the query.
+     *
+     * @param box the BoundingBox to query
+     * @param result a List that the Ways will be added to
+     */
+    synchronized void queryWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
+        flushPending();
+        final int left = cell(box.getLeft());
+        final int bottom = cell(box.getBottom());
+        final int right = cell(box.getRight());
+        final int top = cell(box.getTop());
+        if (((long) right - left + 1) * ((long) top - bottom + 1) > wayCells.size()) {
+            // cheaper to look at all the cells we have
+            for (Entry<Long, List<WayEntry>> e : wayCells.entrySet()) {
+                long key = e.getKey();
+                int x = (int) (key >> 32);
+                int y = (int) key;
+                if (x >= left && x <= right && y >= bottom && y <= top) {
+                    addWays(e.getValue(), box, x, y, left, bottom, result);
+                }
+            }
+        } else {
+            for (int x = left; x <= right; x++) {
+                for (int y = bottom; y <= top; y++) {
+                    List<WayEntry> cell = wayCells.get(key(x, y));
+                    if (cell != null) {
+                        addWays(cell, box, x, y, left, bottom, result);
+                    }
+                }
+            }
+        }
+        int size = largeWays.size();
+        for (int i = 0; i < size; i++) {
+            Way w = largeWays.get(i).way;
+            if (w.getBounds(tempBox).intersects(box)) {
+                result.add(w);
+            }
+        }
+    }
+
+    /**
+     * Add the Ways in a cell that intersect box to result
+     *
+     * @param cell the List of WayEntry in the cell
+     * @param box the BoundingBox to query
+     * @param x the horizontal cell coordinate
+     * @param y the vertical cell coordinate
+     * @param left the left most cell coordinate of the query
+     * @param bottom the bottom most cell coordinate of the query
+     * @param result a List that the Ways will be added to
+     */
+    private void addWays(@NonNull List<WayEntry> cell, @NonNull BoundingBox box, int x, int y, int left, int bottom, @NonNull List<Way> result) {
+        int size = cell.size();
+        for (int i = 0; i < size; i++) {
+            WayEntry entry = cell.get(i);
+            if (Math.max(entry.left, left) == x && Math.max(entry.bottom, bottom) == y && entry.way.getBounds(tempBox).intersects(box)) {
+                result.add(entry.way);
+            }
+        }
+    }
+}
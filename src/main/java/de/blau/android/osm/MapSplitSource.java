@@ -1,23 +1,47 @@
 package de.blau.android.osm;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 import de.blau.android.R;
 import de.blau.android.exception.UnsupportedFormatException;
 import de.blau.android.services.util.MBTileProviderDataBase;
+import de.blau.android.services.util.MBTileProviderDataBase.TileHandler;
 import de.blau.android.services.util.MapTile;
-import de.blau.android.util.collections.UnsignedSparseBitSet;
+import de.blau.android.util.collections.LongHashSet;
+import de.blau.android.util.collections.LongPrimitiveMap;
 
 public final class MapSplitSource {
 
+    private static final String DEBUG_TAG = MapSplitSource.class.getSimpleName();
+
     public static final String LATEST_DATE = "latest_date";
     public static final String ATTRIBUTION = "attribution";
 
+    /**
+     * Number of tiles that are read from the database in one go
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * Tiles larger than this are read individually, as the contents of a Cursor are limited in size
+     */
+    private static final int MAX_BATCH_TILE_SIZE = 512 * 1024;
+
     /**
      * Private constructor
      */
@@ -25,12 +49,51 @@ public final class MapSplitSource {
         // avoid instantiation
     }
 
+    /**
+     * Tile that is decoded in to its own Storage on a worker thread
+     */
+    private static final class TileTask implements Callable<Storage> {
+        final Context     context;
+        final BoundingBox box;
+        final int         zoom;
+        final int         x;
+        final int         y;
+        final InputStream is;
+
+        /**
+         * Construct a new task
+         * 
+         * @param context an Android Context
+         * @param box the BoundingBox to trim to
+         * @param tile the tile, the coordinates are copied
+         * @param is the tile contents
+         */
+        TileTask(@NonNull Context context, @NonNull BoundingBox box, @NonNull MapTile tile, @NonNull InputStream is) {
+            this.context = context;
+            this.box = box;
+            zoom = tile.zoomLevel;
+            x = tile.x;
+            y = tile.y;
+            this.is = is;
+        }
+
+        @Override
+        public Storage call() throws IOException {
+            Storage storage = new Storage();
+            storage.clearBoundingBoxes(); // only use the boxes from the tile
+            try {
+                new BlockInputStream(is, new OsmPbfParser(context, storage, box)).process();
+            } finally {
+                is.close();
+            }
+            return storage;
+        }
+    }
+
     /**
      * Read data for the specified BoundingBox from a tiled OSM datasource
      * 
-     * Currently this assumes that the area is covered by tiles at the max zoom, it would be fairly straightforward to
-     * zoom out if no data was found as we do for imagery, perhaps including skipping tiles covered by the higher zoom
-     * one.
+     * Tiles are read and decoded one after the other
      * 
      * @param context an Android Context
      * @param mbTiles a MBTileProviderDataBase instance
@@ -39,6 +102,28 @@ public final class MapSplitSource {
      * @throws IOException if reading the data caused issues
      */
     public static Storage readBox(@NonNull Context context, @NonNull MBTileProviderDataBase mbTiles, @NonNull BoundingBox box) throws IOException {
+        return readBox(context, mbTiles, box, 1);
+    }
+
+    /**
+     * Read data for the specified BoundingBox from a tiled OSM datasource
+     * 
+     * If more than one worker is requested, the tiles are decoded in parallel in to separate Storage objects that are
+     * merged once all tiles have been read. The tiles themselves are still retrieved on the calling thread, as reads on
+     * the database are serialized in any case.
+     * 
+     * The tiles that exist are determined with one query, for areas that are not covered at the max zoom the tiles
+     * are taken from the next lower zoom level that has data. The contents of the tiles are then retrieved in batches.
+     * 
+     * @param context an Android Context
+     * @param mbTiles a MBTileProviderDataBase instance
+     * @param box the BoundingBox
+     * @param workers the maximum number of threads to use for decoding
+     * @return a Storage instance containing the OSM objects
+     * @throws IOException if reading the data caused issues
+     */
+    public static Storage readBox(@NonNull Context context, @NonNull MBTileProviderDataBase mbTiles, @NonNull BoundingBox box, int workers)
+            throws IOException {
 
         final double lonLeft = box.getLeft() / 1E7d;
         final double lonRight = box.getRight() / 1E7d;
@@ -62,49 +147,48 @@ public final class MapSplitSource {
         final int tileNeededRight = Math.max(xTileLeft, xTileRight);
         final int tileNeededTop = Math.min(yTileTop, yTileBottom);
         final int tileNeededBottom = Math.max(yTileTop, yTileBottom);
-        UnsignedSparseBitSet seen = new UnsignedSparseBitSet(); // track tiles that we have seen
+        LongPrimitiveMap<Integer> sizes = mbTiles.getTileSizes(minZoom, maxZoom, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom);
+        List<MapTile> plan = planTiles(sizes, minZoom, maxZoom, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom);
         Storage storage = new Storage();
-        MapTile mapTile = new MapTile(null, maxZoom, 0, 0);
-        for (int x = tileNeededLeft; x <= tileNeededRight; x++) {
-            for (int y = tileNeededBottom; y >= tileNeededTop; y--) {
-                if (seen.get(x << maxZoom | y)) {
-                    continue;
+        final int threads = Math.min(workers, plan.size());
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        List<TileTask> tasks = new ArrayList<>();
+        List<Future<Storage>> results = new ArrayList<>();
+        try {
+            final LongPrimitiveMap<byte[]> contents = new LongPrimitiveMap<>();
+            TileHandler handler = new TileHandler() {
+                @Override
+                public void handle(int zoom, int x, int y, byte[] data) {
+                    contents.put(MBTileProviderDataBase.tileKey(zoom, x, y), data);
                 }
-                mapTile.zoomLevel = maxZoom;
-                mapTile.x = x;
-                mapTile.y = y;
-                InputStream is = mbTiles.getTileStream(mapTile);
-                if (is != null) {
-                    OsmPbfParser parser = new OsmPbfParser(context, storage, box);
-                    new BlockInputStream(is, parser).process();
-                } else {
-                    // tile doesn't exist try ones further out
-                    // assumption there will only always be one tile that
-                    // covers an area
-                    int skipped = 2;
-                    while (mapTile.zoomLevel > minZoom) {
-                        mapTile.x >>= 1;
-                        mapTile.y >>= 1;
-                        --mapTile.zoomLevel;
-                        is = mbTiles.getTileStream(mapTile);
-                        if (is != null) {
-                            OsmPbfParser parser = new OsmPbfParser(context, storage, box);
-                            new BlockInputStream(is, parser).process();
-                            // mark smaller tiles as seen
-                            int zoomDiff = maxZoom - mapTile.zoomLevel;
-                            int originX = mapTile.x << zoomDiff;
-                            int originY = mapTile.y << zoomDiff;
-                            for (int xSeen = 0; xSeen < skipped; xSeen++) {
-                                for (int ySeen = 0; ySeen < skipped; ySeen++) {
-                                    seen.set((originX + xSeen) << maxZoom | (originY + ySeen));
-                                }
-                            }
-                            break;
-                        }
-                        skipped = skipped << 1;
+            };
+            List<MapTile> batch = new ArrayList<>();
+            for (int start = 0; start < plan.size(); start += BATCH_SIZE) {
+                int end = Math.min(plan.size(), start + BATCH_SIZE);
+                batch.clear();
+                for (MapTile tile : plan.subList(start, end)) {
+                    if (sizes.get(MBTileProviderDataBase.tileKey(tile.zoomLevel, tile.x, tile.y)) <= MAX_BATCH_TILE_SIZE) {
+                        batch.add(tile);
+                    }
+                }
+                contents.clear();
+                mbTiles.getTiles(batch, handler);
+                // decode in plan order
+                for (MapTile tile : plan.subList(start, end)) {
+                    byte[] data = contents.get(MBTileProviderDataBase.tileKey(tile.zoomLevel, tile.x, tile.y));
+                    InputStream is = data != null ? new ByteArrayInputStream(data) : mbTiles.getTileStream(tile);
+                    if (is != null) {
+                        readTile(context, storage, box, tile, is, executor, tasks, results);
                     }
                 }
             }
+            if (executor != null) {
+                mergeTiles(context, mbTiles, storage, tasks, results);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
         if (box != null) {
             // remove all unreferenced nodes that are not in the bounding box
@@ -113,6 +197,194 @@ public final class MapSplitSource {
         return storage;
     }
 
+    /**
+     * Determine the tiles needed to cover a rectangle of tiles at zoom level maxZoom
+     * 
+     * For every tile at maxZoom the existing tile with the highest zoom level that covers it is used, each tile is only
+     * included once.
+     * 
+     * @param existing the keys of the existing tiles, see {@link MBTileProviderDataBase#tileKey(int, int, int)}
+     * @param minZoom the lowest zoom level to use
+     * @param maxZoom the zoom level the coordinates refer to
+     * @param left left tile coordinate
+     * @param top top tile coordinate
+     * @param right right tile coordinate
+     * @param bottom bottom tile coordinate
+     * @return a List of the tiles to read
+     */
+    @NonNull
+    static List<MapTile> planTiles(@NonNull LongPrimitiveMap<?> existing, int minZoom, int maxZoom, int left, int top, int right, int bottom) {
+        List<MapTile> plan = new ArrayList<>();
+        LongHashSet planned = new LongHashSet();
+        for (int x = left; x <= right; x++) {
+            for (int y = bottom; y >= top; y--) {
+                for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+                    int shift = maxZoom - zoom;
+                    long key = MBTileProviderDataBase.tileKey(zoom, x >> shift, y >> shift);
+                    if (existing.containsKey(key)) {
+                        if (!planned.contains(key)) {
+                            planned.put(key);
+                            plan.add(new MapTile(null, zoom, x >> shift, y >> shift));
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Decode a tile directly in to storage or submit it for decoding on a worker thread
+     * 
+     * @param context an Android Context
+     * @param storage the Storage to decode in to if executor is null
+     * @param box the BoundingBox to trim to
+     * @param mapTile the tile
+     * @param is the tile contents
+     * @param executor the ExecutorService or null if tiles should be decoded directly
+     * @param tasks List of submitted tasks
+     * @param results List of pending results in the same order as tasks
+     * @throws IOException if reading the data caused issues
+     */
+    private static void readTile(@NonNull Context context, @NonNull Storage storage, @NonNull BoundingBox box, @NonNull MapTile mapTile,
+            @NonNull InputStream is, @Nullable ExecutorService executor, @NonNull List<TileTask> tasks, @NonNull List<Future<Storage>> results)
+            throws IOException {
+        if (executor == null) {
+            OsmPbfParser parser = new OsmPbfParser(context, storage, box);
+            new BlockInputStream(is, parser).process();
+        } else {
+            TileTask task = new TileTask(context, box, mapTile, is);
+            tasks.add(task);
+            results.add(executor.submit(task));
+        }
+    }
+
+    /**
+     * Wait for the tiles to be decoded and merge them in to storage
+     * 
+     * Ways that cross tile boundaries and their nodes are present in more than one tile, the first instance is used
+     * and Way nodes and Relation members are re-resolved against the merged data. Tiles that can't be decoded on their
+     * own, because they are referentially incomplete, are read again directly in to storage after the merge.
+     * 
+     * @param context an Android Context
+     * @param mbTiles a MBTileProviderDataBase instance
+     * @param storage the target Storage
+     * @param tasks the decoding tasks
+     * @param results the results in the same order as tasks
+     * @throws IOException if reading the data caused issues
+     */
+    private static void mergeTiles(@NonNull Context context, @NonNull MBTileProviderDataBase mbTiles, @NonNull Storage storage,
+            @NonNull List<TileTask> tasks, @NonNull List<Future<Storage>> results) throws IOException {
+        List<Storage> tiles = new ArrayList<>();
+        List<TileTask> retry = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                tiles.add(results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e.getMessage());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UnsupportedFormatException) {
+                    Log.w(DEBUG_TAG, "Tile " + tasks.get(i).zoom + "/" + tasks.get(i).x + "/" + tasks.get(i).y + " incomplete, retrying " + cause.getMessage());
+                    retry.add(tasks.get(i));
+                } else if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IOException(cause != null ? cause.getMessage() : e.getMessage());
+                }
+            }
+        }
+        merge(storage, tiles);
+        MapTile mapTile = new MapTile(null, 0, 0, 0);
+        for (TileTask task : retry) {
+            mapTile.zoomLevel = task.zoom;
+            mapTile.x = task.x;
+            mapTile.y = task.y;
+            InputStream is = mbTiles.getTileStream(mapTile);
+            if (is != null) {
+                try {
+                    new BlockInputStream(is, new OsmPbfParser(context, storage, task.box)).process();
+                } finally {
+                    is.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge decoded tiles in to storage
+     * 
+     * The first instance of an element is used, Way nodes and Relation members are re-resolved against the merged
+     * data. Way nodes that are not present in any tile are added to storage as is.
+     * 
+     * @param storage the target Storage
+     * @param tiles the decoded tiles
+     */
+    static void merge(@NonNull Storage storage, @NonNull List<Storage> tiles) {
+        boolean first = true;
+        for (Storage tile : tiles) {
+            for (BoundingBox b : tile.getBoundingBoxes()) {
+                if (first) {
+                    storage.setBoundingBox(b); // replace default box
+                    first = false;
+                } else {
+                    storage.addBoundingBox(b);
+                }
+            }
+        }
+        for (Storage tile : tiles) {
+            for (Node n : tile.getNodes()) {
+                if (storage.getNode(n.getOsmId()) == null) {
+                    n.clearParentRelations();
+                    storage.insertNodeUnsafe(n);
+                }
+            }
+        }
+        for (Storage tile : tiles) {
+            for (Way w : tile.getWays()) {
+                if (storage.getWay(w.getOsmId()) == null) {
+                    w.clearParentRelations();
+                    List<Node> wayNodes = w.getNodes();
+                    for (int i = 0; i < wayNodes.size(); i++) {
+                        Node original = wayNodes.get(i);
+                        Node n = storage.getNode(original.getOsmId());
+                        if (n == null) { // not in any tile, keep the node the way came with
+                            original.clearParentRelations();
+                            storage.insertNodeUnsafe(original);
+                        } else if (n != original) {
+                            wayNodes.set(i, n);
+                        }
+                        storage.addNodeRef(original.getOsmId());
+                    }
+                    storage.insertWayUnsafe(w);
+                }
+            }
+        }
+        List<Relation> relations = new ArrayList<>();
+        for (Storage tile : tiles) {
+            for (Relation r : tile.getRelations()) {
+                if (storage.getRelation(r.getOsmId()) == null) {
+                    r.clearParentRelations();
+                    storage.insertRelationUnsafe(r);
+                    relations.add(r);
+                }
+            }
+        }
+        for (Relation r : relations) {
+            for (RelationMember member : r.getMembers()) {
+                OsmElement element = storage.getOsmElement(member.getType(), member.getRef());
+                member.setElement(element);
+                if (element != null) {
+                    element.addParentRelation(r);
+                }
+            }
+        }
+    }
+
     /**
      * Check if a BoundingBox overlaps with the tiles in the source
      * 
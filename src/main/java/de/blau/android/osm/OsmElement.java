@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +49,11 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
 
     long osmVersion;
 
-    TreeMap<String, String> tags;
+    /**
+     * Shared, immutable tags or null if the element doesn't have any, state saved by older versions contains TreeMaps
+     * that are replaced by {@link #internTags()}
+     */
+    SortedMap<String, String> tags;
 
     byte state;
 
@@ -122,9 +125,21 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
     @NonNull
     public SortedMap<String, String> getTags() {
         if (tags == null) {
-            return Collections.unmodifiableSortedMap(new TreeMap<String, String>()); // for backwards compatibility
+            return TagSet.EMPTY; // for backwards compatibility
+        }
+        if (!(tags instanceof TagSet)) {
+            internTags(); // not converted after loading
+        }
+        return tags;
+    }
+
+    /**
+     * Replace the tags by the shared TagSet instance, needs to be called after the element has been deserialized
+     */
+    void internTags() {
+        if (tags != null) {
+            tags = tags instanceof TagSet ? TagSet.intern((TagSet) tags) : TagSet.of(tags);
         }
-        return Collections.unmodifiableSortedMap(tags);
     }
 
     /**
@@ -179,9 +194,12 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
     void addTags(final Map<String, String> tags) {
         if (tags != null) {
             if (this.tags == null) {
-                this.tags = new TreeMap<>();
+                this.tags = TagSet.of(tags);
+            } else {
+                TreeMap<String, String> merged = new TreeMap<>(this.tags);
+                merged.putAll(tags);
+                this.tags = TagSet.of(merged);
             }
-            this.tags.putAll(tags);
         }
     }
 
@@ -196,8 +214,7 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
             addTags(tags);
             return true;
         } else if (!this.tags.equals(tags)) {
-            this.tags.clear();
-            addTags(tags);
+            this.tags = tags != null ? TagSet.of(tags) : TagSet.EMPTY;
             return true;
         }
         return false;
@@ -106,4 +106,13 @@ public class OsmElementFactory implements Serializable {
         wayId = w < wayId ? w : wayId;
         relationId = r < relationId ? r : relationId;
     }
+
+    /**
+     * Get the current id values
+     * 
+     * @return an array containing the next node, way and relation ids
+     */
+    synchronized long[] getIdSequences() {
+        return new long[] { nodeId, wayId, relationId };
+    }
 }
@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -17,6 +19,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import de.blau.android.exception.OsmParseException;
 import de.blau.android.exception.StorageException;
@@ -49,6 +52,14 @@ public class OsmParser extends DefaultHandler {
     protected static final String OVERPASS_NOTE = "note";
     protected static final String OVERPASS_META = "meta";
 
+    /**
+     * Strings longer than this are not interned, they are very likely unique
+     */
+    private static final int MAX_INTERN_LENGTH = 32;
+
+    private static final int  SECONDS_PER_DAY = 24 * 3600;
+    private static final long NANOS_PER_MS    = 1000000L;
+
     /** The storage, where the data will be stored (e.g. as JavaStorage or SqliteStorage). */
     private final Storage storage;
 
@@ -92,6 +103,11 @@ public class OsmParser extends DefaultHandler {
     protected LongOsmElementMap<Node> nodeIndex = null;
     private LongOsmElementMap<Way>    wayIndex  = null;
 
+    private final HashMap<String, String> strings         = new HashMap<>();
+    private SimpleDateFormat              timestampFormat = null;
+    private int                           elementCount    = 0;
+    private long                          startTime       = 0;
+
     /**
      * Construct a new instance of the parser
      */
@@ -132,7 +148,13 @@ public class OsmParser extends DefaultHandler {
     public void start(@NonNull final InputStream in) throws SAXException, IOException, ParserConfigurationException {
         SAXParserFactory factory = SAXParserFactory.newInstance(); // NOSONAR
         SAXParser saxParser = factory.newSAXParser();
-        saxParser.parse(in, this);
+        elementCount = 0;
+        startTime = System.nanoTime();
+        try {
+            saxParser.parse(in, this);
+        } finally {
+            strings.clear();
+        }
     }
 
     /**
@@ -150,7 +172,8 @@ public class OsmParser extends DefaultHandler {
                 Log.d(DEBUG_TAG, "Added relation " + rm.ref);
             }
         }
-        Log.d(DEBUG_TAG, "Finished parsing input.");
+        long time = Math.max(1, (System.nanoTime() - startTime) / NANOS_PER_MS);
+        Log.d(DEBUG_TAG, "Finished parsing input, " + elementCount + " elements in " + time + " ms, " + (elementCount * 1000L / time) + " elements/s");
     }
 
     /**
@@ -253,6 +276,7 @@ public class OsmParser extends DefaultHandler {
      * @param e element to add the tags to
      */
     void addTags(OsmElement e) {
+        elementCount++;
         if (currentTags != null) {
             e.setTags(currentTags);
             currentTags = null;
@@ -278,10 +302,16 @@ public class OsmParser extends DefaultHandler {
             String timestampStr = atts.getValue("timestamp");
             long timestamp = -1L;
             if (timestampStr != null) {
-                try {
-                    timestamp = DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT).parse(timestampStr).getTime() / 1000;
-                } catch (ParseException e) {
-                    Log.d(DEBUG_TAG, "Invalid timestamp " + timestampStr);
+                timestamp = parseTimestamp(timestampStr);
+                if (timestamp == -1L) {
+                    try {
+                        if (timestampFormat == null) {
+                            timestampFormat = DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT);
+                        }
+                        timestamp = timestampFormat.parse(timestampStr).getTime() / 1000;
+                    } catch (ParseException e) {
+                        Log.d(DEBUG_TAG, "Invalid timestamp " + timestampStr);
+                    }
                 }
             }
 
@@ -298,8 +328,8 @@ public class OsmParser extends DefaultHandler {
 
             switch (name) {
             case Node.NAME:
-                int lat = (new BigDecimal(atts.getValue("lat")).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
-                int lon = (new BigDecimal(atts.getValue("lon")).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
+                int lat = parseCoordinate(atts.getValue("lat"));
+                int lon = parseCoordinate(atts.getValue("lon"));
                 currentNode = OsmElementFactory.createNode(osmId, osmVersion, timestamp, status, lat, lon);
                 break;
             case Way.NAME:
@@ -336,7 +366,133 @@ public class OsmParser extends DefaultHandler {
         }
         String k = atts.getValue("k");
         String v = atts.getValue("v");
-        currentTags.put(k, v);
+        currentTags.put(intern(k), intern(v));
+    }
+
+    /**
+     * Return a shared instance for short Strings
+     * 
+     * Keys and many values occur very often, sharing them reduces the memory used by the parsed data
+     * 
+     * @param str the input String
+     * @return a String equal to str
+     */
+    @Nullable
+    private String intern(@Nullable String str) {
+        if (str == null || str.length() > MAX_INTERN_LENGTH) {
+            return str;
+        }
+        String shared = strings.get(str);
+        if (shared == null) {
+            strings.put(str, str);
+            return str;
+        }
+        return shared;
+    }
+
+    /**
+     * Parse a decimal coordinate value to an int with Node.COORDINATE_SCALE decimal places
+     * 
+     * This avoids the overhead of BigDecimal for the common case, excess decimal places are truncated in the same way.
+     * 
+     * @param value the String holding the value
+     * @return the scaled value
+     * @throws NumberFormatException if value can't be parsed
+     */
+    static int parseCoordinate(@Nullable String value) {
+        if (value == null) {
+            throw new NumberFormatException("null coordinate");
+        }
+        int len = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i++;
+        }
+        long result = 0;
+        int decimals = -1;
+        int integerDigits = 0;
+        boolean digits = false;
+        for (; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (decimals < 0) {
+                    if (++integerDigits > 9) {
+                        break; // would overflow, use slow path
+                    }
+                    result = result * 10 + (c - '0');
+                } else if (decimals < Node.COORDINATE_SCALE) {
+                    result = result * 10 + (c - '0');
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break; // exponent or garbage, use slow path
+            }
+        }
+        if (i < len || !digits) {
+            return new BigDecimal(value).scaleByPowerOfTen(Node.COORDINATE_SCALE).intValue();
+        }
+        for (int d = Math.max(decimals, 0); d < Node.COORDINATE_SCALE; d++) {
+            result = result * 10;
+        }
+        return (int) (negative ? -result : result);
+    }
+
+    /**
+     * Parse a timestamp in the yyyy-MM-dd'T'HH:mm:ss'Z' format used by the API
+     * 
+     * Creating and using a SimpleDateFormat for every element is a substantial part of the parsing time.
+     * 
+     * @param timestamp the timestamp String
+     * @return seconds since the epoch or -1 if the String isn't in the expected format
+     */
+    static long parseTimestamp(@NonNull String timestamp) {
+        if (timestamp.length() != 20 || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':' || timestamp.charAt(19) != 'Z') {
+            return -1L;
+        }
+        int year = digits(timestamp, 0, 4);
+        int month = digits(timestamp, 5, 2);
+        int day = digits(timestamp, 8, 2);
+        int hour = digits(timestamp, 11, 2);
+        int minute = digits(timestamp, 14, 2);
+        int second = digits(timestamp, 17, 2);
+        if (year < 1970 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0
+                || second > 59) {
+            return -1L;
+        }
+        // days since the epoch for a date in the proleptic Gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468L;
+        return days * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+    }
+
+    /**
+     * Parse a fixed number of decimal digits
+     * 
+     * @param str the input String
+     * @param start the position of the first digit
+     * @param count the number of digits
+     * @return the value or Integer.MIN_VALUE if a character is not a digit
+     */
+    private static int digits(@NonNull String str, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.MIN_VALUE;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
     }
 
     /**
@@ -443,6 +599,6 @@ public class OsmParser extends DefaultHandler {
      * Clear the list of bounding boxes
      */
     public void clearBoundingBoxes() {
-        getStorage().getBoundingBoxes().clear();
+        getStorage().clearBoundingBoxes();
     }
 }
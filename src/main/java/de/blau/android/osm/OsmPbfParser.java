@@ -1,9 +1,9 @@
 package de.blau.android.osm;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
@@ -115,7 +115,7 @@ public class OsmPbfParser extends BinaryParser {
 
             int tagCount = r.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                Map<String, String> tags = new TreeMap<>();
                 for (int i = 0; i < tagCount; i++) {
                     tags.put(getStringById(r.getKeys(i)), (getStringById(r.getVals(i))));
                 }
@@ -173,7 +173,7 @@ public class OsmPbfParser extends BinaryParser {
                     String value = getStringById(nodes.getKeysVals(tagPointer++));
                     if (key != null) {
                         if (tags == null) {
-                            tags = new HashMap<>();
+                            tags = new TreeMap<>();
                         }
                         tags.put(key, value);
                     }
@@ -198,7 +198,7 @@ public class OsmPbfParser extends BinaryParser {
                     OsmElement.STATE_UNCHANGED, parseToLatE7(n.getLat()), parseToLonE7(n.getLon()));
             int tagCount = n.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                Map<String, String> tags = new TreeMap<>();
                 for (int i = 0; i < tagCount; i++) {
                     tags.put(getStringById(n.getKeys(i)), (getStringById(n.getVals(i))));
                 }
@@ -246,7 +246,7 @@ public class OsmPbfParser extends BinaryParser {
             }
             int tagCount = w.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                Map<String, String> tags = new TreeMap<>();
                 for (int i = 0; i < tagCount; i++) {
                     tags.put(getStringById(w.getKeys(i)), (getStringById(w.getVals(i))));
                 }
@@ -0,0 +1,178 @@
+package de.blau.android.osm;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import android.support.annotation.NonNull;
+import de.blau.android.util.collections.LongPrimitiveMap;
+
+/**
+ * Index from Node ids to the Ways that reference them
+ *
+ * Entries are added eagerly, when a Way loses a Node the stale entry is removed the next time the Node is looked
+ * up. Ways whose nodes have changed are queued and registered for their current nodes before the next lookup.
+ *
+ * As the index is keyed by Node id it has to be rebuilt if ids change.
+ */
+class ParentWayIndex {
+
+    private static final Way[] EMPTY = new Way[0];
+
+    private final LongPrimitiveMap<Way[]> parents;
+    private final Set<Way>                pending = Collections.newSetFromMap(new IdentityHashMap<Way, Boolean>());
+
+    /**
+     * Construct a new index
+     *
+     * @param size the expected number of way nodes
+     */
+    ParentWayIndex(int size) {
+        parents = new LongPrimitiveMap<>(Math.max(size, 1));
+    }
+
+    /**
+     * Register a Way for all its nodes
+     *
+     * @param way the Way
+     */
+    synchronized void add(@NonNull Way way) {
+        List<Node> wayNodes = way.getNodes();
+        int size = wayNodes.size();
+        for (int i = 0; i < size; i++) {
+            long id = wayNodes.get(i).getOsmId();
+            Way[] ways = parents.get(id);
+            if (ways == null) {
+                parents.put(id, new Way[] { way });
+            } else if (indexOf(ways, way) < 0) {
+                Way[] newWays = new Way[ways.length + 1];
+                System.arraycopy(ways, 0, newWays, 0, ways.length);
+                newWays[ways.length] = way;
+                parents.put(id, newWays);
+            }
+        }
+    }
+
+    /**
+     * Remove a Way for all its current nodes
+     *
+     * @param way the Way
+     */
+    synchronized void remove(@NonNull Way way) {
+        pending.remove(way);
+        for (Node n : way.getNodes()) {
+            remove(n.getOsmId(), way);
+        }
+    }
+
+    /**
+     * Indicate that the nodes of a Way have changed or are going to change
+     *
+     * @param way the Way
+     */
+    synchronized void invalidate(@NonNull Way way) {
+        pending.add(way);
+    }
+
+    /**
+     * Get all Ways that reference a Node
+     *
+     * @param node the Node
+     * @param result a List the Ways will be added to
+     */
+    synchronized void getWays(@NonNull Node node, @NonNull List<Way> result) {
+        for (Way w : getCandidates(node)) {
+            result.add(w);
+        }
+    }
+
+    /**
+     * Check if a Node is the first or last node of any Way
+     *
+     * @param node the Node
+     * @return true if node is the first or last node of at least one Way
+     */
+    synchronized boolean isEndNode(@NonNull Node node) {
+        for (Way w : getCandidates(node)) {
+            if (w.isEndNode(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the Ways that currently reference the Node, removing stale entries
+     *
+     * @param node the Node
+     * @return an array of Ways
+     */
+    @NonNull
+    private Way[] getCandidates(@NonNull Node node) {
+        flushPending();
+        long id = node.getOsmId();
+        Way[] ways = parents.get(id);
+        if (ways == null) {
+            return EMPTY;
+        }
+        for (Way w : ways) {
+            if (!w.hasNode(node)) {
+                remove(id, w);
+            }
+        }
+        ways = parents.get(id);
+        return ways != null ? ways : EMPTY;
+    }
+
+    /**
+     * Register all queued Ways for their current nodes
+     */
+    private void flushPending() {
+        if (!pending.isEmpty()) {
+            for (Way w : pending) {
+                add(w);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Remove a Way from the entry for a Node id
+     *
+     * @param id the Node id
+     * @param way the Way
+     */
+    private void remove(long id, @NonNull Way way) {
+        Way[] ways = parents.get(id);
+        if (ways != null) {
+            int pos = indexOf(ways, way);
+            if (pos >= 0) {
+                if (ways.length == 1) {
+                    parents.remove(id);
+                } else {
+                    Way[] newWays = new Way[ways.length - 1];
+                    System.arraycopy(ways, 0, newWays, 0, pos);
+                    System.arraycopy(ways, pos + 1, newWays, pos, ways.length - pos - 1);
+                    parents.put(id, newWays);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find a Way in an array comparing by identity
+     *
+     * @param ways the array
+     * @param way the Way
+     * @return the position or -1 if not found
+     */
+    private static int indexOf(@NonNull Way[] ways, @NonNull Way way) {
+        for (int i = 0; i < ways.length; i++) {
+            if (ways[i] == way) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,593 @@
+package de.blau.android.osm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import de.blau.android.exception.StorageException;
+import de.blau.android.util.SavingHelper;
+
+/**
+ * Append-only journal of element changes that is applied on top of a full snapshot of the StorageDelegator
+ *
+ * The journal starts with a header containing the id of the snapshot it belongs to, followed by batches of element
+ * records, one batch per save. Each batch is prefixed with its length and a CRC32 checksum so that a batch that was
+ * only partially written can be detected and discarded. A record contains the complete state of an element at the time
+ * of the save, replaying the journal therefore simply overwrites the state in the snapshot.
+ *
+ * The journal doesn't contain undo information or the clipboard, operations changing these need to write a new
+ * snapshot.
+ */
+final class StateJournal {
+
+    private static final String DEBUG_TAG = "StateJournal";
+
+    static final String FILENAME = "lastActivity.journal";
+
+    private static final int MAGIC       = 0x564A524E;
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Write a new snapshot if the journal is larger than this
+     */
+    static final long MAX_SIZE = 4L * 1024L * 1024L;
+
+    /**
+     * Write a new snapshot after this number of batches
+     */
+    static final int MAX_BATCHES = 100;
+
+    private static final byte NODE     = 0;
+    private static final byte WAY      = 1;
+    private static final byte RELATION = 2;
+
+    private static final byte IN_CURRENT = 1;
+    private static final byte IN_API     = 2;
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private StateJournal() {
+        // private
+    }
+
+    /**
+     * Start a new, empty, journal for a snapshot
+     *
+     * @param context Android Context
+     * @param snapshotId the id of the snapshot
+     * @return true if successful
+     */
+    static boolean reset(@NonNull Context context, long snapshotId) {
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fos = context.openFileOutput(FILENAME, Context.MODE_PRIVATE);
+            out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshotId);
+            out.flush();
+            fos.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "reset failed " + e.getMessage());
+            return false;
+        } finally {
+            SavingHelper.close(out);
+        }
+    }
+
+    /**
+     * Delete the journal
+     *
+     * @param context Android Context
+     */
+    static void delete(@NonNull Context context) {
+        context.deleteFile(FILENAME);
+    }
+
+    /**
+     * Get the current size of the journal
+     *
+     * @param context Android Context
+     * @return the size in bytes or 0 if it doesn't exist
+     */
+    static long size(@NonNull Context context) {
+        return context.getFileStreamPath(FILENAME).length();
+    }
+
+    /**
+     * Append the current state of elements to the journal
+     *
+     * @param context Android Context
+     * @param snapshotId the id of the snapshot the journal should belong to
+     * @param elements the changed elements
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param idSequences the current id sequences of the OsmElementFactory
+     * @param imagery the recorded imagery
+     * @return true if the batch was written, false if the journal doesn't exist, belongs to a different snapshot or
+     *         writing failed
+     */
+    static boolean append(@NonNull Context context, long snapshotId, @NonNull List<OsmElement> elements, @NonNull Storage currentStorage,
+            @NonNull Storage apiStorage, @NonNull long[] idSequences, @NonNull List<String> imagery) {
+        File file = context.getFileStreamPath(FILENAME);
+        if (file.length() < HEADER_SIZE || readSnapshotId(file) != snapshotId) {
+            Log.w(DEBUG_TAG, "journal missing or for other snapshot");
+            return false;
+        }
+        DataOutputStream out = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream batch = new DataOutputStream(bytes);
+            batch.writeLong(idSequences[0]);
+            batch.writeLong(idSequences[1]);
+            batch.writeLong(idSequences[2]);
+            batch.writeInt(imagery.size());
+            for (String i : imagery) {
+                batch.writeUTF(i);
+            }
+            batch.writeInt(elements.size());
+            // nodes before ways before relations so that references can be resolved when reading
+            for (byte type = NODE; type <= RELATION; type++) {
+                for (OsmElement e : elements) {
+                    if (typeOf(e) == type) {
+                        writeElement(batch, e, currentStorage, apiStorage);
+                    }
+                }
+            }
+            batch.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            FileOutputStream fos = new FileOutputStream(file, true);
+            out = new DataOutputStream(fos);
+            out.writeInt(payload.length);
+            out.writeLong(crc.getValue());
+            out.write(payload);
+            out.flush();
+            fos.getFD().sync();
+            Log.i(DEBUG_TAG, "appended " + elements.size() + " elements, " + payload.length + " bytes");
+            return true;
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "append failed " + e.getMessage());
+            return false;
+        } finally {
+            SavingHelper.close(out);
+        }
+    }
+
+    /**
+     * Apply the journal to freshly loaded state
+     *
+     * A batch that was not completely written is removed from the journal.
+     *
+     * @param context Android Context
+     * @param snapshotId the id of the loaded snapshot
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param factory the OsmElementFactory
+     * @param imagery the recorded imagery
+     * @return the number of batches applied or -1 if there is no journal for the snapshot
+     */
+    static int replay(@NonNull Context context, long snapshotId, @NonNull Storage currentStorage, @NonNull Storage apiStorage,
+            @NonNull OsmElementFactory factory, @NonNull List<String> imagery) {
+        File file = context.getFileStreamPath(FILENAME);
+        if (file.length() < HEADER_SIZE || readSnapshotId(file) != snapshotId) {
+            return -1;
+        }
+        int batches = 0;
+        long validLength = HEADER_SIZE;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            in.skipBytes(HEADER_SIZE);
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long checksum = in.readLong();
+                    if (length < 0 || length > file.length()) {
+                        Log.e(DEBUG_TAG, "invalid batch length " + length);
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) {
+                        Log.e(DEBUG_TAG, "checksum mismatch in batch " + batches);
+                        break;
+                    }
+                } catch (EOFException eof) {
+                    break;
+                }
+                applyBatch(new DataInputStream(new ByteArrayInputStream(payload)), currentStorage, apiStorage, factory, imagery);
+                validLength += 12 + payload.length;
+                batches++;
+            }
+        } catch (IOException | StorageException e) {
+            Log.e(DEBUG_TAG, "replay failed " + e.getMessage());
+        } finally {
+            SavingHelper.close(in);
+        }
+        if (validLength < file.length()) {
+            truncate(file, validLength);
+        }
+        Log.i(DEBUG_TAG, "replayed " + batches + " batches");
+        return batches;
+    }
+
+    /**
+     * Read the snapshot id from the journal header
+     *
+     * @param file the journal File
+     * @return the id or 0 if the header couldn't be read or is invalid
+     */
+    private static long readSnapshotId(@NonNull File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.e(DEBUG_TAG, "invalid journal header");
+                return 0;
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "reading header failed " + e.getMessage());
+            return 0;
+        } finally {
+            SavingHelper.close(in);
+        }
+    }
+
+    /**
+     * Remove a damaged tail from the journal
+     *
+     * @param file the journal File
+     * @param length the length of the valid part
+     */
+    private static void truncate(@NonNull File file, long length) {
+        Log.w(DEBUG_TAG, "truncating journal from " + file.length() + " to " + length);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "truncate failed " + e.getMessage());
+        } finally {
+            SavingHelper.close(raf);
+        }
+    }
+
+    /**
+     * Get the record type for an element
+     *
+     * @param e the OsmElement
+     * @return the record type
+     */
+    private static byte typeOf(@NonNull OsmElement e) {
+        if (e instanceof Node) {
+            return NODE;
+        }
+        return e instanceof Way ? WAY : RELATION;
+    }
+
+    /**
+     * Write the current state of an element
+     *
+     * @param out the output
+     * @param e the OsmElement
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @throws IOException if writing fails
+     */
+    private static void writeElement(@NonNull DataOutputStream out, @NonNull OsmElement e, @NonNull Storage currentStorage, @NonNull Storage apiStorage)
+            throws IOException {
+        out.writeByte(typeOf(e));
+        out.writeLong(e.getOsmId());
+        out.writeByte((currentStorage.contains(e) ? IN_CURRENT : 0) | (apiStorage.contains(e) ? IN_API : 0));
+        out.writeLong(e.getOsmVersion());
+        out.writeByte(e.getState());
+        out.writeLong(e.getTimestamp());
+        SortedMap<String, String> tags = e.tags;
+        if (tags == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(tags.size());
+            for (Entry<String, String> tag : tags.entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+        }
+        List<Relation> parents = e.parentRelations;
+        if (parents == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(parents.size());
+            for (Relation r : parents) {
+                out.writeLong(r.getOsmId());
+            }
+        }
+        if (e instanceof Node) {
+            out.writeInt(((Node) e).lat);
+            out.writeInt(((Node) e).lon);
+        } else if (e instanceof Way) {
+            List<Node> wayNodes = ((Way) e).nodes;
+            out.writeInt(wayNodes.size());
+            for (Node n : wayNodes) {
+                out.writeLong(n.getOsmId());
+            }
+        } else {
+            List<RelationMember> members = ((Relation) e).members;
+            out.writeInt(members.size());
+            for (RelationMember rm : members) {
+                out.writeUTF(rm.getType());
+                out.writeLong(rm.getRef());
+                String role = rm.getRole();
+                out.writeBoolean(role != null);
+                if (role != null) {
+                    out.writeUTF(role);
+                }
+            }
+        }
+    }
+
+    /**
+     * Member of a Relation that can only be resolved once all elements in a batch have been read
+     */
+    private static class PendingMember {
+        final String type;
+        final long   ref;
+        final String role;
+
+        /**
+         * Construct a new instance
+         *
+         * @param type the member type
+         * @param ref the member id
+         * @param role the role or null
+         */
+        PendingMember(@NonNull String type, long ref, @Nullable String role) {
+            this.type = type;
+            this.ref = ref;
+            this.role = role;
+        }
+    }
+
+    /**
+     * Read and apply one batch of records
+     *
+     * @param in the input
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param factory the OsmElementFactory
+     * @param imagery the recorded imagery
+     * @throws IOException if reading fails
+     * @throws StorageException if inserting an element fails
+     */
+    private static void applyBatch(@NonNull DataInputStream in, @NonNull Storage currentStorage, @NonNull Storage apiStorage,
+            @NonNull OsmElementFactory factory, @NonNull List<String> imagery) throws IOException, StorageException {
+        factory.setIdSequences(in.readLong(), in.readLong(), in.readLong());
+        int imageryCount = in.readInt();
+        for (int i = 0; i < imageryCount; i++) {
+            String name = in.readUTF();
+            if (!imagery.contains(name)) {
+                imagery.add(name);
+            }
+        }
+        int count = in.readInt();
+        List<OsmElement> elements = new ArrayList<>(count);
+        List<long[]> parents = new ArrayList<>(count);
+        List<Relation> relations = new ArrayList<>();
+        List<List<PendingMember>> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            long id = in.readLong();
+            byte flags = in.readByte();
+            long version = in.readLong();
+            byte state = in.readByte();
+            long timestamp = in.readLong();
+            TreeMap<String, String> tags = null;
+            int tagCount = in.readInt();
+            if (tagCount >= 0) {
+                tags = new TreeMap<>();
+                for (int j = 0; j < tagCount; j++) {
+                    tags.put(in.readUTF(), in.readUTF());
+                }
+            }
+            long[] parentIds = null;
+            int parentCount = in.readInt();
+            if (parentCount >= 0) {
+                parentIds = new long[parentCount];
+                for (int j = 0; j < parentCount; j++) {
+                    parentIds[j] = in.readLong();
+                }
+            }
+            OsmElement e;
+            switch (type) {
+            case NODE:
+                e = applyNode(id, in.readInt(), in.readInt(), currentStorage, apiStorage);
+                break;
+            case WAY:
+                e = applyWay(id, in, currentStorage, apiStorage);
+                break;
+            case RELATION:
+                Relation r = currentStorage.getRelation(id);
+                if (r == null) {
+                    r = apiStorage.getRelation(id);
+                }
+                if (r == null) {
+                    r = OsmElementFactory.createRelation(id, version, timestamp, state);
+                }
+                int memberCount = in.readInt();
+                List<PendingMember> pendingMembers = new ArrayList<>(memberCount);
+                for (int j = 0; j < memberCount; j++) {
+                    String memberType = in.readUTF();
+                    long ref = in.readLong();
+                    String role = in.readBoolean() ? in.readUTF() : null;
+                    pendingMembers.add(new PendingMember(memberType, ref, role));
+                }
+                relations.add(r);
+                members.add(pendingMembers);
+                e = r;
+                break;
+            default:
+                throw new IOException("Unknown element type " + type);
+            }
+            e.osmVersion = version;
+            e.state = state;
+            e.setTimestamp(timestamp);
+            e.setTags(tags);
+            e.resetHasProblem();
+            setStorages(e, flags, currentStorage, apiStorage);
+            if (e instanceof Way) {
+                currentStorage.invalidateWayBoundingBox((Way) e);
+                apiStorage.invalidateWayBoundingBox((Way) e);
+            }
+            elements.add(e);
+            parents.add(parentIds);
+        }
+        // now all relations exist and references can be resolved
+        for (int i = 0; i < relations.size(); i++) {
+            Relation r = relations.get(i);
+            r.members.clear();
+            for (PendingMember pm : members.get(i)) {
+                RelationMember rm = new RelationMember(pm.type, pm.ref, pm.role);
+                rm.setElement(find(pm.type, pm.ref, currentStorage, apiStorage));
+                r.members.add(rm);
+            }
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            OsmElement e = elements.get(i);
+            long[] parentIds = parents.get(i);
+            if (parentIds == null) {
+                e.parentRelations = null;
+            } else {
+                e.parentRelations = new ArrayList<>(parentIds.length);
+                for (long id : parentIds) {
+                    Relation r = (Relation) find(Relation.NAME, id, currentStorage, apiStorage);
+                    if (r != null) {
+                        e.parentRelations.add(r);
+                    } else {
+                        Log.e(DEBUG_TAG, e.getDescription() + " parent relation " + id + " missing");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Update or create a Node
+     *
+     * @param id the Node id
+     * @param lat the latitude WGS84*1E7
+     * @param lon the longitude WGS84*1E7
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @return the Node
+     */
+    @NonNull
+    private static Node applyNode(long id, int lat, int lon, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
+        Node n = (Node) find(Node.NAME, id, currentStorage, apiStorage);
+        if (n == null) {
+            return OsmElementFactory.createNode(id, 1, -1, OsmElement.STATE_CREATED, lat, lon);
+        }
+        int oldLat = n.lat;
+        int oldLon = n.lon;
+        n.lat = lat;
+        n.lon = lon;
+        currentStorage.nodeMoved(n, oldLat, oldLon);
+        apiStorage.nodeMoved(n, oldLat, oldLon);
+        return n;
+    }
+
+    /**
+     * Update or create a Way, reading the way nodes from in
+     *
+     * @param id the Way id
+     * @param in the input
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @return the Way
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static Way applyWay(long id, @NonNull DataInputStream in, @NonNull Storage currentStorage, @NonNull Storage apiStorage) throws IOException {
+        Way w = (Way) find(Way.NAME, id, currentStorage, apiStorage);
+        if (w == null) {
+            w = OsmElementFactory.createWay(id, 1, -1, OsmElement.STATE_CREATED);
+        }
+        currentStorage.invalidateWayBoundingBox(w);
+        apiStorage.invalidateWayBoundingBox(w);
+        w.getNodes().clear();
+        int nodeCount = in.readInt();
+        for (int j = 0; j < nodeCount; j++) {
+            long nodeId = in.readLong();
+            Node n = (Node) find(Node.NAME, nodeId, currentStorage, apiStorage);
+            if (n != null) {
+                w.getNodes().add(n);
+            } else {
+                Log.e(DEBUG_TAG, "way " + id + " node " + nodeId + " missing");
+            }
+        }
+        w.setStyle(null);
+        return w;
+    }
+
+    /**
+     * Add or remove an element from the storages
+     *
+     * @param e the OsmElement
+     * @param flags flags indicating which storages the element should be in
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @throws StorageException if inserting fails
+     */
+    private static void setStorages(@NonNull OsmElement e, byte flags, @NonNull Storage currentStorage, @NonNull Storage apiStorage) throws StorageException {
+        if ((flags & IN_CURRENT) != 0) {
+            currentStorage.insertElementSafe(e);
+        } else {
+            currentStorage.removeElement(e);
+        }
+        if ((flags & IN_API) != 0) {
+            apiStorage.insertElementSafe(e);
+        } else {
+            apiStorage.removeElement(e);
+        }
+    }
+
+    /**
+     * Find an element in the current or the api storage
+     *
+     * @param type the element type
+     * @param id the element id
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @return the OsmElement or null if not found
+     */
+    @Nullable
+    private static OsmElement find(@NonNull String type, long id, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
+        OsmElement e = currentStorage.getOsmElement(type, id);
+        return e != null ? e : apiStorage.getOsmElement(type, id);
+    }
+}
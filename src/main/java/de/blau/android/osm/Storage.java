@@ -34,6 +34,12 @@ public class Storage implements Serializable {
 
     private transient LongHashSet nodeIsRef;
 
+    private transient GridIndex index;
+
+    private transient ParentWayIndex parentWays;
+
+    private transient volatile CoverageIndex coverage;
+
     /**
      * Default constructor
      * <p>
@@ -124,23 +130,15 @@ public class Storage implements Serializable {
     /**
      * Return all nodes in a bounding box
      * 
-     * Notes: - currently this does a sequential scan of all nodes - zsing a for loop instead of for each is twice as
-     * fast
+     * Uses the spatial index which will be built on first use
      * 
      * @param box bounding box to search in
      * @return a list of all nodes in box
      */
     @NonNull
     public List<Node> getNodes(@NonNull BoundingBox box) {
-        ArrayList<Node> result = new ArrayList<>(nodes.size());
-        List<Node> list = nodes.values();
-        int listSize = list.size();
-        for (int i = 0; i < listSize; i++) {
-            Node n = list.get(i);
-            if (box.isIn(n.getLon(), n.getLat())) {
-                result.add(n);
-            }
-        }
+        List<Node> result = new ArrayList<>();
+        getIndex().queryNodes(box, result);
         return result;
     }
 
@@ -156,25 +154,88 @@ public class Storage implements Serializable {
     /**
      * Return all ways covered or possibly intersecting a bounding box
      * <p>
-     * Note: currently this does a sequential scan of all ways
+     * Uses the spatial index which will be built on first use
      * 
      * @param box bounding box to search in
      * @return a list of all ways in box
      */
     @NonNull
     public List<Way> getWays(@NonNull BoundingBox box) {
-        List<Way> result = new ArrayList<>(ways.size());
-        BoundingBox newBox = new BoundingBox(); // avoid creating new instances
-        List<Way> list = ways.values();
-        int listSize = list.size();
-        for (int i = 0; i < listSize; i++) {
-            Way w = list.get(i);
-            BoundingBox wayBox = w.getBounds(newBox);
-            if (wayBox.intersects(box)) {
-                result.add(w);
+        List<Way> result = new ArrayList<>();
+        getIndex().queryWays(box, result);
+        return result;
+    }
+
+    /**
+     * Get the spatial index for nodes and ways, building it if necessary
+     * 
+     * @return the GridIndex
+     */
+    @NonNull
+    private synchronized GridIndex getIndex() {
+        if (index == null) {
+            GridIndex newIndex = new GridIndex();
+            for (Node n : nodes) {
+                newIndex.insert(n);
+            }
+            for (Way w : ways) {
+                newIndex.insert(w);
             }
+            index = newIndex;
         }
-        return result;
+        return index;
+    }
+
+    /**
+     * Update the spatial index after the position of a node has been changed
+     * 
+     * Does nothing if the node isn't in this storage
+     * 
+     * @param node the node that has been moved
+     * @param oldLatE7 the previous latitude (WGS84*1E7)
+     * @param oldLonE7 the previous longitude (WGS84*1E7)
+     */
+    void nodeMoved(@NonNull final Node node, final int oldLatE7, final int oldLonE7) {
+        GridIndex current = index;
+        if (current != null && nodes.get(node.getOsmId()) == node) {
+            current.move(node, oldLatE7, oldLonE7);
+        }
+    }
+
+    /**
+     * Invalidate the cached bounding box of a way and schedule it for re-indexing
+     * 
+     * This should be called before the geometry is changed
+     * 
+     * @param way the way
+     */
+    void invalidateWayBoundingBox(@NonNull final Way way) {
+        way.invalidateBoundingBox();
+        GridIndex current = index;
+        if (current != null) {
+            current.invalidate(way);
+        }
+        ParentWayIndex currentParents = parentWays;
+        if (currentParents != null && ways.get(way.getOsmId()) == way) {
+            currentParents.invalidate(way);
+        }
+    }
+
+    /**
+     * Get the node to way index, building it if necessary
+     * 
+     * @return the ParentWayIndex
+     */
+    @NonNull
+    private synchronized ParentWayIndex getParentWays() {
+        if (parentWays == null) {
+            ParentWayIndex newParentWays = new ParentWayIndex(nodes.size());
+            for (Way w : ways) {
+                newParentWays.add(w);
+            }
+            parentWays = newParentWays;
+        }
+        return parentWays;
     }
 
     /**
@@ -224,7 +285,14 @@ public class Storage implements Serializable {
      */
     void insertNodeUnsafe(@NonNull final Node node) {
         try {
-            nodes.put(node.getOsmId(), node);
+            Node old = nodes.put(node.getOsmId(), node);
+            GridIndex current = index;
+            if (current != null && old != node) {
+                if (old != null) {
+                    current.remove(old);
+                }
+                current.insert(node);
+            }
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -238,7 +306,21 @@ public class Storage implements Serializable {
      */
     void insertWayUnsafe(@NonNull final Way way) {
         try {
-            ways.put(way.getOsmId(), way);
+            Way old = ways.put(way.getOsmId(), way);
+            GridIndex current = index;
+            if (current != null) {
+                if (old != null && old != way) {
+                    current.remove(old);
+                }
+                current.insert(way);
+            }
+            ParentWayIndex currentParents = parentWays;
+            if (currentParents != null) {
+                if (old != null && old != way) {
+                    currentParents.remove(old);
+                }
+                currentParents.add(way);
+            }
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -292,7 +374,15 @@ public class Storage implements Serializable {
      * @return true if the node was in storage
      */
     boolean removeNode(@NonNull final Node node) {
-        return nodes.remove(node.getOsmId()) != null;
+        Node removed = (Node) nodes.remove(node.getOsmId());
+        if (removed != null) {
+            GridIndex current = index;
+            if (current != null) {
+                current.remove(removed);
+            }
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -302,7 +392,19 @@ public class Storage implements Serializable {
      * @return true if the way was in storage
      */
     boolean removeWay(@NonNull final Way way) {
-        return ways.remove(way.getOsmId()) != null;
+        Way removed = (Way) ways.remove(way.getOsmId());
+        if (removed != null) {
+            GridIndex current = index;
+            if (current != null) {
+                current.remove(removed);
+            }
+            ParentWayIndex currentParents = parentWays;
+            if (currentParents != null) {
+                currentParents.remove(removed);
+            }
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -323,9 +425,9 @@ public class Storage implements Serializable {
      */
     boolean removeElement(@Nullable final OsmElement element) {
         if (element instanceof Way) {
-            return ways.remove(element.getOsmId()) != null;
+            return removeWay((Way) element);
         } else if (element instanceof Node) {
-            return nodes.remove(element.getOsmId()) != null;
+            return removeNode((Node) element);
         } else if (element instanceof Relation) {
             return relations.remove(element.getOsmId()) != null;
         }
@@ -335,11 +437,21 @@ public class Storage implements Serializable {
     /**
      * Get all bounding boxes of downloaded data
      * 
-     * @return all bounding boxes
+     * @return an unmodifiable view of all bounding boxes, use the methods of this class to change them
      */
     @NonNull
     public List<BoundingBox> getBoundingBoxes() {
-        return bboxes;
+        return Collections.unmodifiableList(bboxes);
+    }
+
+    /**
+     * Remove all bounding boxes
+     */
+    public void clearBoundingBoxes() {
+        synchronized (bboxes) {
+            bboxes.clear();
+            coverage = null;
+        }
     }
 
     /**
@@ -348,8 +460,11 @@ public class Storage implements Serializable {
      * @param bbox bounding box to add
      */
     void setBoundingBox(@NonNull final BoundingBox bbox) {
-        bboxes.clear();
-        bboxes.add(bbox);
+        synchronized (bboxes) {
+            bboxes.clear();
+            bboxes.add(bbox);
+            coverage = null;
+        }
     }
 
     /**
@@ -358,7 +473,13 @@ public class Storage implements Serializable {
      * @param bbox bounding box to add
      */
     void addBoundingBox(@NonNull final BoundingBox bbox) {
-        bboxes.add(bbox);
+        synchronized (bboxes) {
+            bboxes.add(bbox);
+            CoverageIndex current = coverage;
+            if (current != null) {
+                current.add(bbox);
+            }
+        }
     }
 
     /**
@@ -367,7 +488,32 @@ public class Storage implements Serializable {
      * @param box bounding box to remove
      */
     public void deleteBoundingBox(@NonNull BoundingBox box) {
-        bboxes.remove(box);
+        synchronized (bboxes) {
+            if (bboxes.remove(box)) {
+                coverage = null; // rebuilt on next use, covered cells don't retain the boxes covering them
+            }
+        }
+    }
+
+    /**
+     * Check if coordinates are in one of the bounding boxes
+     * 
+     * @param lonE7 WGS84 longitude*1E7
+     * @param latE7 WGS84 latitude*1E7
+     * @return true if the coordinates are in one of the bounding boxes
+     */
+    public boolean isInBoundingBoxes(int lonE7, int latE7) {
+        CoverageIndex current = coverage;
+        if (current == null) {
+            synchronized (bboxes) {
+                current = coverage;
+                if (current == null) {
+                    current = new CoverageIndex(bboxes);
+                    coverage = current;
+                }
+            }
+        }
+        return current.isIn(lonE7, latE7);
     }
 
     /**
@@ -382,7 +528,7 @@ public class Storage implements Serializable {
     /**
      * Get all ways that node is a vertex of
      * 
-     * This method currently does a sequential scan of all ways in storage and should be avoided
+     * Uses the node to way index which will be built on first use
      * 
      * @param node node to search for
      * @return list containing all ways containing node
@@ -390,13 +536,7 @@ public class Storage implements Serializable {
     @NonNull
     public List<Way> getWays(@NonNull final Node node) {
         List<Way> mWays = new ArrayList<>();
-        // BoundingBox box = new BoundingBox();
-        for (Way way : ways) {
-            // box = way.getBounds(box);
-            if (/* box.contains(node.getLon(), node.getLat()) && */way.hasNode(node)) {
-                mWays.add(way);
-            }
-        }
+        getParentWays().getWays(node, mWays);
         return mWays;
     }
 
@@ -419,18 +559,13 @@ public class Storage implements Serializable {
     /**
      * Tests if node is first or last node of any way in storage
      * <p>
-     * This method currently does a sequential scan of all ways in storage and should be avoided
+     * Uses the node to way index which will be built on first use
      * 
      * @param node node to check
      * @return true if node is the first or last node of at least one way
      */
     public boolean isEndNode(@Nullable final Node node) {
-        for (Way way : ways) {
-            if (way.isEndNode(node)) {
-                return true;
-            }
-        }
-        return false;
+        return node != null && getParentWays().isEndNode(node);
     }
 
     /**
@@ -502,6 +637,24 @@ public class Storage implements Serializable {
         nodes.rehash();
         ways.rehash();
         relations.rehash();
+        synchronized (this) {
+            parentWays = null; // keyed by node id
+        }
+    }
+
+    /**
+     * Replace the tags of all elements by shared instances, required after the Storage has been deserialized
+     */
+    void internTags() {
+        for (Node n : nodes) {
+            n.internTags();
+        }
+        for (Way w : ways) {
+            w.internTags();
+        }
+        for (Relation r : relations) {
+            r.internTags();
+        }
     }
 
     /**
@@ -41,14 +41,23 @@ import de.blau.android.util.SavingHelper;
 import de.blau.android.util.SavingHelper.Exportable;
 import de.blau.android.util.Snack;
 import de.blau.android.util.Util;
-import de.blau.android.util.collections.LongOsmElementMap;
+import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.validation.BaseValidator;
 
 public class StorageDelegator implements Serializable, Exportable {
 
     private static final String DEBUG_TAG = "StorageDelegator";
 
-    private static final long serialVersionUID = 9L;
+    private static final long serialVersionUID = 10L;
+
+    /**
+     * Results of comparing incoming data with existing elements when merging
+     */
+    private static final int MERGE_SKIP           = 0;
+    private static final int MERGE_INSERT         = 1;
+    private static final int MERGE_UPDATE         = 2;
+    private static final int MERGE_CONFLICT       = 3;
+    private static final int MERGE_UPDATE_DELETED = 4;
 
     private Storage currentStorage;
 
@@ -81,6 +90,31 @@ public class StorageDelegator implements Serializable, Exportable {
 
     private transient SavingHelper<StorageDelegator> savingHelper = new SavingHelper<>();
 
+    /**
+     * Id of the last snapshot written, used to check that a journal belongs to the snapshot
+     */
+    private long snapshotId;
+
+    /**
+     * If true save changes to the journal instead of writing a full snapshot each time
+     */
+    private transient boolean useJournal = false;
+
+    /**
+     * Set if changes have been made that cannot be recorded in the journal
+     */
+    private transient boolean snapshotRequired = true;
+
+    /**
+     * Number of batches written to the journal since the last snapshot
+     */
+    private transient int journalBatches = 0;
+
+    /**
+     * Counter for changes to the data, see {@link #getDataGeneration()}
+     */
+    private transient volatile long generation = 0;
+
     /**
      * A OsmElementFactory that is used to create new elements. Needs to be persisted together with
      * currentStorage/apiStorage to avoid duplicate IDs when the application is restarted after some elements have been
@@ -103,12 +137,14 @@ public class StorageDelegator implements Serializable, Exportable {
      */
     public void reset(boolean dirty) {
         this.dirty = dirty;
+        snapshotRequired = true;
         apiStorage = new Storage();
         currentStorage = new Storage();
         clipboard = new ClipboardStorage();
         undo = new UndoStorage(currentStorage, apiStorage);
         factory = new OsmElementFactory();
         imagery = new ArrayList<>();
+        dataChanged();
     }
 
     /**
@@ -118,10 +154,12 @@ public class StorageDelegator implements Serializable, Exportable {
      */
     public synchronized void setCurrentStorage(@NonNull final Storage currentStorage) {
         dirty = true;
+        snapshotRequired = true;
         apiStorage = new Storage();
         clipboard = new ClipboardStorage();
         this.currentStorage = currentStorage;
         undo = new UndoStorage(currentStorage, apiStorage);
+        dataChanged();
     }
 
     /**
@@ -135,12 +173,35 @@ public class StorageDelegator implements Serializable, Exportable {
 
     /**
      * set dirty to true
+     * 
+     * As the changes are not known this will cause a full snapshot to be written on the next save
      */
     public void dirty() {
         dirty = true;
+        snapshotRequired = true;
+        dataChanged();
         Log.d(DEBUG_TAG, "setting delegator to dirty");
     }
 
+    /**
+     * Get a counter that is increased whenever the data has been changed
+     * 
+     * The counter is increased after the data has been changed, a value read while an operation is in progress will
+     * not match the value after the operation has completed.
+     * 
+     * @return the current data generation
+     */
+    public long getDataGeneration() {
+        return generation;
+    }
+
+    /**
+     * Increase the data generation, needs to be called after the data has been changed
+     */
+    private void dataChanged() {
+        generation++;
+    }
+
     /**
      * Get the current undo instance. For immediate use only - DO NOT CACHE THIS.
      * 
@@ -240,6 +301,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param post list of changed elements after the operation or null
      */
     private void onElementChanged(@Nullable List<OsmElement> pre, @Nullable List<OsmElement> post) {
+        dataChanged();
         if (post != null) {
             boolean nodeChanged = false;
             BoundingBox changed = null;
@@ -247,7 +309,7 @@ public class StorageDelegator implements Serializable, Exportable {
                 e.stamp();
                 e.resetHasProblem();
                 if (Way.NAME.equals(e.getName())) {
-                    ((Way) e).invalidateBoundingBox();
+                    invalidateBoundingBox((Way) e);
                 } else if (Node.NAME.equals(e.getName())) {
                     nodeChanged = true;
                     if (changed == null) {
@@ -259,7 +321,7 @@ public class StorageDelegator implements Serializable, Exportable {
             }
             if (nodeChanged) {
                 for (Way w : currentStorage.getWays(changed)) {
-                    w.invalidateBoundingBox();
+                    invalidateBoundingBox(w);
                     w.resetHasProblem();
                 }
             }
@@ -336,13 +398,23 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param w the way to operate on
      */
     private void invalidateWay(@NonNull Way w) {
-        w.invalidateBoundingBox();
+        invalidateBoundingBox(w);
         if (w.hasTagKey(Tags.KEY_HIGHWAY)) {
             // we only validate way connections for highways currently
             w.resetHasProblem();
         }
     }
 
+    /**
+     * Invalidate the cached bounding box of a way and update the spatial indices of the storages
+     * 
+     * @param w the way to operate on
+     */
+    private void invalidateBoundingBox(@NonNull Way w) {
+        currentStorage.invalidateWayBoundingBox(w);
+        apiStorage.invalidateWayBoundingBox(w);
+    }
+
     /**
      * Way geometry has to be invalidated -before- nodes are moved
      * 
@@ -606,9 +678,24 @@ public class StorageDelegator implements Serializable, Exportable {
      */
     private void updateLatLon(@NonNull final Node node, final int latE7, final int lonE7) {
         apiStorage.insertElementSafe(node);
+        setLatLon(node, latE7, lonE7);
+        node.updateState(OsmElement.STATE_MODIFIED);
+    }
+
+    /**
+     * Set the position of a Node and update the spatial indices of the storages
+     * 
+     * @param node the Node to update
+     * @param latE7 new WGS84*1E7 latitude
+     * @param lonE7 new WGS84*1E7 longitude
+     */
+    private void setLatLon(@NonNull final Node node, final int latE7, final int lonE7) {
+        int oldLatE7 = node.getLat();
+        int oldLonE7 = node.getLon();
         node.setLat(latE7);
         node.setLon(lonE7);
-        node.updateState(OsmElement.STATE_MODIFIED);
+        currentStorage.nodeMoved(node, oldLatE7, oldLonE7);
+        apiStorage.nodeMoved(node, oldLatE7, oldLonE7);
     }
 
     /**
@@ -666,6 +753,7 @@ public class StorageDelegator implements Serializable, Exportable {
                 updateLatLon(nd, nd.getLat() + deltaLatE7, nd.getLon() + deltaLonE7);
             }
             // Don't call onElementChanged
+            dataChanged();
         } catch (StorageException e) {
             // TODO handle OOM
             Log.e(DEBUG_TAG, "moveNodes got " + e.getMessage());
@@ -718,6 +806,7 @@ public class StorageDelegator implements Serializable, Exportable {
                 i++;
             }
             // Don't call onElementChanged
+            dataChanged();
         } catch (StorageException e) {
             // TODO handle OOM
             Log.e(DEBUG_TAG, "circulizeWay got " + e.getMessage());
@@ -899,6 +988,7 @@ public class StorageDelegator implements Serializable, Exportable {
                 }
             }
             // Don't call onElementChanged
+            dataChanged();
         } catch (StorageException e) {
             // TODO handle OOM
             Log.e(DEBUG_TAG, "orthogonalizeWay got " + e.getMessage());
@@ -1467,6 +1557,7 @@ public class StorageDelegator implements Serializable, Exportable {
         }
 
         mergeInto.addNodes(newNodes, atBeginning);
+        invalidateBoundingBox(mergeInto);
         mergeInto.updateState(OsmElement.STATE_MODIFIED);
         insertElementSafe(mergeInto);
         mergeElementsRelations(mergeInto, mergeFrom);
@@ -2230,7 +2321,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param lon longitude where it was located
      */
     public void copyToClipboard(@Nullable OsmElement e, int lat, int lon) {
-        dirty = true; // otherwise clipboard will not get saved without other changes
+        dirty(); // otherwise clipboard will not get saved without other changes
         if (e instanceof Node) {
             Node newNode = factory.createNodeWithNewId(((Node) e).getLat(), ((Node) e).getLon());
             newNode.setTags(e.getTags());
@@ -2255,7 +2346,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param lon longitude where it was located
      */
     public void cutToClipboard(@Nullable OsmElement e, int lat, int lon) {
-        dirty = true; // otherwise clipboard will not get saved without other changes
+        dirty(); // otherwise clipboard will not get saved without other changes
         if (e instanceof Node) {
             clipboard.cutTo(e, lat, lon);
             removeNode((Node) e);
@@ -2328,20 +2419,19 @@ public class StorageDelegator implements Serializable, Exportable {
                 e = newWay;
             }
         } else { // paste from cut
+            snapshotRequired = true; // the clipboard is now empty
             if (e instanceof Node) {
-                ((Node) e).setLat(lat);
-                ((Node) e).setLon(lon);
+                setLatLon((Node) e, lat, lon);
             } else if (e instanceof Way) {
                 int deltaLat = lat - clipboard.getSelectionLat();
                 int deltaLon = lon - clipboard.getSelectionLon();
                 Set<Node> nodes = new HashSet<>(((Way) e).getNodes());
                 for (Node nd : nodes) {
-                    nd.setLat(nd.getLat() + deltaLat);
-                    nd.setLon(nd.getLon() + deltaLon);
+                    setLatLon(nd, nd.getLat() + deltaLat, nd.getLon() + deltaLon);
                     nd.updateState(OsmElement.STATE_MODIFIED);
                     insertElementSafe(nd);
                 }
-                ((Way) e).invalidateBoundingBox();
+                invalidateBoundingBox((Way) e);
             }
             e.updateState(OsmElement.STATE_MODIFIED);
             insertElementSafe(e);
@@ -2398,11 +2488,10 @@ public class StorageDelegator implements Serializable, Exportable {
     /**
      * Return the list of BoundingBoxes from the current Storage object
      * 
-     * @return the current List of BoundingBoxes
+     * @return an unmodifiable view of the current List of BoundingBoxes
      */
     @NonNull
     public synchronized List<BoundingBox> getBoundingBoxes() {
-        // TODO make a copy?
         return currentStorage.getBoundingBoxes();
     }
 
@@ -2412,7 +2501,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param box the initial BoundingBox
      */
     public synchronized void setOriginalBox(@NonNull final BoundingBox box) {
-        dirty = true;
+        dirty();
         currentStorage.setBoundingBox(box);
     }
 
@@ -2422,7 +2511,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param box the BoundingBox to add
      */
     public synchronized void addBoundingBox(@NonNull BoundingBox box) {
-        dirty = true;
+        dirty();
         currentStorage.addBoundingBox(box);
     }
 
@@ -2432,7 +2521,7 @@ public class StorageDelegator implements Serializable, Exportable {
      * @param box the BoundingBox to delete
      */
     public synchronized void deleteBoundingBox(@NonNull BoundingBox box) {
-        dirty = true;
+        dirty();
         currentStorage.deleteBoundingBox(box);
     }
 
@@ -2512,6 +2601,9 @@ public class StorageDelegator implements Serializable, Exportable {
     /**
      * Stores the current storage data to the default storage file
      * 
+     * If the journal is enabled and all changes since the last save were recorded by the undo mechanism, only the
+     * changed elements are appended to the journal, otherwise a full snapshot is written.
+     * 
      * @param ctx Android Context
      * @throws IOException if saving failed
      */
@@ -2527,23 +2619,13 @@ public class StorageDelegator implements Serializable, Exportable {
         }
 
         if (readingLock.tryLock()) {
-            // TODO this doesn't really help with error conditions need to throw exception
-            if (savingHelper.save(ctx, FILENAME, this, true)) {
+            List<OsmElement> changed = undo.getChangedElements();
+            if (useJournal && !snapshotRequired && journalBatches < StateJournal.MAX_BATCHES && StateJournal.size(ctx) < StateJournal.MAX_SIZE
+                    && StateJournal.append(ctx, snapshotId, changed, currentStorage, apiStorage, factory.getIdSequences(), imagery)) {
+                journalBatches++;
                 dirty = false;
             } else {
-                // this is essentially catastrophic and can only happen if something went really wrong
-                // running out of memory or disk, or HW failure
-                if (ctx instanceof Activity) {
-                    try {
-                        Snack.barError((Activity) ctx, R.string.toast_statesave_failed);
-                    } catch (Exception ignored) {
-                        Log.e(DEBUG_TAG, "Emergency toast failed with " + ignored.getMessage());
-                    } catch (Error ignored) { // NOSONAR crashing is not an option
-                        Log.e(DEBUG_TAG, "Emergency toast failed with " + ignored.getMessage());
-                    }
-                }
-                SavingHelper.asyncExport(ctx, this); // ctx == null is checked in method
-                Log.d(DEBUG_TAG, "save of state file failed, written emergency change file");
+                writeSnapshot(ctx);
             }
             readingLock.unlock();
         } else {
@@ -2551,6 +2633,52 @@ public class StorageDelegator implements Serializable, Exportable {
         }
     }
 
+    /**
+     * Write the complete state to the default storage file and start a new journal if necessary
+     * 
+     * @param ctx Android Context
+     */
+    private void writeSnapshot(@NonNull Context ctx) {
+        long previousSnapshotId = snapshotId;
+        snapshotId = System.currentTimeMillis();
+        // TODO this doesn't really help with error conditions need to throw exception
+        if (savingHelper.save(ctx, FILENAME, this, true)) {
+            dirty = false;
+            journalBatches = 0;
+            if (useJournal) {
+                snapshotRequired = !StateJournal.reset(ctx, snapshotId);
+            } else {
+                StateJournal.delete(ctx);
+                snapshotRequired = false;
+            }
+        } else {
+            snapshotId = previousSnapshotId;
+            snapshotRequired = true;
+            // this is essentially catastrophic and can only happen if something went really wrong
+            // running out of memory or disk, or HW failure
+            if (ctx instanceof Activity) {
+                try {
+                    Snack.barError((Activity) ctx, R.string.toast_statesave_failed);
+                } catch (Exception ignored) {
+                    Log.e(DEBUG_TAG, "Emergency toast failed with " + ignored.getMessage());
+                } catch (Error ignored) { // NOSONAR crashing is not an option
+                    Log.e(DEBUG_TAG, "Emergency toast failed with " + ignored.getMessage());
+                }
+            }
+            SavingHelper.asyncExport(ctx, this); // ctx == null is checked in method
+            Log.d(DEBUG_TAG, "save of state file failed, written emergency change file");
+        }
+    }
+
+    /**
+     * Enable or disable saving changes to a journal
+     * 
+     * @param useJournal if true changes will be appended to a journal instead of writing the complete state
+     */
+    public void setUseJournal(boolean useJournal) {
+        this.useJournal = useJournal;
+    }
+
     /**
      * Read save data from standard file
      * 
@@ -2566,6 +2694,9 @@ public class StorageDelegator implements Serializable, Exportable {
     /**
      * Read save data from file
      * 
+     * If a journal for the saved state exists it is applied, as the journal doesn't contain undo information the undo
+     * history is discarded in that case.
+     * 
      * @param context Android context
      * @param filename the file to read
      * @return true if the state was read successfully
@@ -2577,6 +2708,10 @@ public class StorageDelegator implements Serializable, Exportable {
 
             if (newDelegator != null) {
                 Log.d(DEBUG_TAG, "read saved state");
+                newDelegator.currentStorage.internTags();
+                newDelegator.apiStorage.internTags();
+                int batches = StateJournal.replay(context, newDelegator.snapshotId, newDelegator.currentStorage, newDelegator.apiStorage,
+                        newDelegator.factory, newDelegator.imagery);
                 currentStorage = newDelegator.currentStorage;
                 if (currentStorage.getBoundingBoxes().isEmpty()) { // can happen if data was added before load
                     try {
@@ -2589,7 +2724,20 @@ public class StorageDelegator implements Serializable, Exportable {
                 undo = newDelegator.undo;
                 clipboard = newDelegator.clipboard;
                 factory = newDelegator.factory;
-                dirty = false; // data was just read, i.e. memory and file are in sync
+                imagery = newDelegator.imagery;
+                snapshotId = newDelegator.snapshotId;
+                journalBatches = 0;
+                if (batches > 0) {
+                    // the undo checkpoints don't reflect the changes from the journal
+                    undo = new UndoStorage(currentStorage, apiStorage);
+                    // compact on the next save
+                    dirty = true;
+                    snapshotRequired = true;
+                } else {
+                    dirty = false; // data was just read, i.e. memory and file are in sync
+                    snapshotRequired = batches < 0;
+                }
+                dataChanged();
                 return true;
             } else {
                 Log.d(DEBUG_TAG, "saved state null");
@@ -2680,7 +2828,7 @@ public class StorageDelegator implements Serializable, Exportable {
     public synchronized void uploadToServer(final Server server, final String comment, String source, boolean closeChangeset,
             @Nullable Map<String, String> extraTags) throws MalformedURLException, ProtocolException, OsmServerException, IOException {
 
-        dirty = true; // storages will get modified as data is uploaded, these changes need to be saved to file
+        dirty(); // storages will get modified as data is uploaded, these changes need to be saved to file
         removeUnchanged();
         // upload methods set dirty flag too, in case the file is saved during an upload
         boolean split = getApiElementCount() > server.getCapabilities().getMaxElementsInChangeset();
@@ -2714,7 +2862,7 @@ public class StorageDelegator implements Serializable, Exportable {
             }
         }
         // yes, again, just to be sure
-        dirty = true;
+        dirty();
 
         // reset imagery recording for next upload
         imagery = new ArrayList<>();
@@ -2735,7 +2883,13 @@ public class StorageDelegator implements Serializable, Exportable {
     }
 
     /**
-     * Merge additional data with existing, copy to a new storage because this may fail
+     * Merge additional data with existing
+     * 
+     * All conflicts are detected before anything is changed, the data is then merged in place. Elements that replace
+     * existing ones are linked in to the ways and relations that referenced the previous version. The memberships of the
+     * relations contained in the new data and of existing relations with members that were not loaded before are
+     * resolved. Apart from the check of the existing relations the cost of merging depends on the size of the new data,
+     * not on the size of the existing data.
      * 
      * @param storage storage containing data to merge
      * @param postMerge handler to run after merging
@@ -2748,222 +2902,169 @@ public class StorageDelegator implements Serializable, Exportable {
             return true;
         }
 
-        // make temp copy of current storage (we may have to abort
-        Storage temp = new Storage(currentStorage);
-
-        // retrieve the maps
-        LongOsmElementMap<Node> nodeIndex = temp.getNodeIndex();
-        LongOsmElementMap<Way> wayIndex = temp.getWayIndex();
-        LongOsmElementMap<Relation> relationIndex = temp.getRelationIndex();
-
-        Log.d(DEBUG_TAG, "mergeData finished init");
+        // determine what needs to be done, nothing is changed before we know that the merge will succeed
+        List<Node> newNodes = new ArrayList<>();
+        LongHashSet newNodeIds = new LongHashSet();
+        for (Node n : storage.getNodes()) {
+            int action = mergeAction(currentStorage.getNode(n.getOsmId()), apiStorage.getNode(n.getOsmId()), n);
+            if (action == MERGE_CONFLICT) {
+                return false; // can't resolve conflicts, upload first
+            } else if (action == MERGE_INSERT) {
+                newNodes.add(n);
+                newNodeIds.put(n.getOsmId());
+            }
+        }
 
-        try {
-            // add nodes
-            for (Node n : storage.getNodes()) {
-                Node apiNode = apiStorage.getNode(n.getOsmId()); // can contain deleted elements
-                if (!nodeIndex.containsKey(n.getOsmId()) && apiNode == null) { // new node no problem
-                    temp.insertNodeUnsafe(n);
-                    if (postMerge != null) {
-                        postMerge.handler(n);
-                    }
-                } else {
-                    if (apiNode != null && apiNode.getState() == OsmElement.STATE_DELETED) {
-                        if (apiNode.getOsmVersion() >= n.getOsmVersion()) {
-                            continue; // can use node we already have
-                        } else {
-                            return false; // can't resolve conflicts, upload first
+        List<Way> newWays = new ArrayList<>();
+        for (Way w : storage.getWays()) {
+            int action = mergeAction(currentStorage.getWay(w.getOsmId()), apiStorage.getWay(w.getOsmId()), w);
+            if (action == MERGE_CONFLICT) {
+                return false; // can't resolve conflicts, upload first
+            } else if (action == MERGE_INSERT) {
+                for (Node wayNode : w.getNodes()) {
+                    long wayNodeId = wayNode.getOsmId();
+                    if (!newNodeIds.contains(wayNodeId) && currentStorage.getNode(wayNodeId) == null) {
+                        // node might have been deleted, aka somebody deleted nodes outside of the down loaded data
+                        // bounding box that belonged to a not downloaded way, these are reinstated when merging
+                        Node apiNode = apiStorage.getNode(wayNodeId);
+                        if (apiNode == null || apiNode.getState() != OsmElement.STATE_DELETED) {
+                            String debugString = "mergeData null way node for way " + w.getOsmId() + " v" + w.getOsmVersion() + " node " + wayNodeId
+                                    + (apiNode != null ? " state in api " + apiNode.getState() : "");
+                            Log.e(DEBUG_TAG, debugString);
+                            ACRAHelper.nocrashReport(null, debugString);
+                            return false;
                         }
                     }
-                    Node existingNode = nodeIndex.get(n.getOsmId());
-                    if (existingNode.getOsmVersion() >= n.getOsmVersion()) { // larger just to be on the safe side
-                        continue; // can use node we already have
-                    } else {
-                        if (existingNode.isUnchanged()) {
-                            temp.insertNodeUnsafe(n);
-                            if (postMerge != null) {
-                                postMerge.handler(n);
-                            }
-                        } else {
-                            return false; // can't resolve conflicts, upload first
-                        }
+                }
+                newWays.add(w);
+            }
+        }
+
+        List<Relation> newRelations = new ArrayList<>();
+        for (Relation r : storage.getRelations()) {
+            int action = mergeAction(currentStorage.getRelation(r.getOsmId()), apiStorage.getRelation(r.getOsmId()), r);
+            if (action == MERGE_CONFLICT) {
+                return false; // can't resolve conflicts, upload first
+            } else if (action == MERGE_INSERT) {
+                for (RelationMember rm : r.getMembers()) {
+                    if (Node.NAME.equals(rm.getType())) {
+                        memberIsDeleted(r, rm); // deleted nodes are only logged
+                    } else if (memberIsDeleted(r, rm)) {
+                        return false; // can't resolve conflicts, upload first
                     }
                 }
+                newRelations.add(r);
             }
+        }
 
-            Log.d(DEBUG_TAG, "mergeData added nodes");
+        Log.d(DEBUG_TAG, "mergeData checked " + newNodes.size() + " nodes " + newWays.size() + " ways " + newRelations.size() + " relations");
 
-            // add ways
-            for (Way w : storage.getWays()) {
-                Way apiWay = apiStorage.getWay(w.getOsmId()); // can contain deleted elements
-                if (!wayIndex.containsKey(w.getOsmId()) && apiWay == null) { // new way no problem
-                    temp.insertWayUnsafe(w);
-                    if (postMerge != null) {
-                        postMerge.handler(w);
-                    }
-                } else {
-                    if (apiWay != null && apiWay.getState() == OsmElement.STATE_DELETED) {
-                        if (apiWay.getOsmVersion() >= w.getOsmVersion()) {
-                            continue; // can use way we already have
-                        } else {
-                            return false; // can't resolve conflicts, upload first
-                        }
-                    }
-                    Way existingWay = wayIndex.get(w.getOsmId());
-                    if (existingWay != null) {
-                        if (existingWay.getOsmVersion() >= w.getOsmVersion()) {// larger just to be on the safe side
-                            continue; // can use way we already have
-                        } else {
-                            if (existingWay.isUnchanged()) {
-                                temp.insertWayUnsafe(w);
-                                if (postMerge != null) {
-                                    postMerge.handler(w);
-                                }
-                            } else {
-                                return false; // can't resolve conflicts, upload first
+        try {
+            // previous and new versions of replaced elements
+            List<OsmElement[]> replaced = new ArrayList<>();
+
+            // add nodes
+            for (Node n : newNodes) {
+                Node existingNode = currentStorage.getNode(n.getOsmId());
+                n.clearParentRelations();
+                if (existingNode != null) {
+                    List<Way> parentWays = currentStorage.getWays(existingNode);
+                    currentStorage.insertNodeUnsafe(n);
+                    for (Way w : parentWays) {
+                        List<Node> wayNodes = w.getNodes();
+                        for (int i = 0; i < wayNodes.size(); i++) {
+                            if (wayNodes.get(i) == existingNode) {
+                                wayNodes.set(i, n);
                             }
                         }
-                    } else {
-                        // this shouldn't be able to happen
-                        String debugString = "mergeData null existing way " + w.getOsmId() + " containsKey is " + wayIndex.containsKey(w.getOsmId())
-                                + " apiWay is " + apiWay;
-                        Log.e(DEBUG_TAG, debugString);
-                        ACRAHelper.nocrashReport(null, debugString);
-                        return false;
+                        invalidateBoundingBox(w);
                     }
+                    replaced.add(new OsmElement[] { existingNode, n });
+                } else {
+                    currentStorage.insertNodeUnsafe(n);
+                }
+                if (postMerge != null) {
+                    postMerge.handler(n);
                 }
             }
 
-            Log.d(DEBUG_TAG, "mergeData added ways");
+            Log.d(DEBUG_TAG, "mergeData added nodes");
 
-            // fix up way nodes
-            // all nodes should be in storage now, however new ways will have references to copies not in storage
-            for (Way w : wayIndex) {
-                List<Node> nodes = w.getNodes();
-                for (int i = 0; i < nodes.size(); i++) {
-                    Node wayNode = nodes.get(i);
-                    long wayNodeId = wayNode.getOsmId();
-                    Node n = nodeIndex.get(wayNodeId);
-                    if (n != null) {
-                        nodes.set(i, n);
-                    } else {
-                        // node might have been deleted, aka somebody deleted nodes outside of the down loaded data
-                        // bounding box
-                        // that belonged to a not downloaded way
-                        Node apiNode = apiStorage.getNode(wayNodeId);
-                        if (apiNode != null && apiNode.getState() == OsmElement.STATE_DELETED) {
-                            // attempt to fix this up, reinstate the original node so that any existing references
-                            // remain
-                            // FIXME undoing the original delete will likely cause havoc
-                            Log.e(DEBUG_TAG, "mergeData null undeleting node " + wayNodeId);
-                            if (apiNode.getOsmVersion() == wayNode.getOsmVersion() && (apiNode.isTagged() && apiNode.getTags().equals(wayNode.getTags()))
-                                    && apiNode.getLat() == wayNode.getLat() && apiNode.getLon() == wayNode.getLon()) {
-                                apiNode.setState(OsmElement.STATE_UNCHANGED);
-                                apiStorage.removeNode(apiNode);
-                            } else {
-                                apiNode.setState(OsmElement.STATE_MODIFIED);
-                            }
-                            temp.insertNodeUnsafe(apiNode);
-                            nodes.set(i, apiNode);
-                        } else {
-                            String debugString = "mergeData null way node for way " + w.getOsmId() + " v" + w.getOsmVersion() + " node " + wayNodeId
-                                    + (apiNode != null ? " state in api " + apiNode.getState() : "");
-                            Log.e(DEBUG_TAG, debugString);
-                            ACRAHelper.nocrashReport(null, debugString);
-                            return false;
-                        }
-                    }
+            // add ways, new ways have references to copies of nodes that are not in storage
+            for (Way w : newWays) {
+                Way existingWay = currentStorage.getWay(w.getOsmId());
+                List<Node> wayNodes = w.getNodes();
+                for (int i = 0; i < wayNodes.size(); i++) {
+                    Node wayNode = wayNodes.get(i);
+                    Node n = currentStorage.getNode(wayNode.getOsmId());
+                    wayNodes.set(i, n != null ? n : reinstateDeletedNode(wayNode));
+                }
+                w.clearParentRelations();
+                currentStorage.insertWayUnsafe(w);
+                if (existingWay != null) {
+                    replaced.add(new OsmElement[] { existingWay, w });
+                }
+                if (postMerge != null) {
+                    postMerge.handler(w);
                 }
             }
 
-            Log.d(DEBUG_TAG, "mergeData fixup way nodes nodes");
+            Log.d(DEBUG_TAG, "mergeData added ways");
 
             // add relations
-            for (Relation r : storage.getRelations()) {
-                Relation apiRelation = apiStorage.getRelation(r.getOsmId()); // can contain deleted elements
-                if (!relationIndex.containsKey(r.getOsmId()) && apiRelation == null) { // new relation no problem
-                    temp.insertRelationUnsafe(r);
-                    if (postMerge != null) {
-                        postMerge.handler(r);
-                    }
-                } else {
-                    if (apiRelation != null && apiRelation.getState() == OsmElement.STATE_DELETED) {
-                        if (apiRelation.getOsmVersion() >= r.getOsmVersion()) {
-                            continue; // can use relation we already have
-                        } else {
-                            return false; // can't resolve conflicts, upload first
-                        }
-                    }
-                    Relation existingRelation = relationIndex.get(r.getOsmId());
-                    if (existingRelation.getOsmVersion() >= r.getOsmVersion()) { // larger just to be on the safe side
-                        continue; // can use relation we already have
-                    } else {
-                        if (existingRelation.isUnchanged()) {
-                            temp.insertRelationUnsafe(r);
-                            if (postMerge != null) {
-                                postMerge.handler(r);
-                            }
-                        } else {
-                            return false; // can't resolve conflicts, upload first
+            for (Relation r : newRelations) {
+                Relation existingRelation = currentStorage.getRelation(r.getOsmId());
+                if (existingRelation != null) {
+                    // remove backlinks to the previous version
+                    for (RelationMember rm : existingRelation.getMembers()) {
+                        OsmElement e = rm.getElement();
+                        if (e != null) {
+                            e.removeParentRelation(existingRelation);
                         }
                     }
+                    replaced.add(new OsmElement[] { existingRelation, r });
+                }
+                r.clearParentRelations();
+                currentStorage.insertRelationUnsafe(r);
+                if (postMerge != null) {
+                    postMerge.handler(r);
                 }
             }
 
             Log.d(DEBUG_TAG, "mergeData added relations");
 
-            // fixup relation back links and memberships
-
-            // zap all existing backlinks for our "old" relations
-            for (Relation r : currentStorage.getRelations()) {
-                for (RelationMember rm : r.getMembers()) {
-                    if (rm.getType().equals(Node.NAME)) {
-                        Node n = nodeIndex.get(rm.getRef());
-                        if (n != null) {
-                            n.clearParentRelations();
-                        }
-                    } else if (rm.getType().equals(Way.NAME)) {
-                        Way w = wayIndex.get(rm.getRef());
-                        if (w != null) {
-                            w.clearParentRelations();
-                        }
-                    } else if (rm.getType().equals(Relation.NAME)) {
-                        Relation r2 = relationIndex.get(rm.getRef());
-                        if (r2 != null) {
-                            r2.clearParentRelations();
+            // replace references to previous versions in relations that are not being replaced themselves
+            for (OsmElement[] r : replaced) {
+                OsmElement previous = r[0];
+                OsmElement current = r[1];
+                List<Relation> parents = previous.getParentRelations();
+                if (parents != null) {
+                    for (Relation parent : parents) {
+                        if (currentStorage.getRelation(parent.getOsmId()) == parent) {
+                            for (RelationMember rm : parent.getMembers()) {
+                                if (rm.getElement() == previous) {
+                                    rm.setElement(current);
+                                }
+                            }
+                            if (!current.hasParentRelation(parent)) {
+                                current.addParentRelation(parent);
+                            }
                         }
                     }
                 }
             }
 
-            // add backlinks for all "new" relations
-            for (Relation r : temp.getRelations()) {
-                for (RelationMember rm : r.getMembers()) {
-                    if (rm.getType().equals(Node.NAME)) {
-                        Node n = nodeIndex.get(rm.getRef());
-                        if (n != null) { // if node is downloaded always re-set it
-                            rm.setElement(n);
-                            n.addParentRelation(r);
-                        } else { // check if deleted
-                            memberIsDeleted(r, rm);
-                        }
-                    } else if (rm.getType().equals(Way.NAME)) { // same logic as for nodes
-                        Way w = wayIndex.get(rm.getRef());
-                        if (w != null) {
-                            rm.setElement(w);
-                            w.addParentRelation(r);
-                        } else if (memberIsDeleted(r, rm)) {
-                            return false;
-                        }
-                    } else if (rm.getType().equals(Relation.NAME)) { // same logic as for nodes
-                        Relation r2 = relationIndex.get(rm.getRef());
-                        if (r2 != null) {
-                            rm.setElement(r2);
-                            r2.addParentRelation(r);
-                        } else if (memberIsDeleted(r, rm)) {
-                            return false;
-                        }
-                    }
+            // resolve members and add backlinks for all relations in the new data
+            for (Relation r : storage.getRelations()) {
+                Relation relation = currentStorage.getRelation(r.getOsmId());
+                if (relation != null) {
+                    resolveMembers(relation, false);
+                }
+            }
+            // and for existing relations that reference elements that were not loaded before
+            for (Relation r : currentStorage.getRelations()) {
+                if (hasUnresolvedMembers(r)) {
+                    resolveMembers(r, false);
                 }
             }
 
@@ -2971,14 +3072,105 @@ public class StorageDelegator implements Serializable, Exportable {
 
         } catch (StorageException sex) {
             // ran of memory
+            Log.e(DEBUG_TAG, "mergeData aborted " + sex.getMessage());
             return false;
         }
 
-        currentStorage = temp;
-        undo.setCurrentStorage(temp);
+        snapshotRequired = true;
+        dataChanged();
         return true; // Success
     }
 
+    /**
+     * Determine how an element should be merged
+     * 
+     * @param existing the element with the same id in the current storage or null
+     * @param apiElement the element with the same id in the api storage or null
+     * @param incoming the element to merge
+     * @return MERGE_SKIP if the existing element can be used, MERGE_INSERT if the incoming element should be added,
+     *         MERGE_CONFLICT if the merge can't be done
+     */
+    private int mergeAction(@Nullable OsmElement existing, @Nullable OsmElement apiElement, @NonNull OsmElement incoming) {
+        if (existing == null && apiElement == null) { // new element no problem
+            return MERGE_INSERT;
+        }
+        if (apiElement != null && apiElement.getState() == OsmElement.STATE_DELETED) {
+            // can use element we already have
+            return apiElement.getOsmVersion() >= incoming.getOsmVersion() ? MERGE_SKIP : MERGE_CONFLICT;
+        }
+        if (existing == null) {
+            // this shouldn't be able to happen
+            String debugString = "mergeData null existing " + incoming.getName() + " " + incoming.getOsmId() + " api element is " + apiElement;
+            Log.e(DEBUG_TAG, debugString);
+            ACRAHelper.nocrashReport(null, debugString);
+            return MERGE_CONFLICT;
+        }
+        if (existing.getOsmVersion() >= incoming.getOsmVersion()) { // larger just to be on the safe side
+            return MERGE_SKIP;
+        }
+        return existing.isUnchanged() ? MERGE_INSERT : MERGE_CONFLICT;
+    }
+
+    /**
+     * Reinstate a deleted node so that any existing references remain
+     * 
+     * FIXME undoing the original delete will likely cause havoc
+     * 
+     * @param wayNode the node as referenced by the new data
+     * @return the reinstated node
+     */
+    @NonNull
+    private Node reinstateDeletedNode(@NonNull Node wayNode) {
+        long wayNodeId = wayNode.getOsmId();
+        Node apiNode = apiStorage.getNode(wayNodeId);
+        Log.e(DEBUG_TAG, "mergeData null undeleting node " + wayNodeId);
+        if (apiNode.getOsmVersion() == wayNode.getOsmVersion() && (apiNode.isTagged() && apiNode.getTags().equals(wayNode.getTags()))
+                && apiNode.getLat() == wayNode.getLat() && apiNode.getLon() == wayNode.getLon()) {
+            apiNode.setState(OsmElement.STATE_UNCHANGED);
+            apiStorage.removeNode(apiNode);
+        } else {
+            apiNode.setState(OsmElement.STATE_MODIFIED);
+        }
+        currentStorage.insertNodeUnsafe(apiNode);
+        return apiNode;
+    }
+
+    /**
+     * Set the elements of the members of a relation to the ones in the current storage and add backlinks
+     * 
+     * @param r the Relation
+     * @param saveUndo if true save the member elements for undo before changing them
+     */
+    private void resolveMembers(@NonNull Relation r, boolean saveUndo) {
+        for (RelationMember rm : r.getMembers()) {
+            OsmElement e = currentStorage.getOsmElement(rm.getType(), rm.getRef());
+            if (e != null) {
+                rm.setElement(e);
+                if (!e.hasParentRelation(r)) {
+                    if (saveUndo) {
+                        undo.save(e);
+                    }
+                    e.addParentRelation(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a relation has members that are not linked to an element
+     * 
+     * @param r the Relation
+     * @return true if at least one member doesn't have an element
+     */
+    private static boolean hasUnresolvedMembers(@NonNull Relation r) {
+        for (RelationMember rm : r.getMembers()) {
+            if (rm.getElement() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Ensure that we have consistent backlinks
      */
@@ -3028,9 +3220,12 @@ public class StorageDelegator implements Serializable, Exportable {
     }
 
     /**
-     * Merge additional data with existing, copy to a new storage because this may fail
+     * Apply the contents of an osmChange file to the existing data
      * 
-     * If this is aborted the contents of the undo checkpoint need to be removed
+     * Changes are made in place and saved in the current undo checkpoint, if the operation fails all changes are rolled
+     * back, however the (now empty of effect) checkpoint needs to be removed by the caller. Only the ways and relations
+     * contained in the osmChange file are fixed up, so the cost depends on the size of the change and not on the size of
+     * the existing data.
      * 
      * @param osc storage containing data to merge
      * @param postMerge handler to run after merging
@@ -3038,258 +3233,268 @@ public class StorageDelegator implements Serializable, Exportable {
      */
     public synchronized boolean applyOsc(@NonNull Storage osc, @Nullable PostMergeHandler postMerge) {
         Log.d(DEBUG_TAG, "applyOsc called");
-        final String ABORTMESSAGE = "applyOsc aborting %s is unchanged/created";
-
-        // make temp copy of current storage (we may have to abort
-        Storage tempCurrent = new Storage(currentStorage);
-        Storage tempApi = new Storage(apiStorage);
-
-        // retrieve the maps
-        LongOsmElementMap<Node> nodeIndex = tempCurrent.getNodeIndex();
-        LongOsmElementMap<Way> wayIndex = tempCurrent.getWayIndex();
-        LongOsmElementMap<Relation> relationIndex = tempCurrent.getRelationIndex();
-
-        Log.d(DEBUG_TAG, "applyOsc finished init");
-
         try {
-            // add nodes
-            for (Node n : osc.getNodes()) {
-                byte state = n.getState();
-                if (n.getOsmId() < 0) {
-                    // place holder, need to get a valid placeholder and renumber
-                    Node tempNode = getFactory().createNodeWithNewId(-1, -1);
-                    n.setOsmId(tempNode.getOsmId());
-                }
-                Node apiNode = tempApi.getNode(n.getOsmId()); // can contain deleted elements
-                if (!nodeIndex.containsKey(n.getOsmId()) && apiNode == null) { // new node no problem
-                    tempCurrent.insertNodeUnsafe(n);
-                    tempApi.insertNodeUnsafe(n);
-                    undo.save(n, false, false);
-                    if (postMerge != null) {
-                        postMerge.handler(n);
-                    }
-                } else {
-                    if (apiNode != null && apiNode.getState() == OsmElement.STATE_DELETED) {
-                        if (apiNode.getOsmVersion() > n.getOsmVersion()) {
-                            continue; // can use node we already have
-                        } else if (state == OsmElement.STATE_DELETED || state == OsmElement.STATE_MODIFIED) {
-                            undo.save(apiNode);
-                            apiNode.updateFrom(n);
-                            if (state == OsmElement.STATE_MODIFIED) {
-                                tempCurrent.insertElementSafe(apiNode);
-                            }
-                            continue;
-                        } else {
-                            Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, n.getDescription()));
-                            return false;
-                        }
-                    }
-                    Node existingNode = nodeIndex.get(n.getOsmId());
-                    if (existingNode != null) {
-                        if (existingNode.getOsmVersion() <= n.getOsmVersion()) {
-                            // so that we can abort cleanly, we actually need to replace the current element
-                            undo.save(existingNode, true, true);
-                            existingNode.updateFrom(n);
-                            tempApi.insertNodeUnsafe(existingNode);
-                            if (postMerge != null) {
-                                postMerge.handler(n);
-                            }
-                        }
-                    }
-                }
+            if (applyOscInPlace(osc, postMerge)) {
+                snapshotRequired = true;
+                dataChanged();
+                return true; // Success
             }
+        } catch (StorageException sex) {
+            Log.d(DEBUG_TAG, "applyOsc aborting " + sex.getMessage());
+        }
+        undo.rollback();
+        dirty();
+        return false;
+    }
 
-            Log.d(DEBUG_TAG, "applyOsc done nodes");
+    /**
+     * Apply the contents of an osmChange file to the existing data without rolling back on failure
+     * 
+     * @param osc storage containing data to merge
+     * @param postMerge handler to run after merging
+     * @return true if the operation was successful
+     * @throws StorageException if we ran out of memory
+     */
+    private boolean applyOscInPlace(@NonNull Storage osc, @Nullable PostMergeHandler postMerge) throws StorageException {
+        final String ABORTMESSAGE = "applyOsc aborting %s is unchanged/created";
 
-            // add ways
-            for (Way w : osc.getWays()) {
-                byte state = w.getState();
-                if (w.getOsmId() < 0) {
-                    // place holder, need to get a valid placeholder and renumber
-                    Way tempWay = getFactory().createWayWithNewId();
-                    w.setOsmId(tempWay.getOsmId());
+        // add nodes
+        for (Node n : osc.getNodes()) {
+            if (n.getOsmId() < 0) {
+                // place holder, need to get a valid placeholder and renumber
+                Node tempNode = getFactory().createNodeWithNewId(-1, -1);
+                n.setOsmId(tempNode.getOsmId());
+            }
+            int action = oscAction(currentStorage.getNode(n.getOsmId()), apiStorage.getNode(n.getOsmId()), n);
+            if (action == MERGE_CONFLICT) {
+                Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, n.getDescription()));
+                return false;
+            } else if (action == MERGE_INSERT) {
+                undo.save(n, false, false);
+                n.clearParentRelations();
+                currentStorage.insertNodeUnsafe(n);
+                apiStorage.insertNodeUnsafe(n);
+                if (postMerge != null) {
+                    postMerge.handler(n);
                 }
-                Way apiWay = tempApi.getWay(w.getOsmId()); // can contain deleted elements
-                if (!wayIndex.containsKey(w.getOsmId()) && apiWay == null) { // new way no problem
-                    tempCurrent.insertWayUnsafe(w);
-                    tempApi.insertWayUnsafe(w);
-                    undo.save(w, false, false);
-                    if (postMerge != null) {
-                        postMerge.handler(w);
-                    }
-                } else {
-                    if (apiWay != null && apiWay.getState() == OsmElement.STATE_DELETED) {
-                        if (apiWay.getOsmVersion() > w.getOsmVersion()) {
-                            continue; // can use node we already have
-                        } else if (state == OsmElement.STATE_DELETED || state == OsmElement.STATE_MODIFIED) {
-                            undo.save(apiWay);
-                            apiWay.updateFrom(w);
-                            if (state == OsmElement.STATE_MODIFIED) {
-                                tempCurrent.insertElementSafe(apiWay);
-                            }
-                            continue;
-                        } else {
-                            Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, w.getDescription()));
-                            return false;
-                        }
-                    }
-                    Way existingWay = wayIndex.get(w.getOsmId());
-                    if (existingWay != null) {
-                        if (existingWay.getOsmVersion() <= w.getOsmVersion()) {
-                            undo.save(existingWay, true, true);
-                            existingWay.updateFrom(w);
-                            tempApi.insertWayUnsafe(existingWay);
-                            if (postMerge != null) {
-                                postMerge.handler(w);
-                            }
-                        }
-                    } else {
-                        // this shouldn't be able to happen
-                        String debugString = "applyOsc null existing way " + w.getOsmId() + " containsKey is " + wayIndex.containsKey(w.getOsmId())
-                                + " apiWay is " + apiWay;
-                        Log.e(DEBUG_TAG, debugString);
-                        ACRAHelper.nocrashReport(null, debugString);
-                        return false;
-                    }
+            } else if (action == MERGE_UPDATE_DELETED) {
+                updateDeletedElement(apiStorage.getNode(n.getOsmId()), n);
+            } else if (action == MERGE_UPDATE) {
+                Node existingNode = currentStorage.getNode(n.getOsmId());
+                undo.save(existingNode);
+                updateElement(existingNode, n);
+                apiStorage.insertNodeUnsafe(existingNode);
+                if (postMerge != null) {
+                    postMerge.handler(n);
                 }
             }
+        }
 
-            Log.d(DEBUG_TAG, "applyOsc done ways");
+        Log.d(DEBUG_TAG, "applyOsc done nodes");
 
-            // fix up way nodes
-            // all nodes should be in storage now, however new ways will have references to copies not in storage
-            // this conveniently deals with references that are not in the osmChange file but should be in storage
-            for (Way w : wayIndex) {
-                List<Node> nodes = w.getNodes();
-                for (int i = 0; i < nodes.size(); i++) {
-                    Node wayNode = nodes.get(i);
-                    Node n = nodeIndex.get(wayNode.getOsmId());
-                    if (n != null) {
-                        nodes.set(i, n);
-                    } else {
-                        Log.d(DEBUG_TAG, "applyOsc aborting missing node " + wayNode.getOsmId());
-                        return false; // way nodes have to exist, potentially download them here
-                    }
+        // add ways
+        for (Way w : osc.getWays()) {
+            if (w.getOsmId() < 0) {
+                // place holder, need to get a valid placeholder and renumber
+                Way tempWay = getFactory().createWayWithNewId();
+                w.setOsmId(tempWay.getOsmId());
+            }
+            Way existingWay = currentStorage.getWay(w.getOsmId());
+            Way apiWay = apiStorage.getWay(w.getOsmId()); // can contain deleted elements
+            if (existingWay == null && apiWay != null && apiWay.getState() != OsmElement.STATE_DELETED) {
+                // this shouldn't be able to happen
+                String debugString = "applyOsc null existing way " + w.getOsmId() + " apiWay is " + apiWay;
+                Log.e(DEBUG_TAG, debugString);
+                ACRAHelper.nocrashReport(null, debugString);
+                return false;
+            }
+            int action = oscAction(existingWay, apiWay, w);
+            if (action == MERGE_CONFLICT) {
+                Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, w.getDescription()));
+                return false;
+            } else if (action == MERGE_INSERT) {
+                undo.save(w, false, false);
+                w.clearParentRelations();
+                currentStorage.insertWayUnsafe(w);
+                apiStorage.insertWayUnsafe(w);
+                if (postMerge != null) {
+                    postMerge.handler(w);
+                }
+            } else if (action == MERGE_UPDATE_DELETED) {
+                updateDeletedElement(apiWay, w);
+            } else if (action == MERGE_UPDATE) {
+                undo.save(existingWay);
+                updateElement(existingWay, w);
+                apiStorage.insertWayUnsafe(existingWay);
+                if (postMerge != null) {
+                    postMerge.handler(w);
                 }
             }
+        }
 
-            Log.d(DEBUG_TAG, "applyOsc done fixup way nodes nodes");
+        Log.d(DEBUG_TAG, "applyOsc done ways");
 
-            // add relations
-            for (Relation r : osc.getRelations()) {
-                byte state = r.getState();
-                if (r.getOsmId() < 0) {
-                    // place holder, need to get a valid placeholder and renumber
-                    Relation tempRelation = getFactory().createRelationWithNewId();
-                    r.setOsmId(tempRelation.getOsmId());
-                }
-                Relation apiRelation = tempApi.getRelation(r.getOsmId()); // can contain deleted elements
-                if (!relationIndex.containsKey(r.getOsmId()) && apiRelation == null) { // new relation no problem
-                    tempCurrent.insertRelationUnsafe(r);
-                    tempApi.insertRelationUnsafe(r);
-                    undo.save(r, false, false);
-                    if (postMerge != null) {
-                        postMerge.handler(r);
-                    }
+        // fix up way nodes
+        // all nodes should be in storage now, however ways from the osmChange file will have references to copies not
+        // in storage
+        for (Way oscWay : osc.getWays()) {
+            Way w = currentStorage.getWay(oscWay.getOsmId());
+            if (w == null) {
+                continue; // deleted
+            }
+            List<Node> nodes = w.getNodes();
+            for (int i = 0; i < nodes.size(); i++) {
+                Node wayNode = nodes.get(i);
+                Node n = currentStorage.getNode(wayNode.getOsmId());
+                if (n != null) {
+                    nodes.set(i, n);
                 } else {
-                    if (apiRelation != null && apiRelation.getState() == OsmElement.STATE_DELETED) {
-                        if (apiRelation.getOsmVersion() > r.getOsmVersion()) {
-                            continue; // can use relation we already have
-                        } else if (state == OsmElement.STATE_DELETED || state == OsmElement.STATE_MODIFIED) {
-                            undo.save(apiRelation);
-                            apiRelation.updateFrom(r);
-                            if (state == OsmElement.STATE_MODIFIED) {
-                                tempCurrent.insertElementSafe(apiRelation);
-                            }
-                            continue;
-                        } else {
-                            Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, r.getDescription()));
-                            return false;
-                        }
-                    }
-                    Relation existingRelation = relationIndex.get(r.getOsmId());
-                    if (existingRelation != null) {
-                        if (existingRelation.getOsmVersion() <= r.getOsmVersion()) {
-                            undo.save(existingRelation, true, true);
-                            existingRelation.updateFrom(r);
-                            tempApi.insertRelationUnsafe(existingRelation);
-                            if (postMerge != null) {
-                                postMerge.handler(r);
-                            }
-                        }
-                    }
+                    Log.d(DEBUG_TAG, "applyOsc aborting missing node " + wayNode.getOsmId());
+                    return false; // way nodes have to exist, potentially download them here
                 }
             }
+            invalidateBoundingBox(w);
+        }
 
-            Log.d(DEBUG_TAG, "applyOsc done relations");
-
-            // fixup relation back links and memberships
+        Log.d(DEBUG_TAG, "applyOsc done fixup way nodes nodes");
 
-            // zap all existing backlinks for our "old" relations
-            for (Relation r : currentStorage.getRelations()) {
-                for (RelationMember rm : r.getMembers()) {
-                    if (rm.getType().equals(Node.NAME)) {
-                        Node n = nodeIndex.get(rm.getRef());
-                        if (n != null) {
-                            n.clearParentRelations();
-                        }
-                    } else if (rm.getType().equals(Way.NAME)) {
-                        Way w = wayIndex.get(rm.getRef());
-                        if (w != null) {
-                            w.clearParentRelations();
-                        }
-                    } else if (rm.getType().equals(Relation.NAME)) {
-                        Relation r2 = relationIndex.get(rm.getRef());
-                        if (r2 != null) {
-                            r2.clearParentRelations();
-                        }
-                    }
+        // add relations
+        for (Relation r : osc.getRelations()) {
+            if (r.getOsmId() < 0) {
+                // place holder, need to get a valid placeholder and renumber
+                Relation tempRelation = getFactory().createRelationWithNewId();
+                r.setOsmId(tempRelation.getOsmId());
+            }
+            int action = oscAction(currentStorage.getRelation(r.getOsmId()), apiStorage.getRelation(r.getOsmId()), r);
+            if (action == MERGE_CONFLICT) {
+                Log.d(DEBUG_TAG, String.format(ABORTMESSAGE, r.getDescription()));
+                return false;
+            } else if (action == MERGE_INSERT) {
+                undo.save(r, false, false);
+                r.clearParentRelations();
+                currentStorage.insertRelationUnsafe(r);
+                apiStorage.insertRelationUnsafe(r);
+                if (postMerge != null) {
+                    postMerge.handler(r);
+                }
+            } else if (action == MERGE_UPDATE_DELETED) {
+                updateDeletedElement(apiStorage.getRelation(r.getOsmId()), r);
+            } else if (action == MERGE_UPDATE) {
+                Relation existingRelation = currentStorage.getRelation(r.getOsmId());
+                undo.save(existingRelation);
+                updateElement(existingRelation, r);
+                apiStorage.insertRelationUnsafe(existingRelation);
+                if (postMerge != null) {
+                    postMerge.handler(r);
                 }
             }
+        }
 
-            // add backlinks for all "new" relations
-            for (Relation r : tempCurrent.getRelations()) {
-                for (RelationMember rm : r.getMembers()) {
-                    if (rm.getType().equals(Node.NAME)) {
-                        Node n = nodeIndex.get(rm.getRef());
-                        if (n != null) { // if node is downloaded always re-set it
-                            rm.setElement(n);
-                            n.addParentRelation(r);
-                        } else if (memberIsDeleted(r, rm)) {
-                            return false;
-                        }
-                    } else if (rm.getType().equals(Way.NAME)) { // same logic as for nodes
-                        Way w = wayIndex.get(rm.getRef());
-                        if (w != null) {
-                            rm.setElement(w);
-                            w.addParentRelation(r);
-                        } else if (memberIsDeleted(r, rm)) {
-                            return false;
-                        }
-                    } else if (rm.getType().equals(Relation.NAME)) { // same logic as for nodes
-                        Relation r2 = relationIndex.get(rm.getRef());
-                        if (r2 != null) {
-                            rm.setElement(r2);
-                            r2.addParentRelation(r);
-                        } else if (memberIsDeleted(r, rm)) {
-                            return false;
-                        }
-                    }
+        Log.d(DEBUG_TAG, "applyOsc done relations");
+
+        // fixup memberships and backlinks of the relations from the osmChange file
+        for (Relation oscRelation : osc.getRelations()) {
+            Relation r = currentStorage.getRelation(oscRelation.getOsmId());
+            if (r == null) {
+                continue; // deleted
+            }
+            for (RelationMember rm : r.getMembers()) {
+                if (currentStorage.getOsmElement(rm.getType(), rm.getRef()) == null && memberIsDeleted(r, rm)) {
+                    return false;
                 }
             }
+            resolveMembers(r, true);
+        }
 
-            Log.d(DEBUG_TAG, "applyOsc fixuped relations");
+        Log.d(DEBUG_TAG, "applyOsc fixuped relations");
+        return true;
+    }
 
-        } catch (StorageException sex) {
-            Log.d(DEBUG_TAG, "applyOsc aborting " + sex.getMessage());
-            return false;
+    /**
+     * Determine how an element from an osmChange file should be applied
+     * 
+     * If the element was deleted locally the local copy needs to be updated, see {@link #updateDeletedElement}
+     * 
+     * @param existing the element with the same id in the current storage or null
+     * @param apiElement the element with the same id in the api storage or null
+     * @param incoming the element from the osmChange file
+     * @return MERGE_SKIP if nothing needs to be done, MERGE_INSERT if the incoming element should be added,
+     *         MERGE_UPDATE if the existing element should be updated, MERGE_UPDATE_DELETED if the locally deleted
+     *         element should be updated, MERGE_CONFLICT if the operation can't be done
+     */
+    private int oscAction(@Nullable OsmElement existing, @Nullable OsmElement apiElement, @NonNull OsmElement incoming) {
+        if (existing == null && apiElement == null) { // new element no problem
+            return MERGE_INSERT;
         }
+        if (apiElement != null && apiElement.getState() == OsmElement.STATE_DELETED) {
+            byte state = incoming.getState();
+            if (apiElement.getOsmVersion() > incoming.getOsmVersion()) {
+                return MERGE_SKIP; // can use element we already have
+            } else if (state == OsmElement.STATE_DELETED || state == OsmElement.STATE_MODIFIED) {
+                return MERGE_UPDATE_DELETED;
+            }
+            return MERGE_CONFLICT;
+        }
+        if (existing != null && existing.getOsmVersion() <= incoming.getOsmVersion()) {
+            return MERGE_UPDATE;
+        }
+        return MERGE_SKIP;
+    }
 
-        currentStorage = tempCurrent;
-        undo.setCurrentStorage(tempCurrent);
-        apiStorage = tempApi;
-        undo.setApiStorage(tempApi);
-        return true; // Success
+    /**
+     * Update a locally deleted element from an osmChange file, re-adding it to the current storage if it has been
+     * modified
+     * 
+     * @param apiElement the deleted element from the api storage
+     * @param incoming the element from the osmChange file
+     * @throws StorageException if we ran out of memory
+     */
+    private void updateDeletedElement(@NonNull OsmElement apiElement, @NonNull OsmElement incoming) throws StorageException {
+        undo.save(apiElement);
+        boolean modified = incoming.getState() == OsmElement.STATE_MODIFIED;
+        updateElement(apiElement, incoming);
+        if (modified) {
+            currentStorage.insertElementSafe(apiElement);
+        }
+    }
+
+    /**
+     * Update an element in place from a different version, keeping the indices of the storages in sync
+     * 
+     * The element needs to have been saved for undo before this is called
+     * 
+     * @param existing the element to update
+     * @param from the element to copy the contents from
+     */
+    private void updateElement(@NonNull OsmElement existing, @NonNull OsmElement from) {
+        if (existing instanceof Node) {
+            Node node = (Node) existing;
+            int oldLatE7 = node.getLat();
+            int oldLonE7 = node.getLon();
+            boolean moved = oldLatE7 != ((Node) from).getLat() || oldLonE7 != ((Node) from).getLon();
+            if (moved) {
+                invalidateWayBoundingBox(node);
+            }
+            node.updateFrom(from);
+            if (moved) {
+                currentStorage.nodeMoved(node, oldLatE7, oldLonE7);
+                apiStorage.nodeMoved(node, oldLatE7, oldLonE7);
+            }
+        } else if (existing instanceof Way) {
+            invalidateBoundingBox((Way) existing);
+            existing.updateFrom(from);
+        } else if (existing instanceof Relation) {
+            Relation relation = (Relation) existing;
+            // remove the backlinks of the previous members, current ones are added later
+            for (RelationMember rm : relation.getMembers()) {
+                OsmElement e = rm.getElement();
+                if (e != null && e.hasParentRelation(relation)) {
+                    undo.save(e);
+                    e.removeParentRelation(relation);
+                }
+            }
+            relation.updateFrom(from);
+        }
     }
 
     /**
@@ -3305,7 +3510,6 @@ public class StorageDelegator implements Serializable, Exportable {
             String debugString = "mergeData/applyOsc deleted " + rm.getType() + " in downloaded relation " + r.getOsmId();
             Log.e(DEBUG_TAG, debugString);
             ACRAHelper.nocrashReport(null, debugString);
-            fixupBacklinks(); // nexessary as we've removed the original ones from the elements
             return true; // can't resolve conflicts, upload first
         }
         return false;
@@ -3319,6 +3523,7 @@ public class StorageDelegator implements Serializable, Exportable {
     public void removeFromUpload(OsmElement element) {
         apiStorage.removeElement(element);
         element.setState(OsmElement.STATE_UNCHANGED);
+        dataChanged();
     }
 
     /**
@@ -3331,22 +3536,18 @@ public class StorageDelegator implements Serializable, Exportable {
         element.setOsmVersion(version);
         element.setState(OsmElement.STATE_MODIFIED);
         insertElementSafe(element);
+        dataChanged();
     }
 
     /**
-     * Check if coordinates are in the original bboxes from downloads, needs a more efficient implementation
+     * Check if coordinates are in the original bboxes from downloads
      * 
      * @param lonE7 WGS84 longitude*1E7
      * @param latE7 WGS84 latitude*1E7
      * @return true if the coordinates are in one of the bounding boxes
      */
     public boolean isInDownload(int lonE7, int latE7) {
-        for (BoundingBox bb : new ArrayList<>(currentStorage.getBoundingBoxes())) { // make shallow copy
-            if (bb.isIn(lonE7, latE7)) {
-                return true;
-            }
-        }
-        return false;
+        return currentStorage.isInBoundingBoxes(lonE7, latE7);
     }
 
     /**
@@ -0,0 +1,294 @@
+package de.blau.android.osm;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Compact immutable tags of an OsmElement
+ *
+ * Keys and values are held in one flat array sorted by key, lookups use a binary search. Identical tag sets are shared
+ * between elements, as are short keys and values, via weak pools so that unused instances can still be garbage
+ * collected.
+ *
+ * Deserialized instances are not shared until they are passed to {@link #intern(TagSet)}.
+ */
+final class TagSet extends AbstractMap<String, String> implements SortedMap<String, String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Strings longer than this are not pooled, they are very likely unique
+     */
+    private static final int MAX_POOLED_LENGTH = 32;
+
+    static final TagSet EMPTY = new TagSet(new String[0]);
+
+    private static final WeakHashMap<TagSet, WeakReference<TagSet>> tagSets = new WeakHashMap<>();
+    private static final WeakHashMap<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+    /**
+     * Keys at even, values at odd positions
+     */
+    private final String[] keyValues;
+    private transient int  hash = 0;
+
+    /**
+     * Construct a new instance
+     *
+     * @param keyValues the keys and values, sorted by key
+     */
+    private TagSet(@NonNull String[] keyValues) {
+        this.keyValues = keyValues;
+    }
+
+    /**
+     * Get a shared TagSet with the same contents as a Map
+     *
+     * @param tags the source Map, entries with null values are ignored
+     * @return a TagSet
+     */
+    @NonNull
+    static TagSet of(@Nullable Map<String, String> tags) {
+        if (tags instanceof TagSet) {
+            return (TagSet) tags;
+        }
+        if (tags == null || tags.isEmpty()) {
+            return EMPTY;
+        }
+        SortedMap<String, String> sorted;
+        if (tags instanceof SortedMap && ((SortedMap<String, String>) tags).comparator() == null) {
+            sorted = (SortedMap<String, String>) tags;
+        } else {
+            sorted = new TreeMap<>(tags);
+        }
+        String[] keyValues = new String[sorted.size() * 2];
+        int i = 0;
+        for (Entry<String, String> tag : sorted.entrySet()) {
+            String value = tag.getValue();
+            if (value != null) { // a null value is the same as no tag
+                keyValues[i++] = tag.getKey();
+                keyValues[i++] = value;
+            }
+        }
+        if (i == 0) {
+            return EMPTY;
+        }
+        return share(new TagSet(i < keyValues.length ? Arrays.copyOf(keyValues, i) : keyValues));
+    }
+
+    /**
+     * Get the shared instance equal to a TagSet that has been deserialized
+     *
+     * @param tagSet the TagSet
+     * @return a shared TagSet
+     */
+    @NonNull
+    static TagSet intern(@NonNull TagSet tagSet) {
+        return tagSet.keyValues.length == 0 ? EMPTY : share(tagSet);
+    }
+
+    /**
+     * Return the pooled instance equal to tagSet, adding it to the pool if necessary
+     *
+     * @param tagSet the TagSet
+     * @return the shared instance
+     */
+    @NonNull
+    private static TagSet share(@NonNull TagSet tagSet) {
+        synchronized (tagSets) {
+            WeakReference<TagSet> ref = tagSets.get(tagSet);
+            TagSet shared = ref != null ? ref.get() : null;
+            if (shared != null) {
+                return shared;
+            }
+            String[] keyValues = tagSet.keyValues;
+            synchronized (strings) {
+                for (int i = 0; i < keyValues.length; i++) {
+                    keyValues[i] = shareString(keyValues[i]);
+                }
+            }
+            tagSets.put(tagSet, new WeakReference<>(tagSet));
+            return tagSet;
+        }
+    }
+
+    /**
+     * Return the pooled instance of a short String
+     *
+     * @param str the String
+     * @return a String equal to str
+     */
+    @NonNull
+    private static String shareString(@NonNull String str) {
+        if (str.length() > MAX_POOLED_LENGTH) {
+            return str;
+        }
+        WeakReference<String> ref = strings.get(str);
+        String shared = ref != null ? ref.get() : null;
+        if (shared == null) {
+            strings.put(str, new WeakReference<>(str));
+            return str;
+        }
+        return shared;
+    }
+
+    /**
+     * Find the position of a key
+     *
+     * @param key the key
+     * @return the index of the key in keyValues or -1 if not found
+     */
+    private int indexOf(@Nullable Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        String k = (String) key;
+        int low = 0;
+        int high = keyValues.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keyValues[mid * 2].compareTo(k);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid * 2;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? keyValues[i + 1] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keyValues.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keyValues.length == 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < keyValues.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (i >= keyValues.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(keyValues[i], keyValues[i + 1]);
+                        i += 2;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keyValues.length / 2;
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public String firstKey() {
+        if (keyValues.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return keyValues[0];
+    }
+
+    @Override
+    public String lastKey() {
+        if (keyValues.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return keyValues[keyValues.length - 2];
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(String fromKey, String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).subMap(fromKey, toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).headMap(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(String fromKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).tailMap(fromKey));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof TagSet) {
+            return hashCode() == o.hashCode() && Arrays.equals(keyValues, ((TagSet) o).keyValues);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && keyValues.length > 0) {
+            for (int i = 0; i < keyValues.length; i += 2) {
+                h += keyValues[i].hashCode() ^ keyValues[i + 1].hashCode(); // same as AbstractMap
+            }
+            hash = h;
+        }
+        return h;
+    }
+}
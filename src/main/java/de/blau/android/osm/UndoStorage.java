@@ -5,9 +5,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import android.content.Context;
@@ -52,6 +54,12 @@ public class UndoStorage implements Serializable {
     private final LinkedList<Checkpoint> undoCheckpoints = new LinkedList<>();
     private final LinkedList<Checkpoint> redoCheckpoints = new LinkedList<>();
 
+    /**
+     * Elements that have been saved or restored since the last call to {@link #getChangedElements()}, used for
+     * journalling the state
+     */
+    private transient Set<OsmElement> changedElements;
+
     static final Comparator<UndoElement> elementOrder = new Comparator<UndoElement>() {
         @Override
         public int compare(UndoElement ue1, UndoElement ue2) {
@@ -166,6 +174,7 @@ public class UndoStorage implements Serializable {
      * @param element the element to save
      */
     void save(@NonNull OsmElement element) {
+        addChanged(element);
         try {
             if (undoCheckpoints.isEmpty()) {
                 Log.e(DEBUG_TAG, "Attempted to save without valid checkpoint - forgot to call createCheckpoint()");
@@ -187,6 +196,7 @@ public class UndoStorage implements Serializable {
      * @param inApiStorage true if the element is in the api storage
      */
     void save(@NonNull OsmElement element, boolean inCurrentStorage, boolean inApiStorage) {
+        addChanged(element);
         try {
             if (undoCheckpoints.isEmpty()) {
                 Log.e(DEBUG_TAG, "Attempted to save without valid checkpoint - forgot to call createCheckpoint()");
@@ -198,6 +208,33 @@ public class UndoStorage implements Serializable {
         }
     }
 
+    /**
+     * Record that an element has been, or is going to be, changed
+     * 
+     * @param element the changed element
+     */
+    private synchronized void addChanged(@NonNull OsmElement element) {
+        if (changedElements == null) {
+            changedElements = Collections.newSetFromMap(new IdentityHashMap<OsmElement, Boolean>());
+        }
+        changedElements.add(element);
+    }
+
+    /**
+     * Get all elements that have been saved or restored since the last call of this method and reset the record
+     * 
+     * @return a List of the changed elements
+     */
+    @NonNull
+    synchronized List<OsmElement> getChangedElements() {
+        if (changedElements == null || changedElements.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<OsmElement> result = new ArrayList<>(changedElements);
+        changedElements.clear();
+        return result;
+    }
+
     /**
      * Remove the saved state of this element from the last checkpoint
      * 
@@ -210,6 +247,20 @@ public class UndoStorage implements Serializable {
         }
     }
 
+    /**
+     * Revert all changes recorded in the last checkpoint after a failed operation, the checkpoint itself is retained
+     * and needs to be removed by the caller
+     * 
+     * @return true if all elements could be restored
+     */
+    boolean rollback() {
+        if (undoCheckpoints.isEmpty()) {
+            Log.e(DEBUG_TAG, "Attempted to rollback, but no undo checkpoints available");
+            return false;
+        }
+        return undoCheckpoints.getLast().rollback();
+    }
+
     /**
      * Performs an undo operation, restoring the state at the last undo checkpoint. A redo checkpoint is automatically
      * created. If no checkpoint is available, an error is logged and the function does nothing.
@@ -406,6 +457,24 @@ public class UndoStorage implements Serializable {
             return ok;
         }
 
+        /**
+         * Restore the storages to the state at the time of the creation of this checkpoint in reverse order
+         * 
+         * Parents are restored before their members so that elements that have been added since the checkpoint was
+         * created are no longer referenced when they are removed, unlike restore this continues after a failure.
+         * 
+         * @return true if all elements could be restored
+         */
+        boolean rollback() {
+            boolean ok = true;
+            List<UndoElement> list = new ArrayList<>(elements.values());
+            Collections.sort(list, elementOrder);
+            for (int i = list.size() - 1; i >= 0; i--) {
+                ok = list.get(i).restore() && ok;
+            }
+            return ok;
+        }
+
         /**
          * @return true if no elements have yet been stored in this checkpoint
          */
@@ -494,6 +563,7 @@ public class UndoStorage implements Serializable {
         public boolean restore() {
             // Restore element existence
             Log.e(DEBUG_TAG, "restoring " + element.getDescription() + " current " + inCurrentStorage + " api " + inApiStorage);
+            addChanged(element);
             try {
                 if (inCurrentStorage) {
                     currentStorage.insertElementSafe(element);
@@ -649,8 +719,13 @@ public class UndoStorage implements Serializable {
         @Override
         public boolean restore() {
             boolean ok = super.restore();
-            ((Node) element).lat = lat;
-            ((Node) element).lon = getLon();
+            Node node = (Node) element;
+            int oldLat = node.lat;
+            int oldLon = node.lon;
+            node.lat = lat;
+            node.lon = getLon();
+            currentStorage.nodeMoved(node, oldLat, oldLon);
+            apiStorage.nodeMoved(node, oldLat, oldLon);
             return ok;
         }
 
@@ -706,10 +781,10 @@ public class UndoStorage implements Serializable {
             }
             // now we can restore with confidence
             boolean ok = super.restore();
-            ((Way) element).nodes.clear();
+            ((Way) element).getNodes().clear();
             for (Node n : nodes) {
                 if (currentStorage.contains(n)) {
-                    ((Way) element).nodes.add(n); // only add undeleted way nodes
+                    ((Way) element).getNodes().add(n); // only add undeleted way nodes
                 } else {
                     ok = false;
                     element.updateState(OsmElement.STATE_MODIFIED);
@@ -722,7 +797,8 @@ public class UndoStorage implements Serializable {
             }
             // reset the style
             ((Way) element).setStyle(null);
-            ((Way) element).invalidateBoundingBox();
+            currentStorage.invalidateWayBoundingBox((Way) element);
+            apiStorage.invalidateWayBoundingBox((Way) element);
             return ok;
         }
 
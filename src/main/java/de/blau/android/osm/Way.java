@@ -26,8 +26,16 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      */
     private static final long serialVersionUID = 1104911642016294268L;
 
+    /**
+     * The nodes, changes need to be made via {@link #getNodes()} so that the membership index stays valid
+     */
     final ArrayList<Node> nodes;
 
+    /**
+     * Indexed view of nodes, not serialized and recreated on demand after loading
+     */
+    private transient volatile WayNodes wayNodes;
+
     /**
      * Cache of bounding box
      */
@@ -42,6 +50,12 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
 
     private transient FeatureStyle style = null; // FeatureProfile is currently not serializable
 
+    /**
+     * Cache of the mercator projected latitudes of the nodes and the latitudes they were calculated for
+     */
+    private transient double[] mercatorLats   = null;
+    private transient int[]    mercatorLatsE7 = null;
+
     /**
      * Construct a new Way
      * 
@@ -53,6 +67,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
     Way(final long osmId, final long osmVersion, final long timestamp, final byte status) {
         super(osmId, osmVersion, timestamp, status);
         nodes = new ArrayList<>();
+        wayNodes = new WayNodes(nodes);
     }
 
     /**
@@ -68,7 +83,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
             Log.i(DEBUG_TAG, "addNode attempt to add same node " + node.getOsmId() + " to " + getOsmId());
             return;
         }
-        nodes.add(node);
+        getNodes().add(node);
     }
 
     /**
@@ -78,7 +93,17 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      */
     @NonNull
     public List<Node> getNodes() {
-        return nodes;
+        WayNodes result = wayNodes;
+        if (result == null) {
+            synchronized (this) {
+                result = wayNodes;
+                if (result == null) { // deserialized
+                    result = new WayNodes(nodes);
+                    wayNodes = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -87,7 +112,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      * @return list of nodes allowing {@link Iterator#remove()}.
      */
     Iterator<Node> getRemovableNodes() {
-        return nodes.iterator();
+        return getNodes().iterator();
     }
 
     @Override
@@ -150,11 +175,13 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
     /**
      * Returns true if "node" is a way node of this way
      * 
+     * For long ways this uses an index and doesn't need to scan the nodes
+     * 
      * @param node the Node to check for
      * @return true if the Node is a member of the Way
      */
     public boolean hasNode(final Node node) {
-        return nodes.contains(node);
+        return getNodes().contains(node);
     }
 
     /**
@@ -164,6 +191,9 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      * @return true if there is at least one common Node
      */
     public boolean hasCommonNode(final Way way) {
+        if (way.nodes.size() < nodes.size()) {
+            return way.hasCommonNode(this); // scan the shorter way
+        }
         for (Node n : this.nodes) {
             if (way.hasNode(n)) {
                 return true;
@@ -196,15 +226,15 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      * @param node Node to remove
      */
     void removeNode(@NonNull final Node node) {
-        int index = nodes.lastIndexOf(node);
+        int index = getNodes().lastIndexOf(node);
         if (index > 0 && index < (nodes.size() - 1)) { // not the first or last node
             if (nodes.get(index - 1).equals(nodes.get(index + 1))) {
-                nodes.remove(index - 1);
+                getNodes().remove(index - 1);
                 Log.i(DEBUG_TAG, "removeNode removed duplicate node");
             }
         }
         int count = 0;
-        while (nodes.remove(node)) {
+        while (getNodes().remove(node)) {
             count++;
         }
         if (count > 1) {
@@ -239,9 +269,9 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
             return;
         }
         if (nodes.get(0) == refNode) {
-            nodes.add(0, newNode);
+            getNodes().add(0, newNode);
         } else if (nodes.get(nodes.size() - 1) == refNode) {
-            nodes.add(newNode);
+            getNodes().add(newNode);
         }
     }
 
@@ -258,7 +288,8 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
             Log.i(DEBUG_TAG, "addNodeAfter attempt to add same node");
             return;
         }
-        nodes.add(nodes.indexOf(nodeBefore) + 1, newNode);
+        List<Node> wayNodeList = getNodes();
+        wayNodeList.add(wayNodeList.indexOf(nodeBefore) + 1, newNode);
     }
 
     /**
@@ -279,7 +310,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
                 }
                 return;
             }
-            nodes.addAll(0, newNodes);
+            getNodes().addAll(0, newNodes);
         } else {
             if (!nodes.isEmpty() && newNodes.get(0) == nodes.get(nodes.size() - 1)) { // user error
                 Log.i(DEBUG_TAG, "addNodes attempt to add same node");
@@ -290,7 +321,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
                 }
                 return;
             }
-            nodes.addAll(newNodes);
+            getNodes().addAll(newNodes);
         }
     }
 
@@ -298,7 +329,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      * Reverses the direction of the way
      */
     void reverse() {
-        Collections.reverse(nodes);
+        Collections.reverse(getNodes());
     }
 
     /**
@@ -308,17 +339,18 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
      * @param newNode The new node.
      */
     void replaceNode(Node existing, Node newNode) {
+        List<Node> wayNodeList = getNodes();
         int idx;
-        while ((idx = nodes.indexOf(existing)) != -1) {
-            nodes.set(idx, newNode);
+        while ((idx = wayNodeList.indexOf(existing)) != -1) {
+            wayNodeList.set(idx, newNode);
             // check for duplicates
             if (idx > 0 && nodes.get(idx - 1).equals(newNode)) {
                 Log.i(DEBUG_TAG, "replaceNode node would duplicate preceeding node");
-                nodes.remove(idx);
+                wayNodeList.remove(idx);
             }
             if (idx >= 0 && idx < nodes.size() - 1 && nodes.get(idx + 1).equals(newNode)) {
                 Log.i(DEBUG_TAG, "replaceNode node would duplicate following node");
-                nodes.remove(idx);
+                wayNodeList.remove(idx);
             }
         }
     }
@@ -543,6 +575,36 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
         top = box.getTop();
     }
 
+    /**
+     * Get the mercator projected latitudes of the nodes of this way
+     * 
+     * The values are cached and only recalculated for nodes whose latitude has changed, the returned array must not be
+     * modified and is only valid until the next call
+     * 
+     * @return an array with the mercator projected latitude for each node, in the same order as the nodes
+     */
+    @NonNull
+    public double[] getMercatorLatitudes() {
+        int size = nodes.size();
+        double[] mercator = mercatorLats;
+        int[] latsE7 = mercatorLatsE7;
+        if (mercator == null || mercator.length != size) {
+            // initial values are consistent as the mercator value of latitude 0 is 0
+            mercator = new double[size];
+            latsE7 = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            int latE7 = nodes.get(i).getLat();
+            if (latsE7[i] != latE7) {
+                mercator[i] = GeoMath.latE7ToMercator(latE7);
+                latsE7[i] = latE7;
+            }
+        }
+        mercatorLats = mercator;
+        mercatorLatsE7 = latsE7;
+        return mercator;
+    }
+
     /**
      * Called if geometry has changed and caced bbox is invalid
      */
@@ -598,7 +660,7 @@ public class Way extends OsmElement implements BoundedObject, StyleableFeature {
         }
         setTags(e.getTags());
         setState(e.getState());
-        nodes.clear();
-        nodes.addAll(((Way) e).getNodes());
+        getNodes().clear();
+        getNodes().addAll(((Way) e).getNodes());
     }
 }
@@ -0,0 +1,242 @@
+package de.blau.android.osm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * View of the node list of a Way with a membership index
+ *
+ * For long ways an open addressing hash table of the nodes is built on demand, this makes contains and failing
+ * indexOf calls O(1) instead of a scan of the whole list. Appending keeps the table up to date, any other change
+ * invalidates it and it is rebuilt on the next query. Nodes are compared by identity, as everywhere else.
+ *
+ * Changes made directly to the underlying list are not tracked, the view itself is not serialized.
+ */
+final class WayNodes extends AbstractList<Node> implements RandomAccess {
+
+    /**
+     * Lists shorter than this are simply scanned
+     */
+    static final int MIN_INDEXED_SIZE = 16;
+
+    private final ArrayList<Node> nodes;
+
+    private Node[] table;
+    private int    tableModCount;
+    private int    sets      = 0;
+    private int    tableSets;
+
+    /**
+     * Construct a new instance
+     *
+     * @param nodes the underlying list
+     */
+    WayNodes(@NonNull ArrayList<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    @Override
+    public Node get(int index) {
+        return nodes.get(index);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public boolean add(Node node) {
+        boolean valid = isTableValid();
+        nodes.add(node);
+        modCount++;
+        if (valid && size() * 2 <= table.length) {
+            insert(table, node);
+            tableModCount = modCount;
+        }
+        return true;
+    }
+
+    @Override
+    public void add(int index, Node node) {
+        nodes.add(index, node);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Node> c) {
+        modCount++;
+        return nodes.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Node> c) {
+        modCount++;
+        return nodes.addAll(index, c);
+    }
+
+    @Override
+    public Node set(int index, Node node) {
+        sets++;
+        return nodes.set(index, node);
+    }
+
+    @Override
+    public Node remove(int index) {
+        modCount++;
+        return nodes.remove(index);
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        modCount++;
+        nodes.subList(fromIndex, toIndex).clear();
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        nodes.clear();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return nodes.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return nodes.toArray(a);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        Node[] index = getTable();
+        if (index == null || o == null) {
+            return nodes.contains(o);
+        }
+        return find(index, o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Node[] index = getTable();
+        if (index != null && o != null && !find(index, o)) {
+            return -1;
+        }
+        return nodes.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        Node[] index = getTable();
+        if (index != null && o != null && !find(index, o)) {
+            return -1;
+        }
+        return nodes.lastIndexOf(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int i = indexOf(o);
+        if (i < 0) {
+            return false;
+        }
+        remove(i);
+        return true;
+    }
+
+    /**
+     * Check if the hash table reflects the current contents of the list
+     *
+     * @return true if the table can be used
+     */
+    private boolean isTableValid() {
+        return table != null && tableModCount == modCount && tableSets == sets;
+    }
+
+    /**
+     * Get the hash table, building it if necessary
+     *
+     * @return the table or null if the list is too short to be indexed
+     */
+    @Nullable
+    private Node[] getTable() {
+        int size = size();
+        if (size < MIN_INDEXED_SIZE) {
+            table = null;
+            return null;
+        }
+        if (!isTableValid()) {
+            int capacity = Integer.highestOneBit(size) << 2; // load factor between 1/4 and 1/2
+            if (table != null && table.length == capacity) {
+                Arrays.fill(table, null);
+            } else {
+                table = new Node[capacity];
+            }
+            for (int i = 0; i < size; i++) {
+                insert(table, get(i));
+            }
+            tableModCount = modCount;
+            tableSets = sets;
+        }
+        return table;
+    }
+
+    /**
+     * Add a node to a hash table if it isn't already present
+     *
+     * @param index the table, length is a power of 2
+     * @param node the Node
+     */
+    private static void insert(@NonNull Node[] index, @Nullable Node node) {
+        if (node == null) {
+            return;
+        }
+        int mask = index.length - 1;
+        int i = hash(node) & mask;
+        while (index[i] != null) {
+            if (index[i] == node) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        index[i] = node;
+    }
+
+    /**
+     * Check if a hash table contains an object
+     *
+     * @param index the table, length is a power of 2
+     * @param o the object
+     * @return true if found
+     */
+    private static boolean find(@NonNull Node[] index, @NonNull Object o) {
+        int mask = index.length - 1;
+        int i = hash(o) & mask;
+        while (index[i] != null) {
+            if (index[i] == o) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Spread the bits of the identity hash code
+     *
+     * @param o the object
+     * @return the hash
+     */
+    private static int hash(@NonNull Object o) {
+        int h = System.identityHashCode(o);
+        return h ^ (h >>> 16);
+    }
+}
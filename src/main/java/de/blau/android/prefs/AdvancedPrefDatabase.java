@@ -468,10 +468,10 @@ public class AdvancedPrefDatabase extends SQLiteOpenHelper {
             try {
                 Log.d(LOGTAG, "Adding preset " + pi.name);
                 if (pi.url.startsWith(Preset.APKPRESET_URLPREFIX)) {
-                    activePresets[i] = new Preset(context, getPresetDirectory(pi.id), pi.url.substring(Preset.APKPRESET_URLPREFIX.length()),
+                    activePresets[i] = Preset.load(context, getPresetDirectory(pi.id), pi.url.substring(Preset.APKPRESET_URLPREFIX.length()),
                             pi.useTranslations);
                 } else {
-                    activePresets[i] = new Preset(context, getPresetDirectory(pi.id), null, pi.useTranslations);
+                    activePresets[i] = Preset.load(context, getPresetDirectory(pi.id), null, pi.useTranslations);
                 }
             } catch (Exception e) {
                 Log.e(LOGTAG, "Failed to create preset", e);
@@ -123,6 +123,10 @@ public class Preferences {
 
     private int maxTileDownloadThreads;
 
+    private int mapSplitThreads;
+
+    private int tilePrefetchRate;
+
     private int notificationCacheSize;
 
     private int autoLockDelay;
@@ -131,6 +135,8 @@ public class Preferences {
 
     private final boolean jsConsoleEnabled;
 
+    private final boolean stateJournalEnabled;
+
     private final boolean hwAccelerationEnabled;
 
     private final int connectedNodeTolerance;
@@ -261,10 +267,16 @@ public class Preferences {
 
         maxTileDownloadThreads = getIntPref(R.string.config_maxTileDownloadThreads_key, 4);
 
+        mapSplitThreads = getIntPref(R.string.config_mapSplitThreads_key, 2);
+
+        tilePrefetchRate = getIntPref(R.string.config_tilePrefetchRate_key, 4);
+
         alwaysDrawBoundingBoxes = prefs.getBoolean(r.getString(R.string.config_alwaysDrawBoundingBoxes_key), true);
 
         jsConsoleEnabled = prefs.getBoolean(r.getString(R.string.config_js_console_key), false);
 
+        stateJournalEnabled = prefs.getBoolean(r.getString(R.string.config_stateJournal_key), false);
+
         hwAccelerationEnabled = prefs.getBoolean(r.getString(R.string.config_enableHwAcceleration_key), false);
 
         connectedNodeTolerance = getIntPref(R.string.config_connectedNodeTolerance_key, 2);
@@ -818,6 +830,24 @@ public class Preferences {
         return maxTileDownloadThreads;
     }
 
+    /**
+     * Get the number of threads to use for decoding tiles from a MapSplit source
+     * 
+     * @return the number of threads, at least 1
+     */
+    public int getMapSplitThreads() {
+        return Math.max(1, mapSplitThreads);
+    }
+
+    /**
+     * Get the maximum number of imagery tiles per second that may be prefetched
+     * 
+     * @return the number of tiles per second, 0 disables prefetching
+     */
+    public int getTilePrefetchRate() {
+        return Math.max(0, tilePrefetchRate);
+    }
+
     public int getNotificationCacheSize() {
         if (notificationCacheSize < 1) {
             Log.e(DEBUG_TAG, "Notification cache size smaller than 1");
@@ -967,6 +997,15 @@ public class Preferences {
         return jsConsoleEnabled;
     }
 
+    /**
+     * Check if changes should be saved to a journal instead of saving the complete state
+     * 
+     * @return true if the journal should be used
+     */
+    public boolean isStateJournalEnabled() {
+        return stateJournalEnabled;
+    }
+
     public boolean hwAccelerationEnabled() {
         return hwAccelerationEnabled;
     }
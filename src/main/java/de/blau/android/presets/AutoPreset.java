@@ -370,7 +370,7 @@ public class AutoPreset {
             // don't fail because of an exception here
             Log.e(DEBUG_TAG, "Icon not found ", e);
         }
-        activePresets[autopresetPosition] = new Preset(context, FileUtil.getPublicDirectory(FileUtil.getPublicDirectory(), Paths.DIRECTORY_PATH_AUTOPRESET),
+        activePresets[autopresetPosition] = Preset.load(context, FileUtil.getPublicDirectory(FileUtil.getPublicDirectory(), Paths.DIRECTORY_PATH_AUTOPRESET),
                 null, true);
         Preset autopreset = activePresets[autopresetPosition];
         PresetGroup group = autopreset.getGroupByName(autopresetGroupName);
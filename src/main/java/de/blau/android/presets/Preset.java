@@ -1,6 +1,9 @@
 package de.blau.android.presets;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -13,7 +16,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -32,6 +34,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -66,6 +69,7 @@ import ch.poole.poparser.ParseException;
 import ch.poole.poparser.Po;
 import ch.poole.poparser.TokenMgrError;
 import de.blau.android.App;
+import de.blau.android.BuildConfig;
 import de.blau.android.R;
 import de.blau.android.contract.Urls;
 import de.blau.android.osm.Node;
@@ -76,6 +80,7 @@ import de.blau.android.osm.Tags;
 import de.blau.android.osm.Way;
 import de.blau.android.prefs.AdvancedPrefDatabase;
 import de.blau.android.prefs.PresetEditorActivity;
+import de.blau.android.services.util.StreamUtils;
 import de.blau.android.util.FileUtil;
 import de.blau.android.util.Hash;
 import de.blau.android.util.SavingHelper;
@@ -191,6 +196,8 @@ public class Preset implements Serializable {
     public static final String  PRESETXML                  = "preset.xml";
     /** name of the MRU serialization file in a preset directory */
     private static final String MRUFILE                    = "mru.dat";
+    /** name of the compiled preset file in a preset directory */
+    private static final String CACHEFILE                  = "preset.cache";
     public static final String  APKPRESET_URLPREFIX        = "apk:";
 
     // hardwired layout stuff
@@ -209,6 +216,19 @@ public class Preset implements Serializable {
      */
     private final MultiHashMap<String, PresetItem> tagItems = new MultiHashMap<>();
 
+    /** Index from key and value to the PresetItems in tagItems, see {@link #getTagIndex()} */
+    private transient volatile Map<String, Map<String, PresetItem[]>> tagIndex;
+
+    /** Incremented each time tagItems of any Preset is changed */
+    private static final AtomicInteger tagItemsGeneration = new AtomicInteger();
+
+    /** findBestMatch results */
+    private static final MatchCache matchCache        = new MatchCache();
+    private static final MatchCache addressMatchCache = new MatchCache();
+
+    /** always prioritize presets with fixed keys */
+    private static final int FIXED_WEIGHT = 100;
+
     /** The root group of the preset, containing all top-level groups and items */
     private PresetGroup rootGroup;
 
@@ -371,7 +391,7 @@ public class Preset implements Serializable {
     private final MultiHashMap<String, PresetItem> searchIndex           = new MultiHashMap<>();
     private final MultiHashMap<String, PresetItem> translatedSearchIndex = new MultiHashMap<>();
 
-    private Po po = null;
+    private transient Po po = null;
 
     /**
      * Serializable class for storing Most Recently Used information. Hash is used to check compatibility.
@@ -411,7 +431,7 @@ public class Preset implements Serializable {
         }
     }
 
-    private final PresetMRUInfo mru;
+    private transient PresetMRUInfo mru;
     private String              externalPackage;
 
     private static class PresetFileFilter implements FilenameFilter {
@@ -457,53 +477,197 @@ public class Preset implements Serializable {
      */
     public Preset(Context ctx, File directory, String externalPackage, boolean useTranslations)
             throws ParserConfigurationException, SAXException, IOException, NoSuchAlgorithmException {
+        this(directory, externalPackage, new PresetSource(ctx, directory, externalPackage, useTranslations));
+    }
+
+    /**
+     * Creates a preset object by parsing already read preset data
+     * 
+     * @param directory directory to load/store preset data (XML, icons, MRUs)
+     * @param externalPackage name of external package containing preset assets for APK presets, null for other presets
+     * @param source the PresetSource holding the XML and translations
+     * @throws IOException
+     * @throws SAXException
+     * @throws ParserConfigurationException
+     */
+    private Preset(@NonNull File directory, @Nullable String externalPackage, @NonNull PresetSource source)
+            throws ParserConfigurationException, SAXException, IOException {
         this.directory = directory;
         this.externalPackage = externalPackage;
+        iconManager = source.iconManager;
+        po = source.getPo();
         rootGroup = new PresetGroup(null, "", null);
         rootGroup.setItemSort(false);
 
-        // noinspection ResultOfMethodCallIgnored
-        directory.mkdir();
+        parseXML(new ByteArrayInputStream(source.xml));
+
+        // remove chunks - this messes up the index disabled for now
+        // for (PresetItem c:new ArrayList<PresetItem>(allItems)) {
+        // if (c.isChunk()) {
+        // allItems.remove(c);
+        // }
+        // }
+
+        mru = initMRU(directory, source.xmlHash);
+
+        Log.d(DEBUG_TAG, "search index length: " + searchIndex.getKeys().size());
+    }
+
+    /**
+     * Get a preset object, using the compiled version in the preset directory if it is still valid
+     * 
+     * If the compiled version is missing or out of date the preset will be parsed and the compiled version written
+     * 
+     * @param ctx context (used for preset loading)
+     * @param directory directory to load/store preset data (XML, icons, MRUs)
+     * @param externalPackage name of external package containing preset assets for APK presets, null for other presets
+     * @param useTranslations if true use included translations
+     * @return a Preset
+     * @throws IOException
+     * @throws SAXException
+     * @throws ParserConfigurationException
+     * @throws NoSuchAlgorithmException
+     */
+    @NonNull
+    public static Preset load(@NonNull Context ctx, @NonNull File directory, @Nullable String externalPackage, boolean useTranslations)
+            throws ParserConfigurationException, SAXException, IOException, NoSuchAlgorithmException {
+        PresetSource source = new PresetSource(ctx, directory, externalPackage, useTranslations);
+        String key = source.getCacheKey();
+        Preset preset = readCache(directory, key);
+        if (preset != null) {
+            Log.i(DEBUG_TAG, "Using compiled preset, directory=" + directory.toString());
+            preset.iconManager = source.iconManager;
+            preset.po = source.getPo();
+            preset.mru = preset.initMRU(directory, source.xmlHash);
+            return preset;
+        }
+        preset = new Preset(directory, externalPackage, source);
+        preset.writeCache(key);
+        return preset;
+    }
+
+    /**
+     * Read a compiled preset from the preset directory
+     * 
+     * @param directory the preset directory
+     * @param key the key the compiled preset must have been written with
+     * @return the Preset or null if it couldn't be read or was out of date
+     */
+    @Nullable
+    private static Preset readCache(@NonNull File directory, @NonNull String key) {
+        File cacheFile = new File(directory, CACHEFILE);
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        ObjectInputStream in = null;
+        try {
+            // read the file in one go, the object stream does lots of small reads
+            byte[] data = new byte[(int) cacheFile.length()];
+            DataInputStream fileIn = new DataInputStream(new FileInputStream(cacheFile));
+            try {
+                fileIn.readFully(data);
+            } finally {
+                SavingHelper.close(fileIn);
+            }
+            in = new ObjectInputStream(new ByteArrayInputStream(data));
+            if (!key.equals(in.readUTF())) {
+                Log.i(DEBUG_TAG, "Compiled preset out of date");
+                return null;
+            }
+            return (Preset) in.readObject();
+        } catch (Exception e) { // NOSONAR
+            // anything going wrong here simply means we parse the XML
+            Log.e(DEBUG_TAG, "Reading compiled preset failed " + e.getMessage());
+            return null;
+        } finally {
+            SavingHelper.close(in);
+        }
+    }
 
-        InputStream fileStream = null;
+    /**
+     * Write this preset in compiled form to its directory
+     * 
+     * As the mru is stored separately it is not included.
+     * 
+     * @param key a key identifying the preset source this was created from
+     */
+    private void writeCache(@NonNull String key) {
+        File tempFile = new File(directory, CACHEFILE + ".tmp");
+        ObjectOutputStream out = null;
         try {
-            if (directory.getName().equals(AdvancedPrefDatabase.ID_DEFAULT)) {
-                Log.i(DEBUG_TAG, "Loading default preset");
-                iconManager = new PresetIconManager(ctx, null, null);
-                fileStream = iconManager.openAsset(PRESETXML, true);
-                if (useTranslations) {
-                    // get translations
-                    InputStream poFileStream = null;
-                    try {
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), StreamUtils.IO_BUFFER_SIZE));
+            out.writeUTF(key);
+            out.writeObject(this);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(new File(directory, CACHEFILE))) {
+                throw new IOException("Renaming " + tempFile + " failed");
+            }
+        } catch (Exception e) { // NOSONAR
+            Log.e(DEBUG_TAG, "Writing compiled preset failed " + e.getMessage());
+            SavingHelper.close(out);
+            tempFile.delete(); // NOSONAR
+        }
+    }
+
+    /**
+     * The preset XML and translation file contents together with their hashes
+     */
+    private static class PresetSource {
+        PresetIconManager iconManager;
+        byte[]            xml;
+        String            xmlHash;
+        byte[]            po;
+        String            poHash;
+
+        /**
+         * Read the XML and translation file for a preset
+         * 
+         * @param ctx context (used for preset loading)
+         * @param directory directory to load/store preset data (XML, icons, MRUs)
+         * @param externalPackage name of external package containing preset assets for APK presets, null for other
+         *            presets
+         * @param useTranslations if true read included translations
+         * @throws IOException if the preset XML can't be read
+         * @throws NoSuchAlgorithmException if SHA-256 isn't available
+         */
+        PresetSource(@NonNull Context ctx, @NonNull File directory, @Nullable String externalPackage, boolean useTranslations)
+                throws IOException, NoSuchAlgorithmException {
+            // noinspection ResultOfMethodCallIgnored
+            directory.mkdir();
+
+            InputStream fileStream = null;
+            InputStream poFileStream = null;
+            try {
+                if (directory.getName().equals(AdvancedPrefDatabase.ID_DEFAULT)) {
+                    Log.i(DEBUG_TAG, "Loading default preset");
+                    iconManager = new PresetIconManager(ctx, null, null);
+                    fileStream = iconManager.openAsset(PRESETXML, true);
+                    if (useTranslations) {
+                        // get translations
                         Locale locale = Locale.getDefault();
                         String language = locale.getLanguage();
                         poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + locale + PO_EXT, true);
                         if (poFileStream == null) {
                             poFileStream = iconManager.openAsset(DEFAULT_PRESET_TRANSLATION + language + PO_EXT, true);
                         }
-                        po = parserPoFile(poFileStream);
-                    } finally {
-                        SavingHelper.close(poFileStream);
                     }
-                }
-            } else if (externalPackage != null) {
-                Log.i(DEBUG_TAG, "Loading APK preset, package=" + externalPackage + ", directory=" + directory.toString());
-                iconManager = new PresetIconManager(ctx, directory.toString(), externalPackage);
-                fileStream = iconManager.openAsset(PRESETXML, false);
-            } else {
-                Log.i(DEBUG_TAG, "Loading downloaded preset, directory=" + directory.toString());
-                iconManager = new PresetIconManager(ctx, directory.toString(), null);
-                File indir = new File(directory.toString());
-                File[] list = indir.listFiles(new PresetFileFilter());
-                if (list != null && list.length > 0) { // simply use the first XML file found
-                    String presetFilename = list[0].getName();
-                    Log.i(DEBUG_TAG, "Preset file name " + presetFilename);
-                    fileStream = new FileInputStream(new File(directory, presetFilename));
-                    if (useTranslations) {
-                        // get translations
-                        presetFilename = presetFilename.substring(0, presetFilename.length() - 4);
-                        InputStream poFileStream = null;
-                        try {
+                } else if (externalPackage != null) {
+                    Log.i(DEBUG_TAG, "Loading APK preset, package=" + externalPackage + ", directory=" + directory.toString());
+                    iconManager = new PresetIconManager(ctx, directory.toString(), externalPackage);
+                    fileStream = iconManager.openAsset(PRESETXML, false);
+                } else {
+                    Log.i(DEBUG_TAG, "Loading downloaded preset, directory=" + directory.toString());
+                    iconManager = new PresetIconManager(ctx, directory.toString(), null);
+                    File indir = new File(directory.toString());
+                    File[] list = indir.listFiles(new PresetFileFilter());
+                    if (list != null && list.length > 0) { // simply use the first XML file found
+                        String presetFilename = list[0].getName();
+                        Log.i(DEBUG_TAG, "Preset file name " + presetFilename);
+                        fileStream = new FileInputStream(new File(directory, presetFilename));
+                        if (useTranslations) {
+                            // get translations
+                            presetFilename = presetFilename.substring(0, presetFilename.length() - 4);
                             // try to open .po files either with the same name as the preset file or the standard name
                             try {
                                 poFileStream = getPoInputStream(directory, presetFilename + "_", Locale.getDefault());
@@ -514,39 +678,59 @@ public class Preset implements Serializable {
                                     // no translations
                                 }
                             }
-                            po = parserPoFile(poFileStream);
-                        } finally {
-                            SavingHelper.close(poFileStream);
                         }
+                    } else {
+                        Log.e(DEBUG_TAG, "Can't find preset file");
                     }
-                } else {
-                    Log.e(DEBUG_TAG, "Can't find preset file");
                 }
+                if (fileStream == null) {
+                    throw new IOException("Can't find preset file in " + directory);
+                }
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                xml = readAll(fileStream);
+                xmlHash = Hash.toHex(digest.digest(xml));
+                if (poFileStream != null) {
+                    po = readAll(poFileStream);
+                    poHash = Hash.toHex(digest.digest(po));
+                }
+            } finally {
+                SavingHelper.close(fileStream);
+                SavingHelper.close(poFileStream);
             }
+        }
 
-            DigestInputStream hashStream = new DigestInputStream(fileStream, MessageDigest.getInstance("SHA-256"));
-
-            parseXML(hashStream);
-
-            // Finish hash
-            String hashValue = Hash.toHex(hashStream.getMessageDigest().digest());
-            // in theory, it could be possible that the stream parser does not read the entire file
-            // and maybe even randomly stops at a different place each time.
-            // in practice, it does read the full file, which means this gives the actual sha256 of the file,
-            // - even if you add a 1 MB comment after the document-closing tag.
-
-            // remove chunks - this messes up the index disabled for now
-            // for (PresetItem c:new ArrayList<PresetItem>(allItems)) {
-            // if (c.isChunk()) {
-            // allItems.remove(c);
-            // }
-            // }
+        /**
+         * Read an InputStream completely
+         * 
+         * @param in the InputStream
+         * @return the contents as a byte array
+         * @throws IOException if reading fails
+         */
+        @NonNull
+        private static byte[] readAll(@NonNull InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copy(in, out);
+            return out.toByteArray();
+        }
 
-            mru = initMRU(directory, hashValue);
+        /**
+         * Parse the translations
+         * 
+         * @return a Po object or null if there are no (usable) translations
+         */
+        @Nullable
+        Po getPo() {
+            return po != null ? parserPoFile(new ByteArrayInputStream(po)) : null;
+        }
 
-            Log.d(DEBUG_TAG, "search index length: " + searchIndex.getKeys().size());
-        } finally {
-            SavingHelper.close(fileStream);
+        /**
+         * Get a key that changes if anything that goes in to a compiled preset changes
+         * 
+         * @return the key
+         */
+        @NonNull
+        String getCacheKey() {
+            return xmlHash + " " + poHash + " " + Locale.getDefault() + " " + BuildConfig.VERSION_CODE;
         }
     }
 
@@ -560,7 +744,7 @@ public class Preset implements Serializable {
      * @throws FileNotFoundException if the file does not exist
      */
     @NonNull
-    private FileInputStream getPoInputStream(@NonNull File directory, @NonNull String presetFilename, @NonNull Locale locale) throws FileNotFoundException {
+    private static FileInputStream getPoInputStream(@NonNull File directory, @NonNull String presetFilename, @NonNull Locale locale) throws FileNotFoundException {
         try {
             return new FileInputStream(new File(directory, presetFilename + locale.toString() + PO_EXT));
         } catch (FileNotFoundException fnfe) {
@@ -575,7 +759,7 @@ public class Preset implements Serializable {
      * @return an Po object or null
      */
     @Nullable
-    private Po parserPoFile(@Nullable InputStream poFileStream) {
+    private static Po parserPoFile(@Nullable InputStream poFileStream) {
         if (poFileStream != null) {
             try {
                 return new Po(poFileStream);
@@ -623,13 +807,13 @@ public class Preset implements Serializable {
                     String key = entry.getKey();
                     PresetField field = entry.getValue();
                     if (field instanceof PresetFixedField) {
-                        tagItems.add(entry.getKey() + "\t" + ((PresetFixedField) field).getValue(), (PresetItem) e);
+                        addTagItem(entry.getKey() + "\t" + ((PresetFixedField) field).getValue(), (PresetItem) e);
                     } else if (field instanceof PresetComboField && ((PresetComboField) field).getValues() != null) {
                         for (StringWithDescription v : ((PresetComboField) field).getValues()) {
-                            tagItems.add(key + "\t" + v.getValue(), (PresetItem) e);
+                            addTagItem(key + "\t" + v.getValue(), (PresetItem) e);
                         }
                     } else {
-                        tagItems.add(key + "\t", (PresetItem) e);
+                        addTagItem(key + "\t", (PresetItem) e);
                     }
                 }
             }
@@ -1050,7 +1234,7 @@ public class Preset implements Serializable {
                                     if (v != null && v.getValue() != null) {
                                         value = v.getValue();
                                     }
-                                    tagItems.add(key + "\t" + value, currentItem);
+                                    addTagItem(key + "\t" + value, currentItem);
                                     currentItem.addToAutosuggest(key, v);
                                 }
                             }
@@ -1145,11 +1329,11 @@ public class Preset implements Serializable {
                     if (field instanceof PresetCheckGroupField) {
                         for (PresetCheckField check : ((PresetCheckGroupField) field).getCheckFields()) {
                             String checkKey = check.getKey();
-                            tagItems.add(checkKey + "\t", currentItem);
+                            addTagItem(checkKey + "\t", currentItem);
                             currentItem.addToAutosuggest(checkKey, dummy);
                         }
                     } else {
-                        tagItems.add(key + "\t", currentItem);
+                        addTagItem(key + "\t", currentItem);
                         if (field instanceof PresetComboField) {
                             StringWithDescription values[] = ((PresetComboField) field).getValues();
                             if (values != null) {
@@ -1158,7 +1342,7 @@ public class Preset implements Serializable {
                                     if (v != null && v.getValue() != null) {
                                         value = v.getValue();
                                     }
-                                    tagItems.add(key + "\t" + value, currentItem);
+                                    addTagItem(key + "\t" + value, currentItem);
                                 }
                                 currentItem.addToAutosuggest(key, values);
                             }
@@ -1369,6 +1553,7 @@ public class Preset implements Serializable {
         for (Preset preset : App.getCurrentPresets(ctx)) {
             if (preset != null) {
                 preset.tagItems.removeKey(tag);
+                preset.tagItemsChanged();
             }
         }
     }
@@ -1705,6 +1890,8 @@ public class Preset implements Serializable {
      * If multiple items match, the most specific one (i.e. having most tags) wins. If there is a draw, no guarantees
      * are made.
      * 
+     * Results are cached, repeated calls with the same presets and an equal tag set will return the cached result.
+     * 
      * @param presets presets presets to match against
      * @param tags tags to check against (i.e. tags of a map element)
      * @param useAddressKeys use addr: keys if true
@@ -1712,45 +1899,115 @@ public class Preset implements Serializable {
      */
     @Nullable
     public static PresetItem findBestMatch(@Nullable Preset[] presets, @Nullable Map<String, String> tags, boolean useAddressKeys) {
-        int bestMatchStrength = 0;
-        PresetItem bestMatch = null;
-
         if (tags == null || presets == null) {
             Log.e(DEBUG_TAG, "findBestMatch " + (tags == null ? "tags null" : "presets null"));
             return null;
         }
-
-        // Build candidate list
-        Set<PresetItem> possibleMatches = buildPossibleMatches(presets, tags, false);
+        MatchCache cache = useAddressKeys ? addressMatchCache : matchCache;
+        synchronized (cache) {
+            if (cache.isValid(presets)) {
+                PresetItem cached = cache.get(tags);
+                if (cached != null || cache.containsKey(tags)) {
+                    return cached;
+                }
+            }
+        }
+        PresetItem bestMatch = bestMatch(presets, tags, false);
         // if we only have address keys retry
-        if (useAddressKeys && possibleMatches.isEmpty()) {
-            possibleMatches = buildPossibleMatches(presets, tags, true);
+        if (bestMatch == null && useAddressKeys && !hasCandidates(presets, tags)) {
+            bestMatch = bestMatch(presets, tags, true);
         }
-        // Find best
-        final int FIXED_WEIGHT = 100; // always prioritize presets with fixed keys
-        for (PresetItem possibleMatch : possibleMatches) {
-            int fixedTagCount = possibleMatch.getFixedTagCount() * FIXED_WEIGHT;
-            int recommendedTagCount = possibleMatch.getRecommendedKeyCount();
-            if (fixedTagCount + recommendedTagCount < bestMatchStrength) {
-                continue; // isn't going to help
-            }
-            int matches = 0;
-            if (fixedTagCount > 0) { // has required tags
-                if (possibleMatch.matches(tags)) {
-                    matches = fixedTagCount;
+        synchronized (cache) {
+            cache.put(presets, tags, bestMatch);
+        }
+        return bestMatch;
+    }
+
+    /**
+     * Find the best matching PresetItem from the candidates in the tag indices of the presets
+     * 
+     * @param presets presets to match against
+     * @param tags tags to check against
+     * @param useAddressKeys use addr: keys if true
+     * @return the best matching PresetItem or null if none found
+     */
+    @Nullable
+    private static PresetItem bestMatch(@NonNull Preset[] presets, @NonNull Map<String, String> tags, boolean useAddressKeys) {
+        int bestMatchStrength = 0;
+        PresetItem bestMatch = null;
+        for (Preset p : presets) {
+            if (p != null) {
+                Map<String, Map<String, PresetItem[]>> index = p.getTagIndex();
+                for (Entry<String, String> tag : tags.entrySet()) {
+                    Map<String, PresetItem[]> values = p.getIndexValues(index, tag.getKey(), useAddressKeys);
+                    if (values == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < 2; i++) { // items that only have the key, then items with the key and value
+                        PresetItem[] candidates = values.get(i == 0 ? "" : tag.getValue());
+                        if (candidates == null) {
+                            continue;
+                        }
+                        for (PresetItem candidate : candidates) {
+                            int matches = matchStrength(candidate, tags, bestMatchStrength);
+                            if (matches > bestMatchStrength) {
+                                bestMatch = candidate;
+                                bestMatchStrength = matches;
+                            }
+                        }
+                    }
                 }
             }
-            if (recommendedTagCount > 0) {
-                matches = matches + possibleMatch.matchesRecommended(tags);
-            }
-            if (matches > bestMatchStrength) {
-                bestMatch = possibleMatch;
-                bestMatchStrength = matches;
-            }
         }
         return bestMatch;
     }
 
+    /**
+     * Calculate how well a PresetItem matches a tag set
+     * 
+     * @param item the PresetItem
+     * @param tags the tags
+     * @param threshold the strength of the best match up to now
+     * @return the match strength, 0 if the item can't be better than threshold
+     */
+    private static int matchStrength(@NonNull PresetItem item, @NonNull Map<String, String> tags, int threshold) {
+        int fixedTagCount = item.getFixedTagCount() * FIXED_WEIGHT;
+        int recommendedTagCount = item.getRecommendedKeyCount();
+        if (fixedTagCount + recommendedTagCount < threshold) {
+            return 0; // isn't going to help
+        }
+        int matches = 0;
+        if (fixedTagCount > 0 && item.matches(tags)) { // has required tags
+            matches = fixedTagCount;
+        }
+        if (recommendedTagCount > 0) {
+            matches = matches + item.matchesRecommended(tags);
+        }
+        return matches;
+    }
+
+    /**
+     * Check if there are any candidates for matching in the tag indices of the presets, not considering address keys
+     * 
+     * @param presets presets to match against
+     * @param tags tags to check against
+     * @return true if there is at least one candidate
+     */
+    private static boolean hasCandidates(@NonNull Preset[] presets, @NonNull Map<String, String> tags) {
+        for (Preset p : presets) {
+            if (p != null) {
+                Map<String, Map<String, PresetItem[]>> index = p.getTagIndex();
+                for (Entry<String, String> tag : tags.entrySet()) {
+                    Map<String, PresetItem[]> values = p.getIndexValues(index, tag.getKey(), false);
+                    if (values != null && (values.containsKey("") || values.containsKey(tag.getValue()))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Attempt to find a (any) match of the tags with the supplied presets
      * 
@@ -1764,46 +2021,159 @@ public class Preset implements Serializable {
             Log.e(DEBUG_TAG, "findMatch " + (tags == null ? "tags null" : "presets null"));
             return null;
         }
+        for (Preset p : presets) {
+            if (p != null) {
+                Map<String, Map<String, PresetItem[]>> index = p.getTagIndex();
+                for (Entry<String, String> tag : tags.entrySet()) {
+                    Map<String, PresetItem[]> values = p.getIndexValues(index, tag.getKey(), false);
+                    if (values == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < 2; i++) { // items that only have the key, then items with the key and value
+                        PresetItem[] candidates = values.get(i == 0 ? "" : tag.getValue());
+                        if (candidates == null) {
+                            continue;
+                        }
+                        for (PresetItem candidate : candidates) {
+                            if (candidate.getFixedTagCount() > 0) { // has required tags
+                                if (candidate.matches(tags)) {
+                                    return candidate;
+                                }
+                            } else if (candidate.getRecommendedKeyCount() > 0 && candidate.matchesRecommended(tags) > 0) {
+                                return candidate;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
 
-        // Build candidate list
-        Set<PresetItem> possibleMatches = buildPossibleMatches(presets, tags, false);
+    /**
+     * Get the values and associated PresetItems for a key from the tag index if the key is relevant for matching
+     * 
+     * @param index the tag index of this preset
+     * @param key the key
+     * @param useAddressKeys use addr: keys if true
+     * @return a Map from value to PresetItems, key only entries have the empty String as value, or null
+     */
+    @Nullable
+    private Map<String, PresetItem[]> getIndexValues(@NonNull Map<String, Map<String, PresetItem[]>> index, @NonNull String key, boolean useAddressKeys) {
+        if (Tags.IMPORTANT_TAGS.contains(key) || isObjectKey(key) || (key.startsWith(Tags.KEY_ADDR_BASE) && useAddressKeys)) {
+            return index.get(key);
+        }
+        return null;
+    }
 
-        // Find match
-        for (PresetItem possibleMatch : possibleMatches) {
-            if (possibleMatch.getFixedTagCount() > 0) { // has required tags
-                if (possibleMatch.matches(tags)) {
-                    return possibleMatch;
+    /**
+     * Get an index from key and value to PresetItems, built from tagItems on first use
+     * 
+     * The index avoids building key-value strings and wrapping result sets when matching
+     * 
+     * @return a Map from key to a Map from value to the PresetItems with that tag
+     */
+    @NonNull
+    private Map<String, Map<String, PresetItem[]>> getTagIndex() {
+        Map<String, Map<String, PresetItem[]>> index = tagIndex;
+        if (index == null) {
+            index = new HashMap<>();
+            for (String tag : tagItems.getKeys()) {
+                Set<PresetItem> items = tagItems.get(tag);
+                if (items.isEmpty()) {
+                    continue;
+                }
+                int tab = tag.indexOf('\t');
+                String key = tag.substring(0, tab);
+                Map<String, PresetItem[]> values = index.get(key);
+                if (values == null) {
+                    values = new HashMap<>();
+                    index.put(key, values);
                 }
-            } else if (possibleMatch.getRecommendedKeyCount() > 0 && possibleMatch.matchesRecommended(tags) > 0) {
-                return possibleMatch;
+                values.put(tag.substring(tab + 1), items.toArray(new PresetItem[items.size()]));
             }
+            tagIndex = index;
         }
-        return null;
+        return index;
     }
 
     /**
-     * Return a set of presets that could match the tags
+     * Add a PresetItem to tagItems and invalidate anything derived from it
      * 
-     * @param presets current presets
-     * @param tags the tags
-     * @param useAddressKeys use address keys
-     * @return set of presets
+     * @param tag tag in the format: key \t value
+     * @param item the PresetItem
      */
-    private static Set<PresetItem> buildPossibleMatches(Preset[] presets, Map<String, String> tags, boolean useAddressKeys) {
-        HashSet<PresetItem> possibleMatches = new HashSet<>();
-        for (Preset p : presets) {
-            if (p != null) {
-                for (Entry<String, String> tag : tags.entrySet()) {
-                    String key = tag.getKey();
-                    if (Tags.IMPORTANT_TAGS.contains(key) || p.isObjectKey(key) || (key.startsWith(Tags.KEY_ADDR_BASE) && useAddressKeys)) {
-                        String tagString = key + "\t";
-                        possibleMatches.addAll(p.tagItems.get(tagString)); // for stuff that doesn't have fixed values
-                        possibleMatches.addAll(p.tagItems.get(tagString + tag.getValue()));
-                    }
+    private void addTagItem(@NonNull String tag, @NonNull PresetItem item) {
+        tagItems.add(tag, item);
+        tagItemsChanged();
+    }
+
+    /**
+     * Invalidate the tag index and any cached match results
+     */
+    private void tagItemsChanged() {
+        tagIndex = null;
+        tagItemsGeneration.incrementAndGet();
+    }
+
+    /**
+     * LRU cache for the results of findBestMatch
+     * 
+     * The cache is only valid for the presets it was filled with and as long as no tagItems have changed
+     */
+    private static class MatchCache extends LinkedHashMap<Map<String, String>, PresetItem> {
+        private static final long serialVersionUID = 1L;
+
+        private static final int MAX_SIZE = 500;
+
+        private transient Preset[] presets;
+        private int                generation;
+
+        /**
+         * Construct a new cache
+         */
+        MatchCache() {
+            super(MAX_SIZE, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, String>, PresetItem> eldest) {
+            return size() > MAX_SIZE;
+        }
+
+        /**
+         * Check if the cache contents were created with the presets and are current
+         * 
+         * @param presets the presets the caller is using
+         * @return true if the cache can be used
+         */
+        boolean isValid(@NonNull Preset[] presets) {
+            if (this.presets == null || this.presets.length != presets.length || generation != tagItemsGeneration.get()) {
+                return false;
+            }
+            for (int i = 0; i < presets.length; i++) {
+                if (this.presets[i] != presets[i]) {
+                    return false;
                 }
             }
+            return true;
+        }
+
+        /**
+         * Add a result to the cache, resetting it if it was created for different presets
+         * 
+         * @param presets the presets the result was determined with
+         * @param tags the tags
+         * @param item the best matching PresetItem or null
+         */
+        void put(@NonNull Preset[] presets, @NonNull Map<String, String> tags, @Nullable PresetItem item) {
+            if (!isValid(presets)) {
+                clear();
+                this.presets = Arrays.copyOf(presets, presets.length);
+                generation = tagItemsGeneration.get();
+            }
+            put(new HashMap<>(tags), item);
         }
-        return possibleMatches;
     }
 
     /**
@@ -2573,7 +2943,7 @@ public class Preset implements Serializable {
 
         private final int itemIndex;
 
-        private transient int recommendedKeyCount = -1;
+        private int recommendedKeyCount = -1;
 
         /**
          * Construct a new PresetItem
@@ -2642,22 +3012,22 @@ public class Preset implements Serializable {
                     if (v != null && v.getValue() != null) {
                         value = v.getValue();
                     }
-                    tagItems.add(key + "\t" + value, this);
+                    addTagItem(key + "\t" + value, this);
                     addToAutosuggest(key, v);
                 }
                 for (Entry<String, PresetField> e : getFields().entrySet()) {
                     PresetField field = e.getValue();
                     if (field instanceof PresetCheckGroupField) {
                         for (PresetCheckField check : ((PresetCheckGroupField) field).getCheckFields()) {
-                            tagItems.add(check.getKey() + "\t", this);
+                            addTagItem(check.getKey() + "\t", this);
                         }
                     } else if (!(field instanceof PresetFixedField)) {
                         String key = e.getKey();
-                        tagItems.add(key + "\t", this);
+                        addTagItem(key + "\t", this);
                         if (field instanceof PresetComboField) {
                             StringWithDescription[] values = ((PresetComboField) field).getValues();
                             for (StringWithDescription swd : values) {
-                                tagItems.add(e.getKey() + "\t" + swd.getValue(), this);
+                                addTagItem(e.getKey() + "\t" + swd.getValue(), this);
                             }
                             addToAutosuggest(key, values);
                         }
@@ -2843,7 +3213,7 @@ public class Preset implements Serializable {
             fixedTags.put(key, field);
             fields.put(key, field);
             if (!chunk) {
-                tagItems.add(key + "\t" + value, this);
+                addTagItem(key + "\t" + value, this);
                 addToAutosuggest(key, value.length() > 0 ? new StringWithDescription(value, text) : null);
             }
             return field;
@@ -2955,10 +3325,10 @@ public class Preset implements Serializable {
          */
         private synchronized void addValues(String key, StringWithDescription[] valueArray) {
             if (!chunk) {
-                tagItems.add(key + "\t", this);
+                addTagItem(key + "\t", this);
                 if (valueArray != null && valueArray.length > 0) {
                     for (StringWithDescription v : valueArray) {
-                        tagItems.add(key + "\t" + v.getValue(), this);
+                        addTagItem(key + "\t" + v.getValue(), this);
                     }
                     addToAutosuggest(key, valueArray);
                 } else {
@@ -3467,62 +3837,63 @@ public class Preset implements Serializable {
          */
         public int matchesRecommended(Map<String, String> tagMap) {
             int matches = 0;
-
-            List<PresetField> allFields = new ArrayList<>();
-            for (PresetField field : fields.values()) {
+            for (PresetField field : fields.values()) { // for each own tag
                 if (field instanceof PresetCheckGroupField) {
-                    allFields.addAll(((PresetCheckGroupField) field).getCheckFields());
+                    for (PresetCheckField check : ((PresetCheckGroupField) field).checkFields()) {
+                        matches = matches + matchesRecommended(check, tagMap);
+                    }
                 } else {
-                    allFields.add(field);
+                    matches = matches + matchesRecommended(field, tagMap);
                 }
             }
+            return matches;
+        }
 
-            for (PresetField field : allFields) { // for each own tag
-                String key = field.getKey();
-                if (field.isOptional() || field instanceof PresetFixedField) {
-                    continue;
+        /**
+         * Determine the contribution of a single field to the recommended tags match count
+         * 
+         * @param field the PresetField
+         * @param tagMap Map containing the tags
+         * @return 1 for a match, -1 for a negative match and 0 if the field doesn't count
+         */
+        private int matchesRecommended(@NonNull PresetField field, @NonNull Map<String, String> tagMap) {
+            String key = field.getKey();
+            if (field.isOptional() || field instanceof PresetFixedField) {
+                return 0;
+            }
+            MatchType type = field.matchType;
+            if (tagMap.containsKey(key)) { // key could have null value in the set
+                // value not empty
+                if (type == MatchType.NONE) {
+                    // don't count this
+                    return 0;
                 }
-                MatchType type = field.matchType;
-                if (tagMap.containsKey(key)) { // key could have null value in the set
-                    // value not empty
-                    if (type == MatchType.NONE) {
-                        // don't count this
-                        continue;
-                    }
-                    if (type == MatchType.KEY) {
-                        matches++;
-                        continue;
-                    }
-                    String otherTagValue = tagMap.get(key);
-                    if (field instanceof PresetComboField && ((PresetComboField) field).getValues() != null) {
-                        boolean matched = false;
-                        for (StringWithDescription v : ((PresetComboField) field).getValues()) {
-                            if (v.equals(otherTagValue)) {
-                                matched = true;
-                                break;
-                            }
-                        }
-                        if (matched) {
-                            matches++;
-                        } else if (type == MatchType.KEY_VALUE_NEG) {
-                            matches--;
-                        }
-                    } else if (field instanceof PresetCheckField) {
-                        String onValue = ((PresetCheckField) field).getOnValue().getValue();
-                        String offValue = ((PresetCheckField) field).getOnValue() != null ? ((PresetCheckField) field).getOnValue().getValue() : null;
-                        if (otherTagValue.equals(onValue) || otherTagValue.equals(offValue)) {
-                            matches++;
-                        } else if (type == MatchType.KEY_VALUE_NEG) {
-                            matches--;
+                if (type == MatchType.KEY) {
+                    return 1;
+                }
+                String otherTagValue = tagMap.get(key);
+                if (field instanceof PresetComboField && ((PresetComboField) field).getValues() != null) {
+                    for (StringWithDescription v : ((PresetComboField) field).getValues()) {
+                        if (v.equals(otherTagValue)) {
+                            return 1;
                         }
                     }
-                } else {
-                    if (type == MatchType.KEY_NEG || type == MatchType.KEY_VALUE_NEG) {
-                        matches--;
+                    if (type == MatchType.KEY_VALUE_NEG) {
+                        return -1;
+                    }
+                } else if (field instanceof PresetCheckField) {
+                    String onValue = ((PresetCheckField) field).getOnValue().getValue();
+                    String offValue = ((PresetCheckField) field).getOnValue() != null ? ((PresetCheckField) field).getOnValue().getValue() : null;
+                    if (otherTagValue.equals(onValue) || otherTagValue.equals(offValue)) {
+                        return 1;
+                    } else if (type == MatchType.KEY_VALUE_NEG) {
+                        return -1;
                     }
                 }
+            } else if (type == MatchType.KEY_NEG || type == MatchType.KEY_VALUE_NEG) {
+                return -1;
             }
-            return matches;
+            return 0;
         }
 
         @Override
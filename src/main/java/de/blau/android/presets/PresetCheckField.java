@@ -6,6 +6,11 @@ import ch.poole.poparser.Po;
 import de.blau.android.util.StringWithDescription;
 
 public class PresetCheckField extends PresetField {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * on value
      */
@@ -1,6 +1,7 @@
 package de.blau.android.presets;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +12,10 @@ import android.support.annotation.Nullable;
 import ch.poole.poparser.Po;
 
 public class PresetCheckGroupField extends PresetField {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
 
     private Map<String, PresetCheckField> checks = new LinkedHashMap<>();
 
@@ -52,6 +57,16 @@ public class PresetCheckGroupField extends PresetField {
         return new ArrayList<>(checks.values());
     }
 
+    /**
+     * Get the PresetCheckFields without copying them
+     * 
+     * @return a Collection of the PresetCheckFields that must not be modified
+     */
+    @NonNull
+    Collection<PresetCheckField> checkFields() {
+        return checks.values();
+    }
+
     /**
      * Get a Set of all the keys
      * 
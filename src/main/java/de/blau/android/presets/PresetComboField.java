@@ -6,6 +6,10 @@ import ch.poole.poparser.Po;
 import de.blau.android.util.StringWithDescription;
 
 public class PresetComboField extends PresetField implements PresetFieldJavaScript {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
 
     StringWithDescription[] values;
 
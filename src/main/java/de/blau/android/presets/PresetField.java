@@ -1,5 +1,7 @@
 package de.blau.android.presets;
 
+import java.io.Serializable;
+
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import ch.poole.poparser.Po;
@@ -7,7 +9,12 @@ import de.blau.android.presets.Preset.MatchType;
 import de.blau.android.presets.Preset.UseLastAsDefault;
 import de.blau.android.presets.Preset.ValueType;
 
-public abstract class PresetField {
+public abstract class PresetField implements Serializable {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
     private static final String DEBUG_TAG = "PresetField";
 
     /**
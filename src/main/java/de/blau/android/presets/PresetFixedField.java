@@ -5,6 +5,11 @@ import ch.poole.poparser.Po;
 import de.blau.android.util.StringWithDescription;
 
 public class PresetFixedField extends PresetField {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
     final StringWithDescription value;
 
     /**
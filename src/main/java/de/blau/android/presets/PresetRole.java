@@ -1,12 +1,19 @@
 package de.blau.android.presets;
 
+import java.io.Serializable;
+
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.Way;
 
-public class PresetRole implements Comparable<PresetRole> {
+public class PresetRole implements Comparable<PresetRole>, Serializable {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Role this is for
      */
@@ -3,6 +3,11 @@ package de.blau.android.presets;
 import android.support.annotation.NonNull;
 
 public class PresetTextField extends PresetField implements PresetFieldJavaScript {
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Script for pre-filling text fields
      */
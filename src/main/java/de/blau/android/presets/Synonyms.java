@@ -18,7 +18,8 @@ import de.blau.android.App;
 import de.blau.android.osm.OsmElement.ElementType;
 import de.blau.android.presets.Preset.PresetItem;
 import de.blau.android.util.IndexSearchResult;
-import de.blau.android.util.OptimalStringAlignment;
+import de.blau.android.util.NgramIndex;
+import de.blau.android.util.NgramIndex.Hit;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.SearchIndexUtils;
 import de.blau.android.util.collections.MultiHashMap;
@@ -33,6 +34,7 @@ public class Synonyms {
     static final String DEBUG_TAG = "Synonyms";
 
     private MultiHashMap<String, String> synonyms = new MultiHashMap<>(false); // names -> tags
+    private final NgramIndex             index;
 
     /**
      * Construct a new instance
@@ -81,6 +83,7 @@ public class Synonyms {
                 SavingHelper.close(is);
             }
         }
+        index = new NgramIndex(synonyms.getKeys());
     }
 
     /**
@@ -97,31 +100,24 @@ public class Synonyms {
         Log.d(DEBUG_TAG, "Searching for " + term + " type " + type);
         List<IndexSearchResult> result = new ArrayList<>();
         Preset[] presets = App.getCurrentPresets(ctx);
-        for (String s : synonyms.getKeys()) {
-            int distance = s.indexOf(term);
-            if (distance == -1) {
-                distance = OptimalStringAlignment.editDistance(s, term, maxDistance);
-            } else {
-                distance = 0; // literal substring match, we don't want to weight this worse than a fuzzy match
-            }
-            if ((distance >= 0 && distance <= maxDistance)) {
-                Set<String> presetNames = synonyms.get(s);
-                for (String presetName : presetNames) {
-                    String[] parts = presetName.split("/");
-                    String presetKey = parts[0] + "\t";
-                    int len = parts.length;
-                    if (len >= 2) {
-                        presetKey = parts[len - 2] + "\t" + parts[len - 1];
-                    }
-                    for (Preset preset : presets) {
-                        if (preset != null) {
-                            Set<PresetItem> items = preset.getItemByTag(presetKey);
-                            if (items != null) {
-                                for (PresetItem pi : items) {
-                                    if (!pi.isDeprecated() && (type == null || pi.appliesTo(type))) {
-                                        IndexSearchResult isr = new IndexSearchResult(distance * items.size(), pi);
-                                        result.add(isr);
-                                    }
+        for (Hit hit : index.search(term, maxDistance, true)) {
+            int distance = hit.distance;
+            Set<String> presetNames = synonyms.get(hit.term);
+            for (String presetName : presetNames) {
+                String[] parts = presetName.split("/");
+                String presetKey = parts[0] + "\t";
+                int len = parts.length;
+                if (len >= 2) {
+                    presetKey = parts[len - 2] + "\t" + parts[len - 1];
+                }
+                for (Preset preset : presets) {
+                    if (preset != null) {
+                        Set<PresetItem> items = preset.getItemByTag(presetKey);
+                        if (items != null) {
+                            for (PresetItem pi : items) {
+                                if (!pi.isDeprecated() && (type == null || pi.appliesTo(type))) {
+                                    IndexSearchResult isr = new IndexSearchResult(distance * items.size(), pi);
+                                    result.add(isr);
                                 }
                             }
                         }
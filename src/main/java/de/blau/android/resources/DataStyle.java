@@ -212,6 +212,9 @@ public final class DataStyle extends DefaultHandler {
                 cascadedStyles = new ArrayList<>();
             }
             cascadedStyles.add(style);
+            // the compiled matchers are no longer valid
+            wayMatcher = null;
+            relationMatcher = null;
         }
 
         /**
@@ -478,6 +481,8 @@ public final class DataStyle extends DefaultHandler {
     private Map<String, FeatureStyle> internalStyles;
     private FeatureStyle              wayStyles;
     private FeatureStyle              relationStyles;
+    private StyleMatcher              wayMatcher;
+    private StyleMatcher              relationMatcher;
 
     private static DataStyle                  currentStyle;
     private static HashMap<String, DataStyle> availableStyles = new HashMap<>();
@@ -1517,30 +1522,36 @@ public final class DataStyle extends DefaultHandler {
     public static <T extends OsmElement & StyleableFeature> FeatureStyle matchStyle(@NonNull final T element) {
         FeatureStyle style = element.getStyle();
         if (style == null) {
-            style = Way.NAME.equals(element.getName()) ? currentStyle.wayStyles : currentStyle.relationStyles;
-            style = matchRecursive(style, element.getTags());
+            StyleMatcher matcher = Way.NAME.equals(element.getName()) ? currentStyle.getWayMatcher() : currentStyle.getRelationMatcher();
+            style = matcher.match(element.getTags());
             element.setStyle(style);
         }
         return style;
     }
 
     /**
-     * Recursively traverse the styles and try to find a match
+     * Get the compiled matcher for the way styles, (re-)compiling it if necessary
      * 
-     * @param style the style
-     * @param tags tags from the element we are trying to match
-     * @return the best matching style
+     * @return a StyleMatcher
      */
     @NonNull
-    private static FeatureStyle matchRecursive(@NonNull FeatureStyle style, @NonNull SortedMap<String, String> tags) {
-        FeatureStyle result = style;
-        if (style.cascadedStyles != null) {
-            for (FeatureStyle s : style.cascadedStyles) {
-                if (s.match(tags)) {
-                    return matchRecursive(s, tags);
-                }
-            }
+    private synchronized StyleMatcher getWayMatcher() {
+        if (wayMatcher == null || wayMatcher.getRoot() != wayStyles) {
+            wayMatcher = new StyleMatcher(wayStyles);
+        }
+        return wayMatcher;
+    }
+
+    /**
+     * Get the compiled matcher for the relation styles, (re-)compiling it if necessary
+     * 
+     * @return a StyleMatcher
+     */
+    @NonNull
+    private synchronized StyleMatcher getRelationMatcher() {
+        if (relationMatcher == null || relationMatcher.getRoot() != relationStyles) {
+            relationMatcher = new StyleMatcher(relationStyles);
         }
-        return result;
+        return relationMatcher;
     }
 }
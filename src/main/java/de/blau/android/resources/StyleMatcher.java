@@ -0,0 +1,246 @@
+package de.blau.android.resources;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import de.blau.android.resources.DataStyle.FeatureStyle;
+
+/**
+ * Compiled form of a tree of FeatureStyles
+ *
+ * The cascaded styles of every style in the tree are indexed by one of their tags, by key and value if the tag has a
+ * fixed value, by key only for wildcard tags. When matching only the styles indexed under one of the tags of the
+ * element need to be checked, as before the first style in document order that matches wins.
+ *
+ * Results are memoized, the cache key only contains the element tags that are actually used in the styles, and for
+ * keys that are only used with wildcard values, only the key. As a consequence elements with different names or other
+ * irrelevant tags share cache entries.
+ *
+ * The styles must not be changed after the matcher has been created.
+ */
+class StyleMatcher {
+
+    private static final int MAX_CACHE_SIZE = 10000;
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Index for the cascaded styles of a FeatureStyle
+     */
+    private static final class Node {
+        final FeatureStyle                    style;
+        final Node[]                          children;
+        final Map<String, Map<String, int[]>> byValue = new HashMap<>();
+        final Map<String, int[]>              byKey   = new HashMap<>();
+        final int[]                           always;
+
+        /**
+         * Construct a new index for style and, recursively, all of its cascaded styles
+         *
+         * @param style the FeatureStyle
+         * @param usedKeys map to which all keys used in tags are added, with a true value if the key is used with a
+         *            fixed value
+         */
+        Node(@NonNull FeatureStyle style, @NonNull Map<String, Boolean> usedKeys) {
+            this.style = style;
+            List<FeatureStyle> cascaded = style.cascadedStyles;
+            if (cascaded == null || cascaded.isEmpty()) {
+                children = null;
+                always = EMPTY;
+                return;
+            }
+            children = new Node[cascaded.size()];
+            Map<String, Map<String, List<Integer>>> tempByValue = new HashMap<>();
+            Map<String, List<Integer>> tempByKey = new HashMap<>();
+            List<Integer> tempAlways = new ArrayList<>();
+            for (int i = 0; i < children.length; i++) {
+                FeatureStyle child = cascaded.get(i);
+                children[i] = new Node(child, usedKeys);
+                String indexKey = null;
+                String indexValue = null;
+                for (Entry<String, String> tag : child.tags.entrySet()) {
+                    String key = tag.getKey();
+                    String value = tag.getValue();
+                    boolean wildcard = "*".equals(value);
+                    if (!wildcard) {
+                        usedKeys.put(key, Boolean.TRUE);
+                    } else if (!usedKeys.containsKey(key)) {
+                        usedKeys.put(key, Boolean.FALSE);
+                    }
+                    if (indexKey == null || (indexValue == null && !wildcard)) {
+                        indexKey = key;
+                        indexValue = wildcard ? null : value;
+                    }
+                }
+                if (indexKey == null) {
+                    tempAlways.add(i);
+                } else if (indexValue == null) {
+                    add(tempByKey, indexKey, i);
+                } else {
+                    Map<String, List<Integer>> values = tempByValue.get(indexKey);
+                    if (values == null) {
+                        values = new HashMap<>();
+                        tempByValue.put(indexKey, values);
+                    }
+                    add(values, indexValue, i);
+                }
+            }
+            for (Entry<String, Map<String, List<Integer>>> entry : tempByValue.entrySet()) {
+                Map<String, int[]> values = new HashMap<>();
+                for (Entry<String, List<Integer>> valueEntry : entry.getValue().entrySet()) {
+                    values.put(valueEntry.getKey(), toArray(valueEntry.getValue()));
+                }
+                byValue.put(entry.getKey(), values);
+            }
+            for (Entry<String, List<Integer>> entry : tempByKey.entrySet()) {
+                byKey.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            always = toArray(tempAlways);
+        }
+
+        /**
+         * Add a position to the List stored under key, creating the List if necessary
+         *
+         * @param map the Map holding the Lists
+         * @param key the key
+         * @param position the position to add
+         */
+        private static void add(@NonNull Map<String, List<Integer>> map, @NonNull String key, int position) {
+            List<Integer> positions = map.get(key);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                map.put(key, positions);
+            }
+            positions.add(position);
+        }
+
+        /**
+         * Convert a List of Integer to an int array
+         *
+         * @param list the List, the values are in ascending order
+         * @return an int array
+         */
+        @NonNull
+        private static int[] toArray(@NonNull List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Find the first cascaded style that matches the tags
+         *
+         * @param tags the element tags
+         * @return the position of the style or -1 if none matches
+         */
+        int first(@NonNull SortedMap<String, String> tags) {
+            int best = check(always, tags, Integer.MAX_VALUE);
+            for (Entry<String, String> tag : tags.entrySet()) {
+                String key = tag.getKey();
+                Map<String, int[]> values = byValue.get(key);
+                if (values != null) {
+                    best = check(values.get(tag.getValue()), tags, best);
+                }
+                best = check(byKey.get(key), tags, best);
+            }
+            return best == Integer.MAX_VALUE ? -1 : best;
+        }
+
+        /**
+         * Check candidate styles that come before the best match found up to now
+         *
+         * @param candidates positions of the candidate styles in ascending order or null
+         * @param tags the element tags
+         * @param best the position of the best match up to now
+         * @return the position of the best match
+         */
+        private int check(@Nullable int[] candidates, @NonNull SortedMap<String, String> tags, int best) {
+            if (candidates != null) {
+                for (int candidate : candidates) {
+                    if (candidate >= best) {
+                        break;
+                    }
+                    if (children[candidate].style.match(tags)) {
+                        return candidate;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+    private final FeatureStyle              root;
+    private final Node                      rootNode;
+    private final Map<String, Boolean>      usedKeys = new HashMap<>();
+    private final Map<String, FeatureStyle> cache    = new HashMap<>();
+    private final StringBuilder             builder  = new StringBuilder();
+
+    /**
+     * Compile a tree of FeatureStyles
+     *
+     * @param root the top level FeatureStyle
+     */
+    StyleMatcher(@NonNull FeatureStyle root) {
+        this.root = root;
+        rootNode = new Node(root, usedKeys);
+    }
+
+    /**
+     * Get the top level FeatureStyle this was compiled from
+     *
+     * @return the top level FeatureStyle
+     */
+    @NonNull
+    FeatureStyle getRoot() {
+        return root;
+    }
+
+    /**
+     * Find the best matching style for a set of tags
+     *
+     * @param tags the element tags
+     * @return the best matching style
+     */
+    @NonNull
+    synchronized FeatureStyle match(@NonNull SortedMap<String, String> tags) {
+        builder.setLength(0);
+        for (Entry<String, String> tag : tags.entrySet()) {
+            String key = tag.getKey();
+            Boolean fixedValue = usedKeys.get(key);
+            if (fixedValue != null) {
+                builder.append(key);
+                if (fixedValue) {
+                    builder.append(SEPARATOR);
+                    builder.append(tag.getValue());
+                }
+                builder.append(SEPARATOR);
+            }
+        }
+        String cacheKey = builder.toString();
+        FeatureStyle result = cache.get(cacheKey);
+        if (result == null) {
+            Node node = rootNode;
+            int position = node.children != null ? node.first(tags) : -1;
+            while (position >= 0) {
+                node = node.children[position];
+                position = node.children != null ? node.first(tags) : -1;
+            }
+            result = node.style;
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(cacheKey, result);
+        }
+        return result;
+    }
+}
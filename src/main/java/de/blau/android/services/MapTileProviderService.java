@@ -14,12 +14,14 @@ import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import de.blau.android.R;
 import de.blau.android.contract.Paths;
+import de.blau.android.osm.BoundingBox;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.TileLayerDatabase;
 import de.blau.android.resources.TileLayerServer;
 import de.blau.android.services.util.MapTile;
 import de.blau.android.services.util.MapTileFilesystemProvider;
 import de.blau.android.services.util.MapTileProviderDataBase;
+import de.blau.android.services.util.TileSeeder;
 import de.blau.android.util.Snack;
 
 /**
@@ -35,6 +37,7 @@ public class MapTileProviderService extends Service {
 
     private static final String       DEBUG_TAG           = MapTileProviderService.class.getSimpleName();
     private MapTileFilesystemProvider mFileSystemProvider;
+    private TileSeeder                mSeeder;
     private boolean                   mountPointWriteable = false;
 
     @Override
@@ -101,6 +104,8 @@ public class MapTileProviderService extends Service {
             Log.d(DEBUG_TAG, "Setting cache size to " + tileCacheSize + " on " + mountPoint.getPath());
             try {
                 mFileSystemProvider = new MapTileFilesystemProvider(this, mountPoint, tileCacheSize * 1024 * 1024); // FSCache
+                mSeeder = mFileSystemProvider.createSeeder(this);
+                mSeeder.resume();
                 // try to get BING layer early so the meta-data is already loaded
                 TileLayerServer.get(this, TileLayerServer.LAYER_BING, false);
                 return;
@@ -114,8 +119,19 @@ public class MapTileProviderService extends Service {
         Snack.toastTopError(this, getString(R.string.toast_storage_error, mountPoint));
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && TileSeeder.ACTION_CANCEL.equals(intent.getAction()) && mSeeder != null) {
+            mSeeder.cancel();
+        }
+        return START_NOT_STICKY;
+    }
+
     @Override
     public void onDestroy() {
+        if (mSeeder != null) {
+            mSeeder.destroy();
+        }
         if (mFileSystemProvider != null) {
             mFileSystemProvider.destroy();
         }
@@ -149,6 +165,22 @@ public class MapTileProviderService extends Service {
             mFileSystemProvider.flushQueue(rendererId, zoomLevel);
         }
 
+        public void setViewport(String rendererId, int zoomLevel, int left, int top, int right, int bottom) {
+            if (mFileSystemProvider != null) {
+                mFileSystemProvider.setViewport(rendererId, zoomLevel, left, top, right, bottom);
+            }
+        }
+
+        public void seed(String rendererId, int left, int bottom, int right, int top, int minZoom, int maxZoom) {
+            if (mSeeder != null) {
+                mSeeder.seed(rendererId, new BoundingBox(left, bottom, right, top), minZoom, maxZoom);
+            }
+        }
+
+        public int getAverageTileSize(String rendererId) {
+            return mFileSystemProvider != null ? mFileSystemProvider.getAverageTileSize(rendererId) : 0;
+        }
+
         public void update() {
             TileLayerDatabase db = new TileLayerDatabase(MapTileProviderService.this);
             TileLayerServer.getListsLocked(MapTileProviderService.this, db.getReadableDatabase(), false);
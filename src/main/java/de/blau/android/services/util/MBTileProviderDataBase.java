@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
@@ -24,6 +25,7 @@ import de.blau.android.osm.BoundingBox;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.MBTileConstants;
 import de.blau.android.util.SelectFile;
+import de.blau.android.util.collections.LongPrimitiveMap;
 
 /**
  * @author Simon Poole
@@ -50,6 +52,17 @@ public class MBTileProviderDataBase {
 
     private static final String T_MBTILES_GET = "SELECT " + T_MBTILES_DATA + " FROM " + T_MBTILES + " WHERE " + T_MBTILES_WHERE;
 
+    private static final String T_MBTILES_LIST = "SELECT " + T_MBTILES_ZOOM_LEVEL + "," + T_MBTILES_TILE_X + "," + T_MBTILES_TILE_Y + ",length("
+            + T_MBTILES_DATA + ") FROM " + T_MBTILES + " WHERE ";
+
+    private static final String T_MBTILES_GET_MULTIPLE = "SELECT " + T_MBTILES_ZOOM_LEVEL + "," + T_MBTILES_TILE_X + "," + T_MBTILES_TILE_Y + ","
+            + T_MBTILES_DATA + " FROM " + T_MBTILES + " WHERE ";
+
+    /**
+     * Max number of tiles retrieved with one query
+     */
+    private static final int MAX_TILES_PER_QUERY = 100;
+
     private static final String T_MBTILES_GET_ZOOMS = "SELECT DISTINCT " + T_MBTILES_ZOOM_LEVEL + " FROM " + T_MBTILES + " ORDER BY " + T_MBTILES_ZOOM_LEVEL;
 
     // ===========================================================
@@ -214,6 +227,122 @@ public class MBTileProviderDataBase {
         return null;
     }
 
+    /**
+     * Callback for tiles retrieved by getTiles
+     */
+    public interface TileHandler {
+        /**
+         * Process the contents of a tile
+         * 
+         * @param zoom the zoom level
+         * @param x the x tile coordinate
+         * @param y the y tile coordinate
+         * @param data the contents of the tile
+         * @throws IOException if processing the tile failed
+         */
+        void handle(int zoom, int x, int y, @NonNull byte[] data) throws IOException;
+    }
+
+    /**
+     * Calculate a unique key for a tile
+     * 
+     * @param zoom the zoom level
+     * @param x the x tile coordinate
+     * @param y the y tile coordinate
+     * @return a key
+     */
+    public static long tileKey(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * Determine which tiles exist in a rectangle of tiles at zoom level maxZoom and the rectangles covering it on the
+     * lower zoom levels down to minZoom
+     * 
+     * This uses a single query and doesn't retrieve the contents of the tiles.
+     * 
+     * @param minZoom the lowest zoom level to check
+     * @param maxZoom the zoom level the coordinates refer to
+     * @param left left tile coordinate
+     * @param top top tile coordinate
+     * @param right right tile coordinate
+     * @param bottom bottom tile coordinate
+     * @return a map from tile key, see {@link #tileKey(int, int, int)}, to the size of the tile in bytes
+     * @throws IOException if we had issues reading from the database
+     */
+    @NonNull
+    public LongPrimitiveMap<Integer> getTileSizes(int minZoom, int maxZoom, int left, int top, int right, int bottom) throws IOException {
+        LongPrimitiveMap<Integer> result = new LongPrimitiveMap<>();
+        StringBuilder query = new StringBuilder(T_MBTILES_LIST);
+        for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+            int shift = maxZoom - zoom;
+            int ymax = 1 << zoom; // TMS scheme
+            if (zoom != maxZoom) {
+                query.append(" OR ");
+            }
+            query.append('(').append(T_MBTILES_ZOOM_LEVEL).append('=').append(zoom);
+            query.append(AND).append(T_MBTILES_TILE_X).append(" BETWEEN ").append(left >> shift).append(AND).append(right >> shift);
+            query.append(AND).append(T_MBTILES_TILE_Y).append(" BETWEEN ").append(ymax - (bottom >> shift) - 1).append(AND)
+                    .append(ymax - (top >> shift) - 1).append(')');
+        }
+        try {
+            if (mDatabase.isOpen()) {
+                Cursor c = mDatabase.rawQuery(query.toString(), null);
+                try {
+                    while (c.moveToNext()) {
+                        int zoom = c.getInt(0);
+                        int y = (1 << zoom) - c.getInt(2) - 1;
+                        result.put(tileKey(zoom, c.getInt(1), y), c.getInt(3));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (SQLiteException sex) {
+            throw new IOException(sex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the contents of multiple tiles with as few queries as possible
+     * 
+     * The tiles are not necessarily returned in the order of the input, tiles that don't exist are skipped. As the
+     * contents are read via a Cursor, large tiles should be retrieved individually with getTileStream.
+     * 
+     * @param tiles the tiles to retrieve
+     * @param handler called for every tile
+     * @throws IOException if we had issues reading from the database or the handler failed
+     */
+    public void getTiles(@NonNull List<MapTile> tiles, @NonNull TileHandler handler) throws IOException {
+        try {
+            for (int start = 0; start < tiles.size() && mDatabase.isOpen(); start += MAX_TILES_PER_QUERY) {
+                StringBuilder query = new StringBuilder(T_MBTILES_GET_MULTIPLE);
+                int end = Math.min(tiles.size(), start + MAX_TILES_PER_QUERY);
+                for (int i = start; i < end; i++) {
+                    MapTile tile = tiles.get(i);
+                    if (i != start) {
+                        query.append(" OR ");
+                    }
+                    query.append('(').append(T_MBTILES_ZOOM_LEVEL).append('=').append(tile.zoomLevel);
+                    query.append(AND).append(T_MBTILES_TILE_X).append('=').append(tile.x);
+                    query.append(AND).append(T_MBTILES_TILE_Y).append('=').append((1 << tile.zoomLevel) - tile.y - 1).append(')');
+                }
+                Cursor c = mDatabase.rawQuery(query.toString(), null);
+                try {
+                    while (c.moveToNext()) {
+                        int zoom = c.getInt(0);
+                        handler.handle(zoom, c.getInt(1), (1 << zoom) - c.getInt(2) - 1, c.getBlob(3));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (SQLiteException sex) {
+            throw new IOException(sex.getMessage());
+        }
+    }
+
     /**
      * Bind the tile values to the prepared statement
      * 
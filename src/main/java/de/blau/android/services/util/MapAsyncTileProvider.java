@@ -1,52 +1,103 @@
 package de.blau.android.services.util;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 import de.blau.android.services.IMapTileProviderCallback;
 
 /**
- * 
+ *
  * <br/>
  * This class was taken from OpenStreetMapViewer (original package org.andnav.osm) in 2010-06 by Marcus Wolschon to be
  * integrated into the de.blau.androin OSMEditor.
- * 
+ *
+ * Requests are not run in the order they were made, but ordered by their distance from the centre of the last
+ * viewport reported for the tile layer and by how far their zoom level is from the viewport zoom. Requests that are
+ * still queued when they move out of the viewport are cancelled. Requests for the same tile are coalesced, the result
+ * is delivered to all requesters.
+ *
  * @author Nicolas Gramlich
  * @author Marcus Wolschon <Marcus@Wolschon.biz>
  *
  */
 public abstract class MapAsyncTileProvider {
 
+    private static final String DEBUG_TAG = "MapAsyncTileProvider";
+
     public static final int IOERR        = 1;
     public static final int DOESNOTEXIST = 2;
     public static final int NONETWORK    = 3;
     public static final int RETRY        = 4;
+    public static final int CANCELLED    = 5;
 
     public static final int ALLZOOMS = -1;
 
-    ThreadPoolExecutor                  mThreadPool;
-    private final Map<String, Runnable> mPending = Collections.synchronizedMap(new HashMap<String, Runnable>());
+    /**
+     * Tiles this many tiles outside of the viewport are still loaded
+     */
+    static final int VIEWPORT_MARGIN = 1;
+
+    /**
+     * Penalty for each zoom level a tile is away from the viewport zoom, in tiles of distance
+     */
+    static final double ZOOM_PENALTY = 4d;
+
+    ThreadPoolExecutor                    mThreadPool;
+    private final Map<String, TileLoader> mPending   = Collections.synchronizedMap(new HashMap<String, TileLoader>());
+    private final Map<String, int[]>      mViewports = new HashMap<>();
+    private long                          mSequence  = 0;
 
+    /**
+     * Create a thread pool that runs TileLoaders in order of priority
+     *
+     * @param threads the number of threads
+     * @return a ThreadPoolExecutor
+     */
+    @NonNull
+    static ThreadPoolExecutor createThreadPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Queue a request for a tile, if the tile is already queued the callback is added to the existing request
+     *
+     * @param aTile the tile
+     * @param aCallback the callback to call when the request has been processed
+     */
     public synchronized void loadMapTileAsync(final MapTile aTile, final IMapTileProviderCallback aCallback) {
         final String tileId = aTile.toId();
 
-        if (mPending.containsKey(tileId)) {
+        TileLoader existing = mPending.get(tileId);
+        if (existing != null && existing.mCallback.add(aCallback)) {
             return;
         }
 
-        Runnable r = getTileLoader(aTile, aCallback);
+        TileLoader r = getTileLoader(aTile, aCallback);
+        r.sequence = mSequence++;
+        r.priority = priority(mViewports.get(aTile.rendererID), aTile);
         mPending.put(tileId, r);
         mThreadPool.execute(r);
     }
 
     /**
      * Remove a specific request from the Executors queue
-     * 
+     *
      * @param tileId id of the request
      * @return true if successful
      */
@@ -61,24 +112,24 @@ public abstract class MapAsyncTileProvider {
 
     /**
      * Remove requests from the Executor queue for a specific renderer and zoom level
-     * 
+     *
      * @param rendererId the renderer we want to remove tiles for
      * @param zoom the zoom level we want to remove tiles for, if ALLZOOMS remove all requests for the renderer
      */
     public void flushQueue(String rendererId, int zoom) {
-        Set<Entry<String, Runnable>> entries;
+        Set<Entry<String, TileLoader>> entries;
         synchronized (mPending) {
             entries = new HashSet<>(mPending.entrySet());
         }
         if (zoom != ALLZOOMS) {
             String id = Integer.toString(zoom) + rendererId; // see MapTile.toId()
-            for (Entry<String, Runnable> e : entries) {
+            for (Entry<String, TileLoader> e : entries) {
                 if (e.getKey().startsWith(id)) {
                     removeRequest(e.getKey());
                 }
             }
         } else {
-            for (Entry<String, Runnable> e : entries) {
+            for (Entry<String, TileLoader> e : entries) {
                 if (e.getKey().contains(rendererId)) {
                     removeRequest(e.getKey());
                 }
@@ -86,19 +137,234 @@ public abstract class MapAsyncTileProvider {
         }
     }
 
-    protected abstract Runnable getTileLoader(final MapTile aTile, final IMapTileProviderCallback aCallback);
+    /**
+     * Set the tiles currently displayed for a renderer
+     *
+     * Queued requests for the renderer are re-prioritized, requests for tiles that are no longer visible are cancelled
+     * and their requesters notified with reason CANCELLED
+     *
+     * @param rendererId the renderer
+     * @param zoom the zoom level of the displayed tiles
+     * @param left the left most tile x
+     * @param top the top most tile y
+     * @param right the right most tile x
+     * @param bottom the bottom most tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        int[] viewport = new int[] { zoom, left, top, right, bottom };
+        List<TileLoader> cancelled = new ArrayList<>();
+        synchronized (this) {
+            mViewports.put(rendererId, viewport);
+            BlockingQueue<Runnable> queue = mThreadPool.getQueue();
+            List<Runnable> queued = new ArrayList<>();
+            queue.drainTo(queued);
+            for (Runnable r : queued) {
+                TileLoader loader = (TileLoader) r;
+                if (rendererId.equals(loader.mTile.rendererID)) {
+                    if (!isVisible(viewport, loader.mTile)) {
+                        mPending.remove(loader.mTile.toId());
+                        cancelled.add(loader);
+                        continue;
+                    }
+                    loader.priority = priority(viewport, loader.mTile);
+                }
+                queue.add(loader);
+            }
+        }
+        for (TileLoader loader : cancelled) {
+            MapTile tile = loader.mTile;
+            try {
+                loader.mCallback.mapTileFailed(tile.rendererID, tile.zoomLevel, tile.x, tile.y, CANCELLED);
+            } catch (RemoteException e) {
+                Log.e(DEBUG_TAG, "Cancelling " + tile + " failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Calculate the priority of a tile, lower values are more urgent
+     *
+     * @param viewport the viewport zoom, left, top, right and bottom tile numbers or null if not known
+     * @param tile the tile
+     * @return the priority
+     */
+    static double priority(@Nullable int[] viewport, @NonNull MapTile tile) {
+        if (viewport == null) {
+            return 0d; // run in order of the requests
+        }
+        int viewportZoom = viewport[0];
+        double scale = Math.pow(2d, viewportZoom - tile.zoomLevel);
+        double centreX = (viewport[1] + viewport[3] + 1) / 2d;
+        double centreY = (viewport[2] + viewport[4] + 1) / 2d;
+        double dx = wrappedDistance((tile.x + 0.5d) * scale, centreX, viewportZoom);
+        double dy = Math.abs((tile.y + 0.5d) * scale - centreY);
+        return Math.abs(viewportZoom - tile.zoomLevel) * ZOOM_PENALTY + Math.max(dx, dy);
+    }
+
+    /**
+     * Check if a tile is visible in a viewport, or at most VIEWPORT_MARGIN tiles away
+     *
+     * @param viewport the viewport zoom, left, top, right and bottom tile numbers
+     * @param tile the tile
+     * @return true if the tile is visible
+     */
+    static boolean isVisible(@NonNull int[] viewport, @NonNull MapTile tile) {
+        int viewportZoom = viewport[0];
+        double scale = Math.pow(2d, viewportZoom - tile.zoomLevel);
+        // tile extent in viewport tile numbers
+        double tileLeft = tile.x * scale;
+        double tileRight = (tile.x + 1) * scale;
+        double tileTop = tile.y * scale;
+        double tileBottom = (tile.y + 1) * scale;
+        double halfWidth = (viewport[3] - viewport[1] + 1) / 2d + VIEWPORT_MARGIN;
+        double halfHeight = (viewport[4] - viewport[2] + 1) / 2d + VIEWPORT_MARGIN;
+        double centreX = (viewport[1] + viewport[3] + 1) / 2d;
+        double centreY = (viewport[2] + viewport[4] + 1) / 2d;
+        double dx = wrappedDistance((tileLeft + tileRight) / 2d, centreX, viewportZoom);
+        double dy = Math.abs((tileTop + tileBottom) / 2d - centreY);
+        return dx < halfWidth + (tileRight - tileLeft) / 2d && dy < halfHeight + (tileBottom - tileTop) / 2d;
+    }
+
+    /**
+     * Get the horizontal distance between two positions taking wrapping around the antimeridian in to account
+     *
+     * @param x1 first position in tile numbers
+     * @param x2 second position in tile numbers
+     * @param zoom the zoom level of the tile numbers
+     * @return the distance in tiles
+     */
+    private static double wrappedDistance(double x1, double x2, int zoom) {
+        double tiles = Math.pow(2d, zoom);
+        double d = Math.abs(x1 - x2) % tiles;
+        return Math.min(d, tiles - d);
+    }
 
-    abstract class TileLoader implements Runnable {
-        final MapTile                  mTile;
-        final IMapTileProviderCallback mCallback;
+    protected abstract TileLoader getTileLoader(final MapTile aTile, final IMapTileProviderCallback aCallback);
+
+    abstract class TileLoader implements Runnable, Comparable<TileLoader> {
+        final MapTile       mTile;
+        final CallbackGroup mCallback;
+        long                sequence;
+        double              priority;
 
         public TileLoader(final MapTile aTile, final IMapTileProviderCallback aCallback) {
             mTile = aTile;
-            mCallback = aCallback;
+            mCallback = new CallbackGroup(aCallback);
         }
 
         void finished() {
             mPending.remove(mTile.toId());
         }
+
+        @Override
+        public int compareTo(@NonNull TileLoader other) {
+            int result = Double.compare(priority, other.priority);
+            if (result == 0) {
+                result = sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Forward calls to all callbacks that requested the same tile
+     *
+     * Callbacks that are added after a result has been delivered are rejected, the tile needs to be requested again for
+     * them.
+     */
+    static final class CallbackGroup implements IMapTileProviderCallback {
+        private final List<IMapTileProviderCallback> callbacks = new ArrayList<>();
+        private boolean                              done      = false;
+
+        /**
+         * Construct a new group
+         *
+         * @param callback the first callback
+         */
+        CallbackGroup(@NonNull IMapTileProviderCallback callback) {
+            callbacks.add(callback);
+        }
+
+        /**
+         * Add a callback, callbacks with the same binder are only added once
+         *
+         * @param callback the callback
+         * @return false if a result has already been delivered
+         */
+        synchronized boolean add(@NonNull IMapTileProviderCallback callback) {
+            if (done) {
+                return false;
+            }
+            for (IMapTileProviderCallback c : callbacks) {
+                if (c.asBinder() == callback.asBinder()) {
+                    return true;
+                }
+            }
+            callbacks.add(callback);
+            return true;
+        }
+
+        /**
+         * Mark the group as done and get the callbacks
+         *
+         * @return an array of the callbacks
+         */
+        private synchronized IMapTileProviderCallback[] finish() {
+            done = true;
+            return callbacks.toArray(new IMapTileProviderCallback[callbacks.size()]);
+        }
+
+        @Override
+        public IBinder asBinder() {
+            synchronized (this) {
+                return callbacks.get(0).asBinder();
+            }
+        }
+
+        @Override
+        public void mapTileLoaded(String rendererID, int zoomLevel, int tileX, int tileY, byte[] aImage) throws RemoteException {
+            RemoteException exception = null;
+            for (IMapTileProviderCallback c : finish()) {
+                try {
+                    c.mapTileLoaded(rendererID, zoomLevel, tileX, tileY, aImage);
+                } catch (RemoteException e) {
+                    exception = e;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        @Override
+        public void mapTileLoadedShared(String rendererID, int zoomLevel, int tileX, int tileY, ParcelFileDescriptor aImage, int length)
+                throws RemoteException {
+            RemoteException exception = null;
+            for (IMapTileProviderCallback c : finish()) {
+                try {
+                    c.mapTileLoadedShared(rendererID, zoomLevel, tileX, tileY, aImage, length);
+                } catch (RemoteException e) {
+                    exception = e;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        @Override
+        public void mapTileFailed(String rendererID, int zoomLevel, int tileX, int tileY, int reason) throws RemoteException {
+            RemoteException exception = null;
+            for (IMapTileProviderCallback c : finish()) {
+                try {
+                    c.mapTileFailed(rendererID, zoomLevel, tileX, tileY, reason);
+                } catch (RemoteException e) {
+                    exception = e;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
     }
 }
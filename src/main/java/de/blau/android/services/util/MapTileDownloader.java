@@ -9,8 +9,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
@@ -19,6 +17,7 @@ import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import de.blau.android.App;
 import de.blau.android.prefs.Preferences;
@@ -53,6 +52,8 @@ public class MapTileDownloader extends MapAsyncTileProvider {
 
     public static final long TIMEOUT = 5000;
 
+    private static final String TILE_NOT_AVAILABLE = "tile not available";
+
     // ===========================================================
     // Fields
     // ===========================================================
@@ -76,7 +77,7 @@ public class MapTileDownloader extends MapAsyncTileProvider {
         mCtx = ctx;
         mMapTileFSProvider = aMapTileFSProvider;
         networkStatus = new NetworkStatus(ctx);
-        mThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool((new Preferences(ctx)).getMaxTileDownloadThreads());
+        mThreadPool = createThreadPool((new Preferences(ctx)).getMaxTileDownloadThreads());
         client = App.getHttpClient().newBuilder().connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS).readTimeout(TIMEOUT, TimeUnit.MILLISECONDS).build();
     }
 
@@ -89,7 +90,7 @@ public class MapTileDownloader extends MapAsyncTileProvider {
     // ===========================================================
 
     @Override
-    protected Runnable getTileLoader(MapTile aTile, IMapTileProviderCallback aCallback) {
+    protected TileLoader getTileLoader(MapTile aTile, IMapTileProviderCallback aCallback) {
         return new TileLoader(aTile, aCallback);
     }
 
@@ -109,14 +110,107 @@ public class MapTileDownloader extends MapAsyncTileProvider {
         return renderer.isMetadataLoaded() ? renderer.getTileURLString(tile) : "";
     }
 
+    /**
+     * Download a tile
+     * 
+     * @param renderer the TileLayerServer the tile belongs to
+     * @param tile the tile
+     * @return the tile image data or null if no url could be determined for the tile
+     * @throws FileNotFoundException if the server doesn't have the tile
+     * @throws IOException if the download failed
+     */
+    @Nullable
+    byte[] download(@NonNull TileLayerServer renderer, @NonNull MapTile tile) throws IOException {
+        final String tileURLString = buildURL(renderer, tile);
+        return tileURLString.length() > 0 ? download(renderer, tileURLString) : null;
+    }
+
+    /**
+     * Download a tile
+     * 
+     * @param renderer the TileLayerServer the tile belongs to
+     * @param tileURLString the url of the tile
+     * @return the tile image data
+     * @throws FileNotFoundException if the server doesn't have the tile
+     * @throws IOException if the download failed
+     */
+    @NonNull
+    byte[] download(@NonNull TileLayerServer renderer, @NonNull String tileURLString) throws IOException {
+        if (Log.isLoggable(DEBUGTAG, Log.DEBUG)) {
+            Log.d(DEBUGTAG, "Downloading Maptile from url: " + tileURLString);
+        }
+        InputStream in = null;
+        OutputStream out = null;
+        ResponseBody responseBody = null;
+        MediaType format = null;
+        InputStream inputStream = null;
+        Response tileCallResponse = null;
+        try {
+            Request request = new Request.Builder().url(tileURLString).build();
+            Call tileCall = client.newCall(request);
+            tileCallResponse = tileCall.execute();
+            if (tileCallResponse.isSuccessful()) {
+                responseBody = tileCallResponse.body();
+                inputStream = responseBody.byteStream();
+                format = responseBody.contentType();
+            } else {
+                int code = tileCallResponse.code();
+                if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw new FileNotFoundException(TILE_NOT_AVAILABLE);
+                } else {
+                    throw new IOException("Code: " + code + " message: " + tileCallResponse.body().string());
+                }
+            }
+            String noTileHeader = renderer.getNoTileHeader();
+            if (noTileHeader != null) {
+                String headerValue = tileCallResponse.header(noTileHeader);
+                if (headerValue != null) {
+                    String[] noTileValues = renderer.getNoTileValues();
+                    if (noTileValues != null) {
+                        for (String v : noTileValues) {
+                            if (headerValue.equals(v)) {
+                                throw new FileNotFoundException(TILE_NOT_AVAILABLE);
+                            }
+                        }
+                    } else {
+                        throw new FileNotFoundException(TILE_NOT_AVAILABLE);
+                    }
+                }
+            }
+            in = new BufferedInputStream(inputStream, StreamUtils.IO_BUFFER_SIZE);
+            final ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+            out = new BufferedOutputStream(dataStream, StreamUtils.IO_BUFFER_SIZE);
+            StreamUtils.copy(in, out);
+            out.flush();
+
+            byte[] data = dataStream.toByteArray();
+
+            if (data.length == 0) {
+                throw new IOException("no tile data");
+            }
+            // if tile is in BMP format, compress
+            if (format != null && "BMP".equalsIgnoreCase(format.subtype())) {
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, null);
+                dataStream.reset();
+                bitmap.compress(CompressFormat.PNG, 100, dataStream);
+                data = dataStream.toByteArray();
+            }
+            return data;
+        } finally {
+            StreamUtils.closeStream(in);
+            StreamUtils.closeStream(out);
+            if (tileCallResponse != null) {
+                tileCallResponse.close();
+            }
+        }
+    }
+
     // ===========================================================
     // Inner and Anonymous Classes
     // ===========================================================
 
     private class TileLoader extends MapAsyncTileProvider.TileLoader {
 
-        private static final String TILE_NOT_AVAILABLE = "tile not available";
-
         /**
          * Construct a new TileLoader
          * 
@@ -140,70 +234,12 @@ public class MapTileDownloader extends MapAsyncTileProvider {
                 return;
             }
 
-            InputStream in = null;
-            OutputStream out = null;
-            ResponseBody responseBody = null;
-            MediaType format = null;
-            InputStream inputStream = null;
-            Response tileCallResponse = null;
             TileLayerServer renderer = TileLayerServer.get(mCtx, mTile.rendererID, false);
             if (renderer != null) {
                 final String tileURLString = buildURL(renderer, mTile);
                 try {
                     if (tileURLString.length() > 0) {
-                        if (Log.isLoggable(DEBUGTAG, Log.DEBUG)) {
-                            Log.d(DEBUGTAG, "Downloading Maptile from url: " + tileURLString);
-                        }
-
-                        Request request = new Request.Builder().url(tileURLString).build();
-                        Call tileCall = client.newCall(request);
-                        tileCallResponse = tileCall.execute();
-                        if (tileCallResponse.isSuccessful()) {
-                            responseBody = tileCallResponse.body();
-                            inputStream = responseBody.byteStream();
-                            format = responseBody.contentType();
-                        } else {
-                            int code = tileCallResponse.code();
-                            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
-                                throw new FileNotFoundException(TILE_NOT_AVAILABLE);
-                            } else {
-                                throw new IOException("Code: " + code + " message: " + tileCallResponse.body().string());
-                            }
-                        }
-                        String noTileHeader = renderer.getNoTileHeader();
-                        if (noTileHeader != null) {
-                            String headerValue = tileCallResponse.header(noTileHeader);
-                            if (headerValue != null) {
-                                String[] noTileValues = renderer.getNoTileValues();
-                                if (noTileValues != null) {
-                                    for (String v : noTileValues) {
-                                        if (headerValue.equals(v)) {
-                                            throw new FileNotFoundException(TILE_NOT_AVAILABLE);
-                                        }
-                                    }
-                                } else {
-                                    throw new FileNotFoundException(TILE_NOT_AVAILABLE);
-                                }
-                            }
-                        }
-                        in = new BufferedInputStream(inputStream, StreamUtils.IO_BUFFER_SIZE);
-                        final ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
-                        out = new BufferedOutputStream(dataStream, StreamUtils.IO_BUFFER_SIZE);
-                        StreamUtils.copy(in, out);
-                        out.flush();
-
-                        byte[] data = dataStream.toByteArray();
-
-                        if (data.length == 0) {
-                            throw new IOException("no tile data");
-                        }
-                        // if tile is in BMP format, compress
-                        if (format != null && "BMP".equalsIgnoreCase(format.subtype())) {
-                            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, null);
-                            dataStream.reset();
-                            bitmap.compress(CompressFormat.PNG, 100, dataStream);
-                            data = dataStream.toByteArray();
-                        }
+                        byte[] data = download(renderer, tileURLString);
                         mCallback.mapTileLoaded(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, data);
                         MapTileDownloader.this.mMapTileFSProvider.saveFile(mTile, data);
                     }
@@ -234,11 +270,6 @@ public class MapTileDownloader extends MapAsyncTileProvider {
                 } catch (RemoteException | NullPointerException | IllegalArgumentException e) {
                     Log.e(DEBUGTAG, "Error in TileLoader. Url " + tileURLString + " Exception: " + e);
                 } finally {
-                    StreamUtils.closeStream(in);
-                    StreamUtils.closeStream(out);
-                    if (tileCallResponse != null) {
-                        tileCallResponse.close();
-                    }
                     finished();
                 }
             }
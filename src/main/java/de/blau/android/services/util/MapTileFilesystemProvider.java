@@ -3,16 +3,17 @@ package de.blau.android.services.util;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import android.app.NotificationManager;
+import android.app.Service;
 import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -80,7 +81,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
         mCurrentCacheByteSize = mDatabase.getCurrentFSCacheByteSize();
         Preferences prefs = new Preferences(ctx);
         int maxThreads = prefs.getMaxTileDownloadThreads();
-        mThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxThreads);
+        mThreadPool = createThreadPool(maxThreads);
 
         mTileDownloader = new MapTileDownloader(ctx, this);
         Log.d(DEBUG_TAG, "Currently used cache-size is: " + mCurrentCacheByteSize + " of " + mMaxFSCacheByteSize + " Bytes");
@@ -104,10 +105,16 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
     // ===========================================================
 
     @Override
-    protected Runnable getTileLoader(MapTile aTile, IMapTileProviderCallback aCallback) {
+    protected TileLoader getTileLoader(MapTile aTile, IMapTileProviderCallback aCallback) {
         return new TileLoader(aTile, aCallback);
     }
 
+    @Override
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        super.setViewport(rendererId, zoom, left, top, right, bottom);
+        mTileDownloader.setViewport(rendererId, zoom, left, top, right, bottom);
+    }
+
     // ===========================================================
     // Methods
     // ===========================================================
@@ -145,6 +152,48 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
         }
     }
 
+    /**
+     * Save the image data for multiple tiles to the database in one transaction, making space if necessary
+     * 
+     * @param tiles the tile meta-data
+     * @param data the tile image data in the same order as tiles, null entries mark invalid tiles
+     * @throws IOException if writing to the database failed
+     */
+    public void saveFiles(@NonNull final List<MapTile> tiles, @NonNull final List<byte[]> data) throws IOException {
+        try {
+            mCurrentCacheByteSize += mDatabase.addTiles(tiles, data);
+            if (mCurrentCacheByteSize > mMaxFSCacheByteSize) {
+                // Free 5% of cache
+                mCurrentCacheByteSize -= mDatabase.deleteOldest((int) (mMaxFSCacheByteSize * 0.05f));
+            }
+        } catch (IllegalStateException e) {
+            if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
+                Log.d(DEBUG_TAG, "Tile saving failed", e);
+            }
+        }
+    }
+
+    /**
+     * Get the average size of the cached tiles for a tile layer
+     * 
+     * @param rendererID the tile layer id
+     * @return the average size in bytes or 0 if there are no tiles for the layer
+     */
+    public int getAverageTileSize(@NonNull String rendererID) {
+        return mDatabase.getAverageTileSize(rendererID);
+    }
+
+    /**
+     * Create a TileSeeder that downloads tiles in to this cache
+     * 
+     * @param service the tile service
+     * @return a TileSeeder instance
+     */
+    @NonNull
+    public TileSeeder createSeeder(@NonNull Service service) {
+        return new TileSeeder(service, this, mDatabase, mTileDownloader, new Preferences(mCtx).getMaxTileDownloadThreads());
+    }
+
     /**
      * Remove all tiles from cache
      */
@@ -232,7 +281,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
                         }
                         mCallback.mapTileFailed(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, DOESNOTEXIST);
                     } else { // success!
-                        mCallback.mapTileLoaded(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, data);
+                        TileTransfer.tileLoaded(mCallback, mTile, data);
                     }
                 } else {
                     try {
@@ -244,7 +293,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
                             download = true;
                             mTileDownloader.loadMapTileAsync(mTile, passedOnCallback);
                         } else { // success!
-                            mCallback.mapTileLoaded(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, data);
+                            TileTransfer.tileLoaded(mCallback, mTile, data);
                         }
                     } catch (InvalidTileException itex) {
                         mCallback.mapTileFailed(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, DOESNOTEXIST);
@@ -295,7 +344,14 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
 
             @Override
             public void mapTileLoaded(String rendererID, int zoomLevel, int tileX, int tileY, byte[] aImage) throws RemoteException {
-                mCallback.mapTileLoaded(rendererID, zoomLevel, tileX, tileY, aImage);
+                TileTransfer.tileLoaded(mCallback, new MapTile(rendererID, zoomLevel, tileX, tileY), aImage);
+                finished();
+            }
+
+            @Override
+            public void mapTileLoadedShared(String rendererID, int zoomLevel, int tileX, int tileY, ParcelFileDescriptor aImage, int length)
+                    throws RemoteException {
+                mCallback.mapTileLoadedShared(rendererID, zoomLevel, tileX, tileY, aImage, length);
                 finished();
             }
 
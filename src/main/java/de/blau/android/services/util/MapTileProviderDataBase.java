@@ -4,7 +4,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -95,6 +97,14 @@ public class MapTileProviderDataBase implements MapViewConstants {
             + " ASC";
 
     private static final String T_FSCACHE_GET = "SELECT " + T_FSCACHE_DATA + " FROM " + T_FSCACHE + " WHERE " + T_FSCACHE_WHERE;
+
+    private static final String T_FSCACHE_GET_SIZE = "SELECT " + T_FSCACHE_FILESIZE + " FROM " + T_FSCACHE + " WHERE " + T_FSCACHE_WHERE;
+
+    private static final String T_FSCACHE_INSERT = "INSERT OR REPLACE INTO " + T_FSCACHE + " (" + T_FSCACHE_RENDERER_ID + "," + T_FSCACHE_ZOOM_LEVEL + ","
+            + T_FSCACHE_TILE_X + "," + T_FSCACHE_TILE_Y + "," + T_FSCACHE_TIMESTAMP + "," + T_FSCACHE_FILESIZE + "," + T_FSCACHE_DATA + ") VALUES (?,?,?,?,?,?,?)";
+
+    private static final String T_FSCACHE_WHERE_ROW = T_FSCACHE_RENDERER_ID + SQL_ARG + AND + T_FSCACHE_ZOOM_LEVEL + SQL_ARG + AND + T_FSCACHE_TILE_Y + SQL_ARG
+            + AND + T_FSCACHE_TILE_X + " BETWEEN ? AND ?";
     // ===========================================================
     // Fields
     // ===========================================================
@@ -208,6 +218,109 @@ public class MapTileProviderDataBase implements MapViewConstants {
         }
     }
 
+    /**
+     * Save the data for multiple tiles to the database in one transaction, replacing any existing entries
+     * 
+     * @param tiles the tile meta data
+     * @param tileData the tile image data in the same order as tiles, null entries mark invalid tiles
+     * @return the change in total size of the cached tiles, sizes of replaced entries are subtracted
+     * @throws IOException if writing to the database failed
+     */
+    public long addTiles(@NonNull final List<MapTile> tiles, @NonNull final List<byte[]> tileData) throws IOException {
+        long added = 0;
+        try {
+            if (mDatabase.isOpen()) {
+                SQLiteStatement getSize = mDatabase.compileStatement(T_FSCACHE_GET_SIZE);
+                SQLiteStatement insert = mDatabase.compileStatement(T_FSCACHE_INSERT);
+                mDatabase.beginTransaction();
+                try {
+                    final long now = System.currentTimeMillis();
+                    for (int i = 0; i < tiles.size(); i++) {
+                        MapTile tile = tiles.get(i);
+                        byte[] data = tileData.get(i);
+                        getSize.bindAllArgsAsStrings(tileToWhereArgs(tile));
+                        try {
+                            added -= getSize.simpleQueryForLong(); // the entry will be replaced
+                        } catch (SQLiteDoneException sde) {
+                            // not present
+                        }
+                        getSize.clearBindings();
+                        insert.bindString(1, tile.rendererID);
+                        insert.bindLong(2, tile.zoomLevel);
+                        insert.bindLong(3, tile.x);
+                        insert.bindLong(4, tile.y);
+                        insert.bindLong(5, now);
+                        insert.bindLong(6, data != null ? data.length : 0); // 0 == invalid
+                        if (data != null) {
+                            insert.bindBlob(7, data);
+                            added += data.length;
+                        } else {
+                            insert.bindNull(7);
+                        }
+                        insert.executeInsert();
+                        insert.clearBindings();
+                    }
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                    insert.close();
+                    getSize.close();
+                }
+            }
+        } catch (SQLiteException sex) { // handle these the same
+            throw new IOException(sex.getMessage());
+        }
+        return added;
+    }
+
+    /**
+     * Get the x coordinates of the tiles in a row that are present in the database, including invalid ones
+     * 
+     * @param rendererID the tile layer id
+     * @param zoomLevel the zoom level
+     * @param y the y coordinate of the row
+     * @param left the smallest x coordinate to check
+     * @param right the largest x coordinate to check
+     * @return a Set containing the x coordinates
+     */
+    @NonNull
+    public Set<Integer> getTileColumns(@NonNull String rendererID, int zoomLevel, int y, int left, int right) {
+        Set<Integer> result = new HashSet<>();
+        if (mDatabase.isOpen()) {
+            final String[] args = new String[] { rendererID, Integer.toString(zoomLevel), Integer.toString(y), Integer.toString(left), Integer.toString(right) };
+            final Cursor c = mDatabase.query(T_FSCACHE, new String[] { T_FSCACHE_TILE_X }, T_FSCACHE_WHERE_ROW, args, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    result.add(c.getInt(0));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the average size of the valid tiles for a tile layer
+     * 
+     * @param rendererID the tile layer id
+     * @return the average size in bytes or 0 if there are no tiles for the layer
+     */
+    public int getAverageTileSize(@NonNull String rendererID) {
+        int ret = 0;
+        if (mDatabase.isOpen()) {
+            final Cursor c = mDatabase.rawQuery("SELECT AVG(" + T_FSCACHE_FILESIZE + ") AS " + TMP_COLUMN + " FROM " + T_FSCACHE + " WHERE "
+                    + T_FSCACHE_RENDERER_ID + SQL_ARG + AND + T_FSCACHE_FILESIZE + ">0", new String[] { rendererID });
+            if (c != null) {
+                if (c.moveToFirst()) {
+                    ret = c.getInt(c.getColumnIndexOrThrow(TMP_COLUMN));
+                }
+                c.close();
+            }
+        }
+        return ret;
+    }
+
     /**
      * Get a SQLite argument array for a WHERE clause
      * 
@@ -0,0 +1,614 @@
+package de.blau.android.services.util;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import de.blau.android.R;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.resources.TileLayerServer;
+import de.blau.android.util.GeoMath;
+import de.blau.android.util.NetworkStatus;
+import de.blau.android.util.Notifications;
+import de.blau.android.util.SavingHelper;
+
+/**
+ * Download all tiles for an area and a range of zoom levels in to the tile cache
+ *
+ * Tiles are processed row by row, tiles that are already in the cache, including ones known not to exist, are skipped.
+ * The others are downloaded with a limited number of threads and written to the database in batches, each in a single
+ * transaction. The job is saved after every completed row so that an interrupted download can be resumed. Rows with
+ * tiles that failed to download are retried a couple of times, if they still fail the job is stopped at that row.
+ */
+public class TileSeeder {
+
+    private static final String DEBUG_TAG = "TileSeeder";
+
+    /**
+     * Intent action to cancel the running job
+     */
+    public static final String ACTION_CANCEL = "de.blau.android.services.CANCEL_TILE_SEEDER";
+
+    /**
+     * Maximum number of tiles in one job
+     */
+    public static final int MAX_TILES = 50000;
+
+    /**
+     * Tile size used for estimates if we don't have any tiles for a layer yet
+     */
+    public static final int DEFAULT_TILE_SIZE = 15 * 1024;
+
+    /**
+     * Number of tiles written to the database in one transaction
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * Number of times a row with failed downloads is retried before giving up
+     */
+    private static final int MAX_RETRIES = 3;
+
+    /**
+     * Delay before retrying a row in ms, multiplied with the number of the attempt
+     */
+    private static final long RETRY_DELAY = 2000;
+
+    private static final String STATE_FILE = "tileseeder.res";
+
+    private final Service                   service;
+    private final MapTileFilesystemProvider provider;
+    private final MapTileProviderDataBase   database;
+    private final MapTileDownloader         downloader;
+    private final NetworkStatus             networkStatus;
+    private final int                       threads;
+    private final SavingHelper<Job>         savingHelper = new SavingHelper<>();
+    private final ExecutorService           executor     = Executors.newSingleThreadExecutor();
+
+    private Job currentJob = null;
+
+    /**
+     * A seeding job and its progress
+     */
+    static class Job implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String rendererId;
+        final int    left;
+        final int    bottom;
+        final int    right;
+        final int    top;
+        final int    minZoom;
+        final int    maxZoom;
+        final long   total;
+
+        int  zoom;
+        int  row  = -1; // last completed row at zoom
+        long done = 0;
+
+        transient volatile boolean cancelled = false;
+
+        /**
+         * Construct a new job
+         *
+         * @param rendererId the id of the tile layer
+         * @param box the area to download
+         * @param minZoom the lowest zoom level
+         * @param maxZoom the highest zoom level
+         */
+        Job(@NonNull String rendererId, @NonNull BoundingBox box, int minZoom, int maxZoom) {
+            this.rendererId = rendererId;
+            left = box.getLeft();
+            bottom = box.getBottom();
+            right = box.getRight();
+            top = box.getTop();
+            this.minZoom = minZoom;
+            this.maxZoom = maxZoom;
+            zoom = minZoom;
+            total = count(box, minZoom, maxZoom);
+        }
+    }
+
+    /**
+     * Access to the tile source and the tile cache
+     */
+    interface Tiles {
+
+        /**
+         * Get the columns of a row that are already present in the cache
+         *
+         * @param rendererId the id of the tile layer
+         * @param zoom the zoom level
+         * @param y the row
+         * @param left the first x coordinate
+         * @param right the last x coordinate
+         * @return a Set containing the x coordinates of the tiles that are present
+         */
+        @NonNull
+        Set<Integer> getTileColumns(@NonNull String rendererId, int zoom, int y, int left, int right);
+
+        /**
+         * Download a tile
+         *
+         * @param tile the tile
+         * @return the tile data or null if there is nothing to save
+         * @throws FileNotFoundException if the tile doesn't exist
+         * @throws IOException if the download failed
+         */
+        @Nullable
+        byte[] download(@NonNull MapTile tile) throws IOException;
+
+        /**
+         * Save tiles to the cache
+         *
+         * @param tiles the tiles
+         * @param data the tile data in the same order as tiles, null for tiles that don't exist
+         * @throws IOException if saving failed
+         */
+        void save(@NonNull List<MapTile> tiles, @NonNull List<byte[]> data) throws IOException;
+    }
+
+    /**
+     * Callbacks controlling a running job
+     */
+    interface Control {
+
+        /**
+         * Check if the job should continue
+         *
+         * @return false if the job should be stopped
+         */
+        boolean proceed();
+
+        /**
+         * Decide if a row with failed downloads should be retried, can block before returning
+         *
+         * @param y the row
+         * @param failed the number of tiles that failed to download
+         * @param attempt the number of the retry, starting with 1
+         * @return true if the row should be retried, false if the job should be stopped at this row
+         * @throws InterruptedException if we were interrupted while waiting
+         */
+        boolean retry(int y, int failed, int attempt) throws InterruptedException;
+
+        /**
+         * Called after a row has been completed and the job has been updated
+         *
+         * @param job the job
+         */
+        void rowDone(@NonNull Job job);
+    }
+
+    /**
+     * Construct a new seeder
+     *
+     * @param service the tile service, used for notifications and to keep it running while downloading
+     * @param provider the MapTileFilesystemProvider managing the cache
+     * @param database the tile cache database
+     * @param downloader the MapTileDownloader to use for downloading
+     * @param threads the number of concurrent downloads
+     */
+    TileSeeder(@NonNull Service service, @NonNull MapTileFilesystemProvider provider, @NonNull MapTileProviderDataBase database,
+            @NonNull MapTileDownloader downloader, int threads) {
+        this.service = service;
+        this.provider = provider;
+        this.database = database;
+        this.downloader = downloader;
+        this.threads = threads;
+        networkStatus = new NetworkStatus(service);
+    }
+
+    /**
+     * Start downloading tiles, replacing any running job
+     *
+     * @param rendererId the id of the tile layer
+     * @param box the area to download
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     */
+    public void seed(@NonNull String rendererId, @NonNull BoundingBox box, int minZoom, int maxZoom) {
+        Job job = new Job(rendererId, box, minZoom, maxZoom);
+        if (job.total > MAX_TILES) {
+            Log.e(DEBUG_TAG, "Refusing to download " + job.total + " tiles");
+            return;
+        }
+        start(job);
+    }
+
+    /**
+     * Resume an interrupted job if there is one
+     */
+    public void resume() {
+        Job job = savingHelper.load(service, STATE_FILE, false);
+        if (job != null) {
+            Log.i(DEBUG_TAG, "Resuming download for " + job.rendererId + " at zoom " + job.zoom + " row " + job.row);
+            start(job);
+        }
+    }
+
+    /**
+     * Stop the running job, it will not be resumed
+     */
+    public synchronized void cancel() {
+        if (currentJob != null) {
+            currentJob.cancelled = true;
+        }
+        service.deleteFile(STATE_FILE);
+    }
+
+    /**
+     * Stop the running job and the executor, the job can be resumed later
+     */
+    public synchronized void destroy() {
+        if (currentJob != null) {
+            currentJob.cancelled = true;
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Save and queue a job
+     *
+     * @param job the job
+     */
+    private synchronized void start(@NonNull final Job job) {
+        if (currentJob != null) {
+            currentJob.cancelled = true;
+        }
+        currentJob = job;
+        savingHelper.save(service, STATE_FILE, job, false);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                process(job);
+            }
+        });
+    }
+
+    /**
+     * Download the tiles for a job
+     *
+     * @param job the job
+     */
+    private void process(@NonNull final Job job) {
+        if (job.cancelled) {
+            return;
+        }
+        final TileLayerServer renderer = TileLayerServer.get(service, job.rendererId, false);
+        if (renderer == null || renderer.isReadOnly()) {
+            Log.e(DEBUG_TAG, "Can't download tiles for " + job.rendererId);
+            cancel();
+            remove(job, false);
+            return;
+        }
+        if (!renderer.isMetadataLoaded()) {
+            Log.w(DEBUG_TAG, job.rendererId + " is not ready yet");
+            remove(job, false);
+            return;
+        }
+        String name = renderer.getName();
+        // make sure the service keeps running when the app is not bound to it
+        service.startService(new Intent(service, service.getClass()));
+        final NotificationCompat.Builder builder = notificationBuilder(service.getString(R.string.tile_seeder_title, name));
+        service.startForeground(R.id.notification_tile_seeder, builder.build());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Tiles tiles = new Tiles() {
+            @Override
+            public Set<Integer> getTileColumns(String rendererId, int zoom, int y, int left, int right) {
+                return database.getTileColumns(rendererId, zoom, y, left, right);
+            }
+
+            @Override
+            public byte[] download(MapTile tile) throws IOException {
+                return downloader.download(renderer, tile);
+            }
+
+            @Override
+            public void save(List<MapTile> batch, List<byte[]> data) throws IOException {
+                provider.saveFiles(batch, data);
+            }
+        };
+        Control control = new Control() {
+            @Override
+            public boolean proceed() {
+                return !job.cancelled && networkStatus.isConnected();
+            }
+
+            @Override
+            public boolean retry(int y, int failed, int attempt) throws InterruptedException {
+                Log.w(DEBUG_TAG, failed + " tiles in row " + y + " at zoom " + job.zoom + " failed to download, attempt " + attempt);
+                if (attempt > MAX_RETRIES) {
+                    return false;
+                }
+                Thread.sleep(RETRY_DELAY * attempt);
+                return true;
+            }
+
+            @Override
+            public void rowDone(Job job) {
+                saveState(job);
+                builder.setProgress(100, (int) (job.done * 100 / Math.max(1, job.total)), false);
+                TileSeeder.this.notify(builder.build());
+            }
+        };
+        boolean complete = false;
+        try {
+            complete = seed(pool, tiles, control, job);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Saving tiles failed " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            finish(job, name, complete);
+        }
+    }
+
+    /**
+     * Process the remaining rows of a job
+     *
+     * A row is only marked as done if all its tiles have been processed, rows with failed downloads are retried as long
+     * as control allows it, if it doesn't the job stops at that row so that it is retried when the job is resumed.
+     *
+     * @param pool the pool the downloads run on
+     * @param tiles access to the tile source and cache
+     * @param control callbacks controlling the job
+     * @param job the job
+     * @return true if all tiles have been processed, false if the job was stopped
+     * @throws IOException if saving failed
+     * @throws InterruptedException if we were interrupted
+     */
+    static boolean seed(@NonNull ExecutorService pool, @NonNull Tiles tiles, @NonNull Control control, @NonNull Job job)
+            throws IOException, InterruptedException {
+        for (; job.zoom <= job.maxZoom; job.zoom++, job.row = -1) {
+            int[] range = tileRange(job.left, job.bottom, job.right, job.top, job.zoom);
+            for (int y = Math.max(range[1], job.row + 1); y <= range[3]; y++) {
+                if (!control.proceed()) {
+                    return false;
+                }
+                int attempt = 0;
+                int failed;
+                while ((failed = seedRow(pool, tiles, job, y, range[0], range[2])) > 0) {
+                    if (!control.proceed() || !control.retry(y, failed, ++attempt)) {
+                        return false;
+                    }
+                }
+                if (job.cancelled) { // row may be incomplete
+                    return false;
+                }
+                job.row = y;
+                job.done += range[2] - range[0] + 1;
+                control.rowDone(job);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Download the missing tiles of one row
+     *
+     * @param pool the pool the downloads run on
+     * @param tiles access to the tile source and cache
+     * @param job the job
+     * @param y the row
+     * @param left the first x coordinate
+     * @param right the last x coordinate
+     * @return the number of tiles that failed to download
+     * @throws IOException if saving failed
+     * @throws InterruptedException if we were interrupted
+     */
+    private static int seedRow(@NonNull ExecutorService pool, @NonNull final Tiles tiles, @NonNull Job job, int y, int left, int right)
+            throws IOException, InterruptedException {
+        Set<Integer> present = tiles.getTileColumns(job.rendererId, job.zoom, y, left, right);
+        List<MapTile> batch = new ArrayList<>();
+        List<Future<byte[]>> results = new ArrayList<>();
+        int failed = 0;
+        for (int x = left; x <= right && !job.cancelled; x++) {
+            if (present.contains(x)) {
+                continue;
+            }
+            final MapTile tile = new MapTile(job.rendererId, job.zoom, x, y);
+            batch.add(tile);
+            results.add(pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return tiles.download(tile);
+                }
+            }));
+            if (batch.size() >= BATCH_SIZE) {
+                failed += saveBatch(tiles, batch, results);
+            }
+        }
+        return failed + saveBatch(tiles, batch, results);
+    }
+
+    /**
+     * Wait for the downloads of a batch of tiles and save them in one transaction
+     *
+     * Tiles that failed to download are not saved and only counted, tiles that don't exist are saved as invalid
+     *
+     * @param tiles access to the tile cache
+     * @param batch the tiles, will be cleared
+     * @param results the downloads in the same order as batch, will be cleared
+     * @return the number of tiles that failed to download
+     * @throws IOException if saving failed
+     * @throws InterruptedException if we were interrupted
+     */
+    private static int saveBatch(@NonNull Tiles tiles, @NonNull List<MapTile> batch, @NonNull List<Future<byte[]>> results)
+            throws IOException, InterruptedException {
+        List<MapTile> saveTiles = new ArrayList<>(batch.size());
+        List<byte[]> saveData = new ArrayList<>(batch.size());
+        int failed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                byte[] data = results.get(i).get();
+                if (data != null) {
+                    saveTiles.add(batch.get(i));
+                    saveData.add(data);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof FileNotFoundException) {
+                    saveTiles.add(batch.get(i));
+                    saveData.add(null); // mark as invalid
+                } else {
+                    failed++;
+                }
+            }
+        }
+        batch.clear();
+        results.clear();
+        if (!saveTiles.isEmpty()) {
+            tiles.save(saveTiles, saveData);
+        }
+        return failed;
+    }
+
+    /**
+     * Remove the job and tell the user
+     *
+     * @param job the job
+     * @param name the name of the tile layer
+     * @param complete true if all tiles have been processed
+     */
+    private void finish(@NonNull Job job, @NonNull String name, boolean complete) {
+        remove(job, complete);
+        service.stopForeground(true);
+        service.stopSelf();
+        if (!job.cancelled) {
+            String message = complete ? service.getString(R.string.tile_seeder_finished, name)
+                    : service.getString(R.string.tile_seeder_stopped, name, job.done, job.total);
+            notify(Notifications.builder(service).setSmallIcon(R.drawable.logo_simplified).setContentTitle(message).setAutoCancel(true).build());
+        }
+    }
+
+    /**
+     * Save the state of a job if it is still the current one and hasn't been cancelled
+     *
+     * This is synchronized with cancel so that a row finishing after the job was cancelled doesn't recreate the state
+     * file
+     *
+     * @param job the job
+     */
+    private synchronized void saveState(@NonNull Job job) {
+        if (!job.cancelled && currentJob == job) {
+            savingHelper.save(service, STATE_FILE, job, false);
+        }
+    }
+
+    /**
+     * Forget about a job if it is still the current one
+     *
+     * @param job the job
+     * @param complete if true the saved job is removed too
+     */
+    private synchronized void remove(@NonNull Job job, boolean complete) {
+        if (currentJob == job) {
+            currentJob = null;
+            if (complete) {
+                service.deleteFile(STATE_FILE);
+            }
+        }
+    }
+
+    /**
+     * Get a builder for the progress notification
+     *
+     * @param title the title
+     * @return a NotificationCompat.Builder
+     */
+    @NonNull
+    private NotificationCompat.Builder notificationBuilder(@NonNull String title) {
+        Intent cancelIntent = new Intent(service, service.getClass());
+        cancelIntent.setAction(ACTION_CANCEL);
+        PendingIntent pendingCancelIntent = PendingIntent.getService(service, 0, cancelIntent, 0);
+        return Notifications.builder(service).setSmallIcon(R.drawable.logo_simplified).setContentTitle(title).setOngoing(true).setProgress(100, 0, false)
+                .addAction(R.drawable.logo_simplified, service.getString(R.string.cancel), pendingCancelIntent);
+    }
+
+    /**
+     * Show or update our notification
+     *
+     * @param notification the notification
+     */
+    private void notify(@NonNull Notification notification) {
+        NotificationManager manager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(R.id.notification_tile_seeder, notification);
+        }
+    }
+
+    /**
+     * Count the tiles covering an area
+     *
+     * @param box the area
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     * @return the number of tiles
+     */
+    public static long count(@NonNull BoundingBox box, int minZoom, int maxZoom) {
+        long count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            int[] range = tileRange(box.getLeft(), box.getBottom(), box.getRight(), box.getTop(), zoom);
+            count += (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Get the range of tiles covering an area
+     *
+     * @param left left longitude in WGS84*1E7
+     * @param bottom bottom latitude in WGS84*1E7
+     * @param right right longitude in WGS84*1E7
+     * @param top top latitude in WGS84*1E7
+     * @param zoom the zoom level
+     * @return an array containing left, top, right and bottom tile coordinates
+     */
+    @NonNull
+    static int[] tileRange(int left, int bottom, int right, int top, int zoom) {
+        return new int[] { lonToTileX(left / 1E7d, zoom), latToTileY(top / 1E7d, zoom), lonToTileX(right / 1E7d, zoom), latToTileY(bottom / 1E7d, zoom) };
+    }
+
+    /**
+     * Get the x coordinate of the tile containing a longitude
+     *
+     * @param lon the longitude in degrees
+     * @param zoom the zoom level
+     * @return the tile x coordinate
+     */
+    static int lonToTileX(double lon, int zoom) {
+        int max = (1 << zoom) - 1;
+        return Math.max(0, Math.min(max, (int) Math.floor((lon + 180d) / 360d * (max + 1))));
+    }
+
+    /**
+     * Get the y coordinate of the tile containing a latitude
+     *
+     * @param lat the latitude in degrees
+     * @param zoom the zoom level
+     * @return the tile y coordinate
+     */
+    static int latToTileY(double lat, int zoom) {
+        int max = (1 << zoom) - 1;
+        double latRad = Math.toRadians(Math.max(-GeoMath.MAX_LAT, Math.min(GeoMath.MAX_LAT, lat)));
+        return Math.max(0, Math.min(max, (int) Math.floor((1d - Math.log(Math.tan(latRad) + 1d / Math.cos(latRad)) / Math.PI) / 2d * (max + 1))));
+    }
+}
@@ -0,0 +1,97 @@
+package de.blau.android.services.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.annotation.TargetApi;
+import android.os.Binder;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.support.annotation.NonNull;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+import de.blau.android.services.IMapTileProviderCallback;
+import de.blau.android.util.SavingHelper;
+
+/**
+ * Hand tile images to the map view
+ *
+ * The tile service runs in its own process, passing a byte array through binder copies it into the transaction buffer,
+ * which is limited to 1 MB for all concurrent transactions, and allocates a new array on the receiving side for each
+ * tile. Large tiles are instead written to a shared memory region and only its file descriptor is sent, the map view
+ * reads it into a reused buffer. Callbacks in the same process receive the array itself, as does anything when shared
+ * memory is not available.
+ */
+public final class TileTransfer {
+
+    private static final String DEBUG_TAG = "TileTransfer";
+
+    /**
+     * Tiles smaller than this are cheaper to send as a byte array
+     */
+    static final int SHARED_MEMORY_THRESHOLD = 32 * 1024;
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private TileTransfer() {
+        // private
+    }
+
+    /**
+     * Send a loaded tile to a callback
+     *
+     * @param callback the callback
+     * @param tile the tile spec
+     * @param data the tile image
+     * @throws RemoteException if the callback fails
+     */
+    public static void tileLoaded(@NonNull IMapTileProviderCallback callback, @NonNull MapTile tile, @NonNull byte[] data) throws RemoteException {
+        if (data.length >= SHARED_MEMORY_THRESHOLD && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && !(callback.asBinder() instanceof Binder)
+                && tileLoadedShared(callback, tile, data)) {
+            return;
+        }
+        callback.mapTileLoaded(tile.rendererID, tile.zoomLevel, tile.x, tile.y, data);
+    }
+
+    /**
+     * Send a loaded tile to a callback via shared memory
+     *
+     * @param callback the callback
+     * @param tile the tile spec
+     * @param data the tile image
+     * @return true if the tile was sent, false if shared memory couldn't be set up
+     * @throws RemoteException if the callback fails
+     */
+    @TargetApi(27)
+    private static boolean tileLoadedShared(@NonNull IMapTileProviderCallback callback, @NonNull MapTile tile, @NonNull byte[] data)
+            throws RemoteException {
+        SharedMemory memory = null;
+        ParcelFileDescriptor fd = null;
+        try {
+            memory = SharedMemory.create(tile.toId(), data.length);
+            ByteBuffer buffer = memory.mapReadWrite();
+            buffer.put(data);
+            SharedMemory.unmap(buffer);
+            memory.setProtect(OsConstants.PROT_READ);
+            fd = ParcelFileDescriptor.dup(memory.getFileDescriptor());
+        } catch (ErrnoException | IOException e) {
+            Log.e(DEBUG_TAG, "Setting up shared memory failed " + e.getMessage());
+            SavingHelper.close(fd);
+            if (memory != null) {
+                memory.close();
+            }
+            return false;
+        }
+        try {
+            callback.mapTileLoadedShared(tile.rendererID, tile.zoomLevel, tile.x, tile.y, fd, data.length);
+        } finally {
+            SavingHelper.close(fd);
+            memory.close();
+        }
+        return true;
+    }
+}
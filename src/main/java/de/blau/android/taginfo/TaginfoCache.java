@@ -0,0 +1,191 @@
+package de.blau.android.taginfo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import de.blau.android.util.Hash;
+import de.blau.android.util.SavingHelper;
+
+/**
+ * Disk cache for taginfo responses
+ *
+ * Responses are stored as is, one file per url, prefixed with the time they were retrieved. Entries older than the
+ * time to live are only returned if explicitly requested, for example if the server can't be reached. If the cache
+ * grows beyond its maximum size the least recently used entries are removed.
+ *
+ * The access order is kept in memory and persisted via the modification time of the files.
+ */
+class TaginfoCache {
+
+    private static final String TEMP_EXT = ".tmp";
+
+    private final File directory;
+    private final long ttl;
+    private final long maxSize;
+
+    /** file name to file size, in access order, null until the directory has been read */
+    private LinkedHashMap<String, Long> entries = null;
+    private long                        size    = 0;
+
+    /**
+     * Construct a new cache
+     *
+     * @param directory the directory to store the entries in
+     * @param ttl time in milliseconds for which entries are considered current
+     * @param maxSize maximum total size of the cache in bytes
+     */
+    TaginfoCache(@NonNull File directory, long ttl, long maxSize) {
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Read the existing entries in least recently used order
+     */
+    private void init() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>(16, 0.75f, true);
+            size = 0;
+            // noinspection ResultOfMethodCallIgnored
+            directory.mkdirs();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                Arrays.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File f1, File f2) {
+                        return Long.compare(f1.lastModified(), f2.lastModified());
+                    }
+                });
+                for (File f : files) {
+                    if (f.getName().endsWith(TEMP_EXT)) { // left over from a failed write
+                        // noinspection ResultOfMethodCallIgnored
+                        f.delete();
+                    } else if (f.isFile()) {
+                        entries.put(f.getName(), f.length());
+                        size += f.length();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a cached response
+     *
+     * @param url the url of the request
+     * @param allowExpired if true return entries that are older than the time to live
+     * @return the response or null if there is no usable entry
+     */
+    @Nullable
+    synchronized byte[] get(@NonNull String url, boolean allowExpired) {
+        init();
+        String name = Hash.sha256(url);
+        if (!entries.containsKey(name)) { // doesn't change the access order
+            return null;
+        }
+        File file = new File(directory, name);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            long retrieved = in.readLong();
+            long now = System.currentTimeMillis();
+            if (!allowExpired && now - retrieved > ttl) {
+                return null;
+            }
+            byte[] data = new byte[(int) file.length() - 8];
+            in.readFully(data);
+            entries.get(name); // mark as most recently used
+            // noinspection ResultOfMethodCallIgnored
+            file.setLastModified(now);
+            return data;
+        } catch (IOException | NegativeArraySizeException e) {
+            remove(name);
+            return null;
+        } finally {
+            SavingHelper.close(in);
+        }
+    }
+
+    /**
+     * Add a response to the cache, removing the least recently used entries if necessary
+     *
+     * @param url the url of the request
+     * @param data the response
+     */
+    synchronized void put(@NonNull String url, @NonNull byte[] data) {
+        init();
+        String name = Hash.sha256(url);
+        File temp = new File(directory, name + TEMP_EXT);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeLong(System.currentTimeMillis());
+            out.write(data);
+            out.close();
+            out = null;
+            remove(name);
+            if (!temp.renameTo(new File(directory, name))) {
+                throw new IOException("Renaming " + temp + " failed");
+            }
+            long length = data.length + 8L; // time stamp and data
+            entries.put(name, length);
+            size += length;
+        } catch (IOException e) {
+            SavingHelper.close(out);
+            // noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Remove least recently used entries until the cache is not larger than its maximum size
+     */
+    private void trim() {
+        Iterator<Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry<String, Long> entry = it.next();
+            // noinspection ResultOfMethodCallIgnored
+            new File(directory, entry.getKey()).delete();
+            size -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove an entry
+     *
+     * @param name the file name of the entry
+     */
+    private void remove(@NonNull String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+        }
+        // noinspection ResultOfMethodCallIgnored
+        new File(directory, name).delete();
+    }
+
+    /**
+     * Get the current total size of the cache
+     *
+     * @return the size in bytes
+     */
+    synchronized long size() {
+        init();
+        return size;
+    }
+}
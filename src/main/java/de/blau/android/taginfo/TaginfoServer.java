@@ -1,11 +1,15 @@
 package de.blau.android.taginfo;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -20,6 +24,8 @@ import android.util.Log;
 import de.blau.android.PostAsyncActionHandler;
 import de.blau.android.osm.Server;
 import de.blau.android.prefs.Preferences;
+import de.blau.android.services.util.StreamUtils;
+import de.blau.android.util.Hash;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.StringWithDescription;
 
@@ -41,6 +47,17 @@ public class TaginfoServer {
     private static final String COUNT_NAME       = "count";
     private static final String DESCRIPTION_NAME = "description";
 
+    private static final int    TIMEOUT            = 1000;
+    private static final String CACHE_DIRECTORY    = "taginfo";
+    private static final String SNAPSHOT_DIRECTORY = "taginfo/";
+    private static final long   CACHE_TTL          = TimeUnit.DAYS.toMillis(7);
+    private static final long   CACHE_MAX_SIZE     = 4 * 1024 * 1024L;
+
+    private static TaginfoCache                            cache     = null;
+    private static final Object                            cacheLock = new Object();
+    /** urls that are currently being retrieved and the objects used to lock them */
+    private static final ConcurrentHashMap<String, Object> inFlight  = new ConcurrentHashMap<>();
+
     /**
      * A search result as return by the search API calls
      * 
@@ -703,29 +720,12 @@ public class TaginfoServer {
     @Nullable
     public static Object querySync(@NonNull final Context context, @NonNull final String url, @NonNull final ResultReader resultReader,
             @Nullable final PostAsyncActionHandler handler) {
-
-        Log.d(DEBUG_TAG, "querying server for " + url);
-        InputStream is = null;
-        JsonReader reader = null;
-        Object result = null;
-        try {
-            is = Server.openConnection(context, new URL(url), 1000, 1000);
-            if (is != null) {
-                reader = new JsonReader(new InputStreamReader(is));
-                result = resultReader.read(reader);
-            }
-            if (result != null && handler != null) {
-                handler.onSuccess();
-            }
-            Log.d(DEBUG_TAG, "returning " + (result instanceof List ? ((List) result).size() : "1") + " results");
-            return result;
-        } catch (IOException e) {
-            Log.e(DEBUG_TAG, "find got exception " + e.getMessage());
-        } finally {
-            SavingHelper.close(reader);
-            SavingHelper.close(is);
+        Object result = query(context, url, resultReader);
+        if (result != null && handler != null) {
+            handler.onSuccess();
         }
-        return null;
+        Log.d(DEBUG_TAG, "returning " + (result instanceof List ? ((List) result).size() : "1") + " results");
+        return result;
     }
 
     /**
@@ -743,22 +743,7 @@ public class TaginfoServer {
         AsyncTask<Void, Void, Object> list = new AsyncTask<Void, Void, Object>() {
             @Override
             protected Object doInBackground(Void... params) {
-                Log.d(DEBUG_TAG, "querying server for " + url);
-                InputStream is = null;
-                JsonReader reader = null;
-                try {
-                    is = Server.openConnection(context, new URL(url), 1000, 1000);
-                    if (is != null) {
-                        reader = new JsonReader(new InputStreamReader(is));
-                        return resultReader.read(reader);
-                    }
-                } catch (IOException e) {
-                    Log.e(DEBUG_TAG, "find got exception " + e.getMessage());
-                } finally {
-                    SavingHelper.close(reader);
-                    SavingHelper.close(is);
-                }
-                return null;
+                return query(context, url, resultReader);
             }
 
             @Override
@@ -782,4 +767,156 @@ public class TaginfoServer {
         }
         return null;
     }
+
+    /**
+     * Get the response for a url from the cache, the server or the bundled snapshot and parse it
+     * 
+     * Current cache entries are used without querying the server, if the server can't be reached or its response
+     * can't be parsed expired entries and then the snapshot are used. Responses are only cached after they have been
+     * parsed successfully. Concurrent requests for the same url wait for the first one and then use its cached
+     * response.
+     * 
+     * @param context Android Context
+     * @param url the url to query
+     * @param resultReader the ResultReader instance to use
+     * @return an Object that has to be cast to the correct type, or null is something seriously went wrong
+     */
+    @Nullable
+    private static Object query(@NonNull final Context context, @NonNull final String url, @NonNull final ResultReader resultReader) {
+        TaginfoCache taginfoCache = getCache(context);
+        Object lock = new Object();
+        Object inFlightLock = inFlight.putIfAbsent(url, lock);
+        if (inFlightLock != null) {
+            lock = inFlightLock;
+        }
+        try {
+            synchronized (lock) {
+                Object result = parse(taginfoCache.get(url, false), resultReader);
+                if (result != null) {
+                    Log.d(DEBUG_TAG, "using cached response for " + url);
+                    return result;
+                }
+                byte[] data = download(context, url);
+                result = parse(data, resultReader);
+                if (result != null) {
+                    taginfoCache.put(url, data);
+                    return result;
+                }
+                // server not available or unusable response
+                result = parse(taginfoCache.get(url, true), resultReader);
+                if (result == null) {
+                    result = parse(readSnapshot(context, url), resultReader);
+                }
+                return result;
+            }
+        } finally {
+            inFlight.remove(url, lock);
+        }
+    }
+
+    /**
+     * Parse a response
+     * 
+     * @param data the response or null
+     * @param resultReader the ResultReader instance to use
+     * @return an Object that has to be cast to the correct type, or null if data was null or couldn't be parsed
+     */
+    @Nullable
+    private static Object parse(@Nullable byte[] data, @NonNull final ResultReader resultReader) {
+        if (data == null) {
+            return null;
+        }
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data)));
+            return resultReader.read(reader);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.e(DEBUG_TAG, "parsing response got exception " + e.getMessage());
+        } finally {
+            SavingHelper.close(reader);
+        }
+        return null;
+    }
+
+    /**
+     * Download the response for a url from the server
+     * 
+     * @param context Android Context
+     * @param url the url to query
+     * @return the response or null if the server couldn't be reached
+     */
+    @Nullable
+    private static byte[] download(@NonNull final Context context, @NonNull final String url) {
+        Log.d(DEBUG_TAG, "querying server for " + url);
+        InputStream is = null;
+        try {
+            is = Server.openConnection(context, new URL(url), TIMEOUT, TIMEOUT);
+            if (is != null) {
+                return readAll(is);
+            }
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "find got exception " + e.getMessage());
+        } finally {
+            SavingHelper.close(is);
+        }
+        return null;
+    }
+
+    /**
+     * Get the response for a url from the snapshot in the assets
+     * 
+     * Snapshot entries are stored in the SNAPSHOT_DIRECTORY asset directory with the SHA-256 hash of the url without the
+     * server prefix as file name.
+     * 
+     * @param context Android Context
+     * @param url the url to query
+     * @return the response or null if the snapshot doesn't contain it
+     */
+    @Nullable
+    private static byte[] readSnapshot(@NonNull final Context context, @NonNull final String url) {
+        String server = new Preferences(context).getTaginfoServer();
+        if (!url.startsWith(server)) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = context.getAssets().open(SNAPSHOT_DIRECTORY + Hash.sha256(url.substring(server.length())));
+            Log.d(DEBUG_TAG, "using snapshot for " + url);
+            return readAll(is);
+        } catch (IOException e) {
+            return null; // not in the snapshot
+        } finally {
+            SavingHelper.close(is);
+        }
+    }
+
+    /**
+     * Read an InputStream completely
+     * 
+     * @param is the InputStream
+     * @return the contents as a byte array
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static byte[] readAll(@NonNull InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copy(is, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the response cache, creating it if necessary
+     * 
+     * @param context Android Context
+     * @return the TaginfoCache
+     */
+    @NonNull
+    private static TaginfoCache getCache(@NonNull final Context context) {
+        synchronized (cacheLock) {
+            if (cache == null) {
+                cache = new TaginfoCache(new File(context.getCacheDir(), CACHE_DIRECTORY), CACHE_TTL, CACHE_MAX_SIZE);
+            }
+            return cache;
+        }
+    }
 }
@@ -262,6 +262,19 @@ public class GeoMath {
         return (float) (screenHeight - (latToMercator(lat) - viewBox.getBottomMercator()) * viewBox.getPixelRadius(screenWidth));
     }
 
+    /**
+     * Calculates the screen-coordinate to the given mercator projected latitude
+     * 
+     * @param screenHeight the height of the screen in px
+     * @param screenWidth the width of the screen in px
+     * @param viewBox the current ViewBox
+     * @param mercator the mercator projected latitude
+     * @return the y screen-coordinate for this latitude value.
+     */
+    public static float mercatorToY(final int screenHeight, int screenWidth, final ViewBox viewBox, final double mercator) {
+        return (float) (screenHeight - (mercator - viewBox.getBottomMercator()) * viewBox.getPixelRadius(screenWidth));
+    }
+
     /**
      * Calculates the screen-coordinate to the given latitude.in mercator
      * 
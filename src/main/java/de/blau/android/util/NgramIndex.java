@@ -0,0 +1,186 @@
+package de.blau.android.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import de.blau.android.util.collections.LongPrimitiveMap;
+
+/**
+ * Bigram index over a set of (normalized) search terms
+ *
+ * Supports the same matching as scanning all terms with String.indexOf and OptimalStringAlignment.editDistance, but
+ * only calculates the edit distance for terms that can actually be within the maximum distance.
+ *
+ * For a term to be within edit distance d of the search term it has to share at least n - 3 * d of the n distinct
+ * bigrams of the search term (an edit changes at most 2 bigrams, a transposition at most 3), and its length can't
+ * differ by more than d. For a term to contain the search term it has to contain all its bigrams.
+ *
+ * Instances are immutable and can be used from multiple threads.
+ */
+public class NgramIndex {
+
+    /**
+     * A term that matched together with its distance
+     */
+    public static class Hit {
+        public final String term;
+        public final int    distance;
+
+        /**
+         * Construct a new Hit
+         *
+         * @param term the matching term from the index
+         * @param distance the edit distance, 0 for substring matches
+         */
+        Hit(@NonNull String term, int distance) {
+            this.term = term;
+            this.distance = distance;
+        }
+    }
+
+    private final String[]               terms;
+    private final LongPrimitiveMap<int[]> postings;
+
+    /**
+     * Construct a new index
+     *
+     * @param terms the terms to index, search results will be returned in the iteration order of this Collection
+     */
+    public NgramIndex(@NonNull Collection<String> terms) {
+        this.terms = terms.toArray(new String[terms.size()]);
+        // build postings lists, element 0 holds the current length
+        LongPrimitiveMap<int[]> temp = new LongPrimitiveMap<>();
+        for (int id = 0; id < this.terms.length; id++) {
+            String term = this.terms[id];
+            for (int i = 0; i < term.length() - 1; i++) {
+                long bigram = bigram(term, i);
+                int[] list = temp.get(bigram);
+                if (list == null) {
+                    list = new int[4];
+                    temp.put(bigram, list);
+                }
+                int size = list[0];
+                if (size > 0 && list[size] == id) { // already added for this term
+                    continue;
+                }
+                if (size + 1 >= list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    temp.put(bigram, list);
+                }
+                list[size + 1] = id;
+                list[0] = size + 1;
+            }
+        }
+        postings = new LongPrimitiveMap<>(temp.size());
+        for (long bigram : temp.keys()) {
+            int[] list = temp.get(bigram);
+            postings.put(bigram, Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+    }
+
+    /**
+     * Get the bigram starting at a position in a String as a long
+     *
+     * @param s the String
+     * @param i the position
+     * @return the bigram
+     */
+    private static long bigram(@NonNull String s, int i) {
+        return ((long) s.charAt(i) << 16) | s.charAt(i + 1);
+    }
+
+    /**
+     * Get the number of indexed terms
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Find all terms that are within maxDistance of term or, if substring is true, contain term
+     *
+     * @param term the search term
+     * @param maxDistance the maximum edit distance
+     * @param substring if true terms containing term are returned with distance 0
+     * @return a List of Hits in index order
+     */
+    @NonNull
+    public List<Hit> search(@NonNull String term, int maxDistance, boolean substring) {
+        List<Hit> result = new ArrayList<>();
+        int termLength = term.length();
+        int minLength = termLength - maxDistance;
+        int maxLength = termLength + maxDistance;
+        if (termLength < 2) { // no bigrams to filter with
+            for (String t : terms) {
+                check(t, term, maxDistance, substring, minLength, maxLength, result);
+            }
+            return result;
+        }
+
+        long[] bigrams = new long[termLength - 1];
+        int bigramCount = 0;
+        bigramLoop: for (int i = 0; i < termLength - 1; i++) {
+            long bigram = bigram(term, i);
+            for (int j = 0; j < bigramCount; j++) {
+                if (bigrams[j] == bigram) {
+                    continue bigramLoop;
+                }
+            }
+            bigrams[bigramCount++] = bigram;
+        }
+
+        int[] counts = new int[terms.length];
+        for (int i = 0; i < bigramCount; i++) {
+            int[] list = postings.get(bigrams[i]);
+            if (list != null) {
+                for (int id : list) {
+                    counts[id]++;
+                }
+            }
+        }
+
+        int minCount = bigramCount - 3 * maxDistance; // can be <= 0 in which case only the length is relevant
+        for (int id = 0; id < terms.length; id++) {
+            int count = counts[id];
+            String t = terms[id];
+            int length = t.length();
+            if ((substring && count == bigramCount) || (count >= minCount && length >= minLength && length <= maxLength)) {
+                check(t, term, maxDistance, substring, minLength, maxLength, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if a candidate actually matches and add it to the result if it does
+     *
+     * @param candidate the indexed term
+     * @param term the search term
+     * @param maxDistance the maximum edit distance
+     * @param substring if true check if candidate contains term
+     * @param minLength minimum length for candidate to be within maxDistance
+     * @param maxLength maximum length for candidate to be within maxDistance
+     * @param result List to add the Hit to
+     */
+    private static void check(@NonNull String candidate, @NonNull String term, int maxDistance, boolean substring, int minLength, int maxLength,
+            @NonNull List<Hit> result) {
+        int distance = substring ? candidate.indexOf(term) : -1;
+        if (distance == -1) {
+            int length = candidate.length();
+            if (length < minLength || length > maxLength) {
+                return;
+            }
+            distance = OptimalStringAlignment.editDistance(candidate, term, maxDistance);
+        } else {
+            distance = 0; // literal substring match, we don't want to weight this worse than a fuzzy match
+        }
+        if (distance >= 0 && distance <= maxDistance) {
+            result.add(new Hit(candidate, distance));
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Pattern;
 
 import android.content.Context;
@@ -25,6 +26,7 @@ import de.blau.android.presets.Preset.PresetItem;
 import de.blau.android.presets.Preset.PresetKeyType;
 import de.blau.android.presets.PresetField;
 import de.blau.android.presets.Synonyms;
+import de.blau.android.util.NgramIndex.Hit;
 import de.blau.android.util.collections.MultiHashMap;
 
 public class SearchIndexUtils {
@@ -32,6 +34,9 @@ public class SearchIndexUtils {
     private static final String DEBUG_TAG       = "SearchIndex";
     private static Pattern      deAccentPattern = null;         // cached regex
 
+    /** NgramIndex for the keys of the search indices, the indices are not referenced by the values */
+    private static final Map<MultiHashMap<String, ?>, NgramIndex> ngramIndices = new WeakHashMap<>();
+
     /**
      * normalize a string for the search index, currently only works for latin scripts
      * 
@@ -108,21 +113,13 @@ public class SearchIndexUtils {
         presetSeachIndices.add(App.getPresetSearchIndex(ctx));
 
         for (MultiHashMap<String, PresetItem> index : presetSeachIndices) {
-            for (String s : index.getKeys()) {
-                int distance = s.indexOf(term);
-                if (distance == -1) {
-                    distance = OptimalStringAlignment.editDistance(s, term, maxDistance);
-                } else {
-                    distance = 0; // literal substring match, we don't want to weight this worse than a fuzzy match
-                }
-                if ((distance >= 0 && distance <= maxDistance)) {
-                    Set<PresetItem> presetItems = index.get(s);
-                    int weight = distance * presetItems.size(); // if there are a lot of items for a term, penalize
-                    for (PresetItem pi : presetItems) {
-                        if (type == null || pi.appliesTo(type)) {
-                            IndexSearchResult isr = new IndexSearchResult(rescale(term, weight, pi), pi);
-                            rawResult.add(isr);
-                        }
+            for (Hit hit : getNgramIndex(index).search(term, maxDistance, true)) {
+                Set<PresetItem> presetItems = index.get(hit.term);
+                int weight = hit.distance * presetItems.size(); // if there are a lot of items for a term, penalize
+                for (PresetItem pi : presetItems) {
+                    if (type == null || pi.appliesTo(type)) {
+                        IndexSearchResult isr = new IndexSearchResult(rescale(term, weight, pi), pi);
+                        rawResult.add(isr);
                     }
                 }
             }
@@ -132,40 +129,37 @@ public class SearchIndexUtils {
         Preferences prefs = new Preferences(ctx);
         if (prefs.nameSuggestionPresetsEnabled()) {
             MultiHashMap<String, NameAndTags> nsi = App.getNameSearchIndex(ctx);
-            Set<String> names = nsi.getKeys();
+            List<NameSearchResult> nameResult = new ArrayList<>();
+            for (Hit hit : getNgramIndex(nsi).search(term, maxDistance, true)) {
+                for (NameAndTags nat : nsi.get(hit.term)) {
+                    if (nat.inUseIn(regions)) {
+                        nameResult.add(new NameSearchResult(rescale(term, hit.distance, nat.getName()), nat));
+                    }
+                }
+            }
+            // only the best limit results can make it in to the final result, only create PresetItems for those
+            Collections.sort(nameResult);
             Preset[] presets = App.getCurrentPresets(ctx);
             Preset preset = Preset.dummyInstance();
-            for (String name : names) {
-                int distance = name.indexOf(term);
-                if (distance == -1) {
-                    distance = OptimalStringAlignment.editDistance(name, term, maxDistance);
-                } else {
-                    distance = 0;
+            for (NameSearchResult nsr : nameResult.subList(0, Math.min(nameResult.size(), limit))) {
+                NameAndTags nat = nsr.nat;
+                TagMap tags = nat.getTags();
+                PresetItem pi = Preset.findBestMatch(presets, tags, false);
+                PresetItem namePi = preset.new PresetItem(null, nat.getName(), pi == null ? null : pi.getIconpath(), null);
+                for (Entry<String, String> entry : tags.entrySet()) {
+                    namePi.addTag(entry.getKey(), PresetKeyType.TEXT, entry.getValue(), null);
                 }
-                if ((distance >= 0 && distance <= maxDistance)) {
-                    Set<NameAndTags> nats = nsi.get(name);
-                    for (NameAndTags nat : nats) {
-                        if (nat.inUseIn(regions)) {
-                            TagMap tags = nat.getTags();
-                            PresetItem pi = Preset.findBestMatch(presets, tags, false);
-                            PresetItem namePi = preset.new PresetItem(null, nat.getName(), pi == null ? null : pi.getIconpath(), null);
-                            for (Entry<String, String> entry : tags.entrySet()) {
-                                namePi.addTag(entry.getKey(), PresetKeyType.TEXT, entry.getValue(), null);
-                            }
-                            if (pi != null) {
-                                Map<String, PresetField> fields = pi.getFields();
-                                for (Entry<String, PresetField> entry : fields.entrySet()) {
-                                    String key = entry.getKey();
-                                    if (!tags.containsKey(key)) {
-                                        namePi.addField(entry.getValue());
-                                    }
-                                }
-                            }
-                            IndexSearchResult isr = new IndexSearchResult(rescale(term, distance, namePi), namePi);
-                            rawResult.add(isr);
+                if (pi != null) {
+                    Map<String, PresetField> fields = pi.getFields();
+                    for (Entry<String, PresetField> entry : fields.entrySet()) {
+                        String key = entry.getKey();
+                        if (!tags.containsKey(key)) {
+                            namePi.addField(entry.getValue());
                         }
                     }
                 }
+                IndexSearchResult isr = new IndexSearchResult(nsr.weight, namePi);
+                rawResult.add(isr);
             }
         }
 
@@ -193,8 +187,20 @@ public class SearchIndexUtils {
      * @return the new weight
      */
     public static int rescale(@NonNull String term, int weight, @NonNull PresetItem pi) {
+        return rescale(term, weight, pi.getName());
+    }
+
+    /**
+     * Give exact and partial matches best positions
+     * 
+     * @param term the search term
+     * @param weight original weight
+     * @param itemName the name of the PresetItem
+     * @return the new weight
+     */
+    private static int rescale(@NonNull String term, int weight, @NonNull String itemName) {
         int actualWeight = weight;
-        String name = SearchIndexUtils.normalize(pi.getName());
+        String name = SearchIndexUtils.normalize(itemName);
         if (name.equals(term)) { // exact name match
             actualWeight = -2;
         } else if (term.length() >= 3 && name.indexOf(term) >= 0) {
@@ -217,23 +223,63 @@ public class SearchIndexUtils {
         NameAndTags result = null;
         int lastDistance = Integer.MAX_VALUE;
         name = SearchIndexUtils.normalize(name);
-        for (String key : namesSearchIndex.getKeys()) {
-            int distance = OptimalStringAlignment.editDistance(key, name, maxDistance);
-            if (distance >= 0 && distance <= maxDistance) {
-                if (distance < lastDistance) {
-                    Set<NameAndTags> list = namesSearchIndex.get(key);
-                    for (NameAndTags nt : list) {
-                        if (result == null || nt.getCount() > result.getCount()) {
-                            result = nt;
-                        }
-                    }
-                    lastDistance = distance;
-                    if (distance == 0) { // no point in searching for better results
-                        return result;
+        for (Hit hit : getNgramIndex(namesSearchIndex).search(name, maxDistance, false)) {
+            int distance = hit.distance;
+            if (distance < lastDistance) {
+                Set<NameAndTags> list = namesSearchIndex.get(hit.term);
+                for (NameAndTags nt : list) {
+                    if (result == null || nt.getCount() > result.getCount()) {
+                        result = nt;
                     }
                 }
+                lastDistance = distance;
+                if (distance == 0) { // no point in searching for better results
+                    return result;
+                }
             }
         }
         return result;
     }
+
+    /**
+     * Get a NgramIndex for the keys of a search index, creating it if necessary
+     * 
+     * @param index the search index
+     * @return the NgramIndex
+     */
+    @NonNull
+    private static NgramIndex getNgramIndex(@NonNull MultiHashMap<String, ?> index) {
+        synchronized (ngramIndices) {
+            NgramIndex ngramIndex = ngramIndices.get(index);
+            if (ngramIndex == null || ngramIndex.size() != index.getKeys().size()) {
+                ngramIndex = new NgramIndex(index.getKeys());
+                ngramIndices.put(index, ngramIndex);
+            }
+            return ngramIndex;
+        }
+    }
+
+    /**
+     * Container to allow sorting of name suggestion index search results before creating PresetItems for them
+     */
+    private static class NameSearchResult implements Comparable<NameSearchResult> {
+        final int         weight; // lower better
+        final NameAndTags nat;
+
+        /**
+         * Construct a new result
+         * 
+         * @param weight the weight of the result
+         * @param nat the NameAndTags object
+         */
+        NameSearchResult(int weight, @NonNull NameAndTags nat) {
+            this.weight = weight;
+            this.nat = nat;
+        }
+
+        @Override
+        public int compareTo(@NonNull NameSearchResult other) {
+            return Integer.compare(weight, other.weight);
+        }
+    }
 }
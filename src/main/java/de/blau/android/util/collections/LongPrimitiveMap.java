@@ -0,0 +1,345 @@
+package de.blau.android.util.collections;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * long to Object HashMap
+ *
+ * Fast storage of objects with primitive long keys, based on public domain code see http://unlicense.org from Mikhail
+ * Vorontsov, see https://github.com/mikvor
+ *
+ * Keys and values are held in two parallel arrays, removal shifts entries back so no removed markers are needed.
+ *
+ * This code is not thread safe and requires external synchronization if inserts and removals need to be made in a
+ * consistent fashion.
+ */
+@SuppressLint("UseSparseArrays")
+public class LongPrimitiveMap<V> implements Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L; // NOTE if you change the
+                                                     // hashing algorithm you
+                                                     // need to increment
+                                                     // this
+
+    private static final long  FREE_KEY           = 0;
+    /**
+     * Default fill factor
+     */
+    private static final float DEFAULT_FILLFACTOR = 0.75f;
+    /**
+     * Default capacity
+     */
+    private static final int   DEFAULT_CAPACITY   = 16;
+
+    /** Keys */
+    private long[]   m_keys;
+    /** Values */
+    private Object[] m_values;
+
+    /** Fill factor, must be between (0 and 1) */
+    private final float m_fillFactor;
+    /** We will resize a map once it reaches this size */
+    private int         m_threshold;
+    /** Current map size excluding the free key */
+    private int         m_size;
+    /** Mask to calculate the original position */
+    private long        m_mask;
+    /** Do we have 'free' key in the map? */
+    private boolean     m_hasFreeKey;
+    /** Value for the 'free' key */
+    private Object      m_freeValue;
+
+    /**
+     * Create a new map with default values for capacity and fill factor
+     */
+    public LongPrimitiveMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and the default fill factor
+     *
+     * @param size initial capacity of the map
+     */
+    public LongPrimitiveMap(final int size) {
+        this(size, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and fill factor
+     *
+     * @param size initial capacity of the map
+     * @param fillFactor fillfactor to us instead of the default
+     */
+    private LongPrimitiveMap(final int size, final float fillFactor) {
+        if (fillFactor <= 0 || fillFactor >= 1) {
+            throw new IllegalArgumentException("FillFactor must be in (0, 1)");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive!");
+        }
+        final int capacity = Tools.arraySize(size, fillFactor);
+        m_mask = capacity - 1L;
+        m_fillFactor = fillFactor;
+
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+
+        m_threshold = (int) (capacity * fillFactor);
+
+        m_hasFreeKey = false;
+    }
+
+    /**
+     * Return the value for a key
+     *
+     * @param key the key we want to return a value for
+     * @return the value or null if the key is not present
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(final long key) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey ? (V) m_freeValue : null;
+        }
+        int ptr = (int) ((Tools.phiMix(key) & m_mask));
+        while (true) {
+            long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return null;
+            }
+            if (k == key) {
+                return (V) m_values[ptr];
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index
+        }
+    }
+
+    /**
+     * Add a single entry to the map
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value if one existed
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(final long key, @NonNull final V value) {
+        if (key == FREE_KEY) {
+            V old = m_hasFreeKey ? (V) m_freeValue : null;
+            m_hasFreeKey = true;
+            m_freeValue = value;
+            return old;
+        }
+        int ptr = (int) ((Tools.phiMix(key) & m_mask));
+        while (true) {
+            long k = m_keys[ptr];
+            if (k == FREE_KEY) { // end of chain
+                m_keys[ptr] = key;
+                m_values[ptr] = value;
+                if (m_size >= m_threshold) {
+                    rehash(m_keys.length * 2); // size is set inside
+                } else {
+                    ++m_size;
+                }
+                return null;
+            } else if (k == key) {
+                V old = (V) m_values[ptr];
+                m_values[ptr] = value;
+                return old;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index calculation
+        }
+    }
+
+    /**
+     * Remove the entry with the specified key from the map, does not shrink the underlying arrays
+     *
+     * @param key the key we want to remove
+     * @return the removed value or null if it didn't exist
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(final long key) {
+        if (key == FREE_KEY) {
+            V old = m_hasFreeKey ? (V) m_freeValue : null;
+            m_hasFreeKey = false;
+            m_freeValue = null;
+            return old;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return null; // end of chain
+            } else if (k == key) {
+                V old = (V) m_values[ptr];
+                --m_size;
+                shiftKeys(ptr);
+                return old;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // that's next index calculation
+        }
+    }
+
+    /**
+     * Shift entries with the same hash back after a removal
+     *
+     * @param pos the position of the removed entry
+     */
+    private void shiftKeys(int pos) {
+        int last;
+        int slot;
+        long k;
+        final long[] keys = this.m_keys;
+        while (true) {
+            pos = (int) (((last = pos) + 1) & m_mask);
+            while (true) {
+                if ((k = keys[pos]) == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    m_values[last] = null;
+                    return;
+                }
+                slot = (int) ((Tools.phiMix(k) & m_mask));// calculate the starting slot for the current key
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (int) ((pos + 1) & m_mask); // go to the next entry
+            }
+            keys[last] = k;
+            m_values[last] = m_values[pos];
+        }
+    }
+
+    /**
+     * Return true if the map contains an entry with the specified key
+     *
+     * @param key the key to check
+     * @return true if an entry for key could be found
+     */
+    public boolean containsKey(final long key) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey;
+        }
+        int ptr = (int) ((Tools.phiMix(key) & m_mask));
+        while (true) {
+            long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return false;
+            }
+            if (k == key) {
+                return true;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index
+        }
+    }
+
+    /**
+     * Return all keys in the map. Note: they are returned unordered
+     *
+     * @return array containing the keys
+     */
+    @NonNull
+    public long[] keys() {
+        long[] result = new long[size()];
+        int found = 0;
+        if (m_hasFreeKey) {
+            result[found++] = FREE_KEY;
+        }
+        for (long k : m_keys) {
+            if (found >= result.length) { // found all
+                break;
+            }
+            if (k != FREE_KEY) {
+                result[found++] = k;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return all values in the map. Note: they are returned unordered
+     *
+     * @return a List of the values
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size());
+        if (m_hasFreeKey) {
+            result.add((V) m_freeValue);
+        }
+        for (int i = 0; i < m_keys.length; i++) {
+            if (m_keys[i] != FREE_KEY) {
+                result.add((V) m_values[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of entries in the map
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return m_hasFreeKey ? m_size + 1 : m_size;
+    }
+
+    /**
+     * Return if the map is empty
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove all entries from the map
+     */
+    public void clear() {
+        for (int i = 0; i < m_keys.length; i++) {
+            m_keys[i] = FREE_KEY;
+            m_values[i] = null;
+        }
+        m_size = 0;
+        m_hasFreeKey = false;
+        m_freeValue = null;
+    }
+
+    /**
+     * Recalculate the hashes for the whole map
+     *
+     * @param newCapacity new capacity
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(final int newCapacity) {
+        m_threshold = (int) (newCapacity * m_fillFactor);
+        m_mask = newCapacity - 1L;
+
+        final int oldCapacity = m_keys.length;
+        final long[] oldKeys = m_keys;
+        final Object[] oldValues = m_values;
+
+        m_keys = new long[newCapacity];
+        m_values = new Object[newCapacity];
+
+        m_size = 0;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            final long k = oldKeys[i];
+            if (k != FREE_KEY) {
+                put(k, (V) oldValues[i]);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package de.blau.android.views.layers;
 import java.io.IOException;
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -20,10 +21,12 @@ import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.FragmentActivity;
+import android.support.v7.app.AlertDialog;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import de.blau.android.Map;
+import de.blau.android.R;
 import de.blau.android.dialogs.LayerInfo;
 import de.blau.android.dialogs.Progress;
 import de.blau.android.imageryoffset.Offset;
@@ -32,10 +35,12 @@ import de.blau.android.layer.LayerInfoInterface;
 import de.blau.android.layer.MapViewLayer;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.ViewBox;
+import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.TileLayerServer;
 import de.blau.android.services.util.MapAsyncTileProvider;
 import de.blau.android.services.util.MapTile;
+import de.blau.android.services.util.TileSeeder;
 import de.blau.android.util.GeoMath;
 import de.blau.android.util.NetworkStatus;
 import de.blau.android.util.SavingHelper;
@@ -43,6 +48,7 @@ import de.blau.android.util.Snack;
 import de.blau.android.util.collections.MRUList;
 import de.blau.android.views.IMapView;
 import de.blau.android.views.util.MapTileProvider;
+import de.blau.android.views.util.TilePrefetcher;
 
 /**
  * Overlay that draws downloaded tiles which may be displayed on top of an {@link IMapView}. To add an overlay, subclass
@@ -60,6 +66,8 @@ public class MapTilesLayer extends MapViewLayer implements ExtentInterface, Laye
     /** Define a minimum active area for taps on the tile attribution data. */
     private static final int    TAPAREA_MIN_WIDTH  = 40;
     private static final int    TAPAREA_MIN_HEIGHT = 60;
+    /** Number of zoom levels above the current one to download tiles for. */
+    private static final int    SEED_ZOOM_LEVELS   = 2;
 
     /**
      * 
@@ -88,6 +96,7 @@ public class MapTilesLayer extends MapViewLayer implements ExtentInterface, Laye
     private final Paint           mPaint    = new Paint();
     private Paint                 textPaint = new Paint();
     private final NetworkStatus   networkStatus;
+    private final TilePrefetcher  prefetcher;
 
     /**
      * MRU of last servers
@@ -120,6 +129,7 @@ public class MapTilesLayer extends MapViewLayer implements ExtentInterface, Laye
         // mPaint.setAlpha(aRendererInfo.getDefaultAlpha());
 
         networkStatus = new NetworkStatus(ctx);
+        prefetcher = new TilePrefetcher(mTileProvider, new Preferences(ctx).getTilePrefetchRate());
 
         Log.d(DEBUG_TAG,
                 aRendererInfo != null ? (aRendererInfo.isMetadataLoaded()
@@ -177,6 +187,54 @@ public class MapTilesLayer extends MapViewLayer implements ExtentInterface, Laye
         }.execute();
     }
 
+    /**
+     * Download the tiles for the current view in to the tile cache after asking the user
+     * 
+     * All zoom levels from the minimum of the layer up to SEED_ZOOM_LEVELS above the current one are downloaded
+     * 
+     * @param activity activity this was called from
+     */
+    public void seedTileCache(@NonNull final FragmentActivity activity) {
+        if (!(myView instanceof IMapView) || myRendererInfo.isReadOnly()) {
+            return;
+        }
+        final IMapView map = (IMapView) myView;
+        final String rendererId = myRendererInfo.getId();
+        final BoundingBox box = new BoundingBox(map.getViewBox());
+        final int minZoom = myRendererInfo.getMinZoomLevel();
+        final int maxZoom = Math.min(myRendererInfo.getMaxZoomLevel(), map.getZoomLevel() + SEED_ZOOM_LEVELS);
+        final long count = TileSeeder.count(box, minZoom, maxZoom);
+        if (count > TileSeeder.MAX_TILES) {
+            Snack.toastTopWarning(activity, activity.getString(R.string.toast_tile_seeder_too_many, count, TileSeeder.MAX_TILES));
+            return;
+        }
+        new AsyncTask<Void, Void, Integer>() {
+
+            @Override
+            protected Integer doInBackground(Void... params) {
+                return mTileProvider.getAverageTileSize(rendererId);
+            }
+
+            @Override
+            protected void onPostExecute(Integer averageSize) {
+                long size = count * (averageSize > 0 ? averageSize : TileSeeder.DEFAULT_TILE_SIZE);
+                int cacheSize = new Preferences(activity).getTileCacheSize();
+                if (size > cacheSize * 1024L * 1024L) {
+                    Snack.toastTopWarning(activity, activity.getString(R.string.toast_tile_seeder_cache_too_small, size / (1024d * 1024d), cacheSize));
+                    return;
+                }
+                new AlertDialog.Builder(activity).setTitle(R.string.layer_seed_tile_cache)
+                        .setMessage(activity.getString(R.string.tile_seeder_confirm, count, minZoom, maxZoom, size / (1024d * 1024d)))
+                        .setPositiveButton(R.string.okay, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                mTileProvider.seed(rendererId, box, minZoom, maxZoom);
+                            }
+                        }).setNegativeButton(R.string.cancel, null).show();
+            }
+        }.execute();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -330,16 +388,25 @@ public class MapTilesLayer extends MapViewLayer implements ExtentInterface, Laye
         // xtile = ((lon_deg + 180) / 360) * n
         // ytile = (1 - (log(tan(lat_rad) + sec(lat_rad)) / PI)) / 2 * n
         final double n = Math.pow(2d, zoomLevel);
-        final int xTileLeft = (int) Math.floor(((lonLeft + 180d) / 360d) * n);
-        final int xTileRight = (int) Math.floor(((lonRight + 180d) / 360d) * n);
-        final int yTileTop = (int) Math.floor((1d - Math.log(Math.tan(latTop) + 1d / Math.cos(latTop)) / Math.PI) * n / 2d);
-        final int yTileBottom = (int) Math.floor((1d - Math.log(Math.tan(latBottom) + 1d / Math.cos(latBottom)) / Math.PI) * n / 2d);
+        final double xLeft = ((lonLeft + 180d) / 360d) * n;
+        final double xRight = ((lonRight + 180d) / 360d) * n;
+        final double yTop = (1d - Math.log(Math.tan(latTop) + 1d / Math.cos(latTop)) / Math.PI) * n / 2d;
+        final double yBottom = (1d - Math.log(Math.tan(latBottom) + 1d / Math.cos(latBottom)) / Math.PI) * n / 2d;
+        final int xTileLeft = (int) Math.floor(xLeft);
+        final int xTileRight = (int) Math.floor(xRight);
+        final int yTileTop = (int) Math.floor(yTop);
+        final int yTileBottom = (int) Math.floor(yBottom);
 
         final int tileNeededLeft = Math.min(xTileLeft, xTileRight);
         final int tileNeededRight = Math.max(xTileLeft, xTileRight);
         final int tileNeededTop = Math.min(yTileTop, yTileBottom);
         final int tileNeededBottom = Math.max(yTileTop, yTileBottom);
 
+        mTileProvider.setViewport(myRendererInfo.getId(), zoomLevel, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom);
+        prefetcher.prefetch(myRendererInfo.getId(), minZoom, zoomLevel, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom,
+                (xLeft + xRight) / 2d, (yTop + yBottom) / 2d,
+                myView instanceof Map && ((Map) myView).isFollowingGPS() ? ((Map) myView).getLocation() : null, System.currentTimeMillis());
+
         final int mapTileMask = (1 << zoomLevel) - 1;
 
         Rect destRect = null; // destination rect for bit map
@@ -4,7 +4,9 @@ package de.blau.android.views.util;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -28,6 +30,11 @@ public class LRUMapTileCache {
     // Constants
     // ===========================================================
 
+    /**
+     * Maximum number of evicted bitmaps that are retained for reuse
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
     // ===========================================================
     // Fields
     // ===========================================================
@@ -41,6 +48,11 @@ public class LRUMapTileCache {
     /** LRU list. */
     private final ArrayList<CacheElement> list;
     private final ArrayList<CacheElement> reuseList;
+    /** Evicted bitmaps whose memory can be reused for decoding */
+    private final ArrayList<Bitmap>       reusableBitmaps;
+
+    private long hits   = 0;
+    private long misses = 0;
 
     private class CacheElement {
         boolean recycleable = true;
@@ -82,6 +94,7 @@ public class LRUMapTileCache {
         cache = new HashMap<>();
         list = new ArrayList<>(); // using a LinkedList doesn't have any real advantages
         reuseList = new ArrayList<>();
+        reusableBitmaps = new ArrayList<>();
     }
 
     // ===========================================================
@@ -104,6 +117,17 @@ public class LRUMapTileCache {
         }
         cache.clear();
         list.clear();
+        clearReusableBitmaps();
+    }
+
+    /**
+     * Recycle all bitmaps retained for reuse
+     */
+    private synchronized void clearReusableBitmaps() {
+        for (Bitmap b : reusableBitmaps) {
+            b.recycle();
+        }
+        reusableBitmaps.clear();
     }
 
     /**
@@ -135,7 +159,11 @@ public class LRUMapTileCache {
             if (b != null && !b.isRecycled()) {
                 cacheSize -= b.getRowBytes() * b.getHeight();
                 if (ce.recycleable) {
-                    b.recycle();
+                    if (b.isMutable() && reusableBitmaps.size() < MAX_REUSABLE_BITMAPS) {
+                        reusableBitmaps.add(b);
+                    } else {
+                        b.recycle();
+                    }
                 }
             }
         }
@@ -157,6 +185,35 @@ public class LRUMapTileCache {
     public void onLowMemory() {
         maxCacheSize /= 2;
         applyCacheLimit(0, 0);
+        clearReusableBitmaps();
+    }
+
+    /**
+     * Get an evicted Bitmap whose memory can be used to decode an image
+     * 
+     * The Bitmap is removed from the pool, if it turns out not to be usable the caller should recycle it
+     * 
+     * @param width width of the image to decode
+     * @param height height of the image to decode
+     * @param config the configuration the image will be decoded to
+     * @return a suitable Bitmap or null if none is available
+     */
+    @TargetApi(19)
+    @Nullable
+    public synchronized Bitmap getReusableBitmap(int width, int height, @NonNull Bitmap.Config config) {
+        boolean kitkat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        long needed = (long) width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+        for (int i = reusableBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap b = reusableBitmaps.get(i);
+            if (b.isRecycled()) {
+                reusableBitmaps.remove(i);
+                continue;
+            }
+            if (kitkat ? b.getAllocationByteCount() >= needed : (b.getWidth() == width && b.getHeight() == height && b.getConfig() == config)) {
+                return reusableBitmaps.remove(i);
+            }
+        }
+        return null;
     }
 
     /**
@@ -178,6 +235,24 @@ public class LRUMapTileCache {
         return cacheSize;
     }
 
+    /**
+     * Get the number of successful lookups
+     * 
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of failed lookups
+     * 
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
     /**
      * Get the current maximum cache size
      * 
@@ -250,9 +325,11 @@ public class LRUMapTileCache {
         final CacheElement value = cache.get(key);
         // Log.d("LRUMapTileCache","get " + key);
         if (value != null) {
+            hits++;
             update(value);
             return value.bitmap;
         }
+        misses++;
         // Log.d("LRUMapTileCache","get done");
         return null;
     }
@@ -2,6 +2,8 @@
 package de.blau.android.views.util;
 
 import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import de.blau.android.exception.StorageException;
 import de.blau.android.services.util.MapTile;
@@ -95,6 +97,19 @@ public class MapTileCache implements MapViewConstants {
         return mCachedTiles.containsKey(aTile.toId());
     }
 
+    /**
+     * Get an evicted Bitmap whose memory can be used to decode an image
+     * 
+     * @param width width of the image to decode
+     * @param height height of the image to decode
+     * @param config the configuration the image will be decoded to
+     * @return a suitable Bitmap or null if none is available
+     */
+    @Nullable
+    public Bitmap getReusableBitmap(int width, int height, @NonNull Bitmap.Config config) {
+        return mCachedTiles.getReusableBitmap(width, height, config);
+    }
+
     /**
      * Try to reduce memory use.
      */
@@ -103,7 +118,8 @@ public class MapTileCache implements MapViewConstants {
     }
 
     public String getCacheUsageInfo() {
-        return "Size " + mCachedTiles.cacheSizeBytes() + " of maximum " + mCachedTiles.getMaxCacheSize() + " #entries " + mCachedTiles.size();
+        return "Size " + mCachedTiles.cacheSizeBytes() + " of maximum " + mCachedTiles.getMaxCacheSize() + " #entries " + mCachedTiles.size() + " hits "
+                + mCachedTiles.getHits() + " misses " + mCachedTiles.getMisses();
     }
 
     // ===========================================================
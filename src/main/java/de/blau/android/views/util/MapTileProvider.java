@@ -1,10 +1,14 @@
 package de.blau.android.views.util;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -14,17 +18,20 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import de.blau.android.R;
 import de.blau.android.exception.StorageException;
+import de.blau.android.osm.BoundingBox;
 import de.blau.android.resources.TileLayerServer;
 import de.blau.android.services.IMapTileProviderCallback;
 import de.blau.android.services.IMapTileProviderService;
 import de.blau.android.services.util.MapAsyncTileProvider;
 import de.blau.android.services.util.MapTile;
+import de.blau.android.util.SavingHelper;
 import de.blau.android.util.Util;
 
 /**
@@ -49,6 +56,11 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
      */
     private static final String DEBUG_TAG = MapTileProvider.class.getSimpleName();
 
+    /**
+     * Number of threads used for decoding tiles
+     */
+    private static final int DECODE_THREADS = 2;
+
     // ===========================================================
     // Fields
     // ===========================================================
@@ -67,6 +79,18 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
     private MapTileCache            mTileCache;
     private final Map<String, Long> pending = Collections.synchronizedMap(new HashMap<String, Long>());
 
+    /**
+     * Tile images are decoded on their own threads so that the loader threads of the service are not held up
+     */
+    private final ExecutorService mDecoderPool = Executors.newFixedThreadPool(DECODE_THREADS);
+    private TileDecoder           mDecoder;
+
+    /**
+     * Last viewport sent to the service
+     */
+    private String lastViewportRenderer = null;
+    private int[]  lastViewport         = new int[5];
+
     private IMapTileProviderService mTileService;
     private Handler                 mDownloadFinishedHandler;
 
@@ -88,6 +112,7 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
     public MapTileProvider(@NonNull final Context ctx, @NonNull final Handler aDownloadFinishedListener) {
         mCtx = ctx;
         mTileCache = new MapTileCache();
+        mDecoder = new TileDecoder(mTileCache);
 
         smallHeap = Util.smallHeap();
 
@@ -137,6 +162,7 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
      * Clear out memory related to tracking map tiles.
      */
     public void clear() {
+        mDecoderPool.shutdownNow();
         pending.clear();
         mTileCache.clear();
         mCtx.unbindService(this);
@@ -181,6 +207,22 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
         return mTileCache.getMapTile(aTile);
     }
 
+    /**
+     * Request a tile that is likely to be displayed soon if it isn't in the in memory cache or already requested
+     *
+     * The tile is not owned by any layer so that it can't stop tiles that are actually displayed from being cached
+     *
+     * @param aTile tile spec
+     * @return true if the tile was requested
+     */
+    public boolean prefetchTile(@NonNull final MapTile aTile) {
+        if (mTileService == null || pending.containsKey(aTile.toId()) || mTileCache.containsTile(aTile)) {
+            return false;
+        }
+        preCacheTile(aTile, 0);
+        return true;
+    }
+
     private void preCacheTile(final MapTile aTile, long owner) {
         if (mTileService != null && !pending.containsKey(aTile.toId())) {
             try {
@@ -233,6 +275,38 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
         }
     }
 
+    /**
+     * Tell the service which tiles are currently displayed, so that it can prioritize requests and cancel requests for
+     * tiles that are no longer visible
+     * 
+     * This is called while drawing, the call to the service is oneway and doesn't wait for it to be processed
+     * 
+     * @param rendererId the id of the renderer
+     * @param zoomLevel the zoom level of the displayed tiles
+     * @param left the left most tile x
+     * @param top the top most tile y
+     * @param right the right most tile x
+     * @param bottom the bottom most tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoomLevel, int left, int top, int right, int bottom) {
+        if (mTileService == null) {
+            return;
+        }
+        int[] viewport = new int[] { zoomLevel, left, top, right, bottom };
+        if (rendererId.equals(lastViewportRenderer) && Arrays.equals(viewport, lastViewport)) {
+            return;
+        }
+        try {
+            mTileService.setViewport(rendererId, zoomLevel, left, top, right, bottom);
+            lastViewportRenderer = rendererId;
+            lastViewport = viewport;
+        } catch (RemoteException e) {
+            Log.e(DEBUG_TAG, "RemoteException in setViewport()", e);
+        } catch (Exception e) {
+            Log.e(DEBUG_TAG, "Exception in setViewport()", e);
+        }
+    }
+
     /**
      * Flush the tile cache for a specific provider
      * 
@@ -253,6 +327,49 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
         mTileCache.clear(); // zap everything in in memory cache
     }
 
+    /**
+     * Download all tiles for an area and range of zoom levels in to the tile cache in the background
+     * 
+     * @param rendererId the tile layer
+     * @param box the area
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     */
+    public void seed(@NonNull String rendererId, @NonNull BoundingBox box, int minZoom, int maxZoom) {
+        if (mTileService == null) {
+            Log.e(DEBUG_TAG, "tile service is disconnected");
+            return;
+        }
+        try {
+            mTileService.seed(rendererId, box.getLeft(), box.getBottom(), box.getRight(), box.getTop(), minZoom, maxZoom);
+        } catch (RemoteException e) {
+            Log.e(DEBUG_TAG, "RemoteException in seed()", e);
+        } catch (Exception e) {
+            Log.e(DEBUG_TAG, "Exception in seed()", e);
+        }
+    }
+
+    /**
+     * Get the average size of the cached tiles for a tile layer
+     * 
+     * @param rendererId the tile layer
+     * @return the average size in bytes, 0 if not known
+     */
+    public int getAverageTileSize(@NonNull String rendererId) {
+        if (mTileService == null) {
+            Log.e(DEBUG_TAG, "tile service is disconnected");
+            return 0;
+        }
+        try {
+            return mTileService.getAverageTileSize(rendererId);
+        } catch (RemoteException e) {
+            Log.e(DEBUG_TAG, "RemoteException in getAverageTileSize()", e);
+        } catch (Exception e) {
+            Log.e(DEBUG_TAG, "Exception in getAverageTileSize()", e);
+        }
+        return 0;
+    }
+
     /**
      * Tell the tile provider service to reread the database of TileLayerServers
      */
@@ -281,22 +398,56 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
 
         // @Override
         public void mapTileLoaded(final String rendererID, final int zoomLevel, final int tileX, final int tileY, final byte[] data) throws RemoteException {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (smallHeap) {
-                options.inPreferredConfig = Bitmap.Config.RGB_565;
-            } else {
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            final MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
+            try {
+                mDecoderPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decodeTile(t, data, null, data.length);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.d(DEBUG_TAG, "mapTileLoaded decoder pool shut down");
+                pending.remove(t.toId());
             }
+        }
 
-            MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
+        // @Override
+        public void mapTileLoadedShared(final String rendererID, final int zoomLevel, final int tileX, final int tileY, final ParcelFileDescriptor aImage,
+                final int length) throws RemoteException {
+            final MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
+            try {
+                mDecoderPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decodeTile(t, null, aImage, length);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.d(DEBUG_TAG, "mapTileLoadedShared decoder pool shut down");
+                SavingHelper.close(aImage);
+                pending.remove(t.toId());
+            }
+        }
+
+        /**
+         * Decode a tile and add it to the in memory cache
+         * 
+         * @param t the tile spec
+         * @param data the encoded image or null if it is in shared memory
+         * @param fd the shared memory file descriptor if data is null, will be closed
+         * @param length the length of the encoded image
+         */
+        private void decodeTile(@NonNull final MapTile t, @Nullable final byte[] data, @Nullable final ParcelFileDescriptor fd, int length) {
             String id = t.toId();
             try {
-                Bitmap tileBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                Bitmap.Config config = smallHeap ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+                Bitmap tileBitmap = data != null ? mDecoder.decode(data, config) : mDecoder.decode(fd, length, config);
                 if (tileBitmap == null) {
                     Log.d(DEBUG_TAG, "decoded tile is null");
-                    throw new RemoteException();
+                    return;
                 }
-                Long l = pending.get(t.toId());
+                Long l = pending.get(id);
                 if (l != null) {
                     mTileCache.putTile(t, tileBitmap, l);
                 } // else wasn't in pending queue just ignore
@@ -308,7 +459,6 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
                 setSmallHeapMode();
             } catch (NullPointerException npe) {
                 Log.d(DEBUG_TAG, "Exception in mapTileLoaded callback " + npe);
-                throw new RemoteException();
             } finally {
                 pending.remove(id);
             }
@@ -378,6 +528,6 @@ public class MapTileProvider implements ServiceConnection, MapViewConstants {
      * @return a String with cache usage information suitable for display
      */
     public String getCacheUsageInfo() {
-        return mTileCache.getCacheUsageInfo();
+        return mTileCache.getCacheUsageInfo() + " " + mDecoder.getStats();
     }
 }
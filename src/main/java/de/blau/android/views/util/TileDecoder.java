@@ -0,0 +1,174 @@
+package de.blau.android.views.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import de.blau.android.util.SavingHelper;
+
+/**
+ * Decode tile images, reusing the memory of bitmaps that have been evicted from the in memory cache
+ *
+ * Reusing memory via inBitmap avoids allocating a new multi-100kB buffer for every tile, which is what causes GC
+ * pauses when panning through imagery. Before KitKat reuse requires a bitmap of exactly the same size and
+ * configuration, later any large enough mutable bitmap can be used.
+ */
+class TileDecoder {
+
+    private static final String DEBUG_TAG = "TileDecoder";
+
+    private final MapTileCache cache;
+
+    /**
+     * Per thread buffers for tiles received via shared memory
+     */
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    private final AtomicLong decodeCount = new AtomicLong();
+    private final AtomicLong reuseCount  = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    /**
+     * Construct a new decoder
+     *
+     * @param cache the in memory cache that supplies bitmaps for reuse
+     */
+    TileDecoder(@NonNull MapTileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Decode a tile image
+     *
+     * @param data the encoded image
+     * @param config the preferred Bitmap configuration
+     * @return the decoded Bitmap or null if the data couldn't be decoded
+     */
+    @Nullable
+    Bitmap decode(@NonNull byte[] data, @NonNull Bitmap.Config config) {
+        return decode(data, data.length, config);
+    }
+
+    /**
+     * Decode a tile image from shared memory
+     *
+     * The image is read into a buffer that is reused for all tiles decoded on the current thread
+     *
+     * @param fd file descriptor of the shared memory, will be closed
+     * @param length the length of the image
+     * @param config the preferred Bitmap configuration
+     * @return the decoded Bitmap or null if the data couldn't be read or decoded
+     */
+    @Nullable
+    Bitmap decode(@NonNull ParcelFileDescriptor fd, int length, @NonNull Bitmap.Config config) {
+        byte[] buffer = buffers.get();
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[length];
+            buffers.set(buffer);
+        }
+        FileInputStream is = new ParcelFileDescriptor.AutoCloseInputStream(fd); // closes fd too
+        try {
+            // positional reads as the descriptor may have been sent to more than one receiver
+            FileChannel channel = is.getChannel();
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, target.position()) < 0) {
+                    Log.e(DEBUG_TAG, "Shared tile truncated at " + target.position() + " of " + length);
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Reading shared tile failed " + e.getMessage());
+            return null;
+        } finally {
+            SavingHelper.close(is);
+        }
+        return decode(buffer, length, config);
+    }
+
+    /**
+     * Decode a tile image
+     *
+     * @param data the encoded image
+     * @param length the length of the image in data
+     * @param config the preferred Bitmap configuration
+     * @return the decoded Bitmap or null if the data couldn't be decoded
+     */
+    @Nullable
+    private Bitmap decode(@NonNull byte[] data, int length, @NonNull Bitmap.Config config) {
+        long start = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        Bitmap result = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inMutable = true; // required for the bitmap to be reused later
+            result = decodeReusing(data, length, options);
+        }
+        if (result == null) {
+            result = BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        decodeNanos.addAndGet(System.nanoTime() - start);
+        decodeCount.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Try to decode a tile image into the memory of a Bitmap evicted from the cache
+     *
+     * @param data the encoded image
+     * @param length the length of the image in data
+     * @param options the decoding options, on return inBitmap will not be set
+     * @return the decoded Bitmap or null if no suitable Bitmap was available or decoding into it failed
+     */
+    @TargetApi(11)
+    @Nullable
+    private Bitmap decodeReusing(@NonNull byte[] data, int length, @NonNull BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        options.inJustDecodeBounds = false;
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        Bitmap reusable = cache.getReusableBitmap(options.outWidth, options.outHeight, options.inPreferredConfig);
+        if (reusable == null) {
+            return null;
+        }
+        options.inBitmap = reusable;
+        try {
+            Bitmap result = BitmapFactory.decodeByteArray(data, 0, length, options);
+            if (result != null) {
+                reuseCount.incrementAndGet();
+                return result;
+            }
+        } catch (IllegalArgumentException e) {
+            // image format or size not supported for reuse
+            Log.d(DEBUG_TAG, "Reusing bitmap failed " + e.getMessage());
+        } finally {
+            options.inBitmap = null;
+        }
+        reusable.recycle();
+        return null;
+    }
+
+    /**
+     * Get some information on decoding statistics
+     *
+     * @return a String with decoding statistics suitable for display
+     */
+    @NonNull
+    String getStats() {
+        long count = decodeCount.get();
+        long averageMicros = count > 0 ? decodeNanos.get() / count / 1000 : 0;
+        return "decoded " + count + " reused " + reuseCount.get() + " average decode time " + averageMicros + " us";
+    }
+}
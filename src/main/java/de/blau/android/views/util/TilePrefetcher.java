@@ -0,0 +1,226 @@
+package de.blau.android.views.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import de.blau.android.services.util.MapTile;
+
+/**
+ * Request tiles ahead of the direction the map is moving in
+ *
+ * The direction is taken from the GPS bearing when following the position, otherwise from the velocity of the
+ * viewport centre over successive draws, which covers panning, flinging and any other movement. The next ring of tiles
+ * in that direction and the tiles of the next lower zoom level are requested, limited by a token bucket so that at
+ * most a fixed number of tiles per second are fetched. Tiles that are already cached or pending don't count.
+ */
+public class TilePrefetcher {
+
+    /**
+     * Minimum speed in tiles per second for the map to be considered moving
+     */
+    static final double MIN_TILE_SPEED = 0.5d;
+
+    /**
+     * Minimum GPS speed in m/s to use the bearing, walking pace
+     */
+    static final float MIN_GPS_SPEED = 1.4f;
+
+    /**
+     * Weight of the latest measurement in the velocity estimate
+     */
+    private static final double SMOOTHING = 0.5d;
+
+    /**
+     * The token bucket holds at most this many seconds worth of tiles
+     */
+    private static final int BURST_SECONDS = 2;
+
+    /**
+     * sin(22.5 degrees), movement components smaller than this fraction of the speed are ignored
+     */
+    private static final double DIRECTION_THRESHOLD = 0.38d;
+
+    private final MapTileProvider provider;
+    private final int             rate;
+
+    private double budget    = 0;
+    private long   lastTime  = -1;
+    private int    lastZoom  = -1;
+    private double lastX;
+    private double lastY;
+    private double velocityX = 0;
+    private double velocityY = 0;
+
+    /**
+     * Construct a new prefetcher
+     *
+     * @param provider the MapTileProvider to request tiles from
+     * @param rate maximum number of tiles per second to prefetch, 0 disables prefetching
+     */
+    public TilePrefetcher(@NonNull MapTileProvider provider, int rate) {
+        this.provider = provider;
+        this.rate = rate;
+    }
+
+    /**
+     * Update the movement estimate and request tiles ahead of it
+     *
+     * @param rendererId the id of the tile layer
+     * @param minZoom the minimum zoom level of the tile layer
+     * @param zoom the current tile zoom level
+     * @param left the left most displayed tile x
+     * @param top the top most displayed tile y
+     * @param right the right most displayed tile x
+     * @param bottom the bottom most displayed tile y
+     * @param centreX the x coordinate of the viewport centre in tiles
+     * @param centreY the y coordinate of the viewport centre in tiles
+     * @param location the current location if following GPS, otherwise null
+     * @param now the current time in ms
+     */
+    public void prefetch(@NonNull String rendererId, int minZoom, int zoom, int left, int top, int right, int bottom, double centreX, double centreY,
+            @Nullable Location location, long now) {
+        if (rate <= 0) {
+            return;
+        }
+        if (zoom != lastZoom || lastTime < 0) {
+            velocityX = 0;
+            velocityY = 0;
+        } else if (now > lastTime) {
+            double dt = (now - lastTime) / 1000d;
+            velocityX = SMOOTHING * (centreX - lastX) / dt + (1 - SMOOTHING) * velocityX;
+            velocityY = SMOOTHING * (centreY - lastY) / dt + (1 - SMOOTHING) * velocityY;
+        }
+        if (lastTime >= 0 && now > lastTime) {
+            budget = Math.min(rate * BURST_SECONDS, budget + rate * (now - lastTime) / 1000d);
+        }
+        lastTime = now;
+        lastZoom = zoom;
+        lastX = centreX;
+        lastY = centreY;
+
+        int[] direction;
+        if (location != null && location.hasBearing() && location.hasSpeed() && location.getSpeed() > MIN_GPS_SPEED) {
+            double bearing = Math.toRadians(location.getBearing());
+            direction = direction(Math.sin(bearing), -Math.cos(bearing), 0d); // tile y grows southwards
+        } else {
+            direction = direction(velocityX, velocityY, MIN_TILE_SPEED);
+        }
+        if (direction == null) {
+            return;
+        }
+        for (MapTile tile : plan(rendererId, minZoom, zoom, left, top, right, bottom, direction[0], direction[1])) {
+            if (budget < 1) {
+                break;
+            }
+            if (provider.prefetchTile(tile)) {
+                budget--;
+            }
+        }
+    }
+
+    /**
+     * Reduce a movement vector to one of eight directions
+     *
+     * @param vx the x component
+     * @param vy the y component
+     * @param minSpeed the minimum length of the vector
+     * @return an array with the x and y direction each -1, 0 or 1, or null if the vector is too short
+     */
+    @Nullable
+    static int[] direction(double vx, double vy, double minSpeed) {
+        double speed = Math.sqrt(vx * vx + vy * vy);
+        if (speed == 0 || speed < minSpeed) {
+            return null;
+        }
+        int dx = Math.abs(vx) >= speed * DIRECTION_THRESHOLD ? (int) Math.signum(vx) : 0;
+        int dy = Math.abs(vy) >= speed * DIRECTION_THRESHOLD ? (int) Math.signum(vy) : 0;
+        return new int[] { dx, dy };
+    }
+
+    /**
+     * Determine the tiles to prefetch for a movement direction
+     *
+     * First the ring of tiles adjacent to the displayed ones in the direction of movement, closest to the centre
+     * first, then the tiles of the next lower zoom level covering the displayed tiles and the ring
+     *
+     * @param rendererId the id of the tile layer
+     * @param minZoom the minimum zoom level of the tile layer
+     * @param zoom the current tile zoom level
+     * @param left the left most displayed tile x
+     * @param top the top most displayed tile y
+     * @param right the right most displayed tile x
+     * @param bottom the bottom most displayed tile y
+     * @param dx the x direction of movement, -1, 0 or 1
+     * @param dy the y direction of movement, -1, 0 or 1
+     * @return a List of MapTiles
+     */
+    @NonNull
+    static List<MapTile> plan(@NonNull String rendererId, int minZoom, int zoom, int left, int top, int right, int bottom, int dx, int dy) {
+        final int mask = (1 << zoom) - 1;
+        final double centreX = (left + right) / 2d;
+        final double centreY = (top + bottom) / 2d;
+        List<MapTile> ring = new ArrayList<>();
+        if (dx != 0) {
+            int x = dx > 0 ? right + 1 : left - 1;
+            for (int y = top + Math.min(dy, 0); y <= bottom + Math.max(dy, 0); y++) {
+                addTile(ring, rendererId, zoom, x, y, mask);
+            }
+        }
+        if (dy != 0) {
+            int y = dy > 0 ? bottom + 1 : top - 1;
+            for (int x = left; x <= right; x++) {
+                addTile(ring, rendererId, zoom, x, y, mask);
+            }
+        }
+        Collections.sort(ring, new Comparator<MapTile>() {
+            @Override
+            public int compare(MapTile t1, MapTile t2) {
+                return Double.compare(distance(t1), distance(t2));
+            }
+
+            /**
+             * Distance of a tile from the centre taking wrapping into account
+             *
+             * @param t the tile
+             * @return the distance in tiles
+             */
+            private double distance(MapTile t) {
+                double tx = Math.abs(t.x - centreX) % (mask + 1d);
+                return Math.hypot(Math.min(tx, mask + 1d - tx), t.y - centreY);
+            }
+        });
+        List<MapTile> result = new ArrayList<>(ring);
+        int lowerZoom = zoom - 1;
+        if (lowerZoom >= minZoom && lowerZoom >= 0) {
+            int lowerMask = (1 << lowerZoom) - 1;
+            for (int y = (top + Math.min(dy, 0)) >> 1; y <= (bottom + Math.max(dy, 0)) >> 1; y++) {
+                for (int x = (left + Math.min(dx, 0)) >> 1; x <= (right + Math.max(dx, 0)) >> 1; x++) {
+                    addTile(result, rendererId, lowerZoom, x, y, lowerMask);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add a tile to a List if it is in the valid range, wrapping the x coordinate
+     *
+     * @param tiles the List
+     * @param rendererId the id of the tile layer
+     * @param zoom the zoom level
+     * @param x the tile x
+     * @param y the tile y
+     * @param mask the mask for the zoom level
+     */
+    private static void addTile(@NonNull List<MapTile> tiles, @NonNull String rendererId, int zoom, int x, int y, int mask) {
+        if (y < 0 || y > mask) {
+            return;
+        }
+        tiles.add(new MapTile(rendererId, zoom, x & mask, y));
+    }
+}
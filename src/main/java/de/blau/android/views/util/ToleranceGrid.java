@@ -0,0 +1,108 @@
+package de.blau.android.views.util;
+
+import java.util.Arrays;
+
+/**
+ * Screen space occupancy grid for node tolerance halos
+ *
+ * The cell size is chosen so that two halo centres in the same cell are always closer than the radius, as a
+ * consequence each cell holds at most one centre and only the cells in a small neighbourhood need to be checked. The
+ * arrays are reused between frames, a stamp per cell avoids having to clear them.
+ */
+public class ToleranceGrid {
+
+    /**
+     * Cells within this distance from the cell of a point need to be checked
+     */
+    private static final int NEIGHBOURHOOD = 2;
+
+    private float   radius2;
+    private float   cellSize;
+    private int     columns;
+    private int     rows;
+    private float[] centreX   = new float[0];
+    private float[] centreY   = new float[0];
+    private int[]   cellStamp = new int[0];
+    private int     stamp     = 0;
+    private int     suppressed;
+
+    /**
+     * Reset the grid for a new frame
+     *
+     * @param width screen width in pixels
+     * @param height screen height in pixels
+     * @param radius minimum distance between two halo centres
+     */
+    public void reset(int width, int height, float radius) {
+        float r = Math.max(radius, 1f);
+        radius2 = r * r;
+        cellSize = (float) (r / Math.sqrt(2)) * 0.99f; // diagonal of a cell is guaranteed to be < radius
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+        int size = columns * rows;
+        if (cellStamp.length < size) {
+            centreX = new float[size];
+            centreY = new float[size];
+            cellStamp = new int[size];
+            stamp = 0;
+        }
+        stamp++;
+        if (stamp == 0) { // wrapped around
+            Arrays.fill(cellStamp, 0);
+            stamp = 1;
+        }
+        suppressed = 0;
+    }
+
+    /**
+     * Add a halo if it isn't closer than the radius to an existing one
+     *
+     * Points outside of the screen are never suppressed and not recorded
+     *
+     * @param x screen x coordinate
+     * @param y screen y coordinate
+     * @return true if the halo should be drawn
+     */
+    public boolean add(float x, float y) {
+        if (x < 0 || y < 0) {
+            return true;
+        }
+        int column = (int) (x / cellSize);
+        int row = (int) (y / cellSize);
+        if (column >= columns || row >= rows) {
+            return true;
+        }
+        int minColumn = Math.max(0, column - NEIGHBOURHOOD);
+        int maxColumn = Math.min(columns - 1, column + NEIGHBOURHOOD);
+        int minRow = Math.max(0, row - NEIGHBOURHOOD);
+        int maxRow = Math.min(rows - 1, row + NEIGHBOURHOOD);
+        for (int r = minRow; r <= maxRow; r++) {
+            int offset = r * columns;
+            for (int c = minColumn; c <= maxColumn; c++) {
+                int i = offset + c;
+                if (cellStamp[i] == stamp) {
+                    float dx = centreX[i] - x;
+                    float dy = centreY[i] - y;
+                    if (dx * dx + dy * dy < radius2) {
+                        suppressed++;
+                        return false;
+                    }
+                }
+            }
+        }
+        int i = row * columns + column;
+        cellStamp[i] = stamp;
+        centreX[i] = x;
+        centreY[i] = y;
+        return true;
+    }
+
+    /**
+     * Get the number of halos suppressed since the last reset
+     *
+     * @return the count of suppressed halos
+     */
+    public int getSuppressed() {
+        return suppressed;
+    }
+}
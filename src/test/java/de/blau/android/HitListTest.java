@@ -0,0 +1,71 @@
+package de.blau.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.blau.android.osm.Node;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.OsmElementFactory;
+
+public class HitListTest {
+
+    /**
+     * Check that elements are returned in ascending distance order
+     */
+    @Test
+    public void sort() {
+        Random random = new Random(42);
+        for (int size : new int[] { 0, 1, 5, 16, 17, 1000 }) {
+            HitList<Node> hits = new HitList<>();
+            Node nearest = null;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Node n = OsmElementFactory.createNode(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+                double distance = random.nextInt(50); // include duplicates
+                hits.add(n, distance);
+                if (distance < nearestDistance) {
+                    nearest = n;
+                    nearestDistance = distance;
+                }
+            }
+            if (size == 0) {
+                assertNull(hits.getNearest());
+            } else {
+                assertEquals(nearestDistance, hits.getDistance(indexOf(hits, hits.getNearest())), 0);
+            }
+            List<OsmElement> sorted = hits.sortInto(new ArrayList<OsmElement>());
+            assertEquals(size, sorted.size());
+            for (int i = 1; i < size; i++) {
+                assertTrue(hits.getDistance(i - 1) <= hits.getDistance(i));
+                assertSame(hits.get(i), sorted.get(i));
+            }
+            if (size > 0) {
+                assertEquals(nearestDistance, hits.getDistance(0), 0);
+            }
+        }
+    }
+
+    /**
+     * Find the position of an element
+     *
+     * @param hits the HitList
+     * @param element the element
+     * @return the position or -1
+     */
+    private int indexOf(HitList<Node> hits, Node element) {
+        for (int i = 0; i < hits.size(); i++) {
+            if (hits.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
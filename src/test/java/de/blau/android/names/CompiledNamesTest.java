@@ -0,0 +1,127 @@
+package de.blau.android.names;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.blau.android.names.Names.NameAndTags;
+import de.blau.android.names.Names.TagMap;
+import de.blau.android.util.collections.MultiHashMap;
+
+public class CompiledNamesTest {
+
+    private static final long ASSET_VERSION = 4711L;
+
+    /**
+     * Check that reading the compiled data gives the same entries and categories that were written
+     *
+     * @throws IOException if writing or reading fails
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        List<NameAndTags> entries = new ArrayList<>();
+        entries.add(new NameAndTags("Caf\u00e9 Central", tags("amenity", "cafe"), 12, null));
+        entries.add(new NameAndTags("Spar", tags("shop", "supermarket", "brand", "Spar"), 300, new String[] { "AT", "DE" }));
+        entries.add(new NameAndTags("Spar", tags("shop", "convenience", "brand", "Spar"), 200, new String[] { "AT", "DE" }));
+        entries.add(new NameAndTags("Walgreens", tags("shop", "chemist"), 50, new String[] { "US" }));
+        MultiHashMap<String, String> categories = new MultiHashMap<>(false);
+        categories.add("food", "amenity=cafe");
+        categories.add("food", "amenity=restaurant");
+        categories.add("shops", "shop=supermarket");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompiledNames.write(out, ASSET_VERSION, entries, categories);
+
+        MultiHashMap<String, NameAndTags> nameList = new MultiHashMap<>(false);
+        MultiHashMap<String, NameAndTags> tags2namesList = new MultiHashMap<>(false);
+        MultiHashMap<String, String> readCategories = new MultiHashMap<>(false);
+        assertTrue(CompiledNames.read(new ByteArrayInputStream(out.toByteArray()), ASSET_VERSION, nameList, tags2namesList, readCategories));
+
+        assertEquals(new HashSet<>(Arrays.asList("Caf\u00e9 Central", "Spar", "Walgreens")), nameList.getKeys());
+        assertEquals(4, tags2namesList.getKeys().size());
+        for (NameAndTags expected : entries) {
+            Set<NameAndTags> byTags = tags2namesList.get(expected.tags.toString());
+            assertEquals(1, byTags.size());
+            NameAndTags actual = byTags.iterator().next();
+            assertTrue(nameList.get(expected.getName()).contains(actual));
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getTags(), actual.getTags());
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getNormalizedName(), actual.getNormalizedName());
+            assertEquals(expected.regions, actual.regions);
+            for (String region : new String[] { "AT", "DE", "US", "CH" }) {
+                List<String> current = Collections.singletonList(region);
+                assertEquals(expected.getName() + " " + region, expected.inUseIn(current), actual.inUseIn(current));
+            }
+        }
+        // entries with the same regions share one BitSet
+        List<NameAndTags> spar = new ArrayList<>(nameList.get("Spar"));
+        assertSame(spar.get(0).regions, spar.get(1).regions);
+        assertTrue(spar.get(0).inUseIn(Arrays.asList("CH", "DE")));
+        assertFalse(spar.get(0).inUseIn(Arrays.asList("CH", "US")));
+        assertNull(nameList.get("Caf\u00e9 Central").iterator().next().regions);
+
+        assertEquals(categories.getKeys(), readCategories.getKeys());
+        for (String category : categories.getKeys()) {
+            assertEquals(categories.get(category), readCategories.get(category));
+        }
+    }
+
+    /**
+     * Check that data written for different assets isn't used
+     *
+     * @throws IOException if writing or reading fails
+     */
+    @Test
+    public void otherAssetVersion() throws IOException {
+        List<NameAndTags> entries = new ArrayList<>();
+        entries.add(new NameAndTags("Spar", tags("shop", "supermarket"), 300, new String[] { "AT" }));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompiledNames.write(out, ASSET_VERSION, entries, new MultiHashMap<String, String>(false));
+
+        MultiHashMap<String, NameAndTags> nameList = new MultiHashMap<>(false);
+        MultiHashMap<String, NameAndTags> tags2namesList = new MultiHashMap<>(false);
+        MultiHashMap<String, String> categories = new MultiHashMap<>(false);
+        assertFalse(CompiledNames.read(new ByteArrayInputStream(out.toByteArray()), ASSET_VERSION + 1, nameList, tags2namesList, categories));
+        assertTrue(nameList.getKeys().isEmpty());
+        assertTrue(tags2namesList.getKeys().isEmpty());
+
+        // truncated data should fail and not be silently accepted
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 4);
+        try {
+            CompiledNames.read(new ByteArrayInputStream(truncated), ASSET_VERSION, nameList, tags2namesList, categories);
+            fail("truncated data accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Create a TagMap
+     *
+     * @param keysAndValues alternating keys and values
+     * @return a TagMap
+     */
+    private static TagMap tags(String... keysAndValues) {
+        TagMap tags = new TagMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            tags.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return tags;
+    }
+}
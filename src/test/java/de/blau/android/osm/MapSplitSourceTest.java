@@ -0,0 +1,88 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.blau.android.services.util.MBTileProviderDataBase;
+import de.blau.android.services.util.MapTile;
+import de.blau.android.util.collections.LongPrimitiveMap;
+
+public class MapSplitSourceTest {
+
+    /**
+     * Check that missing max zoom tiles are replaced by lower zoom ones, and that those are only used once
+     */
+    @Test
+    public void plan() {
+        LongPrimitiveMap<Integer> existing = new LongPrimitiveMap<>();
+        // 4 tiles at zoom 16 of which one is missing, the area is covered by a zoom 14 tile
+        existing.put(MBTileProviderDataBase.tileKey(16, 100, 200), 1);
+        existing.put(MBTileProviderDataBase.tileKey(16, 101, 200), 1);
+        existing.put(MBTileProviderDataBase.tileKey(16, 100, 201), 1);
+        existing.put(MBTileProviderDataBase.tileKey(14, 25, 50), 1);
+        List<MapTile> plan = MapSplitSource.planTiles(existing, 13, 16, 100, 200, 103, 201);
+        // 3 zoom 16 tiles, the rest from zoom 14
+        assertEquals(4, plan.size());
+        int zoom14 = 0;
+        for (MapTile tile : plan) {
+            assertTrue(existing.containsKey(MBTileProviderDataBase.tileKey(tile.zoomLevel, tile.x, tile.y)));
+            if (tile.zoomLevel == 14) {
+                zoom14++;
+            }
+        }
+        assertEquals(1, zoom14);
+
+        // nothing at all
+        assertTrue(MapSplitSource.planTiles(new LongPrimitiveMap<Integer>(), 13, 16, 100, 200, 103, 201).isEmpty());
+    }
+
+    /**
+     * Check that merging tiles uses the first instance of shared elements and keeps way nodes that are in none of the
+     * tiles
+     */
+    @Test
+    public void merge() {
+        Storage tile1 = new Storage();
+        Node n1 = OsmElementFactory.createNode(1L, 1L, 0, OsmElement.STATE_UNCHANGED, 10, 10);
+        Node n2 = OsmElementFactory.createNode(2L, 1L, 0, OsmElement.STATE_UNCHANGED, 20, 20);
+        tile1.insertNodeUnsafe(n1);
+        tile1.insertNodeUnsafe(n2);
+        Way w1 = OsmElementFactory.createWay(10L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        w1.addNode(n1);
+        w1.addNode(n2);
+        tile1.insertWayUnsafe(w1);
+
+        Storage tile2 = new Storage();
+        Node n2Copy = OsmElementFactory.createNode(2L, 1L, 0, OsmElement.STATE_UNCHANGED, 20, 20);
+        Node n3 = OsmElementFactory.createNode(3L, 1L, 0, OsmElement.STATE_UNCHANGED, 30, 30);
+        Node missing = OsmElementFactory.createNode(4L, 1L, 0, OsmElement.STATE_UNCHANGED, 40, 40);
+        tile2.insertNodeUnsafe(n2Copy);
+        tile2.insertNodeUnsafe(n3);
+        Way w2 = OsmElementFactory.createWay(11L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        w2.addNode(n2Copy);
+        w2.addNode(n3);
+        w2.addNode(missing); // not present in any tile
+        tile2.insertWayUnsafe(w2);
+
+        List<Storage> tiles = new ArrayList<>();
+        tiles.add(tile1);
+        tiles.add(tile2);
+        Storage storage = new Storage();
+        MapSplitSource.merge(storage, tiles);
+
+        assertEquals(4, storage.getNodes().size());
+        assertEquals(2, storage.getWays().size());
+        assertSame(n2, storage.getNode(2L));
+        List<Node> nodes = storage.getWay(11L).getNodes();
+        assertSame(n2, nodes.get(0));
+        assertSame(n3, nodes.get(1));
+        assertSame(missing, nodes.get(2));
+        assertSame(missing, storage.getNode(4L));
+    }
+}
@@ -0,0 +1,72 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.blau.android.util.DateFormatter;
+
+public class OsmParserTest {
+
+    /**
+     * Check that coordinates are parsed exactly as with BigDecimal
+     */
+    @Test
+    public void coordinates() {
+        for (String value : new String[] { "0", "1", "-1", "47.1234567", "-47.1234567", "9.12345678", "-9.12345679", "180.0000000", "-180", ".5", "-.5",
+                "+8.25", "12.", "1e-3", "0.00000009" }) {
+            assertEquals(value, reference(value), OsmParser.parseCoordinate(value));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String value = Double.toString((random.nextDouble() - 0.5) * 360);
+            assertEquals(value, reference(value), OsmParser.parseCoordinate(value));
+        }
+        for (String value : new String[] { "", "-", ".", "1.2.3", "abc" }) {
+            try {
+                OsmParser.parseCoordinate(value);
+                fail(value + " should not be parseable");
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Check that timestamps are parsed exactly as with SimpleDateFormat
+     */
+    @Test
+    public void timestamps() {
+        SimpleDateFormat format = DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String value = DateFormatter.getFormattedString(OsmParser.TIMESTAMP_FORMAT, new Date((random.nextLong() & 0xFFFFFFFFFFL) * 4));
+            try {
+                assertEquals(value, format.parse(value).getTime() / 1000, OsmParser.parseTimestamp(value));
+            } catch (ParseException e) {
+                fail(e.getMessage());
+            }
+        }
+        assertEquals(951782400L, OsmParser.parseTimestamp("2000-02-29T00:00:00Z"));
+        assertEquals(-1L, OsmParser.parseTimestamp("2000-02-29T00:00:00+01:00"));
+        assertEquals(-1L, OsmParser.parseTimestamp("2000-02-29 00:00:00Z"));
+        assertEquals(-1L, OsmParser.parseTimestamp("2000-13-29T00:00:00Z"));
+    }
+
+    /**
+     * Parse with BigDecimal
+     *
+     * @param value the coordinate String
+     * @return the coordinate scaled to an int
+     */
+    private int reference(String value) {
+        return new BigDecimal(value).scaleByPowerOfTen(Node.COORDINATE_SCALE).intValue();
+    }
+}
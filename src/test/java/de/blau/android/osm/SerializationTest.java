@@ -0,0 +1,111 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+
+public class SerializationTest {
+
+    /**
+     * Same configuration as used for saving state
+     */
+    private static final FSTConfiguration CONF = FSTConfiguration.createAndroidDefaultConfiguration();
+
+    /**
+     * Check that tags survive saving and loading, including tags held in a TreeMap as in state saved by older versions
+     */
+    @Test
+    public void tags() {
+        Storage storage = new Storage();
+        TreeMap<String, String> tags = new TreeMap<>();
+        tags.put("amenity", "cafe");
+        tags.put("name", "Central");
+        Node tagged = OsmElementFactory.createNode(1L, 1L, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        tagged.setTags(tags);
+        storage.insertNodeUnsafe(tagged);
+        Node old = OsmElementFactory.createNode(2L, 1L, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        old.tags = new TreeMap<>(tags); // as loaded from old state
+        storage.insertNodeUnsafe(old);
+        Node untagged = OsmElementFactory.createNode(3L, 1L, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        storage.insertNodeUnsafe(untagged);
+
+        Storage loaded = (Storage) CONF.asObject(CONF.asByteArray(storage));
+        loaded.internTags();
+
+        Node loadedTagged = loaded.getNode(1L);
+        Node loadedOld = loaded.getNode(2L);
+        assertNotNull(loadedTagged);
+        assertNotNull(loadedOld);
+        assertTrue(loadedTagged.tags instanceof TagSet);
+        assertEquals(tags, loadedTagged.getTags());
+        assertSame(tagged.getTags(), loadedTagged.getTags());
+        assertTrue(loadedOld.tags instanceof TagSet);
+        assertSame(loadedTagged.getTags(), loadedOld.getTags());
+        assertNull(loaded.getNode(3L).tags);
+        assertTrue(loaded.getNode(3L).getTags().isEmpty());
+    }
+
+    /**
+     * Check that tags that haven't been converted after loading are converted on access
+     */
+    @Test
+    public void tagsNotInterned() {
+        TreeMap<String, String> tags = new TreeMap<>();
+        tags.put("highway", "residential");
+        Way way = OsmElementFactory.createWay(1L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        way.tags = new TreeMap<>(tags);
+
+        Way loaded = (Way) CONF.asObject(CONF.asByteArray(way));
+        assertEquals(tags, loaded.getTags());
+        assertTrue(loaded.tags instanceof TagSet);
+        assertSame(TagSet.of(tags), loaded.getTags());
+    }
+
+    /**
+     * Check that way nodes are saved as a plain list and that the membership index works after loading
+     */
+    @Test
+    public void wayNodes() {
+        Storage storage = new Storage();
+        Way way = OsmElementFactory.createWay(1L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        for (int i = 0; i < 4 * WayNodes.MIN_INDEXED_SIZE; i++) {
+            Node n = OsmElementFactory.createNode(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED, i, i);
+            storage.insertNodeUnsafe(n);
+            way.addNode(n);
+        }
+        Node notInWay = OsmElementFactory.createNode(1000L, 1L, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        storage.insertNodeUnsafe(notInWay);
+        storage.insertWayUnsafe(way);
+        assertTrue(way.hasNode(storage.getNode(10L)));
+
+        Storage loaded = (Storage) CONF.asObject(CONF.asByteArray(storage));
+
+        Way loadedWay = loaded.getWay(1L);
+        assertNotNull(loadedWay);
+        assertEquals(ArrayList.class, loadedWay.nodes.getClass());
+        List<Node> nodes = loadedWay.getNodes();
+        assertEquals(way.nodeCount(), nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = loaded.getNode(i + 1L);
+            assertSame(n, nodes.get(i));
+            assertTrue(loadedWay.hasNode(n));
+            assertEquals(i, nodes.indexOf(n));
+        }
+        Node loadedNotInWay = loaded.getNode(1000L);
+        assertFalse(loadedWay.hasNode(loadedNotInWay));
+        nodes.set(5, loadedNotInWay);
+        assertTrue(loadedWay.hasNode(loadedNotInWay));
+        assertFalse(loadedWay.hasNode(loaded.getNode(6L)));
+        assertSame(nodes, loadedWay.getNodes());
+    }
+}
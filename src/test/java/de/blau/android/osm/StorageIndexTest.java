@@ -0,0 +1,236 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StorageIndexTest {
+
+    /**
+     * Compare bounding box queries against a sequential scan
+     */
+    @Test
+    public void boxQueries() {
+        Random random = new Random(4711);
+        Storage storage = new Storage();
+        List<Node> allNodes = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Node n = OsmElementFactory.createNode(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED, randomE7(random, 100000000), randomE7(random, 100000000));
+            storage.insertNodeUnsafe(n);
+            allNodes.add(n);
+        }
+        List<Way> allWays = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Way w = OsmElementFactory.createWay(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED);
+            w.addNode(allNodes.get(i * 2));
+            w.addNode(allNodes.get(i * 2 + 1));
+            storage.insertWayUnsafe(w);
+            allWays.add(w);
+        }
+        checkQueries(random, storage, allNodes, allWays);
+
+        // move some nodes and remove some elements
+        for (int i = 0; i < 200; i++) {
+            Node n = allNodes.get(random.nextInt(allNodes.size()));
+            for (Way w : storage.getWays(n)) {
+                storage.invalidateWayBoundingBox(w);
+            }
+            int oldLat = n.getLat();
+            int oldLon = n.getLon();
+            n.setLat(randomE7(random, 100000000));
+            n.setLon(randomE7(random, 100000000));
+            storage.nodeMoved(n, oldLat, oldLon);
+        }
+        for (int i = 0; i < 100; i++) {
+            Way w = allWays.remove(random.nextInt(allWays.size()));
+            assertTrue(storage.removeWay(w));
+        }
+        for (int i = 0; i < 100; i++) {
+            Node n = allNodes.remove(allNodes.size() - 1);
+            assertTrue(storage.removeNode(n));
+            assertFalse(storage.getNodes(n.getBounds()).contains(n));
+        }
+        checkQueries(random, storage, allNodes, allWays);
+    }
+
+    /**
+     * Compare parent way lookups against a sequential scan
+     */
+    @Test
+    public void parentWays() {
+        Random random = new Random(815);
+        Storage storage = new Storage();
+        List<Node> allNodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Node n = OsmElementFactory.createNode(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED, randomE7(random, 100000000), randomE7(random, 100000000));
+            storage.insertNodeUnsafe(n);
+            allNodes.add(n);
+        }
+        List<Way> allWays = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Way w = OsmElementFactory.createWay(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED);
+            for (int j = 0; j < 2 + random.nextInt(5); j++) {
+                w.addNode(allNodes.get(random.nextInt(allNodes.size())));
+            }
+            storage.insertWayUnsafe(w);
+            allWays.add(w);
+        }
+        checkParents(storage, allNodes, allWays);
+
+        // change way nodes and remove some ways
+        for (int i = 0; i < 100; i++) {
+            Way w = allWays.get(random.nextInt(allWays.size()));
+            storage.invalidateWayBoundingBox(w);
+            if (w.nodeCount() > 2 && random.nextBoolean()) {
+                w.removeNode(w.getLastNode());
+            } else {
+                w.addNode(allNodes.get(random.nextInt(allNodes.size())));
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            Way w = allWays.remove(random.nextInt(allWays.size()));
+            assertTrue(storage.removeWay(w));
+        }
+        checkParents(storage, allNodes, allWays);
+    }
+
+    /**
+     * Compare download coverage queries against a sequential scan
+     */
+    @Test
+    public void coverage() {
+        Random random = new Random(1234);
+        Storage storage = new Storage();
+        List<BoundingBox> boxes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int left = randomE7(random, 10000000);
+            int bottom = randomE7(random, 10000000);
+            BoundingBox box = new BoundingBox(left, bottom, left + random.nextInt(3000000), bottom + random.nextInt(3000000));
+            if (i == 0) {
+                storage.setBoundingBox(box);
+            } else {
+                storage.addBoundingBox(box);
+            }
+            boxes.add(box);
+        }
+        checkCoverage(random, storage, boxes);
+        for (int i = 0; i < 50; i++) {
+            BoundingBox box = boxes.remove(random.nextInt(boxes.size()));
+            storage.deleteBoundingBox(box);
+        }
+        BoundingBox large = new BoundingBox(-50000000, -50000000, -20000000, -20000000);
+        storage.addBoundingBox(large);
+        boxes.add(large);
+        checkCoverage(random, storage, boxes);
+        // replacing the list contents has to invalidate the index too
+        storage.setBoundingBox(boxes.get(0));
+        checkCoverage(random, storage, boxes.subList(0, 1));
+        storage.clearBoundingBoxes();
+        checkCoverage(random, storage, new ArrayList<BoundingBox>());
+        try {
+            storage.getBoundingBoxes().add(large);
+            fail("bounding box list is modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Check random points against the bounding boxes
+     *
+     * @param random the random number generator
+     * @param storage the Storage to query
+     * @param boxes all BoundingBoxes in storage
+     */
+    private void checkCoverage(Random random, Storage storage, List<BoundingBox> boxes) {
+        for (int i = 0; i < 20000; i++) {
+            int lon = randomE7(random, 60000000);
+            int lat = randomE7(random, 60000000);
+            boolean expected = false;
+            for (BoundingBox box : boxes) {
+                expected |= box.isIn(lon, lat);
+            }
+            assertEquals(expected, storage.isInBoundingBoxes(lon, lat));
+        }
+    }
+
+    /**
+     * Check getWays(Node) and isEndNode for all nodes
+     *
+     * @param storage the Storage to query
+     * @param allNodes all Nodes in storage
+     * @param allWays all Ways in storage
+     */
+    private void checkParents(Storage storage, List<Node> allNodes, List<Way> allWays) {
+        for (Node n : allNodes) {
+            Set<Way> expectedWays = new HashSet<>();
+            boolean expectedEndNode = false;
+            for (Way w : allWays) {
+                if (w.hasNode(n)) {
+                    expectedWays.add(w);
+                    expectedEndNode |= w.isEndNode(n);
+                }
+            }
+            List<Way> ways = storage.getWays(n);
+            assertEquals(expectedWays.size(), ways.size());
+            assertEquals(expectedWays, new HashSet<>(ways));
+            assertEquals(expectedEndNode, storage.isEndNode(n));
+        }
+    }
+
+    /**
+     * Run random queries and compare with the expected results
+     *
+     * @param random the random number generator
+     * @param storage the Storage to query
+     * @param allNodes all Nodes in storage
+     * @param allWays all Ways in storage
+     */
+    private void checkQueries(Random random, Storage storage, List<Node> allNodes, List<Way> allWays) {
+        for (int i = 0; i < 100; i++) {
+            int left = randomE7(random, 100000000);
+            int bottom = randomE7(random, 100000000);
+            int size = random.nextInt(20000000);
+            BoundingBox box = new BoundingBox(left, bottom, left + size, bottom + size);
+            Set<Node> expectedNodes = new HashSet<>();
+            for (Node n : allNodes) {
+                if (box.isIn(n.getLon(), n.getLat())) {
+                    expectedNodes.add(n);
+                }
+            }
+            List<Node> nodes = storage.getNodes(box);
+            assertEquals(expectedNodes.size(), nodes.size());
+            assertEquals(expectedNodes, new HashSet<>(nodes));
+
+            Set<Way> expectedWays = new HashSet<>();
+            for (Way w : allWays) {
+                if (w.getBounds().intersects(box)) {
+                    expectedWays.add(w);
+                }
+            }
+            List<Way> ways = storage.getWays(box);
+            assertEquals(expectedWays.size(), ways.size());
+            assertEquals(expectedWays, new HashSet<>(ways));
+        }
+    }
+
+    /**
+     * Get a random coordinate
+     *
+     * @param random the random number generator
+     * @param max maximum absolute value of the coordinate
+     * @return a coordinate between -max and max
+     */
+    private int randomE7(Random random, int max) {
+        return random.nextInt(2 * max) - max;
+    }
+}
@@ -0,0 +1,69 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class TagSetTest {
+
+    /**
+     * Check that a TagSet behaves like the TreeMap it was created from
+     */
+    @Test
+    public void sameAsTreeMap() {
+        Map<String, String> source = new HashMap<>();
+        source.put("highway", "residential");
+        source.put("name", "Main Street");
+        source.put("access", "no");
+        source.put("surface", "asphalt");
+        TreeMap<String, String> reference = new TreeMap<>(source);
+        TagSet tags = TagSet.of(source);
+        assertEquals(reference.size(), tags.size());
+        for (String key : reference.keySet()) {
+            assertTrue(tags.containsKey(key));
+            assertEquals(reference.get(key), tags.get(key));
+        }
+        assertFalse(tags.containsKey("aaa"));
+        assertFalse(tags.containsKey("zzz"));
+        assertFalse(tags.containsKey("maxspeed"));
+        assertNull(tags.get("maxspeed"));
+        assertEquals(new ArrayList<>(reference.keySet()), new ArrayList<>(tags.keySet()));
+        assertEquals("access", tags.firstKey());
+        assertEquals("surface", tags.lastKey());
+        assertEquals(reference, tags);
+        assertEquals(tags, reference);
+        assertEquals(reference.hashCode(), tags.hashCode());
+        assertEquals(reference.headMap("name"), tags.headMap("name"));
+        assertEquals(reference.tailMap("name"), tags.tailMap("name"));
+    }
+
+    /**
+     * Check that equal tag sets are shared and that empty input results in the empty TagSet
+     */
+    @Test
+    public void sharing() {
+        Map<String, String> first = new HashMap<>();
+        first.put("building", "yes");
+        first.put("addr:housenumber", "1");
+        TreeMap<String, String> second = new TreeMap<>(first);
+        TagSet tags = TagSet.of(first);
+        assertSame(tags, TagSet.of(second));
+        assertSame(tags, TagSet.of(tags));
+        second.put("addr:housenumber", "2");
+        assertFalse(tags.equals(TagSet.of(second)));
+        assertSame(TagSet.EMPTY, TagSet.of(null));
+        assertSame(TagSet.EMPTY, TagSet.of(new HashMap<String, String>()));
+        Map<String, String> nullValue = new HashMap<>();
+        nullValue.put("building", null);
+        assertSame(TagSet.EMPTY, TagSet.of(nullValue));
+    }
+}
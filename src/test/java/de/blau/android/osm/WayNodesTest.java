@@ -0,0 +1,74 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WayNodesTest {
+
+    /**
+     * Check that the membership index of a long way follows all modifications of the node list
+     */
+    @Test
+    public void membership() {
+        List<Node> allNodes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            allNodes.add(OsmElementFactory.createNode(i + 1L, 1L, 0, OsmElement.STATE_UNCHANGED, i, i));
+        }
+        Way w = OsmElementFactory.createWay(1L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        for (int i = 0; i < 100; i++) {
+            w.addNode(allNodes.get(i));
+            check(w, allNodes);
+        }
+        w.addNode(allNodes.get(0)); // closed
+        check(w, allNodes);
+        w.removeNode(allNodes.get(50));
+        check(w, allNodes);
+        w.replaceNode(allNodes.get(60), allNodes.get(150));
+        check(w, allNodes);
+        w.reverse();
+        check(w, allNodes);
+        w.getNodes().set(10, allNodes.get(160));
+        check(w, allNodes);
+        for (Iterator<Node> it = w.getRemovableNodes(); it.hasNext();) {
+            if (it.next().getOsmId() % 3 == 0) {
+                it.remove();
+            }
+        }
+        check(w, allNodes);
+        w.getNodes().clear();
+        check(w, allNodes);
+        w.getNodes().addAll(allNodes.subList(20, 80));
+        check(w, allNodes);
+
+        Way other = OsmElementFactory.createWay(2L, 1L, 0, OsmElement.STATE_UNCHANGED);
+        other.addNode(allNodes.get(190));
+        other.addNode(allNodes.get(191));
+        assertFalse(w.hasCommonNode(other));
+        assertFalse(other.hasCommonNode(w));
+        other.addNode(allNodes.get(79));
+        assertTrue(w.hasCommonNode(other));
+        assertTrue(other.hasCommonNode(w));
+    }
+
+    /**
+     * Compare hasNode, indexOf and lastIndexOf with a scan of a plain list
+     *
+     * @param w the Way
+     * @param allNodes all candidate Nodes
+     */
+    private void check(Way w, List<Node> allNodes) {
+        List<Node> reference = new ArrayList<>(w.getNodes());
+        for (Node n : allNodes) {
+            assertEquals(reference.contains(n), w.hasNode(n));
+            assertEquals(reference.indexOf(n), w.getNodes().indexOf(n));
+            assertEquals(reference.lastIndexOf(n), w.getNodes().lastIndexOf(n));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.blau.android.services.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MapAsyncTileProviderTest {
+
+    private static final String RENDERER = "test";
+
+    /**
+     * Check that tiles close to the viewport centre and at the viewport zoom are preferred
+     */
+    @Test
+    public void priority() {
+        int[] viewport = new int[] { 16, 100, 200, 103, 203 };
+        double centre = MapAsyncTileProvider.priority(viewport, new MapTile(RENDERER, 16, 101, 201));
+        double edge = MapAsyncTileProvider.priority(viewport, new MapTile(RENDERER, 16, 103, 203));
+        double outside = MapAsyncTileProvider.priority(viewport, new MapTile(RENDERER, 16, 110, 201));
+        double lowerZoom = MapAsyncTileProvider.priority(viewport, new MapTile(RENDERER, 15, 50, 100));
+        assertTrue(centre < edge);
+        assertTrue(edge < outside);
+        assertTrue(centre < lowerZoom);
+        // without a viewport requests are run in order
+        assertTrue(MapAsyncTileProvider.priority(null, new MapTile(RENDERER, 16, 110, 201)) == 0d);
+    }
+
+    /**
+     * Check visibility of tiles at the same and different zoom levels, including wrapping around the antimeridian
+     */
+    @Test
+    public void visibility() {
+        int[] viewport = new int[] { 16, 100, 200, 103, 203 };
+        assertTrue(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 16, 100, 200)));
+        assertTrue(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 16, 104, 204))); // margin
+        assertFalse(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 16, 106, 201)));
+        assertFalse(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 16, 101, 196)));
+        assertTrue(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 14, 25, 50))); // covers viewport
+        assertFalse(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 14, 27, 50)));
+        assertTrue(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 18, 403, 803))); // inside
+        assertFalse(MapAsyncTileProvider.isVisible(viewport, new MapTile(RENDERER, 18, 440, 803)));
+
+        int max = (1 << 4) - 1;
+        int[] wrapped = new int[] { 4, max - 1, 5, max + 1, 6 }; // crosses the antimeridian
+        assertTrue(MapAsyncTileProvider.isVisible(wrapped, new MapTile(RENDERER, 4, 0, 5)));
+        assertTrue(MapAsyncTileProvider.isVisible(wrapped, new MapTile(RENDERER, 4, max, 5)));
+        assertFalse(MapAsyncTileProvider.isVisible(wrapped, new MapTile(RENDERER, 4, 8, 5)));
+    }
+}
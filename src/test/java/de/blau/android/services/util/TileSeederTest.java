@@ -0,0 +1,175 @@
+package de.blau.android.services.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.blau.android.osm.BoundingBox;
+
+public class TileSeederTest {
+
+    /**
+     * Check the tile ranges for an area
+     */
+    @Test
+    public void tileRange() {
+        // Zurich main station at zoom 16
+        int[] range = TileSeeder.tileRange(85380000, 473770000, 85420000, 473790000, 16);
+        assertEquals(TileSeeder.lonToTileX(8.538, 16), range[0]);
+        assertEquals(TileSeeder.latToTileY(47.379, 16), range[1]);
+        assertEquals(TileSeeder.lonToTileX(8.542, 16), range[2]);
+        assertEquals(TileSeeder.latToTileY(47.377, 16), range[3]);
+        assertEquals(34322, range[0]);
+        assertEquals(22949, range[1]);
+        // clamped to the valid range
+        assertArrayEquals(new int[] { 0, 0, 1, 1 }, TileSeeder.tileRange(-1800000000, -900000000, 1800000000, 900000000, 1));
+    }
+
+    /**
+     * Check tile counts over multiple zoom levels
+     */
+    @Test
+    public void count() {
+        BoundingBox world = new BoundingBox(-180d, -85d, 180d, 85d);
+        assertEquals(1 + 4 + 16, TileSeeder.count(world, 0, 2));
+        assertEquals(0, TileSeeder.count(world, 3, 2));
+    }
+
+    /**
+     * Check that a tile that failed to download is retried and saved
+     * 
+     * @throws Exception if seeding fails
+     */
+    @Test
+    public void retryFailed() throws Exception {
+        TestTiles tiles = new TestTiles(1);
+        TestControl control = new TestControl(3);
+        TileSeeder.Job job = new TileSeeder.Job("test", new BoundingBox(-180d, -85d, 180d, 85d), 0, 1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            assertTrue(TileSeeder.seed(pool, tiles, control, job));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1 + 4, tiles.cache.size());
+        assertTrue(tiles.cache.containsKey("test/0/0/0"));
+        assertEquals(1 + 1 + 4, tiles.downloads.get()); // only the failed tile is downloaded again
+        assertEquals(1, control.retries);
+        assertEquals(5, job.done);
+    }
+
+    /**
+     * Check that a row that keeps failing is not marked as done
+     * 
+     * @throws Exception if seeding fails
+     */
+    @Test
+    public void stopAtFailedRow() throws Exception {
+        TestTiles tiles = new TestTiles(Integer.MAX_VALUE);
+        TestControl control = new TestControl(3);
+        TileSeeder.Job job = new TileSeeder.Job("test", new BoundingBox(-180d, -85d, 180d, 85d), 0, 1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            assertFalse(TileSeeder.seed(pool, tiles, control, job));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(tiles.cache.isEmpty());
+        assertEquals(4, control.retries);
+        assertEquals(0, job.zoom);
+        assertEquals(-1, job.row);
+        assertEquals(0, job.done);
+        assertEquals(0, control.rowsDone);
+    }
+
+    /**
+     * In memory tile cache with a tile source that fails a number of times
+     */
+    private static class TestTiles implements TileSeeder.Tiles {
+        final Map<String, byte[]> cache     = new HashMap<>();
+        final AtomicInteger       downloads = new AtomicInteger();
+        final int                 failures;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param failures the number of downloads that should fail
+         */
+        TestTiles(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public synchronized Set<Integer> getTileColumns(String rendererId, int zoom, int y, int left, int right) {
+            Set<Integer> result = new HashSet<>();
+            for (int x = left; x <= right; x++) {
+                if (cache.containsKey(rendererId + "/" + zoom + "/" + x + "/" + y)) {
+                    result.add(x);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] download(MapTile tile) throws IOException {
+            if (downloads.incrementAndGet() <= failures) {
+                throw new IOException("failed");
+            }
+            return new byte[] { 1 };
+        }
+
+        @Override
+        public synchronized void save(List<MapTile> batch, List<byte[]> data) {
+            for (int i = 0; i < batch.size(); i++) {
+                cache.put(batch.get(i).toString(), data.get(i));
+            }
+        }
+    }
+
+    /**
+     * Control that allows a number of retries without waiting
+     */
+    private static class TestControl implements TileSeeder.Control {
+        final int maxRetries;
+        int       retries  = 0;
+        int       rowsDone = 0;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param maxRetries the number of retries to allow for a row
+         */
+        TestControl(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        @Override
+        public boolean proceed() {
+            return true;
+        }
+
+        @Override
+        public boolean retry(int y, int failed, int attempt) {
+            retries++;
+            return attempt <= maxRetries;
+        }
+
+        @Override
+        public void rowDone(TileSeeder.Job job) {
+            rowsDone++;
+        }
+    }
+}
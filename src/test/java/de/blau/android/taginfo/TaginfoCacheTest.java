@@ -0,0 +1,115 @@
+package de.blau.android.taginfo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaginfoCacheTest {
+
+    private static final String URL1 = "https://taginfo.openstreetmap.org/api/4/key/values?key=amenity";
+    private static final String URL2 = "https://taginfo.openstreetmap.org/api/4/key/values?key=shop";
+    private static final String URL3 = "https://taginfo.openstreetmap.org/api/4/key/values?key=highway";
+
+    private File directory;
+
+    /**
+     * Create an empty cache directory
+     * 
+     * @throws IOException if the directory can't be created
+     */
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("taginfo", "");
+        directory.delete();
+    }
+
+    /**
+     * Remove the cache directory
+     */
+    @After
+    public void teardown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Store and retrieve responses, also after re-reading the directory
+     */
+    @Test
+    public void putGet() {
+        TaginfoCache cache = new TaginfoCache(directory, 60000, 1000);
+        assertNull(cache.get(URL1, true));
+        cache.put(URL1, new byte[] { 1, 2, 3 });
+        cache.put(URL2, new byte[0]);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get(URL1, false));
+        assertArrayEquals(new byte[0], cache.get(URL2, false));
+        assertEquals(3 + 2 * 8, cache.size());
+
+        cache.put(URL1, new byte[] { 4 });
+        assertArrayEquals(new byte[] { 4 }, cache.get(URL1, false));
+        assertEquals(1 + 2 * 8, cache.size());
+
+        cache = new TaginfoCache(directory, 60000, 1000);
+        assertEquals(1 + 2 * 8, cache.size());
+        assertArrayEquals(new byte[] { 4 }, cache.get(URL1, false));
+    }
+
+    /**
+     * Expired entries should only be returned if explicitly requested
+     */
+    @Test
+    public void expired() {
+        TaginfoCache cache = new TaginfoCache(directory, -1, 1000);
+        cache.put(URL1, new byte[] { 1, 2, 3 });
+        assertNull(cache.get(URL1, false));
+        assertNotNull(cache.get(URL1, true));
+    }
+
+    /**
+     * Check that the least recently used entries are removed first
+     */
+    @Test
+    public void evict() {
+        TaginfoCache cache = new TaginfoCache(directory, 60000, 3 * (10 + 8));
+        cache.put(URL1, new byte[10]);
+        cache.put(URL2, new byte[10]);
+        cache.put(URL3, new byte[10]);
+        assertNotNull(cache.get(URL1, false)); // URL2 is now the least recently used entry
+        cache.put(URL3, new byte[11]);
+        assertNotNull(cache.get(URL1, false));
+        assertNull(cache.get(URL2, true));
+        assertNotNull(cache.get(URL3, false));
+        assertEquals(2 * 8 + 10 + 11, cache.size());
+    }
+
+    /**
+     * Check that failing to get an expired entry doesn't count as a use
+     * 
+     * @throws InterruptedException if sleeping is interrupted
+     */
+    @Test
+    public void expiredNotUsed() throws InterruptedException {
+        TaginfoCache cache = new TaginfoCache(directory, 100, 3 * (10 + 8));
+        cache.put(URL1, new byte[10]);
+        Thread.sleep(200);
+        cache.put(URL2, new byte[10]);
+        assertNull(cache.get(URL1, false)); // expired, URL1 is still the least recently used entry
+        cache.put(URL3, new byte[11]);
+        assertNull(cache.get(URL1, true));
+        assertNotNull(cache.get(URL2, true));
+        assertNotNull(cache.get(URL3, true));
+    }
+}
@@ -0,0 +1,100 @@
+package de.blau.android.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.blau.android.util.NgramIndex.Hit;
+
+public class NgramIndexTest {
+
+    private static final List<String> TERMS = Arrays.asList("restaurant", "fast food", "cafe", "bar", "pub", "biergarten", "bus stop", "bus station",
+            "parking", "bicycle parking", "post box", "post office", "bank", "atm", "a", "", "supermarket", "convenience store", "bakery", "butcher");
+
+    /**
+     * Check substring and fuzzy matches
+     */
+    @Test
+    public void search() {
+        NgramIndex index = new NgramIndex(TERMS);
+        assertEquals(TERMS.size(), index.size());
+
+        List<Hit> hits = index.search("parking", 0, true);
+        assertEquals(2, hits.size());
+        assertEquals("parking", hits.get(0).term);
+        assertEquals("bicycle parking", hits.get(1).term);
+
+        hits = index.search("parking", 0, false);
+        assertEquals(1, hits.size());
+
+        hits = index.search("restuarant", 2, true); // transposition
+        assertEquals(1, hits.size());
+        assertEquals("restaurant", hits.get(0).term);
+        assertEquals(1, hits.get(0).distance);
+
+        hits = index.search("cfe", 1, true);
+        assertEquals(1, hits.size());
+        assertEquals("cafe", hits.get(0).term);
+    }
+
+    /**
+     * Check that the index returns the same as scanning all terms
+     */
+    @Test
+    public void sameAsScan() {
+        Random random = new Random(4711);
+        List<String> terms = new ArrayList<>(TERMS);
+        String alphabet = "abcde ";
+        for (int i = 0; i < 2000; i++) {
+            terms.add(randomString(random, alphabet, 1 + random.nextInt(12)));
+        }
+        NgramIndex index = new NgramIndex(terms);
+        for (int i = 0; i < 300; i++) {
+            String term = randomString(random, alphabet, random.nextInt(8));
+            for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+                for (boolean substring : new boolean[] { true, false }) {
+                    List<String> expected = new ArrayList<>();
+                    for (String t : terms) {
+                        int distance = substring ? t.indexOf(term) : -1;
+                        if (distance == -1) {
+                            distance = OptimalStringAlignment.editDistance(t, term, maxDistance);
+                        } else {
+                            distance = 0;
+                        }
+                        if (distance >= 0 && distance <= maxDistance) {
+                            expected.add(t + " " + distance);
+                        }
+                    }
+                    List<String> actual = new ArrayList<>();
+                    for (Hit hit : index.search(term, maxDistance, substring)) {
+                        actual.add(hit.term + " " + hit.distance);
+                    }
+                    assertEquals("term \"" + term + "\" " + maxDistance + " " + substring, expected, actual);
+                }
+            }
+        }
+        assertTrue(index.search("xyz", 0, true).isEmpty());
+    }
+
+    /**
+     * Create a random string
+     *
+     * @param random the source of randomness
+     * @param alphabet the characters to use
+     * @param length the length of the string
+     * @return a random string
+     */
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package de.blau.android.views.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.blau.android.services.util.MapTile;
+
+public class TilePrefetcherTest {
+
+    private static final String RENDERER = "test";
+
+    /**
+     * Check that movement is reduced to the expected directions
+     */
+    @Test
+    public void direction() {
+        assertNull(TilePrefetcher.direction(0.1, 0.1, TilePrefetcher.MIN_TILE_SPEED));
+        assertArrayEquals(new int[] { 1, 0 }, TilePrefetcher.direction(2, 0.1, TilePrefetcher.MIN_TILE_SPEED));
+        assertArrayEquals(new int[] { 0, -1 }, TilePrefetcher.direction(0.2, -3, TilePrefetcher.MIN_TILE_SPEED));
+        assertArrayEquals(new int[] { -1, 1 }, TilePrefetcher.direction(-1, 1, TilePrefetcher.MIN_TILE_SPEED));
+        // north east bearing, y grows southwards
+        double bearing = Math.toRadians(45);
+        assertArrayEquals(new int[] { 1, -1 }, TilePrefetcher.direction(Math.sin(bearing), -Math.cos(bearing), 0d));
+    }
+
+    /**
+     * Check the tiles planned for prefetching
+     */
+    @Test
+    public void plan() {
+        // moving east, the column to the right then the lower zoom
+        List<MapTile> tiles = TilePrefetcher.plan(RENDERER, 0, 16, 100, 200, 103, 202, 1, 0);
+        assertEquals(3 + 3 * 2, tiles.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(16, tiles.get(i).zoomLevel);
+            assertEquals(104, tiles.get(i).x);
+        }
+        assertEquals(201, tiles.get(0).y); // closest to the centre first
+        for (int i = 3; i < tiles.size(); i++) {
+            assertEquals(15, tiles.get(i).zoomLevel);
+        }
+
+        // moving north west, column, row and corner
+        tiles = TilePrefetcher.plan(RENDERER, 16, 16, 100, 200, 103, 202, -1, -1);
+        assertEquals(4 + 4, tiles.size());
+        for (MapTile t : tiles) {
+            assertEquals(16, t.zoomLevel);
+            assertTrue(t.x == 99 || t.y == 199);
+        }
+
+        // wrapping at the antimeridian and clamping at the pole
+        int max = (1 << 4) - 1;
+        tiles = TilePrefetcher.plan(RENDERER, 4, 4, max - 2, 0, max, 1, 1, -1);
+        assertEquals(2, tiles.size());
+        for (MapTile t : tiles) {
+            assertEquals(0, t.x);
+        }
+    }
+}
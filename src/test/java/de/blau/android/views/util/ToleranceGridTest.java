@@ -0,0 +1,92 @@
+package de.blau.android.views.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ToleranceGridTest {
+
+    private static final float RADIUS = 20f; // gives a cell size of just over 14 pixels
+
+    /**
+     * Check that halos closer than the radius to an existing one are suppressed
+     */
+    @Test
+    public void occupied() {
+        ToleranceGrid grid = new ToleranceGrid();
+        grid.reset(1000, 800, RADIUS);
+        assertTrue(grid.add(100f, 100f));
+        assertFalse(grid.add(100f, 100f));
+        assertFalse(grid.add(105f, 110f));
+        assertTrue(grid.add(120f, 100f)); // exactly the radius away
+        assertTrue(grid.add(100f, 130f));
+        assertEquals(2, grid.getSuppressed());
+        // suppressed halos are not recorded
+        assertTrue(grid.add(110f, 150f));
+    }
+
+    /**
+     * Check that halos in different cells are compared
+     */
+    @Test
+    public void cellBoundaries() {
+        ToleranceGrid grid = new ToleranceGrid();
+        grid.reset(1000, 800, RADIUS);
+        // neighbouring cells
+        assertTrue(grid.add(13.9f, 50f));
+        assertFalse(grid.add(14.1f, 50f));
+        // two cells apart, columns 21 and 23
+        assertTrue(grid.add(307.5f, 300f));
+        assertFalse(grid.add(307.5f + 19f, 300f));
+        assertFalse(grid.add(307.5f - 19f, 300f - 1f));
+        // at the edges of the screen
+        assertTrue(grid.add(999f, 799f));
+        assertFalse(grid.add(990f, 790f));
+        assertEquals(4, grid.getSuppressed());
+    }
+
+    /**
+     * Check that halos outside of the screen are always drawn and not recorded
+     */
+    @Test
+    public void offScreen() {
+        ToleranceGrid grid = new ToleranceGrid();
+        grid.reset(1000, 800, RADIUS);
+        assertTrue(grid.add(-5f, 10f));
+        assertTrue(grid.add(-5f, 10f));
+        assertTrue(grid.add(1010f, 10f));
+        assertTrue(grid.add(1010f, 10f));
+        assertTrue(grid.add(5f, 10f)); // -5 wasn't recorded
+        assertEquals(0, grid.getSuppressed());
+    }
+
+    /**
+     * Check that resetting clears the halos and the count of the previous frame
+     */
+    @Test
+    public void reset() {
+        ToleranceGrid grid = new ToleranceGrid();
+        grid.reset(1000, 800, RADIUS);
+        assertTrue(grid.add(100f, 100f));
+        assertFalse(grid.add(101f, 101f));
+        assertEquals(1, grid.getSuppressed());
+
+        grid.reset(1000, 800, RADIUS);
+        assertEquals(0, grid.getSuppressed());
+        assertTrue(grid.add(101f, 101f));
+        assertFalse(grid.add(100f, 100f));
+
+        // larger screen and radius, the arrays are reallocated
+        grid.reset(2000, 1600, 2 * RADIUS);
+        assertTrue(grid.add(1500f, 1500f));
+        assertFalse(grid.add(1530f, 1500f));
+        assertTrue(grid.add(101f, 101f));
+        // smaller screen, the arrays are reused
+        grid.reset(500, 400, RADIUS);
+        assertTrue(grid.add(101f, 101f));
+        assertTrue(grid.add(130f, 101f));
+        assertEquals(0, grid.getSuppressed());
+    }
+}